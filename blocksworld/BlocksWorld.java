@@ -2,9 +2,11 @@ package blocksworld;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -31,10 +33,31 @@ public class BlocksWorld
 	protected List<Stack>		stacks;
 	
 	/**
-	 * List of all blocks initially in this world.
+	 * List of all blocks initially in this world. Shared between forks (see {@link #fork()}) until a stack is added.
 	 */
 	Set<Block>					allBlocks	= new HashSet<>();
 	
+	/**
+	 * <code>true</code> if {@link #allBlocks} is shared with a fork.
+	 */
+	boolean						sharedBlocks	= false;
+	
+	/**
+	 * The indexed predicates of this world, kept up to date once created; <code>null</code> until first needed.
+	 */
+	protected PredicateStore	predicates	= null;
+	
+	/**
+	 * The index of the stacks of this world, kept up to date once created; <code>null</code> until first needed.
+	 */
+	protected StackIndex		stackIndex	= null;
+	
+	/**
+	 * The position of each stack in {@link #stacks}, kept up to date once created; <code>null</code> until first
+	 * needed (see {@link #getPosition(Stack)}).
+	 */
+	protected Map<Stack, Integer>	positions	= null;
+	
 	/**
 	 * Constructor used by {@link #clone()}, or when constructing an instance from scratch.
 	 */
@@ -50,8 +73,24 @@ public class BlocksWorld
 	 */
 	public void addStack(Stack stack)
 	{
+		if(sharedBlocks)
+		{
+			allBlocks = new HashSet<>(allBlocks);
+			sharedBlocks = false;
+		}
 		stacks.add(stack);
+		if(positions != null)
+			positions.put(stack, Integer.valueOf(stacks.size() - 1));
 		allBlocks.addAll(stack.getBlocks());
+		if(predicates != null)
+			for(Predicate p : stack.getPredicates())
+				predicates.add(p);
+		if(stackIndex != null)
+		{
+			stackIndex.add(stack);
+			for(Block b : stack.getBlocks())
+				stackIndex.placed(b, stack);
+		}
 	}
 	
 	/**
@@ -64,7 +103,7 @@ public class BlocksWorld
 	 */
 	public BlocksWorld(InputStream input) throws IOException
 	{
-		stacks = new LinkedList<>();
+		stacks = new ArrayList<>();
 		try (Scanner scan = new Scanner(input))
 		{
 			int iLevel = 0;
@@ -174,8 +213,10 @@ public class BlocksWorld
 	{
 		if(!allBlocks.contains(block))
 			throw new IllegalArgumentException("Block [" + block + "] has never existed in this world.");
+		if(stackIndex != null && stackIndex.getStack(block) != null)
+			return stackIndex.getStack(block);
 		for(Stack s : stacks)
-			if(s.getBlocks().contains(block))
+			if(s.contains(block))
 				return s;
 		throw new IllegalArgumentException("Block [" + block + "] is not currently in any stack");
 	}
@@ -192,14 +233,70 @@ public class BlocksWorld
 	 *             if the block does not exist in the world.
 	 */
 	public Block pickUp(Block block)
+	{
+		return pickUp(block, false);
+	}
+	
+	/**
+	 * Picks up a block from the table, as {@link #pickUp(Block)}, but the last stack takes the place of the stack
+	 * containing the block, so that, once the positions are indexed (see {@link #getPosition(Stack)}), no other stack
+	 * changes its position and the time does not depend on the number of stacks.
+	 * 
+	 * @param block
+	 *            - the block to pick up (or a {@link Block} instance with the same label).
+	 * @return the block that was just picked up (the actual instance in the world).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the block does not exist in the world.
+	 */
+	public Block pickUpReplacing(Block block)
+	{
+		return pickUp(block, true);
+	}
+	
+	/**
+	 * @param block
+	 *            - the block to pick up.
+	 * @param replace
+	 *            - <code>true</code> to move the last stack in the place of the removed stack; <code>false</code> to
+	 *            move all the following stacks.
+	 * @return the block that was just picked up.
+	 */
+	protected Block pickUp(Block block, boolean replace)
 	{
 		Stack s = getStack(block);
 		if(!s.isSingleBlock())
 			throw new IllegalArgumentException("Block [" + block + "] is not in a single-block stack.");
 		if(s.blocks.isEmpty())
 			throw new IllegalArgumentException("Block [" + block + "] is locked.");
-		stacks.remove(s);
-		return s.getTopBlock();
+		int position = getPosition(s);
+		positions.remove(s);
+		if(replace)
+		{
+			Stack last = stacks.remove(stacks.size() - 1);
+			if(position < stacks.size())
+			{
+				stacks.set(position, last);
+				positions.put(last, Integer.valueOf(position));
+			}
+		}
+		else
+		{
+			stacks.remove(position);
+			renumber(position);
+		}
+		Block ret = s.getTopBlock();
+		if(predicates != null)
+		{
+			predicates.remove(Predicate.of(Predicate.Type.CLEAR, ret));
+			predicates.remove(Predicate.of(Predicate.Type.ONTABLE, ret));
+		}
+		if(stackIndex != null)
+		{
+			stackIndex.remove(s);
+			stackIndex.taken(ret);
+		}
+		return ret;
 	}
 	
 	/**
@@ -212,11 +309,47 @@ public class BlocksWorld
 	 * @return the newly created stack.
 	 */
 	public Stack putDown(Block block, Stack currentStack)
+	{
+		return putDown(block, getPosition(currentStack));
+	}
+	
+	/**
+	 * Creates a new {@link Stack}, based on the given {@link Block}, and adds it to this world, after all the other
+	 * stacks, so that no other stack changes its position.
+	 * 
+	 * @param block
+	 *            - the block to put down.
+	 * @return the newly created stack.
+	 */
+	public Stack putDown(Block block)
+	{
+		return putDown(block, stacks.size());
+	}
+	
+	/**
+	 * @param block
+	 *            - the block to put down.
+	 * @param position
+	 *            - the position of the new stack.
+	 * @return the newly created stack.
+	 */
+	protected Stack putDown(Block block, int position)
 	{
 		if(!allBlocks.contains(block))
 			throw new IllegalArgumentException("Block [" + block + "] has never existed in this world.");
 		Stack s = new Stack(block);
-		stacks.add(stacks.indexOf(currentStack), s);
+		stacks.add(position, s);
+		renumber(position);
+		if(predicates != null)
+		{
+			predicates.add(Predicate.of(Predicate.Type.CLEAR, block));
+			predicates.add(Predicate.of(Predicate.Type.ONTABLE, block));
+		}
+		if(stackIndex != null)
+		{
+			stackIndex.add(s);
+			stackIndex.placed(block, s);
+		}
 		return s;
 	}
 	
@@ -234,7 +367,20 @@ public class BlocksWorld
 	 */
 	public Block unstack(Block toUnstack, Block unstackFrom)
 	{
-		return getStack(toUnstack).unstack(toUnstack, unstackFrom);
+		Stack s = getStack(toUnstack);
+		Block ret = s.unstack(toUnstack, unstackFrom);
+		if(predicates != null)
+		{
+			predicates.remove(Predicate.of(Predicate.Type.CLEAR, ret));
+			predicates.remove(Predicate.of(Predicate.Type.ON, ret, unstackFrom));
+			predicates.add(Predicate.of(Predicate.Type.CLEAR, unstackFrom));
+		}
+		if(stackIndex != null)
+		{
+			stackIndex.taken(ret);
+			stackIndex.update(s);
+		}
+		return ret;
 	}
 	
 	/**
@@ -250,7 +396,19 @@ public class BlocksWorld
 	 */
 	public void stack(Block toStack, Block stackOver)
 	{
-		getStack(stackOver).stack(toStack, stackOver);
+		Stack s = getStack(stackOver);
+		s.stack(toStack, stackOver);
+		if(predicates != null)
+		{
+			predicates.remove(Predicate.of(Predicate.Type.CLEAR, stackOver));
+			predicates.add(Predicate.of(Predicate.Type.ON, toStack, stackOver));
+			predicates.add(Predicate.of(Predicate.Type.CLEAR, toStack));
+		}
+		if(stackIndex != null)
+		{
+			stackIndex.placed(toStack, s);
+			stackIndex.update(s);
+		}
 	}
 	
 	/**
@@ -265,7 +423,10 @@ public class BlocksWorld
 	 */
 	public void lock(Block block)
 	{
-		getStack(block).lock(block);
+		Stack s = getStack(block);
+		s.lock(block);
+		if(stackIndex != null)
+			stackIndex.update(s);
 	}
 	
 	/**
@@ -291,12 +452,39 @@ public class BlocksWorld
 	{
 		BlocksWorld ret = new BlocksWorld();
 		ret.allBlocks = new HashSet<>(allBlocks);
-		ret.stacks = new LinkedList<>();
+		ret.stacks = new ArrayList<>(stacks.size());
 		for(Stack s : stacks)
 			ret.stacks.add(new Stack(new LinkedList<>(s.blocks), s.lockedBlocks));
 		return ret;
 	}
 	
+	/**
+	 * Creates an independent copy of the current state, using the same block instances, in time proportional to the
+	 * number of stacks: the stacks of the copy share their blocks with the stacks of this world, and each stack is
+	 * only copied when it changes (in either world). The copy can be used by another thread than this world.
+	 * <p>
+	 * The predicate store is not copied; the copy builds its own, if needed. The stack index is copied, if it exists.
+	 * 
+	 * @return the copy.
+	 */
+	public BlocksWorld fork()
+	{
+		BlocksWorld ret = new BlocksWorld();
+		ret.allBlocks = allBlocks;
+		ret.sharedBlocks = sharedBlocks = true;
+		ret.stacks = new ArrayList<>(stacks.size());
+		for(Stack s : stacks)
+			ret.stacks.add(s.fork());
+		if(stackIndex != null)
+		{
+			Map<Stack, Stack> copies = new IdentityHashMap<>();
+			for(int i = 0; i < stacks.size(); i++)
+				copies.put(stacks.get(i), ret.stacks.get(i));
+			ret.stackIndex = new StackIndex(stackIndex, copies);
+		}
+		return ret;
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -403,6 +591,66 @@ public class BlocksWorld
 		return ret;
 	}
 	
+	/**
+	 * Returns the indexed predicates of this world. The store is built the first time, and then it is updated at each
+	 * change of the world, with only the predicates which change.
+	 * 
+	 * @return the predicate store.
+	 */
+	public PredicateStore getPredicateStore()
+	{
+		if(predicates == null)
+			predicates = new PredicateStore(stacks);
+		return predicates;
+	}
+	
+	/**
+	 * Returns the position of a stack in the list of stacks (see {@link #getTowers()}). The positions are indexed the
+	 * first time, and then they are updated at each change of the world, so that afterwards the position is found in
+	 * constant time. Changes in the middle of the list still take time proportional to the number of stacks after the
+	 * change, as moving them in the list does.
+	 * 
+	 * @param stack
+	 *            - the stack.
+	 * @return the position, or -1 if the stack is not in this world.
+	 */
+	public int getPosition(Stack stack)
+	{
+		if(positions == null)
+		{
+			positions = new IdentityHashMap<>();
+			renumber(0);
+		}
+		Integer position = positions.get(stack);
+		return position == null ? -1 : position.intValue();
+	}
+	
+	/**
+	 * Updates the indexed positions of the stacks, from a position to the end of the list.
+	 * 
+	 * @param from
+	 *            - the first position to update.
+	 */
+	protected void renumber(int from)
+	{
+		if(positions != null)
+			for(int i = from; i < stacks.size(); i++)
+				positions.put(stacks.get(i), Integer.valueOf(i));
+	}
+	
+	/**
+	 * Returns the index of the stacks of this world. The index is built the first time, and then it is updated at each
+	 * change of the world; afterwards, {@link #getStack(Block)} takes constant time.
+	 * 
+	 * @return the stack index.
+	 */
+	public StackIndex getStackIndex()
+	{
+		if(stackIndex == null)
+			stackIndex = new StackIndex(stacks);
+		return stackIndex;
+	}
+	
 	/**
 	 * @return the stacks in this world.
 	 */
@@ -1,12 +1,11 @@
 package blocksworld;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import base.Action;
 
 /**
  * The class represents one action that can be performed on the world.
+ * <p>
+ * Use the <code>of</code> methods to obtain canonical (interned) instances, which can be compared by reference.
  * 
  * @author Andrei Olaru
  */
@@ -69,6 +68,121 @@ public class BlocksWorldAction extends Element<Block> implements Action
 		}
 	}
 	
+	/**
+	 * The canonical instances.
+	 */
+	protected static final Interner<BlocksWorldAction>	INTERNED	= new Interner<>();
+	
+	/**
+	 * Returns the canonical action with no arguments.
+	 * 
+	 * @param type
+	 *            - the type of the action.
+	 * @return the action.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static BlocksWorldAction of(Type type)
+	{
+		return intern(type, null, null);
+	}
+	
+	/**
+	 * Returns the canonical action with one argument.
+	 * 
+	 * @param type
+	 *            - the type of the action.
+	 * @param argument
+	 *            - the argument of the action.
+	 * @return the action.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static BlocksWorldAction of(Type type, Block argument)
+	{
+		return intern(type, argument, null);
+	}
+	
+	/**
+	 * Returns the canonical action with two arguments.
+	 * 
+	 * @param type
+	 *            - the type of the action.
+	 * @param firstArgument
+	 *            - first argument of the action.
+	 * @param secondArgument
+	 *            - second argument of the action.
+	 * @return the action.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static BlocksWorldAction of(Type type, Block firstArgument, Block secondArgument)
+	{
+		return intern(type, firstArgument, secondArgument);
+	}
+	
+	/**
+	 * @return the number of canonical instances created so far (all ordinals are lower).
+	 */
+	public static int getInternedCount()
+	{
+		return INTERNED.size();
+	}
+	
+	/**
+	 * Finds or creates the canonical instance. Blocks and stations with the same label are equal, so if the canonical
+	 * instance has an argument of a different class than the one given, a new instance is returned (equal to the
+	 * canonical one, but not interned).
+	 * 
+	 * @param type
+	 *            - the type.
+	 * @param firstArgument
+	 *            - the first argument, or <code>null</code>.
+	 * @param secondArgument
+	 *            - the second argument, or <code>null</code>.
+	 * @return the instance.
+	 */
+	protected static BlocksWorldAction intern(Type type, Block firstArgument, Block secondArgument)
+	{
+		long key = Interner.key(type, firstArgument, secondArgument);
+		BlocksWorldAction ret = INTERNED.get(key);
+		if(ret == null)
+			ret = INTERNED.add(key, create(type, firstArgument, secondArgument));
+		if(!sameClass(ret.first, firstArgument) || !sameClass(ret.second, secondArgument))
+			return create(type, firstArgument, secondArgument);
+		return ret;
+	}
+	
+	/**
+	 * @param type
+	 *            - the type.
+	 * @param firstArgument
+	 *            - the first argument, or <code>null</code>.
+	 * @param secondArgument
+	 *            - the second argument, or <code>null</code>.
+	 * @return a new instance.
+	 */
+	protected static BlocksWorldAction create(Type type, Block firstArgument, Block secondArgument)
+	{
+		if(firstArgument == null)
+			return new BlocksWorldAction(type);
+		if(secondArgument == null)
+			return new BlocksWorldAction(type, firstArgument);
+		return new BlocksWorldAction(type, firstArgument, secondArgument);
+	}
+	
+	/**
+	 * @param a
+	 *            - a block, or <code>null</code>.
+	 * @param b
+	 *            - a block, or <code>null</code>.
+	 * @return <code>true</code> if both are <code>null</code> or are of the same class.
+	 */
+	protected static boolean sameClass(Block a, Block b)
+	{
+		return a == null ? b == null : b != null && a.getClass() == b.getClass();
+	}
+
 	/**
 	 * Constructor for actions with no arguments.
 	 * 
@@ -131,8 +245,7 @@ public class BlocksWorldAction extends Element<Block> implements Action
 	{
 		if(elementType == Type.NEXT_STATION || elementType == Type.GO_TO_STATION)
 			return false;
-		Set<Block> intersection = new HashSet<>(arguments);
-		intersection.retainAll(otherAction.arguments);
-		return !intersection.isEmpty();
+		return first != null && (first.equals(otherAction.first) || first.equals(otherAction.second))
+				|| second != null && (second.equals(otherAction.first) || second.equals(otherAction.second));
 	}
 }
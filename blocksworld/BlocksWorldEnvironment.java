@@ -1,6 +1,7 @@
 package blocksworld;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,10 +14,12 @@ import blocksworld.BlocksWorldAction.Type;
 
 /**
  * Blocks world environment.
+ * <p>
+ * An environment can be forked (see {@link #fork()}), to simulate its future without changing it.
  * 
  * @author Andrei Olaru
  */
-public abstract class BlocksWorldEnvironment implements Environment {
+public abstract class BlocksWorldEnvironment implements Environment, Cloneable {
 	/**
 	 * A station.
 	 * 
@@ -60,9 +63,9 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		private Station station = null;
 		
 		/**
-		 * The agent's current plan.
+		 * The agent's current plan; <code>null</code> until the agent creates its first plan.
 		 */
-		protected List<BlocksWorldAction> plan = null;
+		protected PlanBuffer plan = null;
 		
 		/**
 		 * The agent's desire state.
@@ -74,6 +77,11 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		 */
 		protected boolean previousActionSucceeded = true;
 		
+		/**
+		 * The perceptions given to the agent at the last step, given again while nothing in them changes.
+		 */
+		protected BlocksWorldPerceptions perceptions = null;
+		
 		/**
 		 * Default constructor.
 		 * 
@@ -90,6 +98,17 @@ public abstract class BlocksWorldEnvironment implements Environment {
 			station = initialStation;
 		}
 		
+		/**
+		 * @return a copy of the data, for a fork of the environment, with the same agent and a copy of the plan.
+		 */
+		protected AgentData fork() {
+			AgentData copy = new AgentData(agent, targetState, station);
+			copy.holding = holding;
+			copy.plan = plan == null ? null : plan.fork();
+			copy.previousActionSucceeded = previousActionSucceeded;
+			return copy;
+		}
+		
 		/**
 		 * @return the managed agent.
 		 */
@@ -172,18 +191,45 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		}
 	}
 	
+	/**
+	 * The action performed by agents with no plan.
+	 */
+	protected static final BlocksWorldAction	NO_ACTION		= BlocksWorldAction.of(Type.NONE);
+	/**
+	 * The action added at the beginning of each new plan.
+	 */
+	protected static final BlocksWorldAction	PLANNED_ACTION	= BlocksWorldAction.of(Type.PLANNED);
+	
 	/**
 	 * Current state of the world.
 	 */
-	protected BlocksWorld		worldstate	= null;
+	protected BlocksWorld						worldstate		= null;
 	/**
 	 * The list of stations. The indexes correspond exactly to indexes of stacks in the {@link #worldstate}.
 	 */
-	protected List<Station>		stations	= null;
+	protected List<Station>						stations		= null;
+	/**
+	 * The position of each station in {@link #stations}, updated whenever the list changes (see
+	 * {@link #addStation(int, Station)} and {@link #removeStation(int, boolean)}).
+	 */
+	protected Map<Station, Integer>				stationPositions	= new HashMap<>();
 	/**
 	 * List of agents in the system.
 	 */
-	protected List<AgentData>	agents		= new ArrayList<>();
+	protected List<AgentData>					agents			= new ArrayList<>();
+	/**
+	 * The action chosen by each agent in the current step, in the order of {@link #agents}. Reused between steps.
+	 */
+	protected BlocksWorldAction[]				actions			= new BlocksWorldAction[0];
+	/**
+	 * The labels of the stations, used when choosing the label of a new station. Updated whenever the list of stations
+	 * changes.
+	 */
+	protected BitSet							usedLabels		= new BitSet();
+	/**
+	 * <code>true</code> if the responses and the actions of the agents, and their failures, are printed at each step.
+	 */
+	protected boolean							logging			= true;
 	
 	/**
 	 * Constructor of the environment.
@@ -193,11 +239,11 @@ public abstract class BlocksWorldEnvironment implements Environment {
 	 */
 	public BlocksWorldEnvironment(BlocksWorld world) {
 		worldstate = world.clone();
-		stations = new LinkedList<>();
+		stations = new ArrayList<>();
 		char idx = '0';
 		for(@SuppressWarnings("unused")
 		Stack s : worldstate.stacks)
-			stations.add(new Station(idx++));
+			addStation(stations.size(), new Station(idx++));
 	}
 	
 	@Override
@@ -205,6 +251,14 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		agents.add(new AgentData(agent, (BlocksWorld) targetState, stations.get(0)));
 	}
 	
+	/**
+	 * @param log
+	 *            - <code>true</code> to print the responses and the actions of the agents at each step (the default).
+	 */
+	public void setLogging(boolean log) {
+		logging = log;
+	}
+	
 	/**
 	 * Method to retrieve the agent data structure for a particular {@link Agent} instance.
 	 * 
@@ -221,6 +275,57 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		throw new IllegalArgumentException("Agent [" + agent + "] has not been added to the environment");
 	}
 	
+	/**
+	 * Creates an independent copy of the environment (of the same class), for simulating its future without changing
+	 * it: the copy has its own world (see {@link BlocksWorld#fork()}), stations and {@link AgentData} (with copies of
+	 * the plans, see {@link PlanBuffer#fork()}). Nothing which changes is shared, so the copy can be stepped by
+	 * another thread than this environment; the time taken is proportional to the number of stacks and agents.
+	 * <p>
+	 * The agents themselves are shared, as they cannot be copied; the copy should normally use other agents (see
+	 * {@link #replaceAgent(Agent, Agent)}), since stepping it asks the agents for responses.
+	 * 
+	 * @return the copy.
+	 */
+	public BlocksWorldEnvironment fork() {
+		BlocksWorldEnvironment copy;
+		try {
+			copy = (BlocksWorldEnvironment) super.clone();
+		} catch(CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.worldstate = worldstate.fork();
+		copy.stations = new ArrayList<>(stations);
+		copy.stationPositions = new HashMap<>(stationPositions);
+		copy.agents = new ArrayList<>(agents.size());
+		for(AgentData ag : agents)
+			copy.agents.add(ag.fork());
+		copy.actions = new BlocksWorldAction[actions.length];
+		copy.usedLabels = (BitSet) usedLabels.clone();
+		return copy;
+	}
+	
+	/**
+	 * Replaces an agent, keeping its data (station, held block, plan, desired state). Used in forks of the
+	 * environment.
+	 * 
+	 * @param agent
+	 *            - the agent to replace.
+	 * @param replacement
+	 *            - the new agent.
+	 * @throws IllegalArgumentException
+	 *             if the agent has not been added to the environment.
+	 */
+	public void replaceAgent(Agent agent, Agent replacement) {
+		getAgentData(agent).agent = replacement;
+	}
+	
+	/**
+	 * @return the state of the world (which must not be changed).
+	 */
+	public BlocksWorld getWorld() {
+		return worldstate;
+	}
+	
 	/**
 	 * @return the list of {@link AgentData} instances for all agents.
 	 */
@@ -240,6 +345,78 @@ public abstract class BlocksWorldEnvironment implements Environment {
 		return false;
 	}
 	
+	/**
+	 * Creates a new station, with the first label (starting from '0') which is not used by any existing station. The
+	 * station is not added to the list of stations.
+	 * 
+	 * @return the new station.
+	 */
+	protected Station newStation() {
+		return new Station((char) usedLabels.nextClearBit('0'));
+	}
+	
+	/**
+	 * @param station
+	 *            - a station (or a station with the same label).
+	 * @return the position of the station in {@link #stations}, or -1 if the station does not exist.
+	 */
+	protected int getPosition(Station station) {
+		Integer position = stationPositions.get(station);
+		return position == null ? -1 : position.intValue();
+	}
+	
+	/**
+	 * Inserts a station in the list of stations. The stations after it move one position further.
+	 * 
+	 * @param position
+	 *            - the position of the new station.
+	 * @param station
+	 *            - the station.
+	 */
+	protected void addStation(int position, Station station) {
+		stations.add(position, station);
+		usedLabels.set(station.getLabel());
+		renumberStations(position);
+	}
+	
+	/**
+	 * Removes a station from the list of stations.
+	 * 
+	 * @param position
+	 *            - the position of the station.
+	 * @param replace
+	 *            - <code>true</code> to move the last station in the place of the removed one, in constant time (as
+	 *            {@link BlocksWorld#pickUpReplacing(Block)} does with the stacks); <code>false</code> to move all the
+	 *            following stations one position back, keeping their order.
+	 */
+	protected void removeStation(int position, boolean replace) {
+		Station station = stations.get(position);
+		stationPositions.remove(station);
+		usedLabels.clear(station.getLabel());
+		if(replace) {
+			Station last = stations.remove(stations.size() - 1);
+			if(position < stations.size()) {
+				stations.set(position, last);
+				stationPositions.put(last, Integer.valueOf(position));
+			}
+		}
+		else {
+			stations.remove(position);
+			renumberStations(position);
+		}
+	}
+	
+	/**
+	 * Updates the positions of the stations, from a position to the end of the list.
+	 * 
+	 * @param from
+	 *            - the first position to update.
+	 */
+	protected void renumberStations(int from) {
+		for(int i = from; i < stations.size(); i++)
+			stationPositions.put(stations.get(i), Integer.valueOf(i));
+	}
+	
 	@Override
 	public String toString() {
 		Map<Stack, List<String>> prefix = new HashMap<>();
@@ -248,68 +425,85 @@ public abstract class BlocksWorldEnvironment implements Environment {
 			data.add(" " + a.getAgent().toString() + (hasToken(a) ? "$" : " "));
 			data.add(" <" + (a.getHolding() != null ? a.getHolding() : "") + ">");
 			// data.add("\n");
-			if(prefix.containsKey(worldstate.getTowers().get(stations.indexOf(a.getStation()))))
-				prefix.get(worldstate.getTowers().get(stations.indexOf(a.getStation()))).addAll(data);
+			if(prefix.containsKey(worldstate.getTowers().get(getPosition(a.getStation()))))
+				prefix.get(worldstate.getTowers().get(getPosition(a.getStation()))).addAll(data);
 			else
-				prefix.put(worldstate.getTowers().get(stations.indexOf(a.getStation())), data);
+				prefix.put(worldstate.getTowers().get(getPosition(a.getStation())), data);
 		}
 		Map<Stack, List<String>> suffix = new HashMap<>();
 		for(Station station : stations) {
 			List<String> data = new LinkedList<>();
 			data.add("=====");
 			data.add(" " + station.toString());
-			suffix.put(worldstate.getTowers().get(stations.indexOf(station)), data);
+			suffix.put(worldstate.getTowers().get(getPosition(station)), data);
 		}
 		return worldstate.toString(6, prefix, suffix, false) + getAgents().toString();
 	}
 	
 	@Override
 	public boolean step() {
-		Map<AgentData, BlocksWorldAction> actionMap = new HashMap<>();
-		for(AgentData ag : agents) {
+		if(stations.size() != worldstate.stacks.size())
+			throw new RuntimeException("stations and worldstate disaligned.");
+		if(actions.length < agents.size())
+			actions = new BlocksWorldAction[agents.size()];
+		for(int i = 0; i < agents.size(); i++) {
+			AgentData ag = agents.get(i);
 			Station agentStation = ag.getStation();
-			Stack currentStack = worldstate.getTowers().get(stations.indexOf(agentStation));
-			int position = stations.indexOf(agentStation);
-			if(position != worldstate.getTowers().indexOf(currentStack))
+			int position = getPosition(agentStation);
+			Stack currentStack = worldstate.stacks.get(position);
+			if(position != worldstate.getPosition(currentStack))
 				throw new RuntimeException("stations and worldstate disaligned.");
-			Action result = ag.getAgent().response(new BlocksWorldPerceptions(currentStack, agentStation,
-					ag.getHolding(), ag.hasPreviousActionSucceeded(), ag.plan));
+			// snapshots are only taken again after changes, so unchanged perceptions are given again
+			Stack visibleStack = currentStack.snapshot();
+			List<BlocksWorldAction> planLeft = ag.plan == null ? null : ag.plan.snapshot();
+			if(ag.perceptions == null || !ag.perceptions.isSame(visibleStack, agentStation, ag.getHolding(),
+					ag.hasPreviousActionSucceeded(), planLeft))
+				ag.perceptions = new BlocksWorldPerceptions(visibleStack, agentStation, ag.getHolding(),
+						ag.hasPreviousActionSucceeded(), planLeft);
+			Action result = ag.getAgent().response(ag.perceptions);
 			if(!(result instanceof PlanningAction))
 				throw new IllegalStateException("Returned action is not a planning action: " + result);
 			PlanningAction planningAction = (PlanningAction) result;
-			System.out.println("Agent " + ag.agent.toString() + " responded: " + planningAction);
+			if(logging)
+				System.out.println("Agent " + ag.agent.toString() + " responded: " + planningAction);
 			switch(planningAction.actionType) {
 			case CONTINUE_PLAN:
 				break;
 			case CANCEL_PLAN:
-				ag.plan.clear();
+				if(ag.plan != null)
+					ag.plan.clear();
 				break;
 			case NEW_PLAN:
-				ag.plan = new LinkedList<>(planningAction);
-				if(!ag.plan.isEmpty() && !ag.plan.get(0).getType().equals(BlocksWorldAction.Type.AGENT_COMPLETED))
-					ag.plan.add(0, new BlocksWorldAction(Type.PLANNED)); // penalize the creation of a new plan.
+				if(ag.plan == null)
+					ag.plan = new PlanBuffer();
+				// penalize the creation of a new plan.
+				ag.plan.set(!planningAction.isEmpty()
+						&& !planningAction.getFirst().getType().equals(BlocksWorldAction.Type.AGENT_COMPLETED)
+								? PLANNED_ACTION
+								: null,
+						planningAction);
 				break;
 			case MODIFY_PLAN:
+				if(ag.plan == null)
+					throw new IllegalStateException("Agent " + ag.agent + " cannot modify a plan before creating one.");
 				if(planningAction.getNumberOfActionsToRemove() > 0) {
 					int n = planningAction.getNumberOfActionsToRemove();
-					if(n >= ag.plan.size())
+					if(n >= ag.plan.size() && logging)
 						System.out.println("Cannot remove all actions in the existing plan.");
-					int rem = Math.min(ag.plan.size() - 1, n);
-					for(int i = 0; i < rem; i++)
-						ag.plan.remove(0);
-				}
-				if(!planningAction.isEmpty()) {
-					ag.plan.add(0, new BlocksWorldAction(Type.MARKER));
-					ag.plan.addAll(0, planningAction);
+					ag.plan.removeFirst(Math.min(ag.plan.size() - 1, n));
 				}
+				if(!planningAction.isEmpty())
+					ag.plan.insertFirst(planningAction);
 				break;
 			default:
 				break;
 			}
 			
-			while(!ag.plan.isEmpty() && ag.plan.get(0).getType().equals(BlocksWorldAction.Type.MARKER))
-				ag.plan.remove(0); // remove any markers
-			BlocksWorldAction act = ag.plan.isEmpty() ? new BlocksWorldAction(Type.NONE) : ag.plan.get(0);
+			// the agent may have continued (e.g. after missing its deadline) before having a plan
+			while(ag.plan != null && !ag.plan.isEmpty()
+					&& ag.plan.peek().getType().equals(BlocksWorldAction.Type.MARKER))
+				ag.plan.removeFirst(); // remove any markers
+			BlocksWorldAction act = ag.plan == null || ag.plan.isEmpty() ? NO_ACTION : ag.plan.peek();
 			// check if action is legal with respect to the state of the agent.
 			if((act.getType() == Type.PUTDOWN || act.getType() == Type.STACK) && (ag.getHolding() == null
 					|| !ag.getHolding().equals(act.hasOneArg() ? act.getArgument() : act.getFirstArgument())))
@@ -320,14 +514,16 @@ public abstract class BlocksWorldEnvironment implements Environment {
 			if((act.getType() == Type.PICKUP || act.getType() == Type.UNSTACK) && ag.getHolding() != null)
 				throw new IllegalStateException("Agent already busy with block: " + ag.getHolding());
 			
-			actionMap.put(ag, act);
+			actions[i] = act;
 			ag.setPreviousActionSuccessful();
 		}
 		
-		int nCompleted = performActions(actionMap);
-		for(AgentData ag : agents)
-			if(ag.hasPreviousActionSucceeded() && !ag.plan.isEmpty())
-				ag.plan.remove(0);
+		int nCompleted = performActions(actions);
+		for(int i = 0; i < agents.size(); i++) {
+			AgentData ag = agents.get(i);
+			if(ag.hasPreviousActionSucceeded() && ag.plan != null)
+				ag.plan.removeFirst();
+		}
 			
 		if(nCompleted == agents.size())
 			return true;
@@ -337,18 +533,20 @@ public abstract class BlocksWorldEnvironment implements Environment {
 	/**
 	 * Perform the actions on the environment.
 	 * 
-	 * @param actionMap
-	 *            the action opted for by each agent.
+	 * @param agentActions
+	 *            the action opted for by each agent, in the order of {@link #agents} (the array may be longer).
 	 * @return the number of agents who have complete their goals.
 	 */
-	protected int performActions(Map<AgentData, BlocksWorldAction> actionMap) {
+	protected int performActions(BlocksWorldAction[] agentActions) {
 		int nCompleted = 0;
-		for(AgentData ag : actionMap.keySet()) {
-			BlocksWorldAction act = actionMap.get(ag);
+		for(int i = 0; i < agents.size(); i++) {
+			AgentData ag = agents.get(i);
+			BlocksWorldAction act = agentActions[i];
 			Station agentStation = ag.getStation();
-			Stack currentStack = worldstate.getTowers().get(stations.indexOf(agentStation));
-			int position = stations.indexOf(agentStation);
-			System.out.println("Agent " + ag.agent.toString() + " does: " + act + " at " + agentStation);
+			int position = getPosition(agentStation);
+			Stack currentStack = worldstate.stacks.get(position);
+			if(logging)
+				System.out.println("Agent " + ag.agent.toString() + " does: " + act + " at " + agentStation);
 			switch(act.getType()) {
 			case PICKUP:
 				// modify world; remove station; switch agent to other station.
@@ -356,8 +554,16 @@ public abstract class BlocksWorldEnvironment implements Environment {
 						|| currentStack.isLocked(act.getArgument()) || !currentStack.isOnTable(act.getArgument())) {
 					// throw new IllegalArgumentException(
 					// "The block [" + act.getArgument() + "] is not in the current stack " + currentStack);
-					System.out.println("The block [" + act.getArgument()
-							+ "] is not in the current stack or is not clear and on table: " + currentStack);
+					if(logging)
+						System.out.println("The block [" + act.getArgument()
+								+ "] is not in the current stack or is not clear and on table: " + currentStack);
+					ag.setPreviousActionFailed();
+					continue;
+				}
+				if(stations.size() == 1) {
+					// the agent would be left without a station
+					if(logging)
+						System.out.println("The block [" + act.getArgument() + "] is the last one on the table.");
 					ag.setPreviousActionFailed();
 					continue;
 				}
@@ -365,26 +571,24 @@ public abstract class BlocksWorldEnvironment implements Environment {
 				for(AgentData anyAg : getAgents())
 					if(anyAg.getStation().equals(agentStation))
 						anyAg.setStation(stations.get((position + 1) % stations.size()));
-				stations.remove(agentStation);
+				removeStation(position, false);
 				break;
 			case PUTDOWN: {
 				// modify world; add station; change agent station.
 				worldstate.putDown(act.getArgument(), currentStack);
-				char stationName = '0';
-				while(stations.contains(new Station(stationName)))
-					stationName++;
-				ag.setStation(new Station(stationName));
-				stations.add(position, ag.getStation());
+				ag.setStation(newStation());
+				addStation(position, ag.getStation());
 				ag.setHolding(null);
 				break;
 			}
 			case UNSTACK:
 				if(!currentStack.contains(act.getFirstArgument()) || !currentStack.isClear(act.getFirstArgument())
 						|| currentStack.isLocked(act.getFirstArgument())
-						|| !currentStack.getBelow(act.getFirstArgument()).equals(act.getSecondArgument())) {
+						|| !act.getSecondArgument().equals(currentStack.getBelow(act.getFirstArgument()))) {
 					// throw new IllegalArgumentException(
 					// "The block [" + act.getFirstArgument() + "] is not in the current stack " + currentStack);
-					System.out.println("The action [" + act + "] is illegal in the current stack " + currentStack);
+					if(logging)
+						System.out.println("The action [" + act + "] is illegal in the current stack " + currentStack);
 					ag.setPreviousActionFailed();
 					continue;
 				}
@@ -394,8 +598,9 @@ public abstract class BlocksWorldEnvironment implements Environment {
 				if(!currentStack.contains(act.getSecondArgument()) || !currentStack.isClear(act.getSecondArgument())) {
 					// throw new IllegalArgumentException(
 					// "The block [" + act.getSecondArgument() + "] is not in the current stack " + currentStack);
-					System.out.println("The block [" + act.getSecondArgument()
-							+ "] is not in the current stack or is not clear " + currentStack);
+					if(logging)
+						System.out.println("The block [" + act.getSecondArgument()
+								+ "] is not in the current stack or is not clear " + currentStack);
 					ag.setPreviousActionFailed();
 					continue;
 				}
@@ -403,10 +608,11 @@ public abstract class BlocksWorldEnvironment implements Environment {
 				ag.setHolding(null);
 				break;
 			case GO_TO_STATION:
-				if(stations.contains(act.getArgument()))
+				if(stationPositions.containsKey(act.getArgument()))
 					ag.setStation((Station) act.getArgument());
 				else {
-					System.out.println("Cannot move to station " + act.getArgument().toString() + ".");
+					if(logging)
+						System.out.println("Cannot move to station " + act.getArgument().toString() + ".");
 					ag.setPreviousActionFailed();
 				}
 				break;
@@ -416,8 +622,9 @@ public abstract class BlocksWorldEnvironment implements Environment {
 								&& !currentStack.isLocked(currentStack.getBelow(act.getArgument())))) {
 					// throw new IllegalArgumentException(
 					// "The block [" + act.getArgument() + "] is not in the current stack " + currentStack);
-					System.out.println("The block [" + act.getArgument()
-							+ "] is not in the current stack or is not lockable: " + currentStack);
+					if(logging)
+						System.out.println("The block [" + act.getArgument()
+								+ "] is not in the current stack or is not lockable: " + currentStack);
 					ag.setPreviousActionFailed();
 					continue;
 				}
@@ -1,6 +1,5 @@
 package blocksworld;
 
-import java.util.LinkedList;
 import java.util.List;
 
 import base.Perceptions;
@@ -8,6 +7,9 @@ import blocksworld.BlocksWorldEnvironment.Station;
 
 /**
  * What an agent is able to perceive.
+ * <p>
+ * Perceptions do not change after they are created: the environment gives them snapshots of the visible stack and of
+ * the remaining plan, so agents can keep them across steps without copying them.
  * 
  * @author andreiolaru
  */
@@ -39,7 +41,7 @@ public class BlocksWorldPerceptions implements Perceptions
 	 * Constructor.
 	 * 
 	 * @param stack
-	 *            - the state of the current station.
+	 *            - the state of the current station (should not change afterwards).
 	 * @param currentStation
 	 *            - the current station.
 	 * @param hold 
@@ -47,7 +49,8 @@ public class BlocksWorldPerceptions implements Perceptions
 	 * @param previousActionSucceeded
 	 *            - whether the previous action was carried out correctly.
 	 * @param planLeft 
-	 *            - the actions that were not yet performed by the environment.
+	 *            - the actions that were not yet performed by the environment (not copied, so the list should not
+	 *            change afterwards).
 	 */
 	public BlocksWorldPerceptions(Stack stack, Station currentStation, Block hold, boolean previousActionSucceeded, List<BlocksWorldAction> planLeft)
 	{
@@ -55,7 +58,29 @@ public class BlocksWorldPerceptions implements Perceptions
 		this.current = currentStation;
 		this.holding = hold;
 		this.previousActionSucceeded = previousActionSucceeded;
-		this.remainingPlan = planLeft == null ? null : new LinkedList<>(planLeft);
+		this.remainingPlan = planLeft;
+	}
+	
+	/**
+	 * Used by the environment to give the same perceptions again while nothing in them changes.
+	 * 
+	 * @param stack
+	 *            - the state of the current station.
+	 * @param currentStation
+	 *            - the current station.
+	 * @param hold
+	 *            - the block that the agent holds, if any.
+	 * @param succeeded
+	 *            - whether the previous action was carried out correctly.
+	 * @param planLeft
+	 *            - the actions that were not yet performed by the environment.
+	 * @return <code>true</code> if these perceptions contain exactly the given objects.
+	 */
+	boolean isSame(Stack stack, Station currentStation, Block hold, boolean succeeded,
+			List<BlocksWorldAction> planLeft)
+	{
+		return visibleStack == stack && current == currentStation && holding == hold
+				&& previousActionSucceeded == succeeded && remainingPlan == planLeft;
 	}
 	
 	/**
@@ -91,7 +116,8 @@ public class BlocksWorldPerceptions implements Perceptions
 	}
 	
 	/**
-	 * @return the list of actions which have not been (yet) successfully performed by the environment.
+	 * @return the list of actions which have not been (yet) successfully performed by the environment (the list is
+	 *         unmodifiable); <code>null</code> if the agent has not created a plan yet.
 	 */
 	public List<BlocksWorldAction> getRemainingPlan()
 	{
@@ -1,11 +1,10 @@
 package blocksworld;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * A {@link BlocksWorldEnvironment} in which the environment performs various dynamic actions, with a global probability
@@ -22,7 +21,7 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	 * Dynamic actions that can be performed. Each action contains its probability (given that a random action will
 	 * certainly be executed)
 	 */
-	enum DynamicAction {
+	public enum DynamicAction {
 		/**
 		 * Move a random block to the 'stash'.
 		 */
@@ -45,6 +44,11 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 		
 		;
 		
+		/**
+		 * All the actions, as {@link #values()}, which copies the array at each call.
+		 */
+		static final DynamicAction[] ALL = values();
+		
 		/**
 		 * The probability.
 		 */
@@ -59,16 +63,33 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 			prob = probability;
 		}
 		
+		/**
+		 * @return the probability of the action, given that a random action is executed.
+		 */
+		public float getProbability()
+		{
+			return prob;
+		}
+		
 		/**
 		 * @param generator
 		 *            - the random generator to use.
 		 * @return a randomly picked action, according to the probability distribution.
 		 */
-		static DynamicAction pick(Random generator)
+		public static DynamicAction pick(Random generator)
+		{
+			return pick(generator.nextDouble());
+		}
+		
+		/**
+		 * @param r
+		 *            - a number between 0 and 1.
+		 * @return the action corresponding to the number, according to the probability distribution.
+		 */
+		private static DynamicAction pick(double r)
 		{
-			double r = generator.nextDouble();
 			double countProb = 0.0;
-			for(DynamicAction act : DynamicAction.values())
+			for(DynamicAction act : ALL)
 			{
 				countProb += act.prob;
 				if(countProb >= r)
@@ -84,19 +105,70 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	protected static final String	HEAD	= "\t\t\t\t\t\t\t\t<DYNAMICS> ";
 	
 	/**
-	 * The generator used for all random events.
+	 * Number of attempts to pick a random stack which is not observed, before searching all stacks of the required
+	 * kind.
 	 */
-	protected Random randomGenerator = null;
+	protected static final int		PICK_ATTEMPTS	= 8;
+	
+	/**
+	 * The largest rate for which a Poisson variable is drawn at once (see {@link #poisson(double, Random)}).
+	 */
+	protected static final double	POISSON_CHUNK	= 500;
+	
+	/**
+	 * The seed of the environment. The generator is seeded at each step from the seed and the number of the step, so
+	 * that a copy of the environment (see {@link #fork()}) makes the same random choices as the original.
+	 */
+	protected long					randomSeed;
+	
+	/**
+	 * The number of steps performed.
+	 */
+	protected long					stepCount		= 0;
+	
+	/**
+	 * The generator used for all random events, seeded again at each step.
+	 */
+	protected Random				randomGenerator	= new Random();
 	
 	/**
 	 * Environment dynamicity.
 	 */
 	protected float dynamics = 0f;
 	
+	/**
+	 * The arrival rate of each type of dynamic action (the expected number of actions of that type at each step),
+	 * indexed by the ordinal of the type; <code>null</code> to perform at most one action at each step, with
+	 * probability {@link #dynamics}. The array is not modified, so it is shared by the copies of the environment.
+	 */
+	protected double[]				rates			= null;
+	
+	/**
+	 * The number of dynamic actions of each type performed so far, indexed by the ordinal of the type.
+	 */
+	protected long[]				eventCounts		= new long[DynamicAction.values().length];
+	
 	/**
 	 * The 'stash'.
 	 */
-	Set<Block>						stash	= new HashSet<>();
+	RandomSet<Block>				stash	= new RandomSet<>();
+	
+	/**
+	 * The stacks where there are currently agents, or which were changed by the current batch of dynamic actions.
+	 * Reused between steps.
+	 */
+	protected RandomSet<Stack>		excluded		= new RandomSet<>();
+	
+	/**
+	 * The observed stacks taken out of the candidates while picking a stack (see
+	 * {@link #pickAStack(boolean, boolean, RandomSet)}). Reused between calls.
+	 */
+	protected List<Stack>			removed			= new ArrayList<>();
+	
+	/**
+	 * The dynamic actions to perform in the current step, with arrival rates. Reused between steps.
+	 */
+	protected List<DynamicAction>	batch			= new ArrayList<>();
 	
 	/**
 	 * @param world
@@ -119,100 +191,224 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	{
 		super(world);
 		dynamics = dynamicity;
-		long useSeed = seed > 0 ? seed : System.currentTimeMillis();
-		randomGenerator = new Random(useSeed);
-		System.out.println("Random seed is: " + useSeed);
+		randomSeed = seed > 0 ? seed : System.currentTimeMillis();
+		System.out.println("Random seed is: " + randomSeed);
+	}
+	
+	/**
+	 * Creates an environment where several dynamic actions may be performed at each step, each type of action having
+	 * its own arrival rate.
+	 * 
+	 * @param world
+	 *            - the initial state of the world.
+	 * @param arrivalRates
+	 *            - the expected number of actions of each type at each step; missing types are not performed.
+	 * @param seed
+	 *            - seed for the generator or -1 if to generate a seed from the time.
+	 */
+	public DynamicEnvironment(BlocksWorld world, Map<DynamicAction, ? extends Number> arrivalRates, long seed)
+	{
+		this(world, 0, seed);
+		rates = new double[DynamicAction.values().length];
+		for(Map.Entry<DynamicAction, ? extends Number> entry : arrivalRates.entrySet())
+		{
+			if(entry.getValue().doubleValue() < 0)
+				throw new IllegalArgumentException("Negative rate for " + entry.getKey());
+			rates[entry.getKey().ordinal()] = entry.getValue().doubleValue();
+		}
 	}
 	
 	/**
-	 * Evaluates whether a dynamic action should be performed, and if yes, an action is chosen and performed (if
+	 * Evaluates whether dynamic actions should be performed, and if yes, the actions are chosen and performed (if
 	 * possible).
+	 * <p>
+	 * Without arrival rates (see {@link #rates}), at most one action is performed, with probability
+	 * {@link #dynamics}. With arrival rates, the number of actions of each type follows a Poisson distribution, and all
+	 * actions are performed, in random order, as a batch: each action only changes stacks which are not observed and
+	 * which were not changed by another action of the batch.
+	 * <p>
+	 * Stacks are picked from the index of the world (see {@link BlocksWorld#getStackIndex()}), and stacks and
+	 * stations are only removed by moving the last one in their place, or added at the end, with their positions kept
+	 * in maps, so an action takes constant time. The order of the stations is therefore changed by the dynamic
+	 * actions, as well as their number.
 	 */
 	protected void performDynamicAction()
 	{
-		if(randomGenerator.nextFloat() < dynamics)
+		if(rates == null)
 		{
-			DynamicAction dyna = DynamicAction.pick(randomGenerator);
-			Set<Stack> observedStacks = new HashSet<>();
-			for(AgentData ag : getAgents())
-				observedStacks.add(worldstate.getTowers().get(stations.indexOf(ag.getStation())));
-			switch(dyna)
-			{
-			case STASH:
-			{
-				Stack s = pickAStack(true, false, observedStacks);
-				if(s == null)
-					break;
-				Block b = s.getTopBlock();
-				if(s.isSingleBlock())
-				{
-					int pos = worldstate.getTowers().indexOf(s);
-					worldstate.pickUp(b);
-					stations.remove(pos);
-				}
-				else
-					worldstate.unstack(b, s.getBelow(b));
-				stash.add(b);
-				System.out.println(HEAD + "[" + b + "] -> stash.");
-				break;
-			}
-			case UNSTASH:
+			if(randomGenerator.nextDouble() < dynamics)
+				performDynamicAction(DynamicAction.pick(randomGenerator), getObservedStacks());
+			return;
+		}
+		batch.clear();
+		for(int i = 0; i < DynamicAction.ALL.length; i++)
+			for(int k = poisson(rates[i], randomGenerator); k > 0; k--)
+				batch.add(DynamicAction.ALL[i]);
+		if(batch.isEmpty())
+			return;
+		for(int i = batch.size() - 1; i > 0; i--)
+			Collections.swap(batch, i, randomGenerator.nextInt(i + 1));
+		RandomSet<Stack> excludedStacks = getObservedStacks();
+		for(int i = 0; i < batch.size(); i++)
+			performDynamicAction(batch.get(i), excludedStacks);
+		
+		// pick an action
+		// pick random stack where there are no agents.
+		// have a stash of blocks that are 'hidden'
+	}
+	
+	/**
+	 * @return the stacks where there are currently agents (the set is reused, see {@link #excluded}).
+	 */
+	protected RandomSet<Stack> getObservedStacks()
+	{
+		excluded.clear();
+		List<AgentData> agentList = getAgents();
+		for(int i = 0; i < agentList.size(); i++)
+		{
+			// the agent may have picked up the last block on the table, in which case there are no stations
+			int position = getPosition(agentList.get(i).getStation());
+			if(position >= 0)
+				excluded.add(worldstate.stacks.get(position));
+		}
+		return excluded;
+	}
+	
+	/**
+	 * Performs a dynamic action, if possible, and counts it.
+	 * 
+	 * @param dyna
+	 *            - the action.
+	 * @param excludedStacks
+	 *            - the stacks which must not be changed; the stacks changed by the action are added to the set.
+	 * @return <code>true</code> if the action was performed.
+	 */
+	protected boolean performDynamicAction(DynamicAction dyna, RandomSet<Stack> excludedStacks)
+	{
+		switch(dyna)
+		{
+		case STASH:
+		{
+			Stack s = pickAStack(true, false, excludedStacks);
+			if(s == null)
+				return false;
+			Block b = s.getTopBlock();
+			if(s.isSingleBlock())
 			{
-				if(stash.isEmpty())
-					break;
-				Stack s = pickAStack(true, true, observedStacks);
-				if(s == null)
-					break;
-				Block b = pickElement(stash);
-				stash.remove(b);
-				worldstate.stack(b, s.getTopBlock());
-				System.out.println(HEAD + "[" + b + "] : stash -> " + s + ".");
-				break;
+				// the last stack and station take the place of the removed ones
+				removeStation(worldstate.getPosition(s), true);
+				worldstate.pickUpReplacing(b);
 			}
-			case DROP:
-			{
-				Stack s = pickAStack(false, false, observedStacks);
-				if(s == null)
-					break;
-				Block b = s.getTopBlock();
+			else
 				worldstate.unstack(b, s.getBelow(b));
-				worldstate.putDown(b, s);
-				char stationName = '0';
-				while(stations.contains(new Station(stationName)))
-					stationName++;
-				stations.add(worldstate.getTowers().indexOf(s) - 1, new Station(stationName));
+			stash.add(b);
+			excludedStacks.add(s);
+			if(logging)
+				System.out.println(HEAD + "[" + b + "] -> stash.");
+			break;
+		}
+		case UNSTASH:
+		{
+			if(stash.isEmpty())
+				return false;
+			Stack s = pickAStack(true, true, excludedStacks);
+			if(s == null)
+				return false;
+			Block b = stash.sample(randomGenerator);
+			stash.remove(b);
+			worldstate.stack(b, s.getTopBlock());
+			excludedStacks.add(s);
+			if(logging)
+				System.out.println(HEAD + "[" + b + "] : stash -> " + s + ".");
+			break;
+		}
+		case DROP:
+		{
+			Stack s = pickAStack(false, false, excludedStacks);
+			if(s == null)
+				return false;
+			Block b = s.getTopBlock();
+			worldstate.unstack(b, s.getBelow(b));
+			// the new stack and its station are added after all the others
+			excludedStacks.add(worldstate.putDown(b));
+			addStation(stations.size(), newStation());
+			excludedStacks.add(s);
+			if(logging)
 				System.out.println(HEAD + "[" + b + "] -> ___.");
-				break;
-			}
-			case TELEPORT:
+			break;
+		}
+		case TELEPORT:
+		{
+			Stack s = pickAStack(true, false, excludedStacks);
+			if(s == null)
+				return false;
+			Stack s1 = pickAStack(true, true, excludedStacks);
+			if(s1 == null || s == s1)
+				return false;
+			Block b = s.getTopBlock();
+			if(s.isSingleBlock())
 			{
-				Stack s = pickAStack(true, false, observedStacks);
-				if(s == null)
-					break;
-				Stack s1 = pickAStack(true, true, observedStacks);
-				if(s1 == null || s == s1)
-					break;
-				Block b = s.getTopBlock();
-				if(s.isSingleBlock())
-				{
-					int pos = worldstate.getTowers().indexOf(s);
-					worldstate.pickUp(b);
-					stations.remove(pos);
-				}
-				else
-					worldstate.unstack(b, s.getBelow(b));
-				worldstate.stack(b, s1.getTopBlock());
-				System.out.println(HEAD + "[" + b + "] : " + s + " -> " + s1 + ".");
-				break;
-			}
-			default:
-				throw new RuntimeException("enums are broken,");
+				// the last stack and station take the place of the removed ones
+				removeStation(worldstate.getPosition(s), true);
+				worldstate.pickUpReplacing(b);
 			}
+			else
+				worldstate.unstack(b, s.getBelow(b));
+			worldstate.stack(b, s1.getTopBlock());
+			excludedStacks.add(s);
+			excludedStacks.add(s1);
+			if(logging)
+				System.out.println(HEAD + "[" + b + "] : " + s + " -> " + s1 + ".");
+			break;
 		}
-		
-		// pick an action
-		// pick random stack where there are no agents.
-		// have a stash of blocks that are 'hidden'
+		default:
+			throw new RuntimeException("enums are broken,");
+		}
+		eventCounts[dyna.ordinal()]++;
+		return true;
+	}
+	
+	/**
+	 * Draws a number from a Poisson distribution, with Knuth's method, applied in chunks of the rate so that the
+	 * probabilities do not underflow.
+	 * 
+	 * @param rate
+	 *            - the mean of the distribution.
+	 * @param random
+	 *            - the generator.
+	 * @return the number.
+	 */
+	protected static int poisson(double rate, Random random)
+	{
+		int n = 0;
+		for(double left = rate; left > 0; left -= POISSON_CHUNK)
+		{
+			double limit = Math.exp(-Math.min(left, POISSON_CHUNK));
+			for(double p = random.nextDouble(); p > limit; p *= random.nextDouble())
+				n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * @param dyna
+	 *            - a type of dynamic action.
+	 * @return the number of actions of that type performed so far.
+	 */
+	public long getEventCount(DynamicAction dyna)
+	{
+		return eventCounts[dyna.ordinal()];
+	}
+	
+	/**
+	 * @return the number of dynamic actions performed so far.
+	 */
+	public long getEventCount()
+	{
+		long count = 0;
+		for(long c : eventCounts)
+			count += c;
+		return count;
 	}
 	
 	/**
@@ -226,39 +422,84 @@ public class DynamicEnvironment extends BlocksWorldEnvironment
 	 *            - the stacks where there are currently agents (the stack will not be picked from these).
 	 * @return a stack with the given requirements, or <code>null</code> if no such stack can be found.
 	 */
-	protected Stack pickAStack(boolean canBeSingle, boolean canBeLocked, Set<Stack> observedStacks)
+	protected Stack pickAStack(boolean canBeSingle, boolean canBeLocked, RandomSet<Stack> observedStacks)
+	{
+		RandomSet<Stack> candidates = worldstate.getStackIndex().getStacks(canBeSingle, canBeLocked);
+		if(candidates.isEmpty())
+			return null;
+		// there are only a few observed stacks, so a random candidate is usually good
+		for(int i = 0; i < PICK_ATTEMPTS; i++)
+		{
+			Stack s = candidates.sample(randomGenerator);
+			if(!observedStacks.contains(s))
+				return s;
+		}
+		// take the observed stacks out of the candidates while sampling, in time proportional to their number
+		removed.clear();
+		for(int i = 0; i < observedStacks.size(); i++)
+			if(candidates.remove(observedStacks.get(i)))
+				removed.add(observedStacks.get(i));
+		Stack s = candidates.isEmpty() ? null : candidates.sample(randomGenerator);
+		for(int i = 0; i < removed.size(); i++)
+			candidates.add(removed.get(i));
+		return s;
+	}
+	
+	/**
+	 * Creates an independent copy of the environment, as {@link BlocksWorldEnvironment#fork()}, with a copy of the
+	 * stash and the same seed and step count: the copy makes the same dynamic actions as this environment would (as
+	 * long as the agents behave the same).
+	 */
+	@Override
+	public DynamicEnvironment fork()
 	{
-		List<Stack> choiceStacks = new LinkedList<>();
-		for(Stack s : worldstate.getTowers())
-			if(!observedStacks.contains(s) && (canBeSingle || !s.isSingleBlock())
-					&& (canBeLocked || !s.isLocked(s.getTopBlock())))
-				choiceStacks.add(s);
-		return choiceStacks.isEmpty() ? null : pickElement(choiceStacks);
+		return fork(randomSeed);
 	}
 	
 	/**
-	 * Pick a random element from a non-empty collection.
+	 * Creates an independent copy of the environment, as {@link #fork()}, but with a new seed, so that copies with
+	 * different seeds give different futures.
 	 * 
-	 * @param c
-	 *            - the collection.
-	 * @return the chosen element.
+	 * @param seed
+	 *            - the seed for the random generators of the copy.
+	 * @return the copy.
 	 */
-	protected <T> T pickElement(Collection<T> c)
+	public DynamicEnvironment fork(long seed)
 	{
-		int num = (int) (randomGenerator.nextFloat() * c.size());
-		for(T t : c)
-			if(--num < 0)
-				return t;
-		throw new RuntimeException("Probabilities are broken (or code).");
+		DynamicEnvironment copy = (DynamicEnvironment) super.fork();
+		copy.randomSeed = seed;
+		copy.randomGenerator = new Random();
+		copy.stash = new RandomSet<>(stash);
+		copy.excluded = new RandomSet<>();
+		copy.removed = new ArrayList<>();
+		copy.batch = new ArrayList<>();
+		copy.eventCounts = eventCounts.clone();
+		return copy;
 	}
 	
 	@Override
 	public boolean step()
 	{
+		// the seed of the environment is mixed first, so that environments with close seeds have unrelated steps
+		randomGenerator.setSeed(mix(mix(randomSeed) ^ stepCount++));
 		performDynamicAction();
 		return super.step();
 	}
 	
+	/**
+	 * Mixes the bits of a number (the finalizer of MurmurHash3), so that close numbers give unrelated seeds.
+	 * 
+	 * @param z
+	 *            - the number.
+	 * @return the mixed number.
+	 */
+	protected static long mix(long z)
+	{
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+	
 	@Override
 	public String toString()
 	{
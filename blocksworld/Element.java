@@ -1,9 +1,11 @@
 package blocksworld;
 
-import java.util.Vector;
-
 /**
- * Abstract element with a type and a number of arguments that depends on the type.
+ * Abstract element with a type and a number of arguments (at most two) that depends on the type.
+ * <p>
+ * Elements are immutable. The hash code mixes the type and the arguments and is computed at construction. Extending
+ * classes may intern their instances (see {@link Interner}); equal interned instances are the same object, and have a
+ * dense {@link #getOrdinal() ordinal}.
  *
  * @param <T>
  *            the type of the arguments.
@@ -30,43 +32,107 @@ public abstract class Element<T>
 	protected ElementType	elementType;
 
 	/**
-	 * First argument of the predicate.
+	 * First argument, if any.
+	 */
+	protected final T		first;
+
+	/**
+	 * Second argument, if any.
+	 */
+	protected final T		second;
+
+	/**
+	 * The hash code.
 	 */
-	protected Vector<T>		arguments		= null;
+	protected final int		hash;
 
 	/**
-	 * This member must be overwritten by extending classes with the name of the class.
+	 * The index of the instance among the interned instances of its class; -1 if it is not interned.
 	 */
-	protected String		ELEMENT_CLASS	= "ERROR_HERE";
+	protected int			ordinal	= -1;
 
 	/**
-	 * Constructor.
+	 * Constructor for elements with no arguments.
 	 *
 	 * @param type
 	 *            - the type of the element.
-	 * @param argumentsPassed
-	 *            - arguments actually passed to the constructor of the extending class.
 	 * @throws IllegalArgumentException
 	 *             if the given type has a different number of arguments.
 	 */
-	protected Element(ElementType type, @SuppressWarnings("unchecked") T... argumentsPassed)
+	protected Element(ElementType type)
+	{
+		this(type, 0, null, null);
+	}
+
+	/**
+	 * Constructor for elements with one argument.
+	 *
+	 * @param type
+	 *            - the type of the element.
+	 * @param argument
+	 *            - the argument.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments, or the argument is null.
+	 */
+	protected Element(ElementType type, T argument)
 	{
-		ELEMENT_CLASS = this.getClass().getSimpleName();
+		this(type, 1, argument, null);
+	}
 
-		if(argumentsPassed.length != type.getArgumentNumber())
-			throw new IllegalArgumentException(ELEMENT_CLASS + " " + type + " has "
-					+ type.getArgumentNumber() + " arguments; " + argumentsPassed.length
-					+ " given.");
+	/**
+	 * Constructor for elements with two arguments.
+	 *
+	 * @param type
+	 *            - the type of the element.
+	 * @param firstArgument
+	 *            - the first argument.
+	 * @param secondArgument
+	 *            - the second argument.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments, or an argument is null.
+	 */
+	protected Element(ElementType type, T firstArgument, T secondArgument)
+	{
+		this(type, 2, firstArgument, secondArgument);
+	}
+
+	/**
+	 * @param type
+	 *            - the type of the element.
+	 * @param nArguments
+	 *            - the number of arguments actually passed to the constructor of the extending class.
+	 * @param firstArgument
+	 *            - the first argument, if any.
+	 * @param secondArgument
+	 *            - the second argument, if any.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments, or an argument is null.
+	 */
+	private Element(ElementType type, int nArguments, T firstArgument, T secondArgument)
+	{
+		if(nArguments != type.getArgumentNumber())
+			throw new IllegalArgumentException(getClass().getSimpleName() + " " + type + " has "
+					+ type.getArgumentNumber() + " arguments; " + nArguments + " given.");
+		if(nArguments >= 1 && firstArgument == null)
+			throw new IllegalArgumentException("1st argument is null.");
+		if(nArguments >= 2 && secondArgument == null)
+			throw new IllegalArgumentException("2nd argument is null.");
 		elementType = type;
-		arguments = new Vector<>(type.getArgumentNumber());
-		for(int i = 1; i <= type.getArgumentNumber(); i++)
-		{
-			if(argumentsPassed[i - 1] == null)
-				throw new IllegalArgumentException(i
-						+ ((i == 1) ? "st" : ((i == 2) ? "nd" : ((i == 3) ? "rd" : "th")))
-						+ " argument is null.");
-			arguments.add(argumentsPassed[i - 1]);
-		}
+		first = firstArgument;
+		second = secondArgument;
+		int h = type instanceof Enum ? ((Enum<?>) type).ordinal() + 1 : type.hashCode();
+		h = 31 * h + (first == null ? 0 : first.hashCode());
+		h = 31 * h + (second == null ? 0 : second.hashCode());
+		hash = (h ^ (h >>> 16)) * 0x45d9f3b;
+	}
+
+	/**
+	 * @return the index of this instance among the interned instances of its class (the indexes are dense, starting
+	 *         from 0); -1 if the instance was not interned.
+	 */
+	public int getOrdinal()
+	{
+		return ordinal;
 	}
 
 	/**
@@ -102,9 +168,9 @@ public abstract class Element<T>
 	public T getArgument()
 	{
 		if(elementType.getArgumentNumber() != 1)
-			throw new IllegalArgumentException(ELEMENT_CLASS + " " + elementType
+			throw new IllegalArgumentException(getClass().getSimpleName() + " " + elementType
 					+ " has less than or more than one argument");
-		return arguments.get(0);
+		return first;
 	}
 
 	/**
@@ -116,9 +182,9 @@ public abstract class Element<T>
 	public T getFirstArgument()
 	{
 		if(elementType.getArgumentNumber() == 0)
-			throw new IllegalArgumentException(ELEMENT_CLASS + " " + elementType
+			throw new IllegalArgumentException(getClass().getSimpleName() + " " + elementType
 					+ " has no arguments");
-		return arguments.get(0);
+		return first;
 	}
 
 	/**
@@ -130,25 +196,29 @@ public abstract class Element<T>
 	public T getSecondArgument()
 	{
 		if(elementType.getArgumentNumber() <= 1)
-			throw new IllegalArgumentException(ELEMENT_CLASS + " " + elementType
+			throw new IllegalArgumentException(getClass().getSimpleName() + " " + elementType
 					+ " has less than two arguments");
-		return arguments.get(1);
+		return second;
 	}
 	
 	@Override
 	public boolean equals(Object obj)
 	{
+		if(obj == this)
+			return true;
 		if(!(obj instanceof Element))
 			return false;
-		@SuppressWarnings("unchecked")
-		Element<T> other = (Element<T>) obj;
-		return (elementType == other.elementType) && (arguments.equals(other.arguments));
+		Element<?> other = (Element<?>) obj;
+		if(ordinal >= 0 && other.ordinal >= 0 && getClass() == other.getClass())
+			return false; // both interned, so they would be the same instance
+		return hash == other.hash && elementType == other.elementType && (first == null || first.equals(other.first))
+				&& (second == null || second.equals(other.second));
 	}
 	
 	@Override
 	public int hashCode()
 	{
-		return arguments.hashCode();
+		return hash;
 	}
 
 	@Override
@@ -158,9 +228,9 @@ public abstract class Element<T>
 		if(elementType.getArgumentNumber() > 0)
 		{
 			ret += "(";
-			int i = 0;
-			for(T arg : arguments)
-				ret += ((i++ > 0) ? ", " : "") + arg.toString();
+			ret += first.toString();
+			if(second != null)
+				ret += ", " + second.toString();
 			ret += ")";
 		}
 		return ret;
@@ -0,0 +1,127 @@
+package blocksworld;
+
+/**
+ * Table of canonical instances of an {@link Element} class with {@link Block} arguments, indexed by the type and the
+ * labels of the arguments. Each instance gets a dense ordinal, in the order of interning.
+ * <p>
+ * The table uses open addressing on <code>long</code> keys, so a lookup does not allocate.
+ *
+ * @param <E>
+ *            the class of the instances.
+ */
+class Interner<E extends Element<Block>>
+{
+	/**
+	 * Initial capacity of the table.
+	 */
+	protected static final int	INITIAL_CAPACITY	= 256;
+
+	/**
+	 * The keys; 0 marks empty slots (keys are never 0, see {@link #key(Enum, Block, Block)}).
+	 */
+	protected long[]			keys				= new long[INITIAL_CAPACITY];
+	/**
+	 * The instances, in the slots of their keys.
+	 */
+	protected Object[]			values				= new Object[INITIAL_CAPACITY];
+	/**
+	 * The number of instances.
+	 */
+	protected int				size				= 0;
+
+	/**
+	 * @param type
+	 *            - the type of the element.
+	 * @param first
+	 *            - the first argument, or <code>null</code>.
+	 * @param second
+	 *            - the second argument, or <code>null</code>.
+	 * @return the key.
+	 */
+	static long key(Enum<?> type, Block first, Block second)
+	{
+		return ((long) (type.ordinal() + 1) << 32) | (first == null ? 0 : (long) first.getLabel() << 16)
+				| (second == null ? 0 : second.getLabel());
+	}
+
+	/**
+	 * @param key
+	 *            - a key.
+	 * @return the instance with the key, or <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized E get(long key)
+	{
+		for(int i = slot(key);; i = (i + 1) & (keys.length - 1))
+		{
+			if(keys[i] == key)
+				return (E) values[i];
+			if(keys[i] == 0)
+				return null;
+		}
+	}
+
+	/**
+	 * Adds an instance, unless an instance with the same key was added in the meantime, and gives it the next
+	 * ordinal.
+	 *
+	 * @param key
+	 *            - the key of the instance.
+	 * @param instance
+	 *            - the instance.
+	 * @return the canonical instance with the key.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized E add(long key, E instance)
+	{
+		if(2 * (size + 1) > keys.length)
+			grow();
+		int i = slot(key);
+		for(; keys[i] != 0; i = (i + 1) & (keys.length - 1))
+			if(keys[i] == key)
+				return (E) values[i];
+		keys[i] = key;
+		values[i] = instance;
+		instance.ordinal = size++;
+		return instance;
+	}
+
+	/**
+	 * @return the number of interned instances.
+	 */
+	synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param key
+	 *            - a key.
+	 * @return the first slot to look at for the key.
+	 */
+	protected int slot(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & (keys.length - 1);
+	}
+
+	/**
+	 * Doubles the capacity of the table.
+	 */
+	protected void grow()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldKeys.length * 2];
+		for(int j = 0; j < oldKeys.length; j++)
+			if(oldKeys[j] != 0)
+			{
+				int i = slot(oldKeys[j]);
+				while(keys[i] != 0)
+					i = (i + 1) & (keys.length - 1);
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+	}
+}
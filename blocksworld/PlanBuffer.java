@@ -0,0 +1,338 @@
+package blocksworld;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import blocksworld.BlocksWorldAction.Type;
+
+/**
+ * The plan of an agent, as kept by the environment.
+ * <p>
+ * The plan is a chain of segments, each being a range of an array of actions. Segments and arrays never change after
+ * they are created: removing actions from the beginning only advances the {@link #head}, and inserting actions at the
+ * beginning (for a plan modification) adds a new segment in front of the chain, so it does not depend on the length of
+ * the plan. The MARKER after inserted actions is not stored as an action, but as a flag of the segment.
+ * <p>
+ * Since nothing is ever overwritten, the views returned by {@link #snapshot()} share the segments with the buffer and
+ * never change, even after the buffer changes.
+ */
+public class PlanBuffer
+{
+	/**
+	 * The action which is seen at the end of a segment of inserted actions.
+	 */
+	public static final BlocksWorldAction MARKER = BlocksWorldAction.of(Type.MARKER);
+
+	/**
+	 * A range of an array of actions, possibly followed by a MARKER, and followed by the next segment.
+	 */
+	protected static final class Segment
+	{
+		/**
+		 * The array.
+		 */
+		final BlocksWorldAction[]	actions;
+		/**
+		 * The position of the first action.
+		 */
+		final int					from;
+		/**
+		 * The position after the last action.
+		 */
+		final int					to;
+		/**
+		 * <code>true</code> if a MARKER follows the actions.
+		 */
+		final boolean				marker;
+		/**
+		 * The next segment, if any.
+		 */
+		final Segment				next;
+
+		/**
+		 * @param array
+		 *            - the array.
+		 * @param start
+		 *            - the position of the first action.
+		 * @param end
+		 *            - the position after the last action.
+		 * @param withMarker
+		 *            - <code>true</code> if a MARKER follows the actions.
+		 * @param nextSegment
+		 *            - the next segment.
+		 */
+		Segment(BlocksWorldAction[] array, int start, int end, boolean withMarker, Segment nextSegment)
+		{
+			actions = array;
+			from = start;
+			to = end;
+			marker = withMarker;
+			next = nextSegment;
+		}
+
+		/**
+		 * @return the number of actions in the segment, counting the MARKER.
+		 */
+		int length()
+		{
+			return to - from + (marker ? 1 : 0);
+		}
+
+		/**
+		 * @param i
+		 *            - a position in the segment, from 0 to {@link #length()} - 1.
+		 * @return the action at that position.
+		 */
+		BlocksWorldAction get(int i)
+		{
+			return from + i < to ? actions[from + i] : MARKER;
+		}
+	}
+
+	/**
+	 * Unmodifiable view of the plan, starting with a position in a segment.
+	 */
+	protected static class Snapshot extends AbstractList<BlocksWorldAction>
+	{
+		/**
+		 * The first segment.
+		 */
+		final Segment	first;
+		/**
+		 * The position in the first segment.
+		 */
+		final int		offset;
+		/**
+		 * The number of actions.
+		 */
+		final int		size;
+
+		/**
+		 * @param segment
+		 *            - the first segment.
+		 * @param position
+		 *            - the position in the first segment.
+		 * @param length
+		 *            - the number of actions.
+		 */
+		Snapshot(Segment segment, int position, int length)
+		{
+			first = segment;
+			offset = position;
+			size = length;
+		}
+
+		@Override
+		public BlocksWorldAction get(int index)
+		{
+			if(index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+			int i = index + offset;
+			Segment s = first;
+			while(i >= s.length())
+			{
+				i -= s.length();
+				s = s.next;
+			}
+			return s.get(i);
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+
+		@Override
+		public Iterator<BlocksWorldAction> iterator()
+		{
+			return new Iterator<BlocksWorldAction>() {
+				Segment	segment		= first;
+				int		position	= offset;
+				int		left		= size;
+
+				@Override
+				public boolean hasNext()
+				{
+					return left > 0;
+				}
+
+				@Override
+				public BlocksWorldAction next()
+				{
+					if(left == 0)
+						throw new NoSuchElementException();
+					while(position >= segment.length())
+					{
+						segment = segment.next;
+						position = 0;
+					}
+					left--;
+					return segment.get(position++);
+				}
+			};
+		}
+	}
+
+	/**
+	 * The first segment; <code>null</code> if the plan is empty.
+	 */
+	protected Segment					first		= null;
+	/**
+	 * The position of the first action of the plan, in the first segment.
+	 */
+	protected int						head		= 0;
+	/**
+	 * The number of actions in the plan, counting MARKERs.
+	 */
+	protected int						size		= 0;
+	/**
+	 * The last snapshot, if the plan has not changed since; <code>null</code> otherwise.
+	 */
+	protected List<BlocksWorldAction>	snapshot	= null;
+
+	/**
+	 * @return the number of actions in the plan, counting MARKERs.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if there are no actions in the plan.
+	 */
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * @return the first action in the plan (which may be {@link #MARKER}), or <code>null</code> if the plan is empty.
+	 */
+	public BlocksWorldAction peek()
+	{
+		return first == null ? null : first.get(head);
+	}
+
+	/**
+	 * Removes the first action in the plan, if any.
+	 */
+	public void removeFirst()
+	{
+		removeFirst(1);
+	}
+
+	/**
+	 * Removes actions from the beginning of the plan, in time proportional to the number of segments they span.
+	 *
+	 * @param n
+	 *            - the number of actions to remove, counting MARKERs. If larger than the size, all actions are
+	 *            removed.
+	 */
+	public void removeFirst(int n)
+	{
+		int left = Math.min(n, size);
+		if(left <= 0)
+			return;
+		size -= left;
+		while(left > 0)
+		{
+			int inFirst = Math.min(left, first.length() - head);
+			head += inFirst;
+			left -= inFirst;
+			if(head == first.length())
+			{
+				first = first.next;
+				head = 0;
+			}
+		}
+		snapshot = null;
+	}
+
+	/**
+	 * Removes all actions from the plan.
+	 */
+	public void clear()
+	{
+		first = null;
+		head = size = 0;
+		snapshot = null;
+	}
+
+	/**
+	 * Replaces the plan.
+	 *
+	 * @param firstAction
+	 *            - an action to place before the new actions; <code>null</code> for none.
+	 * @param plan
+	 *            - the new actions.
+	 */
+	public void set(BlocksWorldAction firstAction, Collection<? extends BlocksWorldAction> plan)
+	{
+		BlocksWorldAction[] array = new BlocksWorldAction[plan.size() + (firstAction == null ? 0 : 1)];
+		int i = 0;
+		if(firstAction != null)
+			array[i++] = firstAction;
+		for(BlocksWorldAction act : plan)
+			array[i++] = act;
+		first = array.length == 0 ? null : new Segment(array, 0, array.length, false, null);
+		head = 0;
+		size = array.length;
+		snapshot = null;
+	}
+
+	/**
+	 * Inserts actions at the beginning of the plan, followed by a MARKER. Takes time proportional to the number of
+	 * inserted actions, regardless of the length of the plan.
+	 *
+	 * @param prefix
+	 *            - the actions to insert.
+	 */
+	public void insertFirst(Collection<? extends BlocksWorldAction> prefix)
+	{
+		BlocksWorldAction[] array = prefix.toArray(new BlocksWorldAction[prefix.size()]);
+		Segment rest = first;
+		if(first != null && head > 0)
+			// the rest of the first segment; the MARKER position maps to the (empty) end of the range
+			rest = new Segment(first.actions, Math.min(first.from + head, first.to), first.to, first.marker,
+					first.next);
+		first = new Segment(array, 0, array.length, true, rest);
+		head = 0;
+		size += array.length + 1;
+		snapshot = null;
+	}
+
+	/**
+	 * @return an unmodifiable list containing the actions currently in the plan (MARKERs included), which does not
+	 *         change afterwards. The actions are not copied.
+	 */
+	public List<BlocksWorldAction> snapshot()
+	{
+		if(snapshot == null)
+			snapshot = new Snapshot(first, head, size);
+		return snapshot;
+	}
+
+	/**
+	 * @return an independent copy of the buffer, made in constant time (the segments, which never change, are shared).
+	 */
+	public PlanBuffer fork()
+	{
+		PlanBuffer copy = new PlanBuffer();
+		copy.first = first;
+		copy.head = head;
+		copy.size = size;
+		copy.snapshot = snapshot;
+		return copy;
+	}
+
+	@Override
+	public String toString()
+	{
+		return snapshot().toString();
+	}
+}
@@ -96,6 +96,13 @@ public class PlanningAction extends LinkedList<BlocksWorldAction> implements Act
 		return this;
 	}
 	
+	/**
+	 * @return the type of this planning action.
+	 */
+	public PlanningActionType getType() {
+		return actionType;
+	}
+	
 	/**
 	 * @return For a {@link PlanningActionType#MODIFY_PLAN} action, the number of actions to remove from the beginning
 	 *         of <b>the original plan</b>.
@@ -2,6 +2,8 @@ package blocksworld;
 
 /**
  * The class represents a FOPL predicate that is part of the FOPL representation of the world.
+ * <p>
+ * Use the <code>of</code> methods to obtain canonical (interned) instances, which can be compared by reference.
  * 
  * @author Andrei Olaru
  */
@@ -44,7 +46,121 @@ public class Predicate extends Element<Block>
 			return args;
 		}	}
 	
+	/**
+	 * The canonical instances.
+	 */
+	protected static final Interner<Predicate>	INTERNED	= new Interner<>();
 	
+	/**
+	 * Returns the canonical predicate with no arguments.
+	 * 
+	 * @param type
+	 *            - the type of the predicate.
+	 * @return the predicate.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static Predicate of(Type type)
+	{
+		return intern(type, null, null);
+	}
+	
+	/**
+	 * Returns the canonical predicate with one argument.
+	 * 
+	 * @param type
+	 *            - the type of the predicate.
+	 * @param argument
+	 *            - the argument of the predicate.
+	 * @return the predicate.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static Predicate of(Type type, Block argument)
+	{
+		return intern(type, argument, null);
+	}
+	
+	/**
+	 * Returns the canonical predicate with two arguments.
+	 * 
+	 * @param type
+	 *            - the type of the predicate.
+	 * @param firstArgument
+	 *            - first argument of the predicate.
+	 * @param secondArgument
+	 *            - second argument of the predicate.
+	 * @return the predicate.
+	 * @throws IllegalArgumentException
+	 *             if the given type has a different number of arguments.
+	 */
+	public static Predicate of(Type type, Block firstArgument, Block secondArgument)
+	{
+		return intern(type, firstArgument, secondArgument);
+	}
+	
+	/**
+	 * @return the number of canonical instances created so far (all ordinals are lower).
+	 */
+	public static int getInternedCount()
+	{
+		return INTERNED.size();
+	}
+	
+	/**
+	 * Finds or creates the canonical instance. Blocks and stations with the same label are equal, so if the canonical
+	 * instance has an argument of a different class than the one given, a new instance is returned (equal to the
+	 * canonical one, but not interned).
+	 * 
+	 * @param type
+	 *            - the type.
+	 * @param firstArgument
+	 *            - the first argument, or <code>null</code>.
+	 * @param secondArgument
+	 *            - the second argument, or <code>null</code>.
+	 * @return the instance.
+	 */
+	protected static Predicate intern(Type type, Block firstArgument, Block secondArgument)
+	{
+		long key = Interner.key(type, firstArgument, secondArgument);
+		Predicate ret = INTERNED.get(key);
+		if(ret == null)
+			ret = INTERNED.add(key, create(type, firstArgument, secondArgument));
+		if(!sameClass(ret.first, firstArgument) || !sameClass(ret.second, secondArgument))
+			return create(type, firstArgument, secondArgument);
+		return ret;
+	}
+	
+	/**
+	 * @param type
+	 *            - the type.
+	 * @param firstArgument
+	 *            - the first argument, or <code>null</code>.
+	 * @param secondArgument
+	 *            - the second argument, or <code>null</code>.
+	 * @return a new instance.
+	 */
+	protected static Predicate create(Type type, Block firstArgument, Block secondArgument)
+	{
+		if(firstArgument == null)
+			return new Predicate(type);
+		if(secondArgument == null)
+			return new Predicate(type, firstArgument);
+		return new Predicate(type, firstArgument, secondArgument);
+	}
+	
+	/**
+	 * @param a
+	 *            - a block, or <code>null</code>.
+	 * @param b
+	 *            - a block, or <code>null</code>.
+	 * @return <code>true</code> if both are <code>null</code> or are of the same class.
+	 */
+	protected static boolean sameClass(Block a, Block b)
+	{
+		return a == null ? b == null : b != null && a.getClass() == b.getClass();
+	}
+
 	/**
 	 * Constructor for predicates with no arguments.
 	 * 
@@ -0,0 +1,214 @@
+package blocksworld;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import blocksworld.Predicate.Type;
+
+/**
+ * The predicates describing a {@link BlocksWorld}, indexed by type and by each argument, and kept up to date by the
+ * world as it changes (see {@link BlocksWorld#getPredicateStore()}), so that no query needs to look at the whole
+ * world.
+ * <p>
+ * Queries are patterns in which any of the type and the arguments can be <code>null</code>, meaning any value. Results
+ * are given as lazy streams over the smallest index which matches the pattern; they must be consumed before the world
+ * changes again.
+ */
+public class PredicateStore
+{
+	/**
+	 * All predicates.
+	 */
+	protected final Set<Predicate>				all			= new HashSet<>();
+	/**
+	 * Predicates by type.
+	 */
+	protected final Map<Type, Set<Predicate>>	byType		= new EnumMap<>(Type.class);
+	/**
+	 * Predicates by first argument.
+	 */
+	protected final Map<Block, Set<Predicate>>	byFirst		= new HashMap<>();
+	/**
+	 * Predicates by second argument.
+	 */
+	protected final Map<Block, Set<Predicate>>	bySecond	= new HashMap<>();
+
+	/**
+	 * Creates a store with the predicates of the stacks.
+	 *
+	 * @param stacks
+	 *            - the stacks.
+	 */
+	PredicateStore(Collection<Stack> stacks)
+	{
+		for(Type type : Type.values())
+			byType.put(type, new HashSet<>());
+		for(Stack s : stacks)
+			for(Predicate p : s.getPredicates())
+				add(p);
+	}
+
+	/**
+	 * @param p
+	 *            - a predicate which becomes true.
+	 */
+	void add(Predicate p)
+	{
+		if(!all.add(p))
+			return;
+		byType.get(p.getType()).add(p);
+		if(!p.hasNoArgs())
+			byFirst.computeIfAbsent(p.getFirstArgument(), b -> new HashSet<>()).add(p);
+		if(p.hasTwoArgs())
+			bySecond.computeIfAbsent(p.getSecondArgument(), b -> new HashSet<>()).add(p);
+	}
+
+	/**
+	 * @param p
+	 *            - a predicate which becomes false.
+	 */
+	void remove(Predicate p)
+	{
+		if(!all.remove(p))
+			return;
+		byType.get(p.getType()).remove(p);
+		if(!p.hasNoArgs())
+			byFirst.get(p.getFirstArgument()).remove(p);
+		if(p.hasTwoArgs())
+			bySecond.get(p.getSecondArgument()).remove(p);
+	}
+
+	/**
+	 * @param p
+	 *            - a predicate.
+	 * @return <code>true</code> if the predicate is true in the world.
+	 */
+	public boolean contains(Predicate p)
+	{
+		return all.contains(p);
+	}
+
+	/**
+	 * @return the number of predicates.
+	 */
+	public int size()
+	{
+		return all.size();
+	}
+
+	/**
+	 * @return all predicates, as a lazy stream.
+	 */
+	public Stream<Predicate> stream()
+	{
+		return all.stream();
+	}
+
+	/**
+	 * @return a spliterator over all predicates.
+	 */
+	public Spliterator<Predicate> spliterator()
+	{
+		return all.spliterator();
+	}
+
+	/**
+	 * Finds the predicates matching a pattern.
+	 *
+	 * @param type
+	 *            - the type, or <code>null</code> for any type.
+	 * @param first
+	 *            - the first argument, or <code>null</code> for any.
+	 * @param second
+	 *            - the second argument, or <code>null</code> for any.
+	 * @return the matching predicates, as a lazy stream.
+	 */
+	public Stream<Predicate> query(Type type, Block first, Block second)
+	{
+		Set<Predicate> candidates;
+		if(first != null)
+			candidates = byFirst.getOrDefault(first, Collections.emptySet());
+		else if(second != null)
+			candidates = bySecond.getOrDefault(second, Collections.emptySet());
+		else if(type != null)
+			candidates = byType.get(type);
+		else
+			candidates = all;
+		Stream<Predicate> ret = StreamSupport.stream(candidates.spliterator(), false);
+		if(type != null && (first != null || second != null))
+			ret = ret.filter(p -> p.getType() == type);
+		if(first != null && second != null)
+			ret = ret.filter(p -> p.hasTwoArgs() && second.equals(p.getSecondArgument()));
+		return ret;
+	}
+
+	/**
+	 * @param type
+	 *            - the type.
+	 * @return the number of predicates of the type.
+	 */
+	public int count(Type type)
+	{
+		return byType.get(type).size();
+	}
+
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return the block which is on the given block, or <code>null</code> if the block is clear (or not in the world).
+	 */
+	public Block getAbove(Block block)
+	{
+		for(Predicate p : bySecond.getOrDefault(block, Collections.emptySet()))
+			if(p.getType() == Type.ON)
+				return p.getFirstArgument();
+		return null;
+	}
+
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return the block under the given block, or <code>null</code> if it is on the table (or not in the world).
+	 */
+	public Block getBelow(Block block)
+	{
+		for(Predicate p : byFirst.getOrDefault(block, Collections.emptySet()))
+			if(p.getType() == Type.ON)
+				return p.getSecondArgument();
+		return null;
+	}
+
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return <code>true</code> if the block is clear.
+	 */
+	public boolean isClear(Block block)
+	{
+		return all.contains(Predicate.of(Type.CLEAR, block));
+	}
+
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return <code>true</code> if the block is on the table.
+	 */
+	public boolean isOnTable(Block block)
+	{
+		return all.contains(Predicate.of(Type.ONTABLE, block));
+	}
+
+	@Override
+	public String toString()
+	{
+		return all.toString();
+	}
+}
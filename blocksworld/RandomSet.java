@@ -0,0 +1,145 @@
+package blocksworld;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A set which supports adding, removing and picking a uniformly random element in constant time: the elements are
+ * kept in an array list, with the position of each element in a map, and an element is removed by moving the last
+ * element in its place.
+ * <p>
+ * Elements are compared by identity, so elements which change (such as {@link Stack}s, whose hash code depends on
+ * their blocks) can be kept in the set. The order of the elements is not meaningful.
+ * 
+ * @param <T>
+ *            the type of the elements.
+ */
+public class RandomSet<T> extends AbstractCollection<T>
+{
+	/**
+	 * The elements.
+	 */
+	protected final List<T>				elements	= new ArrayList<>();
+	/**
+	 * The position of each element in {@link #elements}.
+	 */
+	protected final Map<T, Integer>		positions	= new IdentityHashMap<>();
+	
+	/**
+	 * Creates an empty set.
+	 */
+	public RandomSet()
+	{
+		// nothing to do
+	}
+	
+	/**
+	 * @param initial
+	 *            - the initial elements.
+	 */
+	public RandomSet(Collection<? extends T> initial)
+	{
+		for(T t : initial)
+			add(t);
+	}
+	
+	@Override
+	public boolean add(T element)
+	{
+		if(positions.containsKey(element))
+			return false;
+		positions.put(element, Integer.valueOf(elements.size()));
+		elements.add(element);
+		return true;
+	}
+	
+	@Override
+	public boolean remove(Object element)
+	{
+		Integer position = positions.remove(element);
+		if(position == null)
+			return false;
+		T last = elements.remove(elements.size() - 1);
+		if(last != element)
+		{
+			elements.set(position.intValue(), last);
+			positions.put(last, position);
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds or removes an element.
+	 * 
+	 * @param element
+	 *            - the element.
+	 * @param member
+	 *            - <code>true</code> if the element should be in the set.
+	 */
+	public void set(T element, boolean member)
+	{
+		if(member)
+			add(element);
+		else
+			remove(element);
+	}
+	
+	@Override
+	public boolean contains(Object element)
+	{
+		return positions.containsKey(element);
+	}
+	
+	@Override
+	public int size()
+	{
+		return elements.size();
+	}
+	
+	@Override
+	public void clear()
+	{
+		elements.clear();
+		positions.clear();
+	}
+	
+	/**
+	 * @param index
+	 *            - a position, between 0 and {@link #size()} - 1.
+	 * @return the element at that position.
+	 */
+	public T get(int index)
+	{
+		return elements.get(index);
+	}
+	
+	/**
+	 * @param random
+	 *            - the generator.
+	 * @return an element chosen uniformly at random.
+	 * @throws IllegalStateException
+	 *             if the set is empty.
+	 */
+	public T sample(Random random)
+	{
+		if(elements.isEmpty())
+			throw new IllegalStateException("Cannot sample from an empty set.");
+		return elements.get(random.nextInt(elements.size()));
+	}
+	
+	/**
+	 * The iterator does not support removal.
+	 */
+	@Override
+	public Iterator<T> iterator()
+	{
+		return Collections.unmodifiableList(elements).iterator();
+	}
+}
@@ -1,5 +1,7 @@
 package blocksworld;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
@@ -33,6 +35,32 @@ public class Stack
 	 */
 	List<Block>		lockedBlocks	= new LinkedList<>();
 	
+	/**
+	 * Incremented at each change of the stack.
+	 */
+	int				version			= 0;
+	
+	/**
+	 * The last snapshot of this stack, taken at {@link #snapshotVersion}, if any.
+	 */
+	Stack			snapshot		= null;
+	
+	/**
+	 * The version of the stack when the {@link #snapshot} was taken.
+	 */
+	int				snapshotVersion	= -1;
+	
+	/**
+	 * <code>true</code> if the collections of blocks may be shared with a stack in a fork of the world (see
+	 * {@link #fork()}); they are copied before the first change.
+	 */
+	boolean			shared			= false;
+	
+	/**
+	 * <code>true</code> if this stack is a snapshot (see {@link #snapshot()}), which cannot be changed.
+	 */
+	boolean			frozen			= false;
+	
 	/**
 	 * Creates a new stack, based on the given block.
 	 * 
@@ -58,6 +86,92 @@ public class Stack
 		this.lockedBlocks.addAll(lockedBlocks);
 	}
 	
+	/**
+	 * Creates a frozen copy of a stack, in compact (array-based) collections (used by {@link #snapshot()}).
+	 * 
+	 * @param original
+	 *            - the stack to copy.
+	 */
+	private Stack(Stack original)
+	{
+		blocks = new ArrayDeque<>(original.blocks);
+		lockedBlocks = Collections.unmodifiableList(new ArrayList<>(original.lockedBlocks));
+		frozen = true;
+		snapshot = this;
+		snapshotVersion = version;
+	}
+	
+	/**
+	 * Used by {@link #fork()}.
+	 */
+	private Stack()
+	{
+		// fields are set by fork()
+	}
+	
+	/**
+	 * Returns a copy of this stack, for a fork of the world, in constant time: the copy shares the collections of
+	 * blocks (and the snapshot) with this stack, and each of the two stacks copies the collections before it changes
+	 * for the first time. Shared collections are only read, so the two stacks can be used by different threads.
+	 * 
+	 * @return the copy.
+	 */
+	Stack fork()
+	{
+		Stack copy = new Stack();
+		copy.blocks = blocks;
+		copy.lockedBlocks = lockedBlocks;
+		copy.version = version;
+		copy.snapshot = snapshot;
+		copy.snapshotVersion = snapshotVersion;
+		copy.shared = shared = true;
+		return copy;
+	}
+	
+	/**
+	 * Makes the collections of blocks private to this stack, before a change.
+	 */
+	private void own()
+	{
+		if(shared)
+		{
+			blocks = new LinkedList<>(blocks);
+			lockedBlocks = new LinkedList<>(lockedBlocks);
+			shared = false;
+		}
+	}
+	
+	/**
+	 * Returns an immutable copy of this stack, which can be kept across changes of this stack. The copy is only made
+	 * again if the stack changed since the last call.
+	 * <p>
+	 * Snapshots are not part of any world, and their modifying methods throw an
+	 * {@link UnsupportedOperationException}, so they never change.
+	 * 
+	 * @return the snapshot.
+	 */
+	Stack snapshot()
+	{
+		if(snapshot == null || snapshotVersion != version)
+		{
+			snapshot = new Stack(this);
+			snapshotVersion = version;
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Checks that this stack can be changed.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if this stack is a snapshot.
+	 */
+	private void modifiable()
+	{
+		if(frozen)
+			throw new UnsupportedOperationException("A snapshot of a stack cannot be changed.");
+	}
+	
 	/**
 	 * Checks the sanity of this stack.
 	 */
@@ -80,9 +194,12 @@ public class Stack
 	 *             if the block cannot be unstacked from this stack
 	 * @throws IllegalStateException
 	 *             if the stack is not sane.
+	 * @throws UnsupportedOperationException
+	 *             if this stack is a snapshot.
 	 */
 	protected Block unstack(Block toUnstack, Block unstackFrom)
 	{
+		modifiable();
 		sane();
 		if(blocks.isEmpty())
 			throw new IllegalArgumentException("All blocks in this stack are locked.");
@@ -90,10 +207,12 @@ public class Stack
 		{
 			if(isSingleBlock())
 				throw new IllegalArgumentException("Block [" + toUnstack + "] is directly on the table. Use pickup.");
-			Iterator<Block> it = getBlocks().iterator();
+			Iterator<Block> it = blocks.iterator();
 			it.next();
-			if(!it.next().equals(unstackFrom))
+			if(!(it.hasNext() ? it.next() : lockedBlocks.get(0)).equals(unstackFrom))
 				throw new IllegalArgumentException("Block [" + toUnstack + "] is is not over [" + unstackFrom + "].");
+			own();
+			version++;
 			return blocks.poll();
 		}
 		throw new IllegalArgumentException("Block [" + toUnstack + "] is not the topmost block of this stack.");
@@ -111,13 +230,18 @@ public class Stack
 	 *             if the block to stack over is incorrect.
 	 * @throws IllegalStateException
 	 *             if the stack is not sane.
+	 * @throws UnsupportedOperationException
+	 *             if this stack is a snapshot.
 	 */
 	protected void stack(Block toStack, Block stackOver)
 	{
+		modifiable();
 		sane();
 		if(isClear(stackOver))
 		{
+			own();
 			blocks.push(toStack);
+			version++;
 			return;
 		}
 		throw new IllegalStateException("Block [" + stackOver + "] is not at the topmost block of this stack.");
@@ -126,16 +250,21 @@ public class Stack
 	/**
 	 * @param block
 	 *            - block to lock. Locked blocks can never be moved again.
+	 * @throws UnsupportedOperationException
+	 *             if this stack is a snapshot.
 	 */
 	protected void lock(Block block)
 	{
+		modifiable();
 		sane();
 		if(lockedBlocks.contains(block))
 			throw new IllegalArgumentException("Block [" + block + "] is already locked.");
 		if(!isOnTable(block) && !lockedBlocks.contains(getBelow(block)))
 			throw new IllegalArgumentException("The block under [" + block + "] is not locked.");
+		own();
 		lockedBlocks.add(0, block);
 		blocks.removeLast();
+		version++;
 	}
 	
 	/**
@@ -143,7 +272,15 @@ public class Stack
 	 */
 	public boolean isSingleBlock()
 	{
-		return getBlocks().size() == 1;
+		return blocks.size() + lockedBlocks.size() == 1;
+	}
+	
+	/**
+	 * @return <code>true</code> if the top block is locked (and therefore all blocks in the stack are locked).
+	 */
+	public boolean isTopLocked()
+	{
+		return blocks.isEmpty();
 	}
 	
 	/**
@@ -153,7 +290,7 @@ public class Stack
 	 */
 	public boolean contains(Block block)
 	{
-		return getBlocks().contains(block);
+		return blocks.contains(block) || lockedBlocks.contains(block);
 	}
 	
 	/**
@@ -204,10 +341,7 @@ public class Stack
 		if(!contains(bottomBlock))
 			throw new IllegalArgumentException("Block [" + bottomBlock + "] is not in this stack");
 		
-		for(Iterator<Block> it = getBlocks().iterator(); it.hasNext();)
-			if(it.next().equals(topBlock) && it.hasNext() && it.next().equals(bottomBlock))
-				return true;
-		return false;
+		return bottomBlock.equals(getBelow(topBlock));
 	}
 	
 	/**
@@ -215,7 +349,7 @@ public class Stack
 	 */
 	public Block getTopBlock()
 	{
-		return getBlocks().get(0);
+		return blocks.isEmpty() ? lockedBlocks.get(0) : blocks.getFirst();
 	}
 	
 	/**
@@ -223,7 +357,7 @@ public class Stack
 	 */
 	public Block getBottomBlock()
 	{
-		return getBlocks().get(getBlocks().size() - 1);
+		return lockedBlocks.isEmpty() ? blocks.getLast() : lockedBlocks.get(lockedBlocks.size() - 1);
 	}
 	
 	/**
@@ -238,7 +372,13 @@ public class Stack
 		if(!contains(block))
 			throw new IllegalArgumentException("Block [" + block + "] is not in this stack.");
 		Block above = null;
-		for(Block b : getBlocks())
+		for(Block b : blocks)
+		{
+			if(b.equals(block))
+				return above;
+			above = b;
+		}
+		for(Block b : lockedBlocks)
 		{
 			if(b.equals(block))
 				return above;
@@ -259,7 +399,14 @@ public class Stack
 		if(!contains(block))
 			throw new IllegalArgumentException("Block [" + block + "] is not in this stack.");
 		boolean found = false;
-		for(Block b : getBlocks())
+		for(Block b : blocks)
+		{
+			if(found)
+				return b;
+			if(b.equals(block))
+				found = true;
+		}
+		for(Block b : lockedBlocks)
 		{
 			if(found)
 				return b;
@@ -310,12 +457,12 @@ public class Stack
 		for(Block b : getBlocks())
 		{
 			if(above == null)
-				ret.add(new Predicate(Type.CLEAR, b));
+				ret.add(Predicate.of(Type.CLEAR, b));
 			else
-				ret.add(new Predicate(Type.ON, above, b));
+				ret.add(Predicate.of(Type.ON, above, b));
 			above = b;
 		}
-		ret.add(new Predicate(Type.ONTABLE, above));
+		ret.add(Predicate.of(Type.ONTABLE, above));
 		return ret;
 	}
 	
@@ -325,15 +472,41 @@ public class Stack
 		return getBlocks().toString();
 	}
 	
+	/**
+	 * Two stacks are equal if they contain the same blocks, in the same order, regardless of which are locked.
+	 */
 	@Override
 	public boolean equals(Object obj)
 	{
-		return obj instanceof Stack && ((Stack) obj).getBlocks().equals(getBlocks());
+		if(obj == this)
+			return true;
+		if(!(obj instanceof Stack))
+			return false;
+		Stack other = (Stack) obj;
+		if(other.blocks.size() + other.lockedBlocks.size() != blocks.size() + lockedBlocks.size())
+			return false;
+		Iterator<Block> it = other.blocks.iterator();
+		Iterator<Block> itLocked = other.lockedBlocks.iterator();
+		for(Block b : blocks)
+			if(!b.equals(it.hasNext() ? it.next() : itLocked.next()))
+				return false;
+		for(Block b : lockedBlocks)
+			if(!b.equals(it.hasNext() ? it.next() : itLocked.next()))
+				return false;
+		return true;
 	}
 	
+	/**
+	 * The same as the hash code of {@link #getBlocks()}, without building the list.
+	 */
 	@Override
 	public int hashCode()
 	{
-		return getBlocks().hashCode();
+		int hash = 1;
+		for(Block b : blocks)
+			hash = 31 * hash + b.hashCode();
+		for(Block b : lockedBlocks)
+			hash = 31 * hash + b.hashCode();
+		return hash;
 	}
 }
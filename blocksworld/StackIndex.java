@@ -0,0 +1,165 @@
+package blocksworld;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the stacks of a {@link BlocksWorld}, kept up to date by the world as it changes (see
+ * {@link BlocksWorld#getStackIndex()}): the stack containing each block, and the stacks grouped by whether they have a
+ * single block and whether their top block is locked, as {@link RandomSet}s, so that a stack of a given kind can be
+ * picked at random in constant time.
+ */
+public class StackIndex
+{
+	/**
+	 * The stack of each block.
+	 */
+	protected final Map<Block, Stack>	stackOf				= new HashMap<>();
+	/**
+	 * All stacks.
+	 */
+	protected final RandomSet<Stack>	all					= new RandomSet<>();
+	/**
+	 * Stacks with the top block not locked.
+	 */
+	protected final RandomSet<Stack>	unlocked			= new RandomSet<>();
+	/**
+	 * Stacks with more than one block.
+	 */
+	protected final RandomSet<Stack>	multiple			= new RandomSet<>();
+	/**
+	 * Stacks with more than one block, with the top block not locked.
+	 */
+	protected final RandomSet<Stack>	multipleUnlocked	= new RandomSet<>();
+	
+	/**
+	 * Creates an index of the stacks.
+	 * 
+	 * @param stacks
+	 *            - the stacks.
+	 */
+	StackIndex(Collection<Stack> stacks)
+	{
+		for(Stack s : stacks)
+		{
+			add(s);
+			for(Block b : s.getBlocks())
+				stackOf.put(b, s);
+		}
+	}
+	
+	/**
+	 * Creates a copy of an index, for a copy of the world, keeping the order of the stacks in each set (so that the
+	 * copy picks the same stacks as the original, given the same random numbers).
+	 * 
+	 * @param original
+	 *            - the index to copy.
+	 * @param copies
+	 *            - the copy of each stack of the original world.
+	 */
+	StackIndex(StackIndex original, Map<Stack, Stack> copies)
+	{
+		for(Map.Entry<Block, Stack> entry : original.stackOf.entrySet())
+			stackOf.put(entry.getKey(), copies.get(entry.getValue()));
+		copy(original.all, all, copies);
+		copy(original.unlocked, unlocked, copies);
+		copy(original.multiple, multiple, copies);
+		copy(original.multipleUnlocked, multipleUnlocked, copies);
+	}
+	
+	/**
+	 * @param from
+	 *            - a set of stacks.
+	 * @param to
+	 *            - the set to add the copies to.
+	 * @param copies
+	 *            - the copy of each stack.
+	 */
+	private static void copy(RandomSet<Stack> from, RandomSet<Stack> to, Map<Stack, Stack> copies)
+	{
+		for(Stack s : from)
+			to.add(copies.get(s));
+	}
+	
+	/**
+	 * @param s
+	 *            - a stack which was added to the world (with a single block).
+	 */
+	void add(Stack s)
+	{
+		all.add(s);
+		update(s);
+	}
+	
+	/**
+	 * @param s
+	 *            - a stack which was removed from the world.
+	 */
+	void remove(Stack s)
+	{
+		all.remove(s);
+		unlocked.remove(s);
+		multiple.remove(s);
+		multipleUnlocked.remove(s);
+	}
+	
+	/**
+	 * Updates the sets containing a stack, after it changed.
+	 * 
+	 * @param s
+	 *            - the stack.
+	 */
+	void update(Stack s)
+	{
+		boolean free = !s.isTopLocked();
+		boolean many = !s.isSingleBlock();
+		unlocked.set(s, free);
+		multiple.set(s, many);
+		multipleUnlocked.set(s, many && free);
+	}
+	
+	/**
+	 * @param block
+	 *            - a block which was placed in a stack.
+	 * @param s
+	 *            - the stack.
+	 */
+	void placed(Block block, Stack s)
+	{
+		stackOf.put(block, s);
+	}
+	
+	/**
+	 * @param block
+	 *            - a block which was taken from its stack.
+	 */
+	void taken(Block block)
+	{
+		stackOf.remove(block);
+	}
+	
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return the stack containing it, or <code>null</code> if it is not in any stack.
+	 */
+	public Stack getStack(Block block)
+	{
+		return stackOf.get(block);
+	}
+	
+	/**
+	 * @param canBeSingle
+	 *            - <code>true</code> to include stacks with a single block.
+	 * @param canBeLocked
+	 *            - <code>true</code> to include stacks with the top block locked.
+	 * @return the stacks of that kind (the set must not be modified).
+	 */
+	public RandomSet<Stack> getStacks(boolean canBeSingle, boolean canBeLocked)
+	{
+		if(canBeSingle)
+			return canBeLocked ? all : unlocked;
+		return canBeLocked ? multiple : multipleUnlocked;
+	}
+}
@@ -0,0 +1,104 @@
+package my;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import base.Agent;
+import blocksworld.BlocksWorld;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+import tester.DeadlineAgent;
+import tester.StepScheduler;
+
+/**
+ * Regression check for the agent: runs the agent on each test problem which can be completed, in an environment with
+ * the given dynamicity, for a number of seeds, and counts the runs in which the agent completes in the desired state,
+ * the runs in which it completes in another state, and the runs in which it does not complete. Exits with a non-zero
+ * status if the agent ever completes in a state which is not the desired one, or, in a static environment, if it does
+ * not complete.
+ */
+public class AgentCheck
+{
+	/**
+	 * Maximum number of environment steps for a run.
+	 */
+	protected static final int MAX_STEPS = 1000;
+	
+	/**
+	 * Main.
+	 * 
+	 * @param args
+	 *            - the dynamicity of the environment (default 0), the number of seeds (default 1), the planner of the
+	 *            agent (see {@link MyTester#createAgent(BlocksWorld, String, String, float)}; default the empty
+	 *            string), and the deadline for each response of the agent, in milliseconds (see
+	 *            {@link DeadlineAgent}, which is also the period of the steps; default 0, for none).
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		float dynamicity = args.length > 0 ? Float.parseFloat(args[0]) : 0;
+		int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		String planner = args.length > 2 ? args[2] : "";
+		long deadline = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		Map<String, String[]> problems = PlannerCheck.getTestProblems();
+		PrintStream out = System.out;
+		int correct = 0, wrong = 0, incomplete = 0;
+		long correctSteps = 0;
+		for(long seed = 1; seed <= seeds; seed++)
+			for(Map.Entry<String, String[]> problem : problems.entrySet())
+			{
+				String result;
+				// the environment reports every step
+				System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+				try
+				{
+					BlocksWorld desired = PlannerCheck.parse(problem.getValue()[1]);
+					PlannerCheck.CheckEnvironment environment = new PlannerCheck.CheckEnvironment(
+							PlannerCheck.parse(problem.getValue()[0]), dynamicity, seed);
+					Agent agent = MyTester.createAgent(desired, "*A", planner, dynamicity);
+					if(deadline > 0)
+						agent = new DeadlineAgent(agent, deadline, new PlanningAction(PlanningActionType.CONTINUE_PLAN));
+					environment.addAgent(agent, desired, null);
+					// with a deadline, the steps are paced as in the tester, so that a late agent can catch up
+					StepScheduler scheduler = new StepScheduler(deadline);
+					boolean complete = false;
+					int step = 0;
+					while(!complete && step < MAX_STEPS)
+					{
+						complete = environment.step();
+						scheduler.awaitNextTick();
+						step++;
+					}
+					if(!complete)
+					{
+						result = "not completed";
+						incomplete++;
+					}
+					else if((result = PlannerCheck.checkDesired(environment.getWorld(), desired)) != null)
+						wrong++;
+					else
+					{
+						correct++;
+						correctSteps += step;
+					}
+				} catch(RuntimeException e)
+				{
+					result = e.toString();
+					wrong++;
+				} finally
+				{
+					System.setOut(out);
+				}
+				if(result != null)
+					System.out.println("seed " + seed + " " + problem.getKey() + ": " + result);
+			}
+		System.out.println(correct + " correct (" + (correct > 0 ? correctSteps / correct : 0) + " steps on average), "
+				+ wrong + " completed incorrectly, " + incomplete + " not completed, of " + seeds * problems.size()
+				+ " runs with dynamicity " + dynamicity + (planner.isEmpty() ? "" : ", planner " + planner)
+				+ (deadline > 0 ? ", deadline " + deadline + " ms" : ""));
+		System.exit(wrong > 0 || dynamicity == 0 && incomplete > 0 ? 1 : 0);
+	}
+}
@@ -0,0 +1,116 @@
+package my;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import base.Action;
+import base.Agent;
+import base.Perceptions;
+import blocksworld.BlocksWorld;
+import blocksworld.DynamicEnvironment;
+import blocksworld.DynamicEnvironment.DynamicAction;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+
+/**
+ * Check that a step of the environment allocates nothing, apart from what the changes of the world require: steps
+ * environments in which the world does not change (a static world, and dynamic worlds with a single stack, observed by
+ * the agent, so that dynamic actions are chosen but cannot be performed), with an agent which always continues its
+ * (empty) plan, and measures the memory allocated by the thread, after a warm-up. Exits with a non-zero status if any
+ * step allocates.
+ */
+public class AllocationCheck
+{
+	/**
+	 * Number of steps performed before measuring, so that the code is compiled.
+	 */
+	protected static final int	WARMUP_STEPS	= 50000;
+
+	/**
+	 * Number of steps measured.
+	 */
+	protected static final int	STEPS			= 10000;
+
+	/**
+	 * Agent which always continues its plan, with the same action.
+	 */
+	protected static class IdleAgent implements Agent
+	{
+		/**
+		 * The response.
+		 */
+		protected final PlanningAction continuePlan = new PlanningAction(PlanningActionType.CONTINUE_PLAN);
+
+		@Override
+		public Action response(Perceptions input)
+		{
+			return continuePlan;
+		}
+
+		@Override
+		public String statusString()
+		{
+			return "";
+		}
+
+		@Override
+		public String toString()
+		{
+			return "idle";
+		}
+	}
+
+	/**
+	 * @return the environments to check, by name.
+	 * @throws IOException
+	 *             - never, the worlds are given.
+	 */
+	protected static Map<String, DynamicEnvironment> getEnvironments() throws IOException
+	{
+		BlocksWorld world = PlannerCheck.parse("A..\nB.D\nC.E\n");
+		BlocksWorld tower = PlannerCheck.parse("A\nB\nC\n");
+		Map<DynamicAction, Double> arrivalRates = new EnumMap<>(DynamicAction.class);
+		for(DynamicAction dyna : DynamicAction.values())
+			arrivalRates.put(dyna, Double.valueOf(2));
+		Map<String, DynamicEnvironment> environments = new LinkedHashMap<>();
+		environments.put("static", new MyBlocksWorldEnvironment(world, 0, 1));
+		environments.put("dynamicity 1", new MyBlocksWorldEnvironment(tower, 1, 1));
+		environments.put("arrival rates", new MyBlocksWorldEnvironment(tower, arrivalRates, 1));
+		return environments;
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws IOException
+	 *             - never, the worlds are given.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		int failures = 0;
+		for(Map.Entry<String, DynamicEnvironment> entry : getEnvironments().entrySet())
+		{
+			DynamicEnvironment environment = entry.getValue();
+			environment.setLogging(false);
+			environment.addAgent(new IdleAgent(), null, null);
+			for(int i = 0; i < WARMUP_STEPS; i++)
+				environment.step();
+			long before = threads.getThreadAllocatedBytes(thread);
+			for(int i = 0; i < STEPS; i++)
+				environment.step();
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+			System.out.println(entry.getKey() + ": " + allocated + " bytes allocated in " + STEPS + " steps");
+			if(allocated > 0)
+				failures++;
+		}
+		System.exit(failures > 0 ? 1 : 0);
+	}
+}
@@ -0,0 +1,343 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+
+/**
+ * Anytime planner, using Anytime Repairing A* (ARA*): a weighted A* search (f = g + w * h) finds a first plan quickly,
+ * then the weight is decreased and the search is resumed, reusing the previous search effort, to find better plans
+ * while time remains. With a weight of 1, the plan found is optimal (in number of moves).
+ * <p>
+ * Each plan found is recorded in the improvement trajectory (see {@link #getTrajectory()}), as a {@link PackedPlan}, so
+ * that keeping all of them costs one <code>int</code> for each action; the plan returned is the last one, unpacked.
+ */
+public class AnytimePlanner extends SearchPlanner
+{
+	/**
+	 * One point in the improvement trajectory.
+	 */
+	public static class Improvement
+	{
+		/**
+		 * Time since the start of the call, in nanoseconds.
+		 */
+		public final long		time;
+		/**
+		 * The number of moves in the plan.
+		 */
+		public final int		cost;
+		/**
+		 * The weight with which the plan was found.
+		 */
+		public final double		weight;
+		/**
+		 * The number of nodes expanded so far.
+		 */
+		public final long		expanded;
+		/**
+		 * The plan.
+		 */
+		public final PackedPlan	plan;
+		
+		/**
+		 * @param elapsed
+		 *            - time since the start of the call, in nanoseconds.
+		 * @param planCost
+		 *            - the number of moves in the plan.
+		 * @param w
+		 *            - the weight.
+		 * @param nodes
+		 *            - nodes expanded so far.
+		 * @param packedPlan
+		 *            - the plan.
+		 */
+		Improvement(long elapsed, int planCost, double w, long nodes, PackedPlan packedPlan)
+		{
+			time = elapsed;
+			cost = planCost;
+			weight = w;
+			expanded = nodes;
+			plan = packedPlan;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("%.1fms: %d moves (w=%.2f, %d nodes)", Double.valueOf(time / 1e6),
+					Integer.valueOf(cost), Double.valueOf(weight), Long.valueOf(expanded));
+		}
+	}
+	
+	/**
+	 * An entry in the open list. Entries become stale when the node is reinserted with a different key.
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		/**
+		 * The node.
+		 */
+		final AraNode	node;
+		/**
+		 * The key at insertion.
+		 */
+		final double	key;
+		
+		/**
+		 * @param n
+		 *            - the node.
+		 * @param k
+		 *            - the key.
+		 */
+		Entry(AraNode n, double k)
+		{
+			node = n;
+			key = k;
+		}
+		
+		@Override
+		public int compareTo(Entry o)
+		{
+			int c = Double.compare(key, o.key);
+			return c != 0 ? c : Integer.compare(o.node.g, node.g); // deeper first
+		}
+	}
+	
+	/**
+	 * A node with the ARA* bookkeeping.
+	 */
+	protected static class AraNode extends SearchNode
+	{
+		/**
+		 * The key in the open list, if the node is open; NaN otherwise.
+		 */
+		double	openKey		= Double.NaN;
+		/**
+		 * The iteration in which the node was last closed.
+		 */
+		int		closedIn	= -1;
+		/**
+		 * <code>true</code> if the node is in the inconsistent list.
+		 */
+		boolean	incons		= false;
+		
+		/**
+		 * @param nodeState
+		 *            - the state.
+		 * @param cost
+		 *            - the cost.
+		 * @param parentNode
+		 *            - the parent.
+		 * @param parentMove
+		 *            - the move from the parent.
+		 */
+		AraNode(PlanningState nodeState, int cost, SearchNode parentNode, int parentMove)
+		{
+			super(nodeState, cost, parentNode, parentMove);
+		}
+	}
+	
+	/**
+	 * The weight of the first iteration.
+	 */
+	protected final double				initialWeight;
+	
+	/**
+	 * The amount by which the weight decreases after each iteration.
+	 */
+	protected final double				weightStep;
+	
+	/**
+	 * Plans found in the last call.
+	 */
+	protected final List<Improvement>	trajectory		= new ArrayList<>();
+	
+	/**
+	 * The best plan found so far by the current (or the last) call, the same as the last plan in the trajectory, but
+	 * readable by other threads while the planner runs; <code>null</code> until a plan is found.
+	 */
+	protected volatile PackedPlan		incumbent		= null;
+	
+	/**
+	 * The initial state of the problem of the current (or the last) call, set after {@link #incumbent} is reset at the
+	 * start of the call. Problems may be changed between calls, but each change creates a new initial state.
+	 */
+	protected volatile PlanningState	incumbentState	= null;
+	
+	/**
+	 * Creates a planner with an initial weight of 3, decreasing by 0.5.
+	 */
+	public AnytimePlanner()
+	{
+		this(3, .5);
+	}
+	
+	/**
+	 * @param weight
+	 *            - the weight of the first iteration (at least 1).
+	 * @param step
+	 *            - the amount by which the weight decreases after each iteration (positive).
+	 */
+	public AnytimePlanner(double weight, double step)
+	{
+		if(weight < 1 || step <= 0)
+			throw new IllegalArgumentException("Bad weights: " + weight + ", " + step);
+		initialWeight = weight;
+		weightStep = step;
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadlineTime)
+	{
+		long startTime = System.nanoTime();
+		start(deadlineTime);
+		trajectory.clear();
+		incumbent = null;
+		incumbentState = problem.getInitialState();
+		
+		Map<PlanningState, AraNode> nodes = new HashMap<>();
+		PriorityQueue<Entry> open = new PriorityQueue<>();
+		List<AraNode> incons = new ArrayList<>();
+		AraNode root = new AraNode(problem.getInitialState(), 0, null, 0);
+		nodes.put(root.state, root);
+		double w = initialWeight;
+		push(open, root, w);
+		AraNode best = null;
+		
+		for(int iteration = 0;; iteration++)
+		{
+			// improve path
+			while(!open.isEmpty() && (best == null || open.peek().key < best.g))
+			{
+				Entry e = open.poll();
+				AraNode node = e.node;
+				if(e.key != node.openKey)
+					continue; // stale
+				node.openKey = Double.NaN;
+				node.closedIn = iteration;
+				if(node.state.isGoal())
+				{
+					if(best == null || node.g < best.g)
+						best = node;
+					continue;
+				}
+				if(expand())
+					break;
+				for(int move : node.state.moves())
+				{
+					PlanningState s = node.state.apply(move);
+					AraNode child = nodes.get(s);
+					if(child == null)
+					{
+						child = new AraNode(s, Integer.MAX_VALUE, null, 0);
+						nodes.put(s, child);
+					}
+					if(child.g > node.g + 1)
+					{
+						child.g = node.g + 1;
+						child.parent = node;
+						child.move = move;
+						if(child.closedIn != iteration)
+							push(open, child, w);
+						else if(!child.incons)
+						{
+							child.incons = true;
+							incons.add(child);
+						}
+					}
+				}
+			}
+			if(best != null && (trajectory.isEmpty() || best.g < trajectory.get(trajectory.size() - 1).cost))
+			{
+				PackedPlan plan = PackedPlan.pack(problem.toPlanningAction(best.path(), best.g), problem);
+				trajectory.add(new Improvement(System.nanoTime() - startTime, best.g, w, nExpanded, plan));
+				incumbent = plan;
+			}
+			if(expired || w <= 1 || open.isEmpty() && incons.isEmpty())
+				break;
+			// decrease the weight, move inconsistent nodes to open and recompute all keys
+			w = Math.max(1, w - weightStep);
+			List<AraNode> reopen = new ArrayList<>(incons);
+			for(Entry e : open)
+				if(e.key == e.node.openKey)
+					reopen.add(e.node);
+			open.clear();
+			incons.clear();
+			for(AraNode node : reopen)
+			{
+				node.incons = false;
+				push(open, node, w);
+			}
+		}
+		if(best == null)
+			return null;
+		// the best plan is the last improvement
+		return trajectory.get(trajectory.size() - 1).plan.unpack(PlanningActionType.NEW_PLAN, problem);
+	}
+	
+	/**
+	 * Inserts or re-inserts a node in the open list.
+	 * 
+	 * @param open
+	 *            - the open list.
+	 * @param node
+	 *            - the node.
+	 * @param w
+	 *            - the current weight.
+	 */
+	protected static void push(PriorityQueue<Entry> open, AraNode node, double w)
+	{
+		node.openKey = node.g + w * node.state.heuristic();
+		open.add(new Entry(node, node.openKey));
+	}
+	
+	/**
+	 * @return the plans found in the last call, in order: the time at which each was found, and its cost.
+	 */
+	public List<Improvement> getTrajectory()
+	{
+		return Collections.unmodifiableList(trajectory);
+	}
+	
+	/**
+	 * Can be called by another thread while the planner runs, e.g. by a {@link PortfolioPlanner} which cancels the
+	 * planner at its deadline and keeps the best plan found until then.
+	 * 
+	 * @return the best plan found so far by the current (or the last) call, packed with the problem of the call (see
+	 *         {@link PackedPlan#unpack(PlanningActionType, PlanningProblem)}); <code>null</code> if none was found
+	 *         yet.
+	 */
+	public PackedPlan getIncumbent()
+	{
+		return incumbent;
+	}
+	
+	/**
+	 * As {@link #getIncumbent()}, but only if the current call is for the given problem, in its current state, so that
+	 * a plan of a previous call is never read when the call has not started yet.
+	 * 
+	 * @param problem
+	 *            - the problem.
+	 * @return the best plan found so far for the problem, unpacked as a new plan; <code>null</code> if none was found
+	 *         yet.
+	 */
+	public PlanningAction getIncumbent(PlanningProblem problem)
+	{
+		if(incumbentState != problem.getInitialState())
+			return null;
+		PackedPlan plan = incumbent;
+		return plan == null ? null : plan.unpack(PlanningActionType.NEW_PLAN, problem);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "ARA*(w=" + initialWeight + ")";
+	}
+}
@@ -0,0 +1,322 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.Stack;
+
+/**
+ * What an agent believes about the world, when it only sees the stack at its current station: the stations, in order,
+ * with the stack last observed at each of them and the step of that observation.
+ * <p>
+ * Observations are merged one at a time (see {@link #observe}): the stack seen at the current station replaces the one
+ * believed there, blocks seen elsewhere are removed from the stations where they were believed to be (together with
+ * the blocks believed above them, which must have been moved as well), and the action performed by the agent tells
+ * where a station not seen before is in the order of stations, or that the station expected instead of a known one
+ * has disappeared, the known one having taken its place.
+ * <p>
+ * The stacks are kept in the form used by {@link PlanningProblem} (block indexes, top first, and the number of locked
+ * blocks at the bottom), in a problem which is updated in place: the believed world is ready for planning after each
+ * observation, and only the stations which changed are updated.
+ */
+public class BeliefStore
+{
+	/**
+	 * The believed world, as a planning problem (the stations and their stacks are kept here).
+	 */
+	protected final PlanningProblem	problem;
+	
+	/**
+	 * The step of the last observation of each station, in the order of the stations of {@link #problem}.
+	 */
+	protected final List<Long>		seen		= new ArrayList<>();
+	
+	/**
+	 * The station where each block is believed to be, by block index; <code>null</code> if not known.
+	 */
+	protected Station[]				location	= new Station[0];
+	
+	/**
+	 * The position of the station of the agent; -1 before the first observation.
+	 */
+	protected int					current		= -1;
+	
+	/**
+	 * The index of the block held by the agent at the last observation; -1 if none.
+	 */
+	protected int					held		= -1;
+	
+	/**
+	 * @param desiredState
+	 *            - the desired state of the world.
+	 * @param patternDatabases
+	 *            - pattern databases for the desired state, used by planners.
+	 */
+	public BeliefStore(BlocksWorld desiredState, List<PatternDatabase> patternDatabases)
+	{
+		problem = new PlanningProblem(desiredState).setPatternDatabases(patternDatabases);
+	}
+	
+	/**
+	 * Merges an observation.
+	 * 
+	 * @param station
+	 *            - the station of the agent.
+	 * @param stack
+	 *            - the stack seen at the station.
+	 * @param held
+	 *            - the block held by the agent, or <code>null</code>.
+	 * @param performed
+	 *            - the action performed by the agent at the previous step, or <code>null</code> if it failed or if
+	 *            there was none.
+	 * @param step
+	 *            - the current step.
+	 * @return the step when the station was last observed, or -1 if it was not known.
+	 */
+	public long observe(Station station, Stack stack, Block held, BlocksWorldAction performed, long step)
+	{
+		List<Block> blocks = stack.getBlocks();
+		int[] observed = new int[blocks.size()];
+		int i = 0;
+		for(Block b : blocks)
+		{
+			if(!problem.index.containsKey(b))
+				problem.changed(); // so that new blocks can be registered
+			observed[i++] = problem.indexOf(b);
+		}
+		int nLocked = 0;
+		while(nLocked < observed.length && stack.isLocked(blocks.get(observed.length - 1 - nLocked)))
+			nLocked++;
+		if(location.length < problem.size())
+			location = Arrays.copyOf(location, problem.size());
+		
+		// blocks seen here (or held) are not where they were believed to be; after a PICKUP, this removes the station
+		for(int b : observed)
+			if(location[b] != null && !location[b].equals(station))
+				forget(b);
+		this.held = -1;
+		if(held != null)
+		{
+			if(!problem.index.containsKey(held))
+				problem.changed();
+			int h = problem.indexOf(held);
+			if(location.length < problem.size())
+				location = Arrays.copyOf(location, problem.size());
+			if(location[h] != null)
+				forget(h);
+			this.held = h;
+		}
+		
+		BlocksWorldAction.Type type = performed == null ? null : performed.getType();
+		boolean forward = type == BlocksWorldAction.Type.NEXT_STATION || type == BlocksWorldAction.Type.PICKUP;
+		// where the agent should be: PICKUP already moved the position to the next station
+		int expected = type == BlocksWorldAction.Type.NEXT_STATION ? current + 1 : Math.max(current, 0);
+		int position = problem.stations.indexOf(station);
+		// the step when the station was last observed, if it was moved
+		long moved = -1;
+		if(forward && position >= 0 && position != expected % problem.getStationCount())
+		{
+			boolean same = false;
+			for(int b : observed)
+				same = same || station.equals(location[b]);
+			if(same)
+			{
+				// the station expected here has disappeared, and this one took its place (the environment moves the
+				// last station in the place of a removed one); other stations passed over are checked when visited
+				int k = expected % problem.getStationCount();
+				moved = seen.get(position).longValue();
+				removeStation(k);
+				if(k < position)
+					position--;
+				removeStation(position);
+				if(position < k)
+					k--;
+				expected = k;
+				position = -1;
+			}
+			else
+			{
+				// the label was freed and given to a new station
+				removeStation(position);
+				if(position < expected)
+					expected--;
+				position = -1;
+			}
+		}
+		if(type == BlocksWorldAction.Type.PUTDOWN && position >= 0)
+		{
+			// PUTDOWN makes a new station at the current position; its label belonged to a station which is gone
+			removeStation(position);
+			if(position < expected)
+				expected--;
+			position = -1;
+		}
+		long last = moved;
+		if(position < 0)
+		{
+			position = Math.min(expected, problem.getStationCount());
+			problem.insertStation(position, station, observed, nLocked);
+			seen.add(position, Long.valueOf(step));
+		}
+		else
+		{
+			last = seen.get(position).longValue();
+			int[] believed = problem.stacks.get(position);
+			if(!Arrays.equals(believed, observed) || problem.lockedCounts.get(position).intValue() != nLocked)
+			{
+				for(int b : believed)
+					location[b] = null;
+				problem.setStation(position, observed, nLocked);
+			}
+			seen.set(position, Long.valueOf(step));
+		}
+		for(int b : observed)
+			location[b] = station;
+		current = position;
+		return last;
+	}
+	
+	/**
+	 * Removes a block, and the blocks believed above it, from the station where it was believed to be; the station
+	 * is removed if no blocks remain.
+	 * 
+	 * @param block
+	 *            - the block.
+	 */
+	protected void forget(int block)
+	{
+		int position = problem.stations.indexOf(location[block]);
+		int[] stack = problem.stacks.get(position);
+		int k = 0;
+		while(stack[k] != block)
+			location[stack[k++]] = null;
+		location[block] = null;
+		if(k + 1 == stack.length)
+			removeStation(position);
+		else
+			problem.setStation(position, Arrays.copyOfRange(stack, k + 1, stack.length),
+					Math.min(problem.lockedCounts.get(position).intValue(), stack.length - k - 1));
+	}
+	
+	/**
+	 * Removes a station and forgets its blocks.
+	 * 
+	 * @param position
+	 *            - the position of the station.
+	 */
+	protected void removeStation(int position)
+	{
+		for(int b : problem.stacks.get(position))
+			location[b] = null;
+		problem.removeStation(position);
+		seen.remove(position);
+		if(position < current)
+			current--;
+		else if(current == problem.getStationCount())
+			current = 0;
+	}
+	
+	/**
+	 * @param held
+	 *            - the block held by the agent, or <code>null</code>.
+	 * @return the believed world, as a planning problem, with the agent at its current station. The problem is
+	 *         updated by later observations.
+	 */
+	public PlanningProblem getProblem(Block held)
+	{
+		return problem.setAgent(problem.stations.get(current), held);
+	}
+	
+	/**
+	 * @return <code>true</code> if every block known to the agent, apart from the one it holds, is believed to be at
+	 *         some station.
+	 */
+	public boolean isEveryBlockLocated()
+	{
+		for(int b = 0; b < problem.size(); b++)
+			if(b != held && (b >= location.length || location[b] == null))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @return the number of stations believed to exist.
+	 */
+	public int getStationCount()
+	{
+		return problem.getStationCount();
+	}
+	
+	/**
+	 * @param position
+	 *            - the position of a station.
+	 * @return the station.
+	 */
+	public Station getStation(int position)
+	{
+		return problem.stations.get(position);
+	}
+	
+	/**
+	 * @param station
+	 *            - a station.
+	 * @return the position of the station, or -1 if it is not known.
+	 */
+	public int getPosition(Station station)
+	{
+		return problem.stations.indexOf(station);
+	}
+	
+	/**
+	 * @param position
+	 *            - the position of a station.
+	 * @return <code>true</code> if all blocks in the stack believed at the station are locked.
+	 */
+	public boolean isTopLocked(int position)
+	{
+		return problem.lockedCounts.get(position).intValue() == problem.stacks.get(position).length;
+	}
+	
+	/**
+	 * @return the position of the station of the agent.
+	 */
+	public int getCurrent()
+	{
+		return current;
+	}
+	
+	/**
+	 * @param position
+	 *            - the position of a station.
+	 * @return the step when the station was last observed.
+	 */
+	public long getLastSeen(int position)
+	{
+		return seen.get(position).longValue();
+	}
+	
+	/**
+	 * @param step
+	 *            - a step.
+	 * @return the number of stations observed at that step or later.
+	 */
+	public int countSeenSince(long step)
+	{
+		int n = 0;
+		for(Long s : seen)
+			if(s.longValue() >= step)
+				n++;
+		return n;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return problem + " seen at " + seen;
+	}
+}
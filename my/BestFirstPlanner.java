@@ -0,0 +1,371 @@
+package my;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import blocksworld.PlanningAction;
+
+/**
+ * Best-first planner, ordering nodes by f = wg * g + wh * h: A* for (1, 1), weighted A* for (1, w) and greedy
+ * best-first search for (0, 1).
+ * <p>
+ * The closed set is an {@link OffHeapStateTable}, so that the states which were expanded can be discarded from the
+ * heap; only the states in the open list are kept as objects. The table is kept by the planner and cleared at each
+ * call.
+ * <p>
+ * The search can also be done by several threads, sharing the open list and an {@link OffHeapStateTable.Striped}
+ * closed set. The first plan found is then returned only when the cost is not taken into account (greedy search);
+ * otherwise, the threads go on until no node in the open list can lead to a cheaper plan.
+ */
+public class BestFirstPlanner extends SearchPlanner
+{
+	/**
+	 * An entry in the open list.
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		/**
+		 * The state.
+		 */
+		final PlanningState	state;
+		/**
+		 * The cost of the path to the state.
+		 */
+		final int			g;
+		/**
+		 * The priority.
+		 */
+		final double		f;
+		/**
+		 * The heuristic value, for tie-breaking.
+		 */
+		final int			h;
+		
+		/**
+		 * @param s
+		 *            - the state.
+		 * @param cost
+		 *            - the cost of the path to the state.
+		 * @param priority
+		 *            - the priority.
+		 * @param heuristic
+		 *            - the heuristic value.
+		 */
+		Entry(PlanningState s, int cost, double priority, int heuristic)
+		{
+			state = s;
+			g = cost;
+			f = priority;
+			h = heuristic;
+		}
+		
+		@Override
+		public int compareTo(Entry o)
+		{
+			int c = Double.compare(f, o.f);
+			return c != 0 ? c : Integer.compare(h, o.h);
+		}
+	}
+	
+	/**
+	 * How long a thread of a parallel search waits when the open list is empty, in nanoseconds.
+	 */
+	protected static final long			IDLE_WAIT	= 100000;
+	
+	/**
+	 * Weight of the cost.
+	 */
+	protected final double				costWeight;
+	
+	/**
+	 * Weight of the heuristic.
+	 */
+	protected final double				heuristicWeight;
+	
+	/**
+	 * The number of threads searching together.
+	 */
+	protected final int					threads;
+	
+	/**
+	 * The closed set, for searches with one thread; created by the first call.
+	 */
+	protected OffHeapStateTable			closed			= null;
+	
+	/**
+	 * The closed set, for searches with several threads; created by the first call.
+	 */
+	protected OffHeapStateTable.Striped	sharedClosed	= null;
+	
+	/**
+	 * Creates an A* planner.
+	 */
+	public BestFirstPlanner()
+	{
+		this(1, 1);
+	}
+	
+	/**
+	 * @param wg
+	 *            - weight of the cost.
+	 * @param wh
+	 *            - weight of the heuristic.
+	 */
+	public BestFirstPlanner(double wg, double wh)
+	{
+		this(wg, wh, 1);
+	}
+	
+	/**
+	 * @param wg
+	 *            - weight of the cost.
+	 * @param wh
+	 *            - weight of the heuristic.
+	 * @param nThreads
+	 *            - the number of threads searching together (the calling thread and <code>nThreads - 1</code> more).
+	 */
+	public BestFirstPlanner(double wg, double wh, int nThreads)
+	{
+		costWeight = wg;
+		heuristicWeight = wh;
+		threads = Math.max(nThreads, 1);
+	}
+	
+	/**
+	 * @return a greedy best-first planner.
+	 */
+	public static BestFirstPlanner greedy()
+	{
+		return greedy(1);
+	}
+	
+	/**
+	 * @param nThreads
+	 *            - the number of threads searching together.
+	 * @return a greedy best-first planner.
+	 */
+	public static BestFirstPlanner greedy(int nThreads)
+	{
+		return new BestFirstPlanner(0, 1, nThreads);
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadlineTime)
+	{
+		start(deadlineTime);
+		if(threads > 1)
+			return new ParallelSearch(problem).run();
+		if(closed == null)
+			closed = new OffHeapStateTable();
+		else
+			closed.clear();
+		PriorityQueue<Entry> open = new PriorityQueue<>();
+		PlanningState root = problem.getInitialState();
+		closed.put(root.getFingerprint(), 0, 0, OffHeapStateTable.NO_MOVE);
+		open.add(entry(root, 0));
+		while(!open.isEmpty())
+		{
+			Entry e = open.poll();
+			long fingerprint = e.state.getFingerprint();
+			if(closed.getCost(fingerprint) < e.g)
+				continue; // a cheaper path was found after this entry was added
+			if(e.state.isGoal())
+			{
+				int[] path = closed.path(fingerprint);
+				return problem.toPlanningAction(path, path.length);
+			}
+			if(expand())
+				return null;
+			for(int move : e.state.moves())
+			{
+				PlanningState s = e.state.apply(move);
+				if(closed.put(s.getFingerprint(), e.g + 1, fingerprint, move))
+					open.add(entry(s, e.g + 1));
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * A search by several threads, sharing the open list and the closed set.
+	 */
+	protected class ParallelSearch
+	{
+		/**
+		 * The problem.
+		 */
+		final PlanningProblem				problem;
+		/**
+		 * The open list.
+		 */
+		final PriorityBlockingQueue<Entry>	open		= new PriorityBlockingQueue<>();
+		/**
+		 * The number of threads which found the open list empty, and hold no node.
+		 */
+		final AtomicInteger					idle		= new AtomicInteger();
+		/**
+		 * The number of nodes expanded.
+		 */
+		final AtomicLong					expanded	= new AtomicLong();
+		/**
+		 * <code>true</code> when all threads must stop.
+		 */
+		volatile boolean					stopped		= false;
+		/**
+		 * The cost of the cheapest plan found, or {@link Integer#MAX_VALUE}.
+		 */
+		volatile int						bestCost	= Integer.MAX_VALUE;
+		/**
+		 * The fingerprint of the goal state of the cheapest plan found.
+		 */
+		long								bestGoal;
+		
+		/**
+		 * @param planningProblem
+		 *            - the problem.
+		 */
+		ParallelSearch(PlanningProblem planningProblem)
+		{
+			problem = planningProblem;
+		}
+		
+		/**
+		 * Runs the search with all threads.
+		 * 
+		 * @return the plan, or <code>null</code> if none was found in time.
+		 */
+		PlanningAction run()
+		{
+			if(sharedClosed == null)
+				sharedClosed = new OffHeapStateTable.Striped(4 * threads, OffHeapStateTable.CAPACITY / threads);
+			else
+				sharedClosed.clear();
+			PlanningState root = problem.getInitialState();
+			sharedClosed.put(root.getFingerprint(), 0, 0, OffHeapStateTable.NO_MOVE);
+			open.add(entry(root, 0));
+			Thread[] helpers = new Thread[threads - 1];
+			for(int i = 0; i < helpers.length; i++)
+			{
+				helpers[i] = new Thread(this::work, "best-first");
+				helpers[i].setDaemon(true);
+				helpers[i].start();
+			}
+			work();
+			boolean interrupted = false;
+			for(Thread helper : helpers)
+				while(helper.isAlive())
+					try
+					{
+						helper.join();
+					} catch(InterruptedException e)
+					{
+						// cancelled: the helpers stop at their next check
+						interrupted = stopped = expired = true;
+					}
+			if(interrupted)
+				Thread.currentThread().interrupt();
+			nExpanded = expanded.get();
+			if(expired || bestCost == Integer.MAX_VALUE)
+				return null;
+			int[] path = sharedClosed.path(bestGoal);
+			return problem.toPlanningAction(path, path.length);
+		}
+		
+		/**
+		 * Takes nodes from the open list and expands them, until the search is over.
+		 */
+		void work()
+		{
+			boolean optimal = costWeight > 0;
+			boolean waiting = false;
+			while(!stopped)
+			{
+				// a thread is never idle while it holds a node, so that the others do not stop too soon
+				if(waiting && !open.isEmpty())
+				{
+					idle.decrementAndGet();
+					waiting = false;
+				}
+				Entry e = waiting ? null : open.poll();
+				if(e == null)
+				{
+					if(!waiting)
+					{
+						idle.incrementAndGet();
+						waiting = true;
+					}
+					// over when all threads are idle, as only a thread holding a node can add more
+					if(open.isEmpty() && idle.get() == threads && open.isEmpty())
+						stopped = true;
+					else if(isExpired(deadline))
+						expired = stopped = true;
+					else
+						LockSupport.parkNanos(IDLE_WAIT);
+					continue;
+				}
+				long fingerprint = e.state.getFingerprint();
+				if(sharedClosed.getCost(fingerprint) < e.g)
+					continue; // a cheaper path was found after this entry was added
+				if(optimal && e.g + e.h >= bestCost)
+					continue; // cannot lead to a cheaper plan, as the heuristic is admissible
+				if(e.state.isGoal())
+				{
+					found(fingerprint, e.g);
+					continue;
+				}
+				if(expanded.incrementAndGet() % CHECK_INTERVAL == 0 && isExpired(deadline))
+					expired = stopped = true;
+				for(int move : e.state.moves())
+				{
+					PlanningState s = e.state.apply(move);
+					if(sharedClosed.put(s.getFingerprint(), e.g + 1, fingerprint, move))
+						open.add(entry(s, e.g + 1));
+				}
+			}
+		}
+		
+		/**
+		 * Records a plan; without the cost in the priority, the search stops at the first one.
+		 * 
+		 * @param goal
+		 *            - the fingerprint of the goal state.
+		 * @param cost
+		 *            - the cost of the plan.
+		 */
+		synchronized void found(long goal, int cost)
+		{
+			if(cost < bestCost)
+			{
+				bestGoal = goal;
+				bestCost = cost;
+			}
+			if(costWeight == 0)
+				stopped = true;
+		}
+	}
+	
+	/**
+	 * @param state
+	 *            - a state.
+	 * @param g
+	 *            - the cost of the path to the state.
+	 * @return the entry for the open list.
+	 */
+	protected Entry entry(PlanningState state, int g)
+	{
+		int h = state.heuristic();
+		return new Entry(state, g, costWeight * g + heuristicWeight * h, h);
+	}
+	
+	@Override
+	public String toString()
+	{
+		String threadCount = threads > 1 ? " x" + threads : "";
+		if(costWeight == 0)
+			return "greedy" + threadCount;
+		return (costWeight == heuristicWeight ? "A*" : "WA*(" + heuristicWeight / costWeight + ")") + threadCount;
+	}
+}
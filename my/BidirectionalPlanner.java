@@ -0,0 +1,257 @@
+package my;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import blocksworld.PlanningAction;
+
+/**
+ * Bidirectional heuristic planner. One search goes forward from the perceived state and one goes backward from a
+ * desired state (see {@link PlanningProblem#getGoalState()}); since moves are reversible, the backward search uses the
+ * same moves. Each search is an A* search with its own index of states, and the searches meet on a state found in
+ * both; the forward search also stops on any state satisfying the desired state.
+ * <p>
+ * The forward search is guided by {@link PlanningState#heuristic()}, the backward search by the number of blocks which
+ * are not where they are in the perceived state (each must be moved at least once). At each step, the search with the
+ * smaller open list expands its best node, and the planner stops when the best meeting found is not longer than the
+ * smallest f value of either open list, so the plan found is the shortest one (in moves), as long as the heuristics
+ * are consistent. The planner gives up if the number of stored states exceeds a limit.
+ */
+public class BidirectionalPlanner extends SearchPlanner
+{
+	/**
+	 * Default limit for the number of states stored by both searches.
+	 */
+	public static final int	MAX_STATES	= 2000000;
+	
+	/**
+	 * An entry in an open list. Entries become stale when a shorter path to their state is found.
+	 */
+	protected static class Entry implements Comparable<Entry>
+	{
+		/**
+		 * The node.
+		 */
+		final SearchNode	node;
+		/**
+		 * The priority, g + h.
+		 */
+		final int			f;
+		
+		/**
+		 * @param n
+		 *            - the node.
+		 * @param priority
+		 *            - the priority.
+		 */
+		Entry(SearchNode n, int priority)
+		{
+			node = n;
+			f = priority;
+		}
+		
+		@Override
+		public int compareTo(Entry o)
+		{
+			int c = Integer.compare(f, o.f);
+			return c != 0 ? c : Integer.compare(o.node.g, node.g); // deeper first
+		}
+	}
+	
+	/**
+	 * One of the two searches.
+	 */
+	protected static class Search
+	{
+		/**
+		 * The best node found for each state.
+		 */
+		final Map<PlanningState, SearchNode>	nodes	= new HashMap<>();
+		/**
+		 * The open list.
+		 */
+		final PriorityQueue<Entry>				open	= new PriorityQueue<>();
+		/**
+		 * For the backward search, the block under each block in the perceived state; <code>null</code> for the
+		 * forward search.
+		 */
+		final int[]								origin;
+		
+		/**
+		 * @param root
+		 *            - the state where the search starts.
+		 * @param originBelow
+		 *            - for the backward search, the block under each block in the perceived state; <code>null</code>
+		 *            for the forward search.
+		 */
+		Search(PlanningState root, int[] originBelow)
+		{
+			origin = originBelow;
+			add(new SearchNode(root, 0, null, 0));
+		}
+		
+		/**
+		 * @param state
+		 *            - a state.
+		 * @return an admissible estimate of the number of moves from the state to the end of this search.
+		 */
+		int heuristic(PlanningState state)
+		{
+			if(origin == null)
+				return state.heuristic();
+			int h = 0;
+			for(int i = 0; i < origin.length; i++)
+				if(state.getBelow(i) != origin[i])
+					h++;
+			return h;
+		}
+		
+		/**
+		 * @param node
+		 *            - a node for a state which is new, or with a shorter path than before.
+		 */
+		void add(SearchNode node)
+		{
+			nodes.put(node.state, node);
+			open.add(new Entry(node, node.g + heuristic(node.state)));
+		}
+		
+		/**
+		 * @return the smallest f value in the open list, after removing stale entries; {@link Integer#MAX_VALUE} if
+		 *         the list is empty.
+		 */
+		int minF()
+		{
+			while(!open.isEmpty() && nodes.get(open.peek().node.state) != open.peek().node)
+				open.poll();
+			return open.isEmpty() ? Integer.MAX_VALUE : open.peek().f;
+		}
+	}
+	
+	/**
+	 * Limit for the number of states stored by both searches; the planner gives up when it is exceeded.
+	 */
+	protected final int		maxStates;
+	
+	/**
+	 * The length of the plan found in the last call, or -1.
+	 */
+	protected int			planLength	= -1;
+	
+	/**
+	 * Creates a planner with the default state limit.
+	 */
+	public BidirectionalPlanner()
+	{
+		this(MAX_STATES);
+	}
+	
+	/**
+	 * @param stateLimit
+	 *            - the limit for the number of states stored by both searches.
+	 */
+	public BidirectionalPlanner(int stateLimit)
+	{
+		maxStates = stateLimit;
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadlineTime)
+	{
+		start(deadlineTime);
+		planLength = -1;
+		PlanningState initial = problem.getInitialState();
+		if(initial.isGoal())
+			return problem.toPlanningAction(new int[0], 0);
+		int[] origin = new int[problem.size()];
+		for(int i = 0; i < origin.length; i++)
+			origin[i] = initial.getBelow(i);
+		Search forward = new Search(initial, null);
+		Search backward = new Search(problem.getGoalState(), origin);
+		
+		// the best meeting found: the forward node, and the backward node (null if the forward node is a goal)
+		SearchNode meetForward = null, meetBackward = null;
+		int best = Integer.MAX_VALUE;
+		while(true)
+		{
+			int forwardF = forward.minF();
+			int backwardF = backward.minF();
+			if(forwardF == Integer.MAX_VALUE || best <= Math.max(forwardF, backwardF))
+				break;
+			if(expand() || forward.nodes.size() + backward.nodes.size() > maxStates)
+				return null;
+			boolean isForward = backwardF == Integer.MAX_VALUE || forward.open.size() <= backward.open.size();
+			Search own = isForward ? forward : backward;
+			Search other = isForward ? backward : forward;
+			SearchNode node = own.open.poll().node;
+			for(int move : node.state.moves())
+			{
+				PlanningState s = node.state.apply(move);
+				SearchNode known = own.nodes.get(s);
+				if(known != null && known.g <= node.g + 1)
+					continue;
+				SearchNode child = new SearchNode(s, node.g + 1, node, move);
+				own.add(child);
+				if(isForward && child.g < best && s.isGoal())
+				{
+					best = child.g;
+					meetForward = child;
+					meetBackward = null;
+				}
+				SearchNode met = other.nodes.get(s);
+				if(met != null && child.g + met.g < best)
+				{
+					best = child.g + met.g;
+					meetForward = isForward ? child : met;
+					meetBackward = isForward ? met : child;
+				}
+			}
+		}
+		if(meetForward == null)
+			return null;
+		return problem.toPlanningAction(join(problem, meetForward, meetBackward), best);
+	}
+	
+	/**
+	 * Joins the forward path to a state with the reverse of the backward path to the same state.
+	 * 
+	 * @param problem
+	 *            - the problem.
+	 * @param f
+	 *            - the node in the forward search.
+	 * @param b
+	 *            - the node in the backward search, or <code>null</code> if the state of the forward node satisfies
+	 *            the desired state.
+	 * @return the moves from the initial state to the goal state.
+	 */
+	protected int[] join(PlanningProblem problem, SearchNode f, SearchNode b)
+	{
+		int[] ret = new int[f.g + (b == null ? 0 : b.g)];
+		int[] first = f.path();
+		System.arraycopy(first, 0, ret, 0, first.length);
+		int k = first.length;
+		for(SearchNode node = b; node != null && node.parent != null; node = node.parent)
+		{
+			// the backward move took the block from its place in the parent; the forward move puts it back there.
+			int block = problem.moveBlock(node.move);
+			ret[k++] = problem.move(block, node.parent.state.getBelow(block));
+		}
+		planLength = ret.length;
+		return ret;
+	}
+	
+	/**
+	 * @return the number of moves in the plan found in the last call, or -1.
+	 */
+	public int getPlanLength()
+	{
+		return planLength;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "bidirectional A*";
+	}
+}
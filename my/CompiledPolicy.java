@@ -0,0 +1,883 @@
+package my;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.PlanningAction;
+import blocksworld.Stack;
+
+/**
+ * Planner for small worlds, which uses a table giving an optimal move for every state of the world.
+ * <p>
+ * The table is compiled once for each desired state and set of blocks, and kept for all later problems with the same
+ * desired state and blocks (also by other agents): all states in which the agent holds no block are enumerated, then
+ * the distance of each of them to the desired state is computed by a breadth-first search from all states which
+ * satisfy the desired state (moves are reversible), and the first move of an optimal plan is recorded. A plan is then
+ * built with one table lookup per move, without search.
+ * <p>
+ * States are identified by a canonical fingerprint, which does not depend on the order in which blocks were observed:
+ * with the blocks sorted by label, 4 bits for each block give the block under it (0 for the table, the position of the
+ * block plus 1, or {@link #HELD_CODE}). A move is packed in a byte: the position of the moved block and the code of its
+ * destination. Tables can also be compiled offline and saved (see {@link #main(String[])}).
+ * <p>
+ * Worlds with more states than the limit (by default, worlds of more than 8 blocks) do not have a table in memory;
+ * up to a second limit (by default, worlds of 9 blocks), the states are instead written on disk by an
+ * {@link ExternalBfs}, one sorted file for each distance to the desired state, and a plan is built by going, at each
+ * move, to a state found in the file for the next smaller distance. Larger worlds, and the rare problems which the
+ * table does not fit (e.g. blocks locked outside their desired position), are given to the fallback planner.
+ */
+public class CompiledPolicy implements Planner
+{
+	/**
+	 * Default limit for the number of states in a table.
+	 */
+	public static final int						MAX_STATES	= 500000;
+
+	/**
+	 * Default limit for the number of states written on disk, for worlds above the limit for a table.
+	 */
+	public static final long					EXTERNAL_STATES	= 5000000;
+
+	/**
+	 * Directory for the files of the states on disk, in the temporary directory.
+	 */
+	public static final String					LAYER_DIRECTORY	= "blocksworld-bfs";
+
+	/**
+	 * Code of the table, in a fingerprint.
+	 */
+	protected static final int					TABLE_CODE	= 0;
+
+	/**
+	 * Code of a block held by the agent, in a fingerprint.
+	 */
+	protected static final int					HELD_CODE	= 15;
+
+	/**
+	 * The largest number of blocks that can be encoded.
+	 */
+	protected static final int					MAX_BLOCKS	= 14;
+
+	/**
+	 * Compiled tables, by {@link #tableKey(BlocksWorld, char[])}.
+	 */
+	protected static final Map<String, Table>	TABLES		= new ConcurrentHashMap<>();
+
+	/**
+	 * The states on disk, by {@link #tableKey(BlocksWorld, char[])}.
+	 */
+	protected static final Map<String, ExternalBfs>	LAYERS		= new ConcurrentHashMap<>();
+
+	/**
+	 * A compiled policy: for each state in which the agent holds no block, its distance to the desired state and the
+	 * first move of an optimal plan.
+	 */
+	public static class Table
+	{
+		/**
+		 * Marks an empty slot in {@link #keys}. Fingerprints never have the highest bits set.
+		 */
+		static final long	EMPTY	= -1L;
+		/**
+		 * The key of the table (see {@link CompiledPolicy#tableKey(BlocksWorld, char[])}).
+		 */
+		final String		key;
+		/**
+		 * The labels of the blocks, sorted.
+		 */
+		final char[]		labels;
+		/**
+		 * The fingerprints, in an open-addressing hash table.
+		 */
+		final long[]		keys;
+		/**
+		 * The move for each state.
+		 */
+		final byte[]		moves;
+		/**
+		 * The distance to the desired state, in moves, for each state; -1 if not computed.
+		 */
+		final byte[]		distances;
+		/**
+		 * The number of states.
+		 */
+		int					size	= 0;
+
+		/**
+		 * @param tableKey
+		 *            - the key of the table.
+		 * @param blockLabels
+		 *            - the labels of the blocks, sorted.
+		 * @param nStates
+		 *            - the number of states.
+		 */
+		Table(String tableKey, char[] blockLabels, int nStates)
+		{
+			key = tableKey;
+			labels = blockLabels;
+			int capacity = Integer.highestOneBit(Math.max(nStates, 2) * 2 - 1) << 1;
+			keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			moves = new byte[capacity];
+			distances = new byte[capacity];
+			Arrays.fill(distances, (byte) -1);
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - a fingerprint.
+		 * @return its slot, or the empty slot where it would be added.
+		 */
+		int slot(long fingerprint)
+		{
+			int mask = keys.length - 1;
+			int i = (int) ((fingerprint * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while(keys[i] != EMPTY && keys[i] != fingerprint)
+				i = (i + 1) & mask;
+			return i;
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - a fingerprint.
+		 * @return the slot of the state, or -1 if it is not in the table.
+		 */
+		int find(long fingerprint)
+		{
+			int i = slot(fingerprint);
+			return keys[i] == EMPTY ? -1 : i;
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - a fingerprint.
+		 * @return the slot of the state, if it was added; -1 if it was already in the table.
+		 */
+		int add(long fingerprint)
+		{
+			int i = slot(fingerprint);
+			if(keys[i] != EMPTY)
+				return -1;
+			keys[i] = fingerprint;
+			size++;
+			return i;
+		}
+
+		/**
+		 * @return the number of states.
+		 */
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * @return the memory used by the table, in bytes.
+		 */
+		public long getBytes()
+		{
+			return keys.length * (8L + 1 + 1);
+		}
+
+		/**
+		 * Writes the table: the key, the labels, then the fingerprint, move and distance of each state.
+		 *
+		 * @param output
+		 *            - the stream.
+		 * @throws IOException
+		 *             - if writing fails.
+		 */
+		public void write(OutputStream output) throws IOException
+		{
+			DataOutputStream out = new DataOutputStream(output);
+			out.writeUTF(key);
+			out.writeUTF(new String(labels));
+			out.writeInt(size);
+			for(int i = 0; i < keys.length; i++)
+				if(keys[i] != EMPTY)
+				{
+					out.writeLong(keys[i]);
+					out.writeByte(moves[i]);
+					out.writeByte(distances[i]);
+				}
+			out.flush();
+		}
+
+		/**
+		 * Reads a table written by {@link #write(OutputStream)}.
+		 *
+		 * @param input
+		 *            - the stream.
+		 * @return the table.
+		 * @throws IOException
+		 *             - if reading fails.
+		 */
+		public static Table read(InputStream input) throws IOException
+		{
+			DataInputStream in = new DataInputStream(input);
+			String key = in.readUTF();
+			char[] labels = in.readUTF().toCharArray();
+			int n = in.readInt();
+			Table ret = new Table(key, labels, n);
+			for(int k = 0; k < n; k++)
+			{
+				int i = ret.add(in.readLong());
+				if(i < 0)
+					throw new IOException("Duplicate state in table.");
+				ret.moves[i] = in.readByte();
+				ret.distances[i] = in.readByte();
+			}
+			return ret;
+		}
+
+		@Override
+		public String toString()
+		{
+			return size + " states over " + new String(labels) + " (" + getBytes() / 1024 + " KB)";
+		}
+	}
+
+	/**
+	 * The planner for problems which the table does not fit.
+	 */
+	protected final Planner	fallback;
+
+	/**
+	 * The limit for the number of states in a table.
+	 */
+	protected final int		maxStates;
+
+	/**
+	 * The limit for the number of states written on disk.
+	 */
+	protected final long	maxExternalStates;
+
+	/**
+	 * The directory for the states on disk; <code>null</code> for none.
+	 */
+	protected final Path	layerDirectory;
+
+	/**
+	 * The planner which provided the last plan.
+	 */
+	protected Planner		lastPlanner	= null;
+
+	/**
+	 * Creates a policy with the default limit.
+	 *
+	 * @param fallbackPlanner
+	 *            - the planner for problems which the table does not fit.
+	 */
+	public CompiledPolicy(Planner fallbackPlanner)
+	{
+		this(fallbackPlanner, MAX_STATES);
+	}
+
+	/**
+	 * @param fallbackPlanner
+	 *            - the planner for problems which the table does not fit.
+	 * @param stateLimit
+	 *            - the largest number of states in a table.
+	 */
+	public CompiledPolicy(Planner fallbackPlanner, int stateLimit)
+	{
+		this(fallbackPlanner, stateLimit, EXTERNAL_STATES,
+				Paths.get(System.getProperty("java.io.tmpdir"), LAYER_DIRECTORY));
+	}
+
+	/**
+	 * @param fallbackPlanner
+	 *            - the planner for problems which the table does not fit.
+	 * @param stateLimit
+	 *            - the largest number of states in a table.
+	 * @param externalStateLimit
+	 *            - the largest number of states written on disk, for worlds with more states than a table.
+	 * @param directory
+	 *            - the directory for the states on disk; <code>null</code> to never use the disk.
+	 */
+	public CompiledPolicy(Planner fallbackPlanner, int stateLimit, long externalStateLimit, Path directory)
+	{
+		fallback = fallbackPlanner;
+		maxStates = stateLimit;
+		maxExternalStates = externalStateLimit;
+		layerDirectory = directory;
+	}
+
+	/**
+	 * Compiles ahead of time the table for a desired state, assuming that the world contains exactly the blocks in the
+	 * desired state (tables for other sets of blocks are compiled when needed).
+	 *
+	 * @param desiredState
+	 *            - the desired state.
+	 * @return <code>true</code> if the world is small enough for a table, or for the states on disk.
+	 */
+	public boolean precompile(BlocksWorld desiredState)
+	{
+		char[] labels = sortedLabels(desiredState.allBlocks());
+		if(fits(labels.length))
+			getTable(desiredState, labels);
+		else if(fitsOnDisk(labels.length))
+			try
+			{
+				getLayers(desiredState, labels);
+			} catch(UncheckedIOException e)
+			{
+				System.out.println("States on disk not available: " + e.getCause());
+				return false;
+			}
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * Compiles ahead of time the table for a desired state, as {@link #precompile(BlocksWorld)}, but first loads the
+	 * table saved in a file (see {@link #main(String[])}), if the file exists (see {@link #load(InputStream)}); the
+	 * table is only compiled if the file could not be read, or holds the table for another desired state or set of
+	 * blocks.
+	 *
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param file
+	 *            - the file with the table; <code>null</code> for none.
+	 * @return <code>true</code> if the world is small enough for a table, or for the states on disk.
+	 */
+	public boolean precompile(BlocksWorld desiredState, Path file)
+	{
+		char[] labels = sortedLabels(desiredState.allBlocks());
+		String key = tableKey(desiredState, labels);
+		if(file != null && fits(labels.length) && !TABLES.containsKey(key) && Files.isRegularFile(file))
+			try (InputStream input = new BufferedInputStream(Files.newInputStream(file)))
+			{
+				if(!load(input).key.equals(key))
+					System.out.println("Table in " + file + " is for another desired state; compiling.");
+			} catch(IOException e)
+			{
+				System.out.println("Table in " + file + " not available: " + e);
+			}
+		return precompile(desiredState);
+	}
+
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadline)
+	{
+		lastPlanner = fallback;
+		PlanningState state = problem.getInitialState();
+		int[] blockAt = new int[problem.size()];
+		int[] positionOf = new int[problem.size()];
+		int n = 0;
+		for(int i = 0; i < problem.size(); i++)
+			if(state.getBelow(i) != PlanningState.ABSENT)
+				blockAt[n++] = i;
+		if(!fits(n) && !fitsOnDisk(n))
+			return fallback.plan(problem, deadline);
+		blockAt = Arrays.copyOf(blockAt, n);
+		char[] labels = new char[n];
+		Integer[] order = new Integer[n];
+		for(int p = 0; p < n; p++)
+			order[p] = Integer.valueOf(blockAt[p]);
+		Arrays.sort(order,
+				(a, b) -> problem.getBlock(a.intValue()).getLabel() - problem.getBlock(b.intValue()).getLabel());
+		for(int p = 0; p < n; p++)
+		{
+			blockAt[p] = order[p].intValue();
+			positionOf[blockAt[p]] = p;
+			labels[p] = problem.getBlock(blockAt[p]).getLabel();
+		}
+		if(!fits(n))
+			return planOnDisk(problem, deadline, blockAt, positionOf, labels);
+		Table table = getTable(problem.getTarget(), labels);
+
+		int[] moves = new int[4 * n + 4];
+		int nMoves = 0;
+		while(!state.isGoal())
+		{
+			int move = nMoves < moves.length ? nextMove(table, state, blockAt, positionOf) : -1;
+			if(move < 0)
+				return fallback.plan(problem, deadline);
+			moves[nMoves++] = move;
+			state = state.apply(move);
+		}
+		lastPlanner = this;
+		return problem.toPlanningAction(moves, nMoves);
+	}
+
+	/**
+	 * Builds a plan from the states on disk: from a state at some distance, there is always a move to a state at the
+	 * next smaller distance, so only that layer is searched, once for each possible move. If the agent holds a block,
+	 * the first move is the one leading to the closest state.
+	 *
+	 * @param problem
+	 *            - the problem.
+	 * @param deadline
+	 *            - the deadline, for the fallback planner.
+	 * @param blockAt
+	 *            - the index of the block at each position.
+	 * @param positionOf
+	 *            - the position of each block.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the plan.
+	 */
+	protected PlanningAction planOnDisk(PlanningProblem problem, long deadline, int[] blockAt, int[] positionOf,
+			char[] labels)
+	{
+		PlanningState state = problem.getInitialState();
+		int[] moves = new int[4 * blockAt.length + 4];
+		int nMoves = 0;
+		try
+		{
+			ExternalBfs layers = getLayers(problem.getTarget(), labels);
+			int distance = layers.depthOf(fingerprint(state, blockAt, positionOf));
+			while(!state.isGoal())
+			{
+				int move = -1;
+				if(distance < 0)
+				{
+					// holding a block: no state on disk, but a move puts it down
+					for(int m : state.moves())
+					{
+						int d = layers.depthOf(fingerprint(state.apply(m), blockAt, positionOf));
+						if(d >= 0 && (move < 0 || d < distance))
+						{
+							move = m;
+							distance = d;
+						}
+					}
+				}
+				else if(distance > 0)
+				{
+					for(int m : state.moves())
+						if(layers.contains(distance - 1, fingerprint(state.apply(m), blockAt, positionOf)))
+						{
+							move = m;
+							distance--;
+							break;
+						}
+				}
+				if(move < 0 || nMoves == moves.length)
+					return fallback.plan(problem, deadline);
+				moves[nMoves++] = move;
+				state = state.apply(move);
+			}
+		} catch(IOException | UncheckedIOException e)
+		{
+			return fallback.plan(problem, deadline);
+		}
+		lastPlanner = this;
+		return problem.toPlanningAction(moves, nMoves);
+	}
+
+	/**
+	 * Gives the move from the table, if it can be performed; otherwise (the agent holds a block, or the move would
+	 * move a locked block) the possible move leading to the state closest to the desired state, if it is closer than
+	 * the current state.
+	 *
+	 * @param table
+	 *            - the table.
+	 * @param state
+	 *            - the state.
+	 * @param blockAt
+	 *            - the index of the block at each position.
+	 * @param positionOf
+	 *            - the position of each block.
+	 * @return the move, or -1 if there is no move that gets closer to the desired state.
+	 */
+	protected static int nextMove(Table table, PlanningState state, int[] blockAt, int[] positionOf)
+	{
+		PlanningProblem problem = state.getProblem();
+		int[] possible = state.moves();
+		int slot = table.find(fingerprint(state, blockAt, positionOf));
+		int distance = Integer.MAX_VALUE;
+		if(slot >= 0)
+		{
+			int code = table.moves[slot] & 0xFF;
+			int to = code & 0xF;
+			int move = problem.move(blockAt[code >>> 4], to == TABLE_CODE ? PlanningProblem.TABLE : blockAt[to - 1]);
+			for(int m : possible)
+				if(m == move)
+					return move;
+			distance = table.distances[slot];
+		}
+		int best = -1;
+		for(int m : possible)
+		{
+			int s = table.find(fingerprint(state.apply(m), blockAt, positionOf));
+			if(s >= 0 && table.distances[s] >= 0 && table.distances[s] < distance)
+			{
+				distance = table.distances[s];
+				best = m;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param state
+	 *            - a state.
+	 * @param blockAt
+	 *            - the index of the block at each position.
+	 * @param positionOf
+	 *            - the position of each block.
+	 * @return the canonical fingerprint of the state.
+	 */
+	protected static long fingerprint(PlanningState state, int[] blockAt, int[] positionOf)
+	{
+		long ret = 0;
+		for(int p = blockAt.length - 1; p >= 0; p--)
+		{
+			int below = state.getBelow(blockAt[p]);
+			ret = ret << 4 | (below == PlanningProblem.TABLE ? TABLE_CODE
+					: below == PlanningState.HELD ? HELD_CODE : positionOf[below] + 1);
+		}
+		return ret;
+	}
+
+	/**
+	 * @param nBlocks
+	 *            - a number of blocks.
+	 * @return <code>true</code> if the table for that many blocks is within the limit.
+	 */
+	protected boolean fits(int nBlocks)
+	{
+		return nBlocks <= MAX_BLOCKS && countStates(nBlocks) <= maxStates;
+	}
+
+	/**
+	 * @param nBlocks
+	 *            - a number of blocks.
+	 * @return <code>true</code> if the states of that many blocks can be written on disk, within the limit.
+	 */
+	protected boolean fitsOnDisk(int nBlocks)
+	{
+		return layerDirectory != null && nBlocks <= MAX_BLOCKS && countStates(nBlocks) <= maxExternalStates;
+	}
+
+	/**
+	 * @return the planner which provided the last plan (this one, or the fallback planner); <code>null</code> if none.
+	 */
+	public Planner getLastPlanner()
+	{
+		return lastPlanner;
+	}
+
+	/**
+	 * @return the fallback planner.
+	 */
+	public Planner getFallback()
+	{
+		return fallback;
+	}
+
+	/**
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the table (compiled if needed).
+	 */
+	protected static Table getTable(BlocksWorld desiredState, char[] labels)
+	{
+		return TABLES.computeIfAbsent(tableKey(desiredState, labels), key -> compile(desiredState, labels));
+	}
+
+	/**
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the states on disk (written if needed, or if the files are not complete).
+	 * @throws UncheckedIOException
+	 *             - if the files cannot be read or written.
+	 */
+	protected ExternalBfs getLayers(BlocksWorld desiredState, char[] labels)
+	{
+		String key = tableKey(desiredState, labels);
+		return LAYERS.computeIfAbsent(key, k -> {
+			try
+			{
+				return ExternalBfs.goalLayers(desiredState, labels,
+						layerDirectory.resolve(Integer.toHexString(k.hashCode())), ExternalBfs.BUFFER_STATES);
+			} catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the key for the table.
+	 */
+	protected static String tableKey(BlocksWorld desiredState, char[] labels)
+	{
+		return new String(labels) + "\n" + desiredState;
+	}
+
+	/**
+	 * @param blocks
+	 *            - blocks.
+	 * @return their labels, sorted.
+	 */
+	protected static char[] sortedLabels(Iterable<Block> blocks)
+	{
+		StringBuilder labels = new StringBuilder();
+		for(Block b : blocks)
+			labels.append(b.getLabel());
+		char[] ret = labels.toString().toCharArray();
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * The number of states of <i>n</i> blocks (without a held block): the sum, over the number <i>k</i> of stacks, of
+	 * the Lah numbers <i>C(n-1, k-1) n! / k!</i>.
+	 *
+	 * @param n
+	 *            - the number of blocks.
+	 * @return the number of states.
+	 */
+	public static long countStates(int n)
+	{
+		long ret = n == 0 ? 1 : 0;
+		long lah = 1; // L(n, n)
+		for(int k = n; k >= 1; k--)
+		{
+			ret += lah;
+			// L(n, k-1) = L(n, k) * k * (k-1) / (n - k + 1)
+			lah = lah * k * (k - 1) / (n - k + 1);
+		}
+		return ret;
+	}
+
+	/**
+	 * The desired state, as the codes that must be in the fingerprint of a state which satisfies it. Blocks which are
+	 * not in the set, and blocks above them, are ignored.
+	 *
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the mask of the codes of blocks with a desired position, and the desired codes.
+	 */
+	protected static long[] goalMask(BlocksWorld desiredState, char[] labels)
+	{
+		long mask = 0, value = 0;
+		for(Stack s : desiredState.getTowers())
+		{
+			int under = TABLE_CODE;
+			for(Block b : s.getBlocksReversed())
+			{
+				int p = Arrays.binarySearch(labels, b.getLabel());
+				if(p < 0)
+					break;
+				mask |= 0xFL << 4 * p;
+				value |= (long) under << 4 * p;
+				under = p + 1;
+			}
+		}
+		return new long[] { mask, value };
+	}
+
+	/**
+	 * @param world
+	 *            - a world.
+	 * @param labels
+	 *            - the labels of its blocks, sorted.
+	 * @return the canonical fingerprint of the world.
+	 */
+	protected static long fingerprint(BlocksWorld world, char[] labels)
+	{
+		long ret = 0;
+		for(Stack s : world.getTowers())
+		{
+			int above = -1;
+			for(Block b : s.getBlocks())
+			{
+				int p = Arrays.binarySearch(labels, b.getLabel());
+				if(above >= 0)
+					ret |= (long) (p + 1) << 4 * above;
+				above = p;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Compiles the table for a desired state and a set of blocks.
+	 *
+	 * @param desiredState
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks, sorted.
+	 * @return the table.
+	 */
+	public static Table compile(BlocksWorld desiredState, char[] labels)
+	{
+		int n = labels.length;
+		if(n > MAX_BLOCKS)
+			throw new IllegalArgumentException("Too many blocks for a table: " + n);
+		long[] desired = goalMask(desiredState, labels);
+		long goalMask = desired[0], goalValue = desired[1];
+
+		Table table = new Table(tableKey(desiredState, labels), labels, (int) countStates(n));
+		long[] queue = new long[(int) countStates(n)];
+		long[] neighbors = new long[n * n];
+		byte[] neighborMoves = new byte[n * n];
+		// all states, from the one with all blocks on the table
+		int head = 0, tail = 0;
+		table.add(0);
+		queue[tail++] = 0;
+		while(head < tail)
+		{
+			int k = neighbors(queue[head++], n, neighbors, neighborMoves);
+			for(int i = 0; i < k; i++)
+				if(table.add(neighbors[i]) >= 0)
+					queue[tail++] = neighbors[i];
+		}
+		// distances, from all desired states; the move back along an edge is the reverse move
+		head = tail = 0;
+		for(long key : table.keys)
+			if(key != Table.EMPTY && (key & goalMask) == goalValue)
+			{
+				table.distances[table.find(key)] = 0;
+				queue[tail++] = key;
+			}
+		while(head < tail)
+		{
+			long key = queue[head++];
+			int distance = table.distances[table.find(key)];
+			int k = neighbors(key, n, neighbors, neighborMoves);
+			for(int i = 0; i < k; i++)
+			{
+				int slot = table.find(neighbors[i]);
+				if(table.distances[slot] < 0)
+				{
+					int x = neighborMoves[i] >>> 4 & 0xF;
+					table.distances[slot] = (byte) (distance + 1);
+					table.moves[slot] = (byte) (x << 4 | (int) (key >>> 4 * x & 0xF));
+					queue[tail++] = neighbors[i];
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @param key
+	 *            - the fingerprint of a state without a held block.
+	 * @param n
+	 *            - the number of blocks.
+	 * @param neighbors
+	 *            - array to fill with the fingerprints of the states after each move.
+	 * @param neighborMoves
+	 *            - array to fill with the moves.
+	 * @return the number of moves.
+	 */
+	protected static int neighbors(long key, int n, long[] neighbors, byte[] neighborMoves)
+	{
+		boolean[] clear = new boolean[n];
+		Arrays.fill(clear, true);
+		for(int p = 0; p < n; p++)
+		{
+			int under = (int) (key >>> 4 * p & 0xF);
+			if(under != TABLE_CODE)
+				clear[under - 1] = false;
+		}
+		int k = 0;
+		for(int x = 0; x < n; x++)
+			if(clear[x])
+			{
+				long without = key & ~(0xFL << 4 * x);
+				if(without != key)
+				{
+					neighbors[k] = without;
+					neighborMoves[k++] = (byte) (x << 4 | TABLE_CODE);
+				}
+				for(int y = 0; y < n; y++)
+					if(clear[y] && y != x)
+					{
+						neighbors[k] = without | (long) (y + 1) << 4 * x;
+						neighborMoves[k++] = (byte) (x << 4 | y + 1);
+					}
+			}
+		return k;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "compiled policy";
+	}
+
+	/**
+	 * Registers a table saved by {@link Table#write(OutputStream)}, so that it is not compiled again.
+	 *
+	 * @param input
+	 *            - the stream.
+	 * @return the table.
+	 * @throws IOException
+	 *             - if reading fails.
+	 */
+	public static Table load(InputStream input) throws IOException
+	{
+		Table table = Table.read(input);
+		TABLES.put(table.key, table);
+		return table;
+	}
+
+	/**
+	 * Compiles offline the table for a test and saves it as <code>policy.bin</code> in the directory of the test.
+	 *
+	 * @param args
+	 *            - the directory of the test (containing <code>si.txt</code>), and optionally the suffix of the file
+	 *            with the desired state (e.g. <code>1</code> for <code>sf1.txt</code>).
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String dir = args[0].endsWith("/") ? args[0] : args[0] + "/";
+		String suffix = args.length > 1 ? args[1] : "";
+		BlocksWorld initial, desired;
+		try (InputStream input = new FileInputStream(dir + "si.txt"))
+		{
+			initial = new BlocksWorld(input);
+		}
+		try (InputStream input = new FileInputStream(dir + "sf" + suffix + ".txt"))
+		{
+			desired = new BlocksWorld(input);
+		}
+		char[] labels = sortedLabels(initial.allBlocks());
+		if(labels.length > MAX_BLOCKS || countStates(labels.length) > MAX_STATES)
+		{
+			System.out.println("Too many states: " + countStates(labels.length));
+			return;
+		}
+		long start = System.nanoTime();
+		Table table = compile(desired, labels);
+		System.out.println("Compiled " + table + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+		try (OutputStream output = new FileOutputStream(dir + "policy" + suffix + ".bin"))
+		{
+			table.write(output);
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package my;
+
+import java.util.Arrays;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+import blocksworld.Stack;
+
+/**
+ * Constructive planner, in linear time and memory, for worlds of any size (in the style of Gupta and Nau): first, every
+ * block which is not well placed, and not on the table, is moved to the table; then each desired tower is built
+ * bottom-up, with blocks taken from the table, and locked. Plans are at most about twice as long as optimal, in moves.
+ * <p>
+ * The stations are followed in a doubly-linked list, so that each action is planned in constant time: PUTDOWN
+ * inserts a station before the current one, PICKUP removes the current one and the agent goes to the next. Blocks are
+ * unstacked station by station, with NEXT_STATION to get back to the stack after each PUTDOWN, and GO_TO_STATION
+ * otherwise.
+ */
+public class ConstructivePlanner implements Planner
+{
+	/**
+	 * The problem.
+	 */
+	protected PlanningProblem	problem;
+	
+	/**
+	 * The plan being built.
+	 */
+	protected PlanningAction	plan;
+	
+	/**
+	 * Station list: the next and previous station of each station.
+	 */
+	protected int[]				next, prev;
+	
+	/**
+	 * The station objects, by station id.
+	 */
+	protected Station[]			stationObjects;
+	
+	/**
+	 * For each block on the table, the id of its station; -1 otherwise.
+	 */
+	protected int[]				stationOf;
+	
+	/**
+	 * Labels in use by stations.
+	 */
+	protected boolean[]			usedLabels;
+	
+	/**
+	 * The number of stations created so far (original and new).
+	 */
+	protected int				nStations;
+	
+	/**
+	 * Candidate for the first free station label.
+	 */
+	protected char				freeLabel;
+	
+	/**
+	 * The station of the agent.
+	 */
+	protected int				current;
+	
+	@Override
+	public PlanningAction plan(PlanningProblem planningProblem, long deadline)
+	{
+		problem = planningProblem;
+		PlanningState initial = problem.getInitialState();
+		int n = problem.size();
+		int[] below = initial.below.clone();
+		int[] goal = problem.getGoalBelow();
+		boolean[] locked = problem.getLocked();
+		boolean[] wp = initial.wellPlaced();
+		for(int i = 0; i < n; i++)
+			if(locked[i] && goal[i] != PlanningProblem.ANYWHERE && !wp[i])
+				return null; // a block which should be moved is locked
+			
+		int k = problem.getStationCount();
+		next = new int[k + n];
+		prev = new int[k + n];
+		stationObjects = new Station[k + n];
+		stationOf = new int[n];
+		Arrays.fill(stationOf, -1);
+		usedLabels = new boolean[Character.MAX_VALUE + 1];
+		int[] tops = new int[k];
+		boolean[] seen = new boolean[n];
+		for(int s = 0; s < k; s++)
+		{
+			int[] stack = problem.stacks.get(s);
+			for(int b : stack)
+			{
+				if(seen[b])
+					return null; // a block was observed in two places, the problem is inconsistent
+				seen[b] = true;
+			}
+			next[s] = (s + 1) % k;
+			prev[s] = (s + k - 1) % k;
+			stationObjects[s] = problem.stations.get(s);
+			usedLabels[stationObjects[s].getLabel()] = true;
+			stationOf[stack[stack.length - 1]] = s;
+			tops[s] = stack[0];
+		}
+		nStations = k;
+		freeLabel = '0';
+		current = problem.currentStation;
+		plan = new PlanningAction(PlanningActionType.NEW_PLAN);
+		
+		if(initial.held >= 0)
+		{
+			putDown(initial.held);
+			below[initial.held] = PlanningProblem.TABLE;
+			wp[initial.held] = goal[initial.held] == PlanningProblem.TABLE;
+		}
+		
+		// move all blocks which are not well placed to the table
+		int start = problem.currentStation;
+		for(int j = 0; j < k; j++)
+		{
+			int s = (start + j) % k;
+			boolean first = true;
+			for(int b = tops[s]; !wp[b] && below[b] >= 0 && !locked[b];)
+			{
+				if(first)
+					goTo(s);
+				else
+					add(BlocksWorldAction.of(Type.NEXT_STATION), next[current]);
+				first = false;
+				int under = below[b];
+				plan.add(BlocksWorldAction.of(Type.UNSTACK, block(b), block(under)));
+				putDown(b);
+				below[b] = PlanningProblem.TABLE;
+				wp[b] = goal[b] == PlanningProblem.TABLE;
+				b = under;
+			}
+		}
+		
+		// build and lock the desired towers
+		for(Stack tower : problem.getTarget().getTowers())
+		{
+			int previous = -1;
+			int towerStation = -1;
+			for(Block block : tower.getBlocksReversed())
+			{
+				int x = problem.indexOf(block);
+				if(goal[x] == PlanningProblem.ANYWHERE)
+					break; // the rest of the tower is not in the world
+				if(previous < 0)
+					towerStation = stationOf[x];
+				else if(!wp[x])
+				{
+					goTo(stationOf[x]);
+					plan.add(BlocksWorldAction.of(Type.PICKUP, block(x)));
+					remove(current);
+					stationOf[x] = -1;
+					goTo(towerStation);
+					plan.add(BlocksWorldAction.of(Type.STACK, block(x), block(previous)));
+					wp[x] = true;
+				}
+				if(!locked[x])
+				{
+					goTo(towerStation);
+					plan.add(BlocksWorldAction.of(Type.LOCK, block(x)));
+				}
+				previous = x;
+			}
+		}
+		if(problem.isCompletable())
+			plan.add(BlocksWorldAction.of(Type.AGENT_COMPLETED));
+		PlanningAction ret = plan;
+		plan = null;
+		return ret;
+	}
+	
+	/**
+	 * @param i
+	 *            - block index.
+	 * @return the block.
+	 */
+	protected Block block(int i)
+	{
+		return problem.getBlock(i);
+	}
+	
+	/**
+	 * Adds an action which takes the agent to another station.
+	 * 
+	 * @param action
+	 *            - the action.
+	 * @param station
+	 *            - the station where the agent arrives.
+	 */
+	protected void add(BlocksWorldAction action, int station)
+	{
+		plan.add(action);
+		current = station;
+	}
+	
+	/**
+	 * Goes to a station, if the agent is not already there.
+	 * 
+	 * @param station
+	 *            - the station.
+	 */
+	protected void goTo(int station)
+	{
+		if(station != current)
+			add(BlocksWorldAction.of(Type.GO_TO_STATION, stationObjects[station]), station);
+	}
+	
+	/**
+	 * Puts down the held block, creating a new station before the current one.
+	 * 
+	 * @param b
+	 *            - the held block.
+	 */
+	protected void putDown(int b)
+	{
+		plan.add(BlocksWorldAction.of(Type.PUTDOWN, block(b)));
+		// no labels are freed before all new stations are created, so the first free label only goes up
+		while(usedLabels[freeLabel])
+			if(++freeLabel == Character.MAX_VALUE)
+				throw new IllegalStateException("No more station labels.");
+		usedLabels[freeLabel] = true;
+		int s = nStations++;
+		stationObjects[s] = new Station(freeLabel);
+		next[s] = current;
+		prev[s] = prev[current];
+		next[prev[current]] = s;
+		prev[current] = s;
+		stationOf[b] = s;
+		current = s;
+	}
+	
+	/**
+	 * Removes a station; the agent goes to the next one.
+	 * 
+	 * @param station
+	 *            - the station.
+	 */
+	protected void remove(int station)
+	{
+		next[prev[station]] = next[station];
+		prev[next[station]] = prev[station];
+		usedLabels[stationObjects[station].getLabel()] = false;
+		current = next[station];
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "constructive";
+	}
+}
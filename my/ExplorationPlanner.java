@@ -0,0 +1,147 @@
+package my;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+
+/**
+ * Plans a tour of the stations, in which the agent sees every station, doing on the way the actions which any complete
+ * plan would contain.
+ * <p>
+ * Only the stack at the current station is visible, and the number of stations is not known before the first tour, so
+ * going through the stations in order (with NEXT_STATION) is the shortest way to see all of them: one move for each
+ * station, plus one to arrive back at a station already left, which shows that the tour is complete. In later tours, the
+ * stations known from earlier are used, and the tour is complete as soon as all of them have been seen again, unless
+ * some block was not found in them: new stations may have been added anywhere, so the tour then goes all the way
+ * round.
+ * <p>
+ * The actions at each station are sent as a new plan, so, as for any new plan, the environment spends a step on it.
+ * <p>
+ * At each station, before moving on, the agent performs the <i>constructive</i> actions available there, which never
+ * have to be undone: it locks, bottom-up, the blocks which are in their desired position; it stacks the block it holds
+ * on the top block, if that is where the block should be and the top block is locked; and it puts down, and locks, a
+ * block (held, or at the top of the stack) which should be on the table. A block put down makes a new station, just
+ * before the current one, so the next station is the same one again and the agent continues there.
+ */
+public class ExplorationPlanner
+{
+	/**
+	 * The stations left with NEXT_STATION in the current tour.
+	 */
+	protected final Set<Station>	left		= new HashSet<>();
+	
+	/**
+	 * The stations known before the current tour, which have not been seen in this tour yet.
+	 */
+	protected final Set<Station>	unseen		= new HashSet<>();
+	
+	/**
+	 * <code>true</code> if stations were known before the current tour.
+	 */
+	protected boolean				known		= false;
+	
+	/**
+	 * The station of the agent at the previous step.
+	 */
+	protected Station				previous	= null;
+	
+	/**
+	 * The beliefs of the agent during the current tour.
+	 */
+	protected BeliefStore			beliefs		= null;
+	
+	/**
+	 * The number of actions, other than moving to the next station, planned during tours.
+	 */
+	protected long					actions		= 0;
+	
+	/**
+	 * Starts a new tour, from the current station.
+	 * 
+	 * @param beliefs
+	 *            - the beliefs of the agent, including the observation of the current station.
+	 */
+	public void start(BeliefStore beliefs)
+	{
+		left.clear();
+		unseen.clear();
+		for(int i = 0; i < beliefs.getStationCount(); i++)
+			if(i != beliefs.getCurrent())
+				unseen.add(beliefs.getStation(i));
+		known = !unseen.isEmpty();
+		previous = beliefs.getStation(beliefs.getCurrent());
+		this.beliefs = beliefs;
+	}
+	
+	/**
+	 * Records the arrival of the agent at a station (or its staying at the same station), during a tour.
+	 * 
+	 * @param station
+	 *            - the station of the agent.
+	 * @param performed
+	 *            - the action performed at the previous step, or <code>null</code> if it failed.
+	 * @return <code>true</code> if the tour is complete.
+	 */
+	public boolean arrive(Station station, BlocksWorldAction performed)
+	{
+		boolean moved = performed != null && performed.getType() == Type.NEXT_STATION;
+		if(moved)
+			left.add(previous);
+		previous = station;
+		unseen.remove(station);
+		return moved && left.contains(station) || known && unseen.isEmpty() && beliefs.isEveryBlockLocated();
+	}
+	
+	/**
+	 * @param problem
+	 *            - the believed world, with the agent at its current station.
+	 * @return the actions to perform at the current station, followed by NEXT_STATION, as a new plan.
+	 */
+	public PlanningAction explore(PlanningProblem problem)
+	{
+		PlanningAction plan = new PlanningAction(PlanningActionType.NEW_PLAN);
+		int[] goal = problem.getGoalBelow();
+		int[] stack = problem.stacks.get(problem.currentStation);
+		int held = problem.holding == null ? -1 : problem.indexOf(problem.holding);
+		
+		// lock the blocks in their desired position, bottom-up
+		int k = stack.length - problem.lockedCounts.get(problem.currentStation).intValue() - 1;
+		for(; k >= 0 && goal[stack[k]] == (k + 1 < stack.length ? stack[k + 1] : PlanningProblem.TABLE); k--)
+			plan.addAction(BlocksWorldAction.of(Type.LOCK, problem.getBlock(stack[k])));
+		
+		int toTable = -1;
+		if(held >= 0 && k < 0 && goal[held] == stack[0])
+		{
+			plan.addAction(BlocksWorldAction.of(Type.STACK, problem.getBlock(held), problem.getBlock(stack[0])));
+			plan.addAction(BlocksWorldAction.of(Type.LOCK, problem.getBlock(held)));
+		}
+		else if(held >= 0 && goal[held] == PlanningProblem.TABLE)
+			toTable = held;
+		else if(held < 0 && k >= 0 && stack.length > 1 && goal[stack[0]] == PlanningProblem.TABLE)
+		{
+			toTable = stack[0];
+			plan.addAction(BlocksWorldAction.of(Type.UNSTACK, problem.getBlock(toTable), problem.getBlock(stack[1])));
+		}
+		if(toTable >= 0)
+		{
+			// the agent moves to the new station, just before this one
+			plan.addAction(BlocksWorldAction.of(Type.PUTDOWN, problem.getBlock(toTable)));
+			plan.addAction(BlocksWorldAction.of(Type.LOCK, problem.getBlock(toTable)));
+		}
+		actions += plan.size();
+		return plan.addAction(BlocksWorldAction.of(Type.NEXT_STATION));
+	}
+	
+	/**
+	 * @return the number of actions, other than moving to the next station, planned during tours.
+	 */
+	public long getActions()
+	{
+		return actions;
+	}
+}
@@ -0,0 +1,749 @@
+package my;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import blocksworld.BlocksWorld;
+
+/**
+ * Breadth-first search with the layers on disk, for state spaces which do not fit in memory (in the style of Korf's
+ * delayed duplicate detection).
+ * <p>
+ * States are <code>long</code>s (e.g. the canonical fingerprints of {@link CompiledPolicy}), and each layer is a file
+ * with the states at that distance, sorted and without duplicates. The next layer is built by reading the current
+ * layer and generating successors in a buffer of bounded size; each time the buffer is full, it is sorted and written
+ * as a run. The runs are then merged, and the states in the current and previous layers are removed during the same
+ * merge. Since moves are reversible, the successors of a layer can only be in the next layer or in the two last
+ * layers, so no other layer is read. All I/O is sequential, through NIO channels.
+ * <p>
+ * The memory used is the buffer, plus a small buffer for each file being read or written (runs are merged at most
+ * {@link #FAN_IN} at a time).
+ */
+public class ExternalBfs
+{
+	/**
+	 * Generates the successors of states.
+	 */
+	public interface Successors
+	{
+		/**
+		 * @param state
+		 *            - a state.
+		 * @param successors
+		 *            - array to fill with the successors (at least {@link #maxSuccessors()} long).
+		 * @return the number of successors.
+		 */
+		int successors(long state, long[] successors);
+
+		/**
+		 * @return the largest number of successors of a state.
+		 */
+		int maxSuccessors();
+	}
+
+	/**
+	 * Default size of the successor buffer, in states (32 MB).
+	 */
+	public static final int		BUFFER_STATES	= 1 << 22;
+
+	/**
+	 * The largest number of runs merged at the same time.
+	 */
+	public static final int		FAN_IN			= 64;
+
+	/**
+	 * Size of the buffer of each file, in bytes.
+	 */
+	protected static final int	IO_BUFFER		= 1 << 16;
+
+	/**
+	 * A value which is never a state, for searches without a target.
+	 */
+	protected static final long	NONE			= -1L;
+
+	/**
+	 * Reads the <code>long</code>s of a file, in order.
+	 */
+	protected static class LongReader implements Closeable
+	{
+		/**
+		 * The file.
+		 */
+		final FileChannel	channel;
+		/**
+		 * The buffer.
+		 */
+		final ByteBuffer	buffer	= ByteBuffer.allocateDirect(IO_BUFFER);
+		/**
+		 * The next value, if {@link #hasNext}.
+		 */
+		long				head;
+		/**
+		 * <code>true</code> if there is a next value.
+		 */
+		boolean				hasNext;
+
+		/**
+		 * @param file
+		 *            - the file.
+		 * @throws IOException
+		 *             - if reading fails.
+		 */
+		LongReader(Path file) throws IOException
+		{
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			buffer.limit(0);
+			advance();
+		}
+
+		/**
+		 * Reads the next value into {@link #head}.
+		 *
+		 * @throws IOException
+		 *             - if reading fails.
+		 */
+		void advance() throws IOException
+		{
+			if(buffer.remaining() < Long.BYTES)
+			{
+				buffer.compact();
+				while(buffer.position() < Long.BYTES && channel.read(buffer) >= 0)
+					; // read at least one value, if the file has one
+				buffer.flip();
+			}
+			hasNext = buffer.remaining() >= Long.BYTES;
+			if(hasNext)
+				head = buffer.getLong();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes <code>long</code>s to a file.
+	 */
+	protected static class LongWriter implements Closeable
+	{
+		/**
+		 * The file.
+		 */
+		final FileChannel	channel;
+		/**
+		 * The buffer.
+		 */
+		final ByteBuffer	buffer	= ByteBuffer.allocateDirect(IO_BUFFER);
+		/**
+		 * The number of values written.
+		 */
+		long				count	= 0;
+
+		/**
+		 * @param file
+		 *            - the file (replaced, if it exists).
+		 * @throws IOException
+		 *             - if writing fails.
+		 */
+		LongWriter(Path file) throws IOException
+		{
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		/**
+		 * @param value
+		 *            - the value to write.
+		 * @throws IOException
+		 *             - if writing fails.
+		 */
+		void write(long value) throws IOException
+		{
+			if(buffer.remaining() < Long.BYTES)
+				flush();
+			buffer.putLong(value);
+			count++;
+		}
+
+		/**
+		 * Writes the buffer to the file.
+		 *
+		 * @throws IOException
+		 *             - if writing fails.
+		 */
+		void flush() throws IOException
+		{
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			flush();
+			channel.close();
+		}
+	}
+
+	/**
+	 * The directory for the files.
+	 */
+	protected final Path		dir;
+
+	/**
+	 * The successor function.
+	 */
+	protected final Successors	successors;
+
+	/**
+	 * The buffer for successors.
+	 */
+	protected final long[]		buffer;
+
+	/**
+	 * <code>true</code> if all layers are kept; otherwise, only the last two are.
+	 */
+	protected boolean			keepLayers		= false;
+
+	/**
+	 * The number of states in each layer.
+	 */
+	protected final List<Long>	layerSizes		= new ArrayList<>();
+
+	/**
+	 * The number of runs written so far.
+	 */
+	protected int				nRuns			= 0;
+
+	/**
+	 * @param directory
+	 *            - the directory for the files (created if needed).
+	 * @param successorFunction
+	 *            - the successor function; moves must be reversible.
+	 * @param bufferStates
+	 *            - the size of the successor buffer, in states.
+	 */
+	public ExternalBfs(Path directory, Successors successorFunction, int bufferStates)
+	{
+		dir = directory;
+		successors = successorFunction;
+		buffer = new long[Math.max(bufferStates, 2 * successorFunction.maxSuccessors())];
+	}
+
+	/**
+	 * @param keep
+	 *            - <code>true</code> to keep all layers (see {@link #layer(int)}); otherwise, only the last two are
+	 *            kept.
+	 * @return the instance itself.
+	 */
+	public ExternalBfs setKeepLayers(boolean keep)
+	{
+		keepLayers = keep;
+		return this;
+	}
+
+	/**
+	 * @param depth
+	 *            - a distance.
+	 * @return the file with the states at that distance (sorted <code>long</code>s).
+	 */
+	public Path layer(int depth)
+	{
+		return dir.resolve("layer-" + depth + ".bin");
+	}
+
+	/**
+	 * @return the number of states at each distance.
+	 */
+	public List<Long> getLayerSizes()
+	{
+		return layerSizes;
+	}
+
+	/**
+	 * Runs the search until all states are found, or until a state is found.
+	 *
+	 * @param sources
+	 *            - the states at distance 0.
+	 * @param target
+	 *            - a state to look for.
+	 * @param stopAtTarget
+	 *            - <code>true</code> to stop when the target is found.
+	 * @return the distance of the target, or -1 if it was not found.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public int run(long[] sources, long target, boolean stopAtTarget) throws IOException
+	{
+		Files.createDirectories(dir);
+		long[] sorted = sources.clone();
+		Arrays.sort(sorted);
+		Path file = nextRun();
+		try (LongWriter out = new LongWriter(file))
+		{
+			for(long state : sorted)
+				out.write(state);
+		}
+		return run(file, target, stopAtTarget);
+	}
+
+	/**
+	 * Runs the search until all states are found, or until a state is found.
+	 *
+	 * @param sources
+	 *            - a file with the states at distance 0, sorted (duplicates are removed); the file is deleted.
+	 * @param target
+	 *            - a state to look for.
+	 * @param stopAtTarget
+	 *            - <code>true</code> to stop when the target is found.
+	 * @return the distance of the target, or -1 if it was not found.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public int run(Path sources, long target, boolean stopAtTarget) throws IOException
+	{
+		Files.createDirectories(dir);
+		layerSizes.clear();
+		List<Path> first = new ArrayList<>();
+		first.add(sources);
+		long[] result = merge(first, new ArrayList<>(), layer(0), target);
+		long count = result[0];
+		int found = result[1] != 0 ? 0 : -1;
+		layerSizes.add(Long.valueOf(count));
+		for(int depth = 0; count > 0 && (found < 0 || !stopAtTarget); depth++)
+		{
+			List<Path> runs = expand(layer(depth));
+			while(runs.size() > FAN_IN)
+			{
+				List<Path> merged = new ArrayList<>();
+				for(int i = 0; i < runs.size(); i += FAN_IN)
+				{
+					Path run = nextRun();
+					merge(runs.subList(i, Math.min(i + FAN_IN, runs.size())), new ArrayList<>(), run, target);
+					merged.add(run);
+				}
+				runs = merged;
+			}
+			List<Path> previous = new ArrayList<>();
+			previous.add(layer(depth));
+			if(depth > 0)
+				previous.add(layer(depth - 1));
+			result = merge(runs, previous, layer(depth + 1), target);
+			count = result[0];
+			if(result[1] != 0 && found < 0)
+				found = depth + 1;
+			layerSizes.add(Long.valueOf(count));
+			if(!keepLayers && depth > 0)
+				Files.deleteIfExists(layer(depth - 1));
+		}
+		return found;
+	}
+
+	/**
+	 * Generates the successors of a layer into sorted runs.
+	 *
+	 * @param layer
+	 *            - the file of the layer.
+	 * @return the runs.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	protected List<Path> expand(Path layer) throws IOException
+	{
+		List<Path> runs = new ArrayList<>();
+		long[] next = new long[successors.maxSuccessors()];
+		int n = 0;
+		try (LongReader in = new LongReader(layer))
+		{
+			for(; in.hasNext; in.advance())
+			{
+				if(n + next.length > buffer.length)
+				{
+					runs.add(writeRun(n));
+					n = 0;
+				}
+				int k = successors.successors(in.head, next);
+				System.arraycopy(next, 0, buffer, n, k);
+				n += k;
+			}
+		}
+		if(n > 0)
+			runs.add(writeRun(n));
+		return runs;
+	}
+
+	/**
+	 * Sorts the buffer and writes it as a run, without duplicates.
+	 *
+	 * @param n
+	 *            - the number of states in the buffer.
+	 * @return the run.
+	 * @throws IOException
+	 *             - if writing fails.
+	 */
+	protected Path writeRun(int n) throws IOException
+	{
+		Arrays.sort(buffer, 0, n);
+		Path run = nextRun();
+		try (LongWriter out = new LongWriter(run))
+		{
+			for(int i = 0; i < n; i++)
+				if(i == 0 || buffer[i] != buffer[i - 1])
+					out.write(buffer[i]);
+		}
+		return run;
+	}
+
+	/**
+	 * @return the file for a new run.
+	 */
+	protected Path nextRun()
+	{
+		return dir.resolve("run-" + nRuns++ + ".bin");
+	}
+
+	/**
+	 * Merges sorted runs, removing duplicates and the states in other sorted files, and deletes the runs.
+	 *
+	 * @param runs
+	 *            - the runs.
+	 * @param exclude
+	 *            - the files with the states to remove.
+	 * @param output
+	 *            - the output file.
+	 * @param target
+	 *            - a state to look for.
+	 * @return the number of states written, and 1 if the target is one of them (0 otherwise).
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	protected static long[] merge(List<Path> runs, List<Path> exclude, Path output, long target) throws IOException
+	{
+		PriorityQueue<LongReader> heads = new PriorityQueue<>((a, b) -> Long.compare(a.head, b.head));
+		List<LongReader> excluded = new ArrayList<>();
+		boolean found = false;
+		try (LongWriter out = new LongWriter(output))
+		{
+			for(Path run : runs)
+			{
+				LongReader r = new LongReader(run);
+				if(r.hasNext)
+					heads.add(r);
+				else
+					r.close();
+			}
+			for(Path file : exclude)
+				excluded.add(new LongReader(file));
+			boolean first = true;
+			long last = 0;
+			while(!heads.isEmpty())
+			{
+				LongReader r = heads.poll();
+				long state = r.head;
+				r.advance();
+				if(r.hasNext)
+					heads.add(r);
+				else
+					r.close();
+				if(!first && state == last)
+					continue;
+				first = false;
+				last = state;
+				boolean old = false;
+				for(LongReader e : excluded)
+				{
+					while(e.hasNext && e.head < state)
+						e.advance();
+					old |= e.hasNext && e.head == state;
+				}
+				if(!old)
+				{
+					out.write(state);
+					found |= state == target;
+				}
+			}
+			return new long[] { out.count, found ? 1 : 0 };
+		} finally
+		{
+			for(LongReader r : heads)
+				r.close();
+			for(LongReader e : excluded)
+				e.close();
+			for(Path run : runs)
+				Files.deleteIfExists(run);
+		}
+	}
+
+	/**
+	 * Successors in the blocks world, for states encoded as in {@link CompiledPolicy} (at most
+	 * {@link CompiledPolicy#MAX_BLOCKS} blocks, none of them held). Optionally, only some blocks may be moved.
+	 */
+	public static class BlocksWorldSuccessors implements Successors
+	{
+		/**
+		 * The number of blocks.
+		 */
+		final int		n;
+		/**
+		 * The blocks which can be moved, by position; <code>null</code> for all.
+		 */
+		final boolean[]	movable;
+		/**
+		 * The moves of the last call.
+		 */
+		final byte[]	moves;
+
+		/**
+		 * @param nBlocks
+		 *            - the number of blocks.
+		 * @param movableBlocks
+		 *            - the blocks which can be moved, by position; <code>null</code> for all.
+		 */
+		public BlocksWorldSuccessors(int nBlocks, boolean[] movableBlocks)
+		{
+			n = nBlocks;
+			movable = movableBlocks;
+			moves = new byte[n * n];
+		}
+
+		@Override
+		public int successors(long state, long[] ret)
+		{
+			int k = CompiledPolicy.neighbors(state, n, ret, moves);
+			if(movable == null)
+				return k;
+			int m = 0;
+			for(int i = 0; i < k; i++)
+				if(movable[moves[i] >>> 4 & 0xF])
+					ret[m++] = ret[i];
+			return m;
+		}
+
+		@Override
+		public int maxSuccessors()
+		{
+			return Math.max(n * n, 1);
+		}
+	}
+
+	/**
+	 * Writes the states which satisfy the desired state, sorted, in a file. If some blocks have no desired position,
+	 * these are found by a first search, from the state with the desired towers and all other blocks on the table,
+	 * moving only blocks without a desired position.
+	 *
+	 * @param desired
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks of the world, sorted.
+	 * @param directory
+	 *            - the directory for the files.
+	 * @param bufferStates
+	 *            - the size of the successor buffer, in states.
+	 * @return the file.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	protected static Path goalStates(BlocksWorld desired, char[] labels, Path directory, int bufferStates)
+			throws IOException
+	{
+		long[] goal = CompiledPolicy.goalMask(desired, labels);
+		boolean[] free = new boolean[labels.length];
+		boolean anyFree = false;
+		for(int p = 0; p < labels.length; p++)
+			anyFree |= free[p] = (goal[0] >>> 4 * p & 0xF) == 0;
+		Files.createDirectories(directory);
+		Path all = directory.resolve("goals.bin");
+		if(!anyFree)
+		{
+			try (LongWriter out = new LongWriter(all))
+			{
+				out.write(goal[1]);
+			}
+			return all;
+		}
+		// all desired states, merged in one file
+		ExternalBfs goals = new ExternalBfs(directory.resolve("goals"), new BlocksWorldSuccessors(labels.length, free),
+				bufferStates).setKeepLayers(true);
+		goals.run(new long[] { goal[1] }, NONE, false);
+		List<Path> layers = new ArrayList<>();
+		for(int d = 0; d < goals.layerSizes.size(); d++)
+			layers.add(goals.layer(d));
+		merge(layers, new ArrayList<>(), all, NONE);
+		for(Path layer : layers)
+			Files.deleteIfExists(layer);
+		return all;
+	}
+
+	/**
+	 * Computes the exact distance (in moves) between two states of a world, searching from all states which satisfy
+	 * the desired state (see {@link #goalStates(BlocksWorld, char[], Path, int)}).
+	 *
+	 * @param initial
+	 *            - the initial state.
+	 * @param desired
+	 *            - the desired state.
+	 * @param directory
+	 *            - the directory for the files.
+	 * @param bufferStates
+	 *            - the size of the successor buffer, in states.
+	 * @return the number of moves, or -1 if the desired state cannot be reached.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public static int distance(BlocksWorld initial, BlocksWorld desired, Path directory, int bufferStates)
+			throws IOException
+	{
+		char[] labels = CompiledPolicy.sortedLabels(initial.allBlocks());
+		if(labels.length > CompiledPolicy.MAX_BLOCKS)
+			throw new IllegalArgumentException("Too many blocks to encode: " + labels.length);
+		long[] goal = CompiledPolicy.goalMask(desired, labels);
+		long start = CompiledPolicy.fingerprint(initial, labels);
+		if((start & goal[0]) == goal[1])
+			return 0;
+		ExternalBfs search = new ExternalBfs(directory, new BlocksWorldSuccessors(labels.length, null),
+				bufferStates);
+		return search.run(goalStates(desired, labels, directory, bufferStates), start, true);
+	}
+
+	/**
+	 * Builds the layers of all states of a world, by distance to the desired state, so that a plan can be read from
+	 * them (see {@link #contains(int, long)}). Layers built earlier in the same directory, for the same desired state
+	 * and blocks, are used again.
+	 *
+	 * @param desired
+	 *            - the desired state.
+	 * @param labels
+	 *            - the labels of the blocks of the world, sorted.
+	 * @param directory
+	 *            - the directory for the files.
+	 * @param bufferStates
+	 *            - the size of the successor buffer, in states.
+	 * @return the search, with all its layers (and without a buffer, as it is only used to read them).
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public static ExternalBfs goalLayers(BlocksWorld desired, char[] labels, Path directory, int bufferStates)
+			throws IOException
+	{
+		if(labels.length > CompiledPolicy.MAX_BLOCKS)
+			throw new IllegalArgumentException("Too many blocks to encode: " + labels.length);
+		// only used to read the layers, so it keeps no buffer
+		ExternalBfs ret = new ExternalBfs(directory.resolve("layers"), new BlocksWorldSuccessors(labels.length, null),
+				0).setKeepLayers(true);
+		String key = CompiledPolicy.tableKey(desired, labels);
+		Path keyFile = directory.resolve("key.txt");
+		Path sizesFile = directory.resolve("sizes.txt");
+		if(Files.exists(sizesFile) && Files.exists(keyFile) && key.equals(Files.readString(keyFile)))
+		{
+			for(String size : Files.readAllLines(sizesFile))
+				ret.layerSizes.add(Long.valueOf(size.trim()));
+			return ret;
+		}
+		Files.deleteIfExists(sizesFile);
+		ExternalBfs search = new ExternalBfs(ret.dir, ret.successors, bufferStates).setKeepLayers(true);
+		search.run(goalStates(desired, labels, directory, bufferStates), NONE, false);
+		ret.layerSizes.addAll(search.layerSizes);
+		Files.writeString(keyFile, key);
+		// written last: the layers are complete
+		List<String> sizes = new ArrayList<>();
+		for(Long size : ret.layerSizes)
+			sizes.add(size.toString());
+		Files.write(sizesFile, sizes);
+		return ret;
+	}
+
+	/**
+	 * @param depth
+	 *            - a distance.
+	 * @param state
+	 *            - a state.
+	 * @return <code>true</code> if the state is in the layer at that distance (a binary search in the file of the
+	 *         layer).
+	 * @throws IOException
+	 *             - if reading fails.
+	 */
+	public boolean contains(int depth, long state) throws IOException
+	{
+		if(depth < 0 || depth >= layerSizes.size() || layerSizes.get(depth).longValue() == 0)
+			return false;
+		ByteBuffer value = ByteBuffer.allocate(Long.BYTES);
+		try (FileChannel channel = FileChannel.open(layer(depth), StandardOpenOption.READ))
+		{
+			long low = 0, high = layerSizes.get(depth).longValue() - 1;
+			while(low <= high)
+			{
+				long middle = (low + high) >>> 1;
+				value.clear();
+				while(value.hasRemaining() && channel.read(value, middle * Long.BYTES + value.position()) >= 0)
+					;
+				long found = value.getLong(0);
+				if(found == state)
+					return true;
+				if(found < state)
+					low = middle + 1;
+				else
+					high = middle - 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param state
+	 *            - a state.
+	 * @return the distance of the state, or -1 if it is in no layer.
+	 * @throws IOException
+	 *             - if reading fails.
+	 */
+	public int depthOf(long state) throws IOException
+	{
+		for(int d = 0; d < layerSizes.size(); d++)
+			if(contains(d, state))
+				return d;
+		return -1;
+	}
+
+	/**
+	 * Computes the optimal number of moves for a test.
+	 *
+	 * @param args
+	 *            - the directory of the test, optionally the suffix of the file with the desired state (e.g.
+	 *            <code>1</code> for <code>sf1.txt</code>), and optionally the directory for the files.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Path test = Paths.get(args[0]);
+		String suffix = args.length > 1 ? args[1] : "";
+		Path work = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("bfs");
+		BlocksWorld initial, desired;
+		try (InputStream input = new FileInputStream(test.resolve("si.txt").toFile()))
+		{
+			initial = new BlocksWorld(input);
+		}
+		try (InputStream input = new FileInputStream(test.resolve("sf" + suffix + ".txt").toFile()))
+		{
+			desired = new BlocksWorld(input);
+		}
+		long startTime = System.nanoTime();
+		int d = distance(initial, desired, work, BUFFER_STATES);
+		System.out.println(test + ": " + d + " moves (" + (System.nanoTime() - startTime) / 1000000 + " ms).");
+	}
+}
@@ -0,0 +1,227 @@
+package my;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import base.Action;
+import base.Agent;
+import base.Perceptions;
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldPerceptions;
+import blocksworld.DynamicEnvironment;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+import blocksworld.Stack;
+
+/**
+ * Check of the forks of the environment (see {@link DynamicEnvironment#fork()}): for the initial state of each test
+ * suite, in a dynamic environment with an agent which moves blocks around, forks the environment after a few steps and
+ * steps the fork together with a reference environment, created and stepped as the original, comparing them after each
+ * step; the original must not change meanwhile, and must then reach the same state as the fork. Reseeded forks (see
+ * {@link DynamicEnvironment#fork(long)}) are then stepped in parallel: forks with the same seed must reach the same
+ * state, and the original must not change. Exits with a non-zero status at the first difference.
+ */
+public class ForkCheck
+{
+	/**
+	 * Dynamicity of the environments.
+	 */
+	protected static final float	DYNAMICITY		= 0.5f;
+
+	/**
+	 * Seed of the environments.
+	 */
+	protected static final long		RANDOM_SEED		= 42;
+
+	/**
+	 * Number of steps performed before forking.
+	 */
+	protected static final int		WARMUP_STEPS	= 30;
+
+	/**
+	 * Number of steps performed by the forks.
+	 */
+	protected static final int		STEPS			= 500;
+
+	/**
+	 * Number of different seeds of the forks stepped in parallel; there are two forks for each seed.
+	 */
+	protected static final int		FORK_SEEDS		= 4;
+
+	/**
+	 * Agent which moves blocks around, depending only on its perceptions, so that it behaves the same in an
+	 * environment and in its forks: continues its plan until it is done, then plans to put down the block it holds,
+	 * otherwise to unstack the top block of the stack it sees, otherwise to lock some of the blocks on the table,
+	 * otherwise to go to the next station.
+	 */
+	protected static class ShuffleAgent implements Agent
+	{
+		@Override
+		public Action response(Perceptions input)
+		{
+			BlocksWorldPerceptions perceptions = (BlocksWorldPerceptions) input;
+			if(perceptions.getRemainingPlan() != null && !perceptions.getRemainingPlan().isEmpty())
+				return new PlanningAction(PlanningActionType.CONTINUE_PLAN);
+			Stack stack = perceptions.getVisibleStack();
+			Block top = stack.getTopBlock();
+			PlanningAction plan = new PlanningAction(PlanningActionType.NEW_PLAN);
+			if(perceptions.getHolding() != null)
+				plan.add(BlocksWorldAction.of(Type.PUTDOWN, perceptions.getHolding()));
+			else if(!stack.isSingleBlock() && !stack.isLocked(top))
+				plan.add(BlocksWorldAction.of(Type.UNSTACK, top, stack.getBelow(top)));
+			else if(stack.isSingleBlock() && !stack.isLocked(top) && top.hashCode() % 3 == 0)
+				plan.add(BlocksWorldAction.of(Type.LOCK, top));
+			else
+				plan.add(BlocksWorldAction.of(Type.NEXT_STATION));
+			return plan;
+		}
+
+		@Override
+		public String statusString()
+		{
+			return "";
+		}
+
+		@Override
+		public String toString()
+		{
+			return "shuffle";
+		}
+	}
+
+	/**
+	 * @param initial
+	 *            - the initial state.
+	 * @param desired
+	 *            - the desired state of the agent.
+	 * @param agent
+	 *            - the agent.
+	 * @return a new environment, with the agent.
+	 */
+	protected static DynamicEnvironment createEnvironment(BlocksWorld initial, BlocksWorld desired, Agent agent)
+	{
+		DynamicEnvironment environment = new MyBlocksWorldEnvironment(initial, DYNAMICITY, RANDOM_SEED);
+		environment.addAgent(agent, desired, null);
+		return environment;
+	}
+
+	/**
+	 * @param initial
+	 *            - the initial state.
+	 * @param desired
+	 *            - the desired state of the agent.
+	 * @return <code>null</code> if the forks of an environment with the initial state behave as they should; a
+	 *         description of the first difference otherwise.
+	 * @throws InterruptedException
+	 *             - if interrupted while waiting for the parallel forks.
+	 * @throws ExecutionException
+	 *             - if a parallel fork fails.
+	 */
+	protected static String check(BlocksWorld initial, BlocksWorld desired)
+			throws InterruptedException, ExecutionException
+	{
+		Agent agent = new ShuffleAgent();
+		DynamicEnvironment original = createEnvironment(initial, desired, agent);
+		DynamicEnvironment reference = createEnvironment(initial, desired, agent);
+		for(int i = 0; i < WARMUP_STEPS; i++)
+		{
+			original.step();
+			reference.step();
+		}
+		String before = original.toString();
+		DynamicEnvironment fork = original.fork();
+		for(int i = 0; i < STEPS; i++)
+		{
+			fork.step();
+			reference.step();
+			if(!fork.toString().equals(reference.toString()))
+				return "fork differs from the reference after step " + i + ":\n" + fork + "instead of\n" + reference;
+		}
+		if(!original.toString().equals(before))
+			return "original changed by its fork:\n" + original + "instead of\n" + before;
+		for(int i = 0; i < STEPS; i++)
+			original.step();
+		if(!original.toString().equals(fork.toString()))
+			return "original differs from its fork:\n" + original + "instead of\n" + fork;
+
+		before = original.toString();
+		ExecutorService executor = Executors.newFixedThreadPool(2 * FORK_SEEDS);
+		List<Future<String>> results = new ArrayList<>();
+		try
+		{
+			for(int k = 0; k < 2 * FORK_SEEDS; k++)
+			{
+				long seed = k % FORK_SEEDS + 1;
+				results.add(executor.submit(() -> {
+					DynamicEnvironment reseeded = original.fork(seed);
+					for(int i = 0; i < STEPS; i++)
+						reseeded.step();
+					return reseeded.toString();
+				}));
+			}
+			for(int k = FORK_SEEDS; k < 2 * FORK_SEEDS; k++)
+				if(!results.get(k).get().equals(results.get(k - FORK_SEEDS).get()))
+					return "forks with seed " + (k % FORK_SEEDS + 1) + " differ:\n" + results.get(k).get()
+							+ "instead of\n" + results.get(k - FORK_SEEDS).get();
+		} finally
+		{
+			executor.shutdown();
+		}
+		if(!original.toString().equals(before))
+			return "original changed by parallel forks:\n" + original + "instead of\n" + before;
+		return null;
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 * @throws InterruptedException
+	 *             - if interrupted while waiting for the parallel forks.
+	 * @throws ExecutionException
+	 *             - if a parallel fork fails.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException
+	{
+		PrintStream out = System.out;
+		int failures = 0;
+		String previous = null;
+		for(Map.Entry<String, String[]> problem : PlannerCheck.getTestProblems().entrySet())
+		{
+			// the problems of a suite have the same initial state
+			String initial = problem.getValue()[0];
+			if(initial.equals(previous))
+				continue;
+			previous = initial;
+			String result;
+			// the environment reports every step
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+			try
+			{
+				result = check(PlannerCheck.parse(initial), PlannerCheck.parse(problem.getValue()[1]));
+			} finally
+			{
+				System.setOut(out);
+			}
+			String suite = problem.getKey().substring(0, problem.getKey().indexOf('/'));
+			System.out.println(suite + ": " + (result == null ? "forks agree" : result));
+			if(result != null)
+				failures++;
+		}
+		System.exit(failures > 0 ? 1 : 0);
+	}
+}
@@ -0,0 +1,367 @@
+package my;
+
+import java.util.Arrays;
+
+import blocksworld.PlanningAction;
+
+/**
+ * Memory-bounded planner using (weighted) Iterative-Deepening A*: depth-first searches with an increasing bound on f = g
+ * + w * h. The search works in place, on a single mutable state, and its memory is the current path plus a
+ * transposition table of fixed size, which detects states already reached (with a smaller or equal cost) in the same
+ * iteration.
+ * <p>
+ * The heuristic (see {@link PlanningState#heuristic()}) is maintained incrementally. Moves of well-placed blocks are
+ * never generated, nor moves of blocks without a desired position which are on the table, and the same block is never
+ * moved twice in a row; moves which place a block on its desired position are tried first.
+ */
+public class IdaStarPlanner extends SearchPlanner
+{
+	/**
+	 * Bytes used by one entry of the transposition table.
+	 */
+	protected static final int	ENTRY_SIZE		= 12;
+	
+	/**
+	 * Default memory for the transposition table.
+	 */
+	public static final long	DEFAULT_MEMORY	= 16L << 20;
+	
+	/**
+	 * The weight of the heuristic.
+	 */
+	protected final double		weight;
+	
+	/**
+	 * Transposition table: fingerprints.
+	 */
+	protected final long[]		ttKeys;
+	
+	/**
+	 * Transposition table: the iteration (high 16 bits) and the cost (low 16 bits) with which the state was reached.
+	 */
+	protected final int[]		ttValues;
+	
+	/**
+	 * The problem of the current call.
+	 */
+	protected PlanningProblem	problem;
+	
+	/**
+	 * The desired block under each block.
+	 */
+	protected int[]				goal;
+	
+	/**
+	 * Locked blocks.
+	 */
+	protected boolean[]			locked;
+	
+	/**
+	 * The current state: the block under each block.
+	 */
+	protected int[]				below;
+	
+	/**
+	 * The current state: the block on each block, or -1.
+	 */
+	protected int[]				above;
+	
+	/**
+	 * The current state: well placed blocks.
+	 */
+	protected boolean[]			wellPlaced;
+	
+	/**
+	 * The current state: blocks which must be moved twice.
+	 */
+	protected boolean[]			twice;
+	
+	/**
+	 * The current state: the held block, or -1.
+	 */
+	protected int				held;
+	
+	/**
+	 * The current state: the heuristic value.
+	 */
+	protected int				h;
+	
+	/**
+	 * The current state: the fingerprint.
+	 */
+	protected long				fingerprint;
+	
+	/**
+	 * The current path.
+	 */
+	protected int[]				path			= new int[64];
+	
+	/**
+	 * Move buffers, one per depth.
+	 */
+	protected int[][]			moveBuffers		= new int[64][];
+	
+	/**
+	 * Scratch buffers for move generation: clear blocks and moves, grouped by their effect on the heuristic.
+	 */
+	protected int[]				clear, other;
+	
+	/**
+	 * The iteration number.
+	 */
+	protected int				iteration;
+	
+	/**
+	 * The smallest f which exceeded the bound in the current iteration.
+	 */
+	protected double			nextBound;
+	
+	/**
+	 * Creates an (optimal) planner with the default transposition table size.
+	 */
+	public IdaStarPlanner()
+	{
+		this(1, DEFAULT_MEMORY);
+	}
+	
+	/**
+	 * @param w
+	 *            - the weight of the heuristic (at least 1); with a weight above 1 plans are found faster, but may be
+	 *            longer than optimal.
+	 * @param memory
+	 *            - the memory, in bytes, for the transposition table.
+	 */
+	public IdaStarPlanner(double w, long memory)
+	{
+		if(w < 1)
+			throw new IllegalArgumentException("Weight must be at least 1: " + w);
+		weight = w;
+		int size = Integer.highestOneBit((int) Math.max(1, Math.min(memory / ENTRY_SIZE, 1 << 30)));
+		ttKeys = new long[size];
+		ttValues = new int[size];
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem planningProblem, long deadlineTime)
+	{
+		start(deadlineTime);
+		problem = planningProblem;
+		PlanningState initial = problem.getInitialState();
+		goal = problem.getGoalBelow();
+		locked = problem.getLocked();
+		int n = problem.size();
+		below = initial.below.clone();
+		above = new int[n];
+		Arrays.fill(above, -1);
+		for(int i = 0; i < n; i++)
+			if(below[i] >= 0)
+				above[below[i]] = i;
+		wellPlaced = initial.wellPlaced();
+		twice = new boolean[n];
+		for(int i = 0; i < n; i++)
+			twice[i] = below[i] >= 0 && mustMoveTwice(i, below[i]);
+		held = initial.held;
+		h = initial.heuristic();
+		fingerprint = initial.fingerprint;
+		clear = new int[n];
+		other = new int[0];
+		Arrays.fill(ttValues, 0);
+		
+		double bound = weight * h;
+		for(iteration = 1; iteration < 0xFFFF; iteration++)
+		{
+			nextBound = Double.POSITIVE_INFINITY;
+			int length = search(0, bound, -1);
+			if(length >= 0)
+				return problem.toPlanningAction(path, length);
+			if(expired || nextBound == Double.POSITIVE_INFINITY)
+				return null;
+			bound = nextBound;
+		}
+		return null;
+	}
+	
+	/**
+	 * Depth-first search from the current state.
+	 * 
+	 * @param g
+	 *            - the cost of the current path.
+	 * @param bound
+	 *            - the bound for f.
+	 * @param lastMoved
+	 *            - the block moved by the last move, or -1.
+	 * @return the length of the plan, if one was found; -1 otherwise.
+	 */
+	protected int search(int g, double bound, int lastMoved)
+	{
+		double f = g + weight * h;
+		if(f > bound)
+		{
+			nextBound = Math.min(nextBound, f);
+			return -1;
+		}
+		if(h == 0)
+			return g;
+		if(expand() || !visit(g))
+			return -1;
+		
+		int[] moves = generate(g, lastMoved);
+		int nMoves = moves[0];
+		for(int k = 1; k <= nMoves; k++)
+		{
+			int move = moves[k];
+			int x = problem.moveBlock(move);
+			int to = problem.moveTarget(move);
+			// apply
+			int from = below[x];
+			boolean wasWellPlaced = wellPlaced[x];
+			boolean wasTwice = twice[x];
+			int oldH = h;
+			int oldHeld = held;
+			long oldFingerprint = fingerprint;
+			if(from >= 0)
+				above[from] = -1;
+			below[x] = to;
+			if(to >= 0)
+				above[to] = x;
+			held = -1;
+			wellPlaced[x] = goal[x] != PlanningProblem.ANYWHERE && goal[x] == to
+					&& (to == PlanningProblem.TABLE || wellPlaced[to]);
+			twice[x] = to >= 0 && mustMoveTwice(x, to);
+			h += delta(x, from, to, wasWellPlaced) + (twice[x] ? 1 : 0) - (wasTwice ? 1 : 0);
+			fingerprint ^= PlanningState.mix(x, from) ^ PlanningState.mix(x, to);
+			if(g >= path.length)
+				path = Arrays.copyOf(path, path.length * 2);
+			path[g] = move;
+			
+			int length = search(g + 1, bound, x);
+			if(length >= 0)
+				return length;
+			
+			// undo
+			if(to >= 0)
+				above[to] = -1;
+			below[x] = from;
+			if(from >= 0)
+				above[from] = x;
+			wellPlaced[x] = wasWellPlaced;
+			twice[x] = wasTwice;
+			h = oldH;
+			held = oldHeld;
+			fingerprint = oldFingerprint;
+			if(expired)
+				return -1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Checks the current state against the transposition table, and records it.
+	 * 
+	 * @param g
+	 *            - the cost with which the state was reached.
+	 * @return <code>false</code> if the state was already reached in this iteration with the same or a smaller cost.
+	 */
+	protected boolean visit(int g)
+	{
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & (ttKeys.length - 1);
+		int value = iteration << 16 | Math.min(g, 0xFFFF);
+		if(ttKeys[slot] == fingerprint && (ttValues[slot] >>> 16) == iteration && (ttValues[slot] & 0xFFFF) <= g)
+			return false;
+		ttKeys[slot] = fingerprint;
+		ttValues[slot] = value;
+		return true;
+	}
+	
+	/**
+	 * @param x
+	 *            - the moved block.
+	 * @param from
+	 *            - where it was.
+	 * @param to
+	 *            - where it is now.
+	 * @param wasWellPlaced
+	 *            - if it was well placed before the move.
+	 * @return the change in the heuristic caused by the move (the block was clear, so nothing else changes).
+	 */
+	protected int delta(int x, int from, int to, boolean wasWellPlaced)
+	{
+		if(goal[x] == PlanningProblem.ANYWHERE)
+			return from == PlanningState.HELD ? -1 : 0;
+		return (wasWellPlaced ? 0 : -1) + (goal[x] == to && (to == PlanningProblem.TABLE || wellPlaced[to]) ? 0 : 1);
+	}
+	
+	/**
+	 * @param x
+	 *            - a block.
+	 * @param on
+	 *            - the block it is on.
+	 * @return <code>true</code> if there is a block under x which is not well placed, and which must be under x in the
+	 *         desired state.
+	 */
+	protected boolean mustMoveTwice(int x, int on)
+	{
+		for(int y = on; y >= 0; y = below[y])
+			if(!wellPlaced[y] && problem.isGoalBelow(x, y))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Generates the moves from the current state, the ones decreasing the heuristic most first.
+	 * 
+	 * @param depth
+	 *            - the depth, giving the buffer to use.
+	 * @param lastMoved
+	 *            - the block moved by the last move, or -1.
+	 * @return the buffer; the first element is the number of moves.
+	 */
+	protected int[] generate(int depth, int lastMoved)
+	{
+		if(depth >= moveBuffers.length)
+			moveBuffers = Arrays.copyOf(moveBuffers, moveBuffers.length * 2);
+		int n = below.length;
+		int nClear = 0;
+		for(int i = 0; i < n; i++)
+			if(above[i] < 0 && below[i] >= PlanningProblem.TABLE)
+				clear[nClear++] = i;
+		int[] buf = moveBuffers[depth];
+		int max = 1 + (nClear + 1) * (nClear + 1);
+		if(buf == null || buf.length < max)
+			buf = moveBuffers[depth] = new int[max];
+		if(other.length < 5 * (max - 1))
+			other = new int[5 * (max - 1)];
+		// moves are ordered by the change they make to the heuristic, from -2 to +2
+		int[] counts = new int[5];
+		for(int i = 0; i < (held >= 0 ? 1 : nClear); i++)
+		{
+			int x = held >= 0 ? held : clear[i];
+			if(x == lastMoved || locked[x] || wellPlaced[x]
+					|| (goal[x] == PlanningProblem.ANYWHERE && below[x] == PlanningProblem.TABLE))
+				continue;
+			for(int j = -1; j < nClear; j++)
+			{
+				int to = j < 0 ? PlanningProblem.TABLE : clear[j];
+				if(to == x || to == below[x])
+					continue;
+				int d = delta(x, below[x], to, false) + (to >= 0 && mustMoveTwice(x, to) ? 1 : 0)
+						- (twice[x] ? 1 : 0);
+				other[(d + 2) * (max - 1) + counts[d + 2]++] = problem.move(x, to);
+			}
+		}
+		int k = 1;
+		for(int d = 0; d < counts.length; d++)
+		{
+			System.arraycopy(other, d * (max - 1), buf, k, counts[d]);
+			k += counts[d];
+		}
+		buf[0] = k - 1;
+		return buf;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "IDA*(w=" + weight + ", TT=" + ttKeys.length + ")";
+	}
+}
@@ -0,0 +1,32 @@
+package my;
+
+import blocksworld.BlocksWorld;
+
+/**
+ * Agent for dynamic environments, which plans with Monte Carlo tree search (see {@link MctsPlanner}). It explores like
+ * {@link MyAgent}, then follows the first moves chosen by the search, and explores again; the search models the
+ * changes of the environment, so the moves chosen are those which work best on average.
+ * <p>
+ * The status of the agent includes the number of rollouts per second of the search.
+ */
+public class MctsAgent extends MyAgent {
+	/**
+	 * @param desiredState
+	 *                     - the desired state of the world.
+	 * @param name
+	 *                     - the name of the agent.
+	 * @param dynamicity
+	 *                     - the probability that the environment changes at each step.
+	 */
+	public MctsAgent(BlocksWorld desiredState, String name, float dynamicity) {
+		super(desiredState, name, new MctsPlanner(dynamicity));
+		setDynamicity(dynamicity);
+	}
+	
+	@Override
+	public String statusString() {
+		MctsPlanner mcts = (MctsPlanner) planner;
+		return super.statusString() + " [" + mcts.getLastRollouts() + " rollouts, "
+				+ String.format("%.0f", Double.valueOf(mcts.getLastRolloutsPerSecond())) + " rollouts/s]";
+	}
+}
@@ -0,0 +1,775 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import blocksworld.DynamicEnvironment.DynamicAction;
+import blocksworld.PlanningAction;
+
+/**
+ * Planner for dynamic environments, using Monte Carlo tree search: many episodes (rollouts) are simulated from the
+ * current state with a fast model of the world, in which the environment changes at random in the same way as the
+ * {@link blocksworld.DynamicEnvironment} (with the probabilities of {@link DynamicAction}), and the moves which lead to
+ * the best results on average are chosen.
+ * <p>
+ * The search is open-loop: the tree is one of sequences of moves, and each rollout samples the changes of the world
+ * again, following in the tree only the moves which are possible in its sample. Moves in the tree are chosen with UCT;
+ * after the tree, the rollout follows a randomized constructive policy (moves to the desired position when possible,
+ * otherwise moves of misplaced blocks to the table). Only these two kinds of moves are considered, which keeps the
+ * branching factor linear in the number of blocks. The result of a rollout is the number of moves to the goal, or
+ * after a maximum number of moves, the number of moves plus twice the number of misplaced blocks.
+ * <p>
+ * Rollouts run in parallel on a pool of threads, each thread with its own tree (root parallelization); the trees are
+ * merged at the end. The plan contains the moves of the most visited path in the merged trees, as long as they were
+ * visited often enough to be trusted. If these moves reach the goal, the plan is complete; otherwise it only contains
+ * the first moves (without AGENT_COMPLETED), and a new plan should be made after they are done.
+ * <p>
+ * The number of rollouts per second is recorded for each call, and over all calls.
+ */
+public class MctsPlanner implements Planner
+{
+	/**
+	 * Maximum number of rollouts in a call, for calls without a deadline.
+	 */
+	public static final long	ROLLOUTS			= 100000;
+	
+	/**
+	 * Environment steps (in which the environment may change) for each move.
+	 */
+	public static final int		STEPS_PER_MOVE		= 3;
+	
+	/**
+	 * Exploration constant for UCT (rewards are between 0 and 1).
+	 */
+	protected static final double	EXPLORATION		= 0.7;
+	
+	/**
+	 * Probability of a random move instead of a constructive one, in rollouts.
+	 */
+	protected static final double	RANDOM_MOVE		= 0.1;
+	
+	/**
+	 * The minimum number of visits for a move (other than the first) to be included in the plan.
+	 */
+	protected static final int	MIN_VISITS			= 50;
+	
+	/**
+	 * A node of the tree: statistics for a sequence of moves.
+	 */
+	protected static class Node
+	{
+		/**
+		 * The last move of the sequence.
+		 */
+		final int	move;
+		/**
+		 * The number of rollouts through the node.
+		 */
+		int			visits		= 0;
+		/**
+		 * The sum of the rewards of the rollouts through the node.
+		 */
+		double		value		= 0;
+		/**
+		 * The children.
+		 */
+		Node[]		children	= new Node[0];
+		
+		/**
+		 * @param lastMove
+		 *            - the last move.
+		 */
+		Node(int lastMove)
+		{
+			move = lastMove;
+		}
+		
+		/**
+		 * @param m
+		 *            - a move.
+		 * @return the child for the move, or <code>null</code>.
+		 */
+		Node child(int m)
+		{
+			for(Node c : children)
+				if(c.move == m)
+					return c;
+			return null;
+		}
+		
+		/**
+		 * @param m
+		 *            - a move.
+		 * @return the new child for the move.
+		 */
+		Node addChild(int m)
+		{
+			Node c = new Node(m);
+			children = Arrays.copyOf(children, children.length + 1);
+			children[children.length - 1] = c;
+			return c;
+		}
+	}
+	
+	/**
+	 * Fast, mutable model of the world, used by one thread: the blocks (as in {@link PlanningState}), the blocks in the
+	 * stash (those which are absent) and the stack observed by the agent, where the environment does not change
+	 * anything.
+	 */
+	protected static class Simulation
+	{
+		/**
+		 * The problem.
+		 */
+		final PlanningProblem	problem;
+		/**
+		 * The desired position of each block.
+		 */
+		final int[]				goal;
+		/**
+		 * For each block, <code>true</code> if it is locked.
+		 */
+		final boolean[]			locked;
+		/**
+		 * The block under each block.
+		 */
+		final int[]				below;
+		/**
+		 * The block on each block, or -1.
+		 */
+		final int[]				above;
+		/**
+		 * The block held by the agent, or -1.
+		 */
+		int						held;
+		/**
+		 * A block in the stack observed by the agent, or -1.
+		 */
+		int						observed;
+		/**
+		 * Memo for well placed blocks: the stamp of the last computation for each block.
+		 */
+		final int[]				stamp;
+		/**
+		 * Memo for well placed blocks: the result for each block.
+		 */
+		final boolean[]			placed;
+		/**
+		 * The current stamp.
+		 */
+		int						mark		= 0;
+		/**
+		 * Scratch space for choosing stacks and blocks.
+		 */
+		final int[]				scratch;
+		/**
+		 * The number of constructive moves (at the beginning) in the last result of {@link #candidates(int[])}.
+		 */
+		int						nConstructive;
+		
+		/**
+		 * @param planningProblem
+		 *            - the problem.
+		 */
+		Simulation(PlanningProblem planningProblem)
+		{
+			problem = planningProblem;
+			goal = problem.getGoalBelow();
+			locked = problem.getLocked();
+			int n = problem.size();
+			below = new int[n];
+			above = new int[n];
+			stamp = new int[n];
+			placed = new boolean[n];
+			scratch = new int[n];
+		}
+		
+		/**
+		 * Sets the state of the model.
+		 * 
+		 * @param state
+		 *            - the state.
+		 * @param observedBlock
+		 *            - a block in the stack observed by the agent, or -1.
+		 */
+		void reset(PlanningState state, int observedBlock)
+		{
+			Arrays.fill(above, -1);
+			for(int i = 0; i < below.length; i++)
+			{
+				below[i] = state.getBelow(i);
+				if(below[i] >= 0)
+					above[below[i]] = i;
+			}
+			held = state.getHeld();
+			observed = observedBlock;
+			mark++;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block.
+		 * @return <code>true</code> if it is well placed (see {@link PlanningState#wellPlaced()}).
+		 */
+		boolean isWellPlaced(int block)
+		{
+			if(stamp[block] == mark)
+				return placed[block];
+			boolean ret = goal[block] != PlanningProblem.ANYWHERE && below[block] == goal[block]
+					&& (below[block] == PlanningProblem.TABLE || isWellPlaced(below[block]));
+			stamp[block] = mark;
+			placed[block] = ret;
+			return ret;
+		}
+		
+		/**
+		 * @return the number of blocks with a desired position which are not well placed, plus 1 if the agent holds a
+		 *         block without a desired position (see {@link PlanningState#misplaced()}).
+		 */
+		int misplaced()
+		{
+			int h = 0;
+			for(int i = 0; i < below.length; i++)
+				if(goal[i] != PlanningProblem.ANYWHERE && !isWellPlaced(i))
+					h++;
+			if(held >= 0 && goal[held] == PlanningProblem.ANYWHERE)
+				h++;
+			return h;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block.
+		 * @return <code>true</code> if the block is in a stack and there is no block on it.
+		 */
+		boolean isClear(int block)
+		{
+			return below[block] >= PlanningProblem.TABLE && above[block] < 0;
+		}
+		
+		/**
+		 * Computes the moves considered: moves to the desired position (constructive moves, first) and moves to the
+		 * table of blocks which are not well placed.
+		 * 
+		 * @param out
+		 *            - array for the moves (of size at least twice the number of blocks).
+		 * @return the number of moves.
+		 */
+		int candidates(int[] out)
+		{
+			int k = 0;
+			if(held >= 0)
+			{
+				int g = goal[held];
+				if(g >= 0 && isClear(g) && isWellPlaced(g))
+					out[k++] = problem.move(held, g);
+				nConstructive = k;
+				out[k++] = problem.move(held, PlanningProblem.TABLE);
+				return k;
+			}
+			for(int x = 0; x < below.length; x++)
+				if(isClear(x) && !locked[x] && !isWellPlaced(x))
+				{
+					int g = goal[x];
+					if(g == PlanningProblem.TABLE || (g >= 0 && isClear(g) && isWellPlaced(g)))
+						out[k++] = problem.move(x, g);
+				}
+			nConstructive = k;
+			for(int x = 0; x < below.length; x++)
+				if(isClear(x) && !locked[x] && !isWellPlaced(x) && below[x] != PlanningProblem.TABLE
+						&& goal[x] != PlanningProblem.TABLE)
+					out[k++] = problem.move(x, PlanningProblem.TABLE);
+			return k;
+		}
+		
+		/**
+		 * Applies a move (one of the {@link #candidates(int[])}).
+		 * 
+		 * @param move
+		 *            - the move.
+		 */
+		void apply(int move)
+		{
+			int x = problem.moveBlock(move);
+			int to = problem.moveTarget(move);
+			if(x == held)
+				held = -1;
+			else
+				takeOut(x);
+			putOn(x, to);
+			observed = x;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block in a stack, to take out of the stack.
+		 */
+		void takeOut(int block)
+		{
+			if(below[block] >= 0)
+				above[below[block]] = -1;
+			below[block] = PlanningState.ABSENT;
+			mark++;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block which is not in a stack.
+		 * @param to
+		 *            - the block to put it on, or {@link PlanningProblem#TABLE}.
+		 */
+		void putOn(int block, int to)
+		{
+			below[block] = to;
+			if(to >= 0)
+				above[to] = block;
+			mark++;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block in a stack.
+		 * @return the block at the bottom of the stack.
+		 */
+		int bottom(int block)
+		{
+			int b = block;
+			while(below[b] >= 0)
+				b = below[b];
+			return b;
+		}
+		
+		/**
+		 * @param block
+		 *            - a block in a stack.
+		 * @return the block at the top of the stack.
+		 */
+		int top(int block)
+		{
+			int b = block;
+			while(above[b] >= 0)
+				b = above[b];
+			return b;
+		}
+		
+		/**
+		 * Picks a random stack which is not observed, as {@link blocksworld.DynamicEnvironment} does.
+		 * 
+		 * @param canBeSingle
+		 *            - the stack can have a single block.
+		 * @param canBeLocked
+		 *            - the top block can be locked.
+		 * @param random
+		 *            - the generator.
+		 * @return the top block of the stack, or -1 if there is no such stack.
+		 */
+		int pickStack(boolean canBeSingle, boolean canBeLocked, Random random)
+		{
+			int observedBottom = observed >= 0 && below[observed] >= PlanningProblem.TABLE ? bottom(observed) : -1;
+			int k = 0;
+			for(int b = 0; b < below.length; b++)
+				if(below[b] == PlanningProblem.TABLE && b != observedBottom && (canBeSingle || above[b] >= 0))
+				{
+					int t = top(b);
+					if(canBeLocked || !locked[t])
+						scratch[k++] = t;
+				}
+			return k == 0 ? -1 : scratch[random.nextInt(k)];
+		}
+		
+		/**
+		 * Possibly changes the world, in the same way as {@link blocksworld.DynamicEnvironment} does in one step.
+		 * 
+		 * @param dynamicity
+		 *            - the probability of a change.
+		 * @param random
+		 *            - the generator.
+		 */
+		void step(float dynamicity, Random random)
+		{
+			if(random.nextFloat() >= dynamicity)
+				return;
+			switch(DynamicAction.pick(random))
+			{
+			case STASH:
+			{
+				int b = pickStack(true, false, random);
+				if(b >= 0)
+					takeOut(b);
+				break;
+			}
+			case UNSTASH:
+			{
+				int k = 0;
+				for(int b = 0; b < below.length; b++)
+					if(below[b] == PlanningState.ABSENT)
+						scratch[k++] = b;
+				if(k == 0)
+					break;
+				int stashed = scratch[random.nextInt(k)];
+				int t = pickStack(true, true, random);
+				if(t >= 0)
+					putOn(stashed, t);
+				break;
+			}
+			case DROP:
+			{
+				int b = pickStack(false, false, random);
+				if(b >= 0)
+				{
+					takeOut(b);
+					putOn(b, PlanningProblem.TABLE);
+				}
+				break;
+			}
+			case TELEPORT:
+			{
+				int b = pickStack(true, false, random);
+				if(b < 0)
+					break;
+				int t = pickStack(true, true, random);
+				if(t < 0 || bottom(t) == bottom(b))
+					break;
+				takeOut(b);
+				putOn(b, t);
+				break;
+			}
+			default:
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * The probability that the environment changes at each step.
+	 */
+	protected final float			dynamicity;
+	
+	/**
+	 * The number of threads.
+	 */
+	protected final int				nThreads;
+	
+	/**
+	 * The threads.
+	 */
+	protected final ExecutorService	executor;
+	
+	/**
+	 * Generator for the seeds of the threads.
+	 */
+	protected final Random			random;
+	
+	/**
+	 * Maximum number of rollouts in a call.
+	 */
+	protected long					rolloutLimit	= ROLLOUTS;
+	
+	/**
+	 * The number of rollouts in the last call.
+	 */
+	protected long					lastRollouts	= 0;
+	
+	/**
+	 * The duration of the last call, in nanoseconds.
+	 */
+	protected long					lastTime		= 0;
+	
+	/**
+	 * The number of rollouts over all calls.
+	 */
+	protected long					totalRollouts	= 0;
+	
+	/**
+	 * The duration of all calls, in nanoseconds.
+	 */
+	protected long					totalTime		= 0;
+	
+	/**
+	 * Creates a planner using all processors.
+	 * 
+	 * @param environmentDynamicity
+	 *            - the probability that the environment changes at each step.
+	 */
+	public MctsPlanner(float environmentDynamicity)
+	{
+		this(environmentDynamicity, Runtime.getRuntime().availableProcessors(), new Random());
+	}
+	
+	/**
+	 * @param environmentDynamicity
+	 *            - the probability that the environment changes at each step.
+	 * @param threads
+	 *            - the number of threads.
+	 * @param generator
+	 *            - the generator for the seeds of the threads.
+	 */
+	public MctsPlanner(float environmentDynamicity, int threads, Random generator)
+	{
+		dynamicity = environmentDynamicity;
+		nThreads = Math.max(1, threads);
+		random = generator;
+		executor = Executors.newFixedThreadPool(nThreads, r -> {
+			Thread t = new Thread(r, "mcts");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	/**
+	 * @param limit
+	 *            - the maximum number of rollouts in a call.
+	 * @return the planner itself.
+	 */
+	public MctsPlanner setRolloutLimit(long limit)
+	{
+		rolloutLimit = limit;
+		return this;
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadline)
+	{
+		long start = System.nanoTime();
+		PlanningState initial = problem.getInitialState();
+		int observed = problem.stacks.isEmpty() ? -1 : problem.stacks.get(problem.currentStation)[0];
+		AtomicLong started = new AtomicLong(), completed = new AtomicLong();
+		List<Future<Node>> futures = new ArrayList<>();
+		for(int i = 0; i < nThreads; i++)
+		{
+			Random generator = new Random(random.nextLong());
+			futures.add(executor
+					.submit(() -> search(problem, initial, observed, generator, deadline, started, completed)));
+		}
+		List<Node> roots = new ArrayList<>();
+		try
+		{
+			for(Future<Node> f : futures)
+				roots.add(f.get());
+		} catch(InterruptedException e)
+		{
+			for(Future<Node> f : futures)
+				f.cancel(true);
+			Thread.currentThread().interrupt();
+			return null;
+		} catch(ExecutionException e)
+		{
+			System.out.println("Monte Carlo search failed: " + e.getCause());
+			return null;
+		}
+		lastRollouts = completed.get();
+		lastTime = System.nanoTime() - start;
+		totalRollouts += lastRollouts;
+		totalTime += lastTime;
+		
+		// the most visited path in the merged trees
+		int[] moves = new int[2 * problem.size() + 2];
+		int nMoves = 0;
+		PlanningState state = initial;
+		List<Node> nodes = roots;
+		while(!state.isGoal() && nMoves < moves.length)
+		{
+			Map<Integer, Integer> visits = new LinkedHashMap<>();
+			for(Node node : nodes)
+				for(Node c : node.children)
+					visits.merge(Integer.valueOf(c.move), Integer.valueOf(c.visits), Integer::sum);
+			int best = -1, bestVisits = 0;
+			for(Map.Entry<Integer, Integer> e : visits.entrySet())
+				if(e.getValue().intValue() > bestVisits)
+				{
+					best = e.getKey().intValue();
+					bestVisits = e.getValue().intValue();
+				}
+			if(best < 0 || (nMoves > 0 && bestVisits < MIN_VISITS) || !isApplicable(state, best))
+				break;
+			moves[nMoves++] = best;
+			state = state.apply(best);
+			List<Node> next = new ArrayList<>();
+			for(Node node : nodes)
+			{
+				Node c = node.child(best);
+				if(c != null)
+					next.add(c);
+			}
+			nodes = next;
+		}
+		if(nMoves == 0 && !state.isGoal())
+			return null;
+		return problem.toPlanningAction(moves, nMoves, state.isGoal());
+	}
+	
+	/**
+	 * The search done by one thread.
+	 * 
+	 * @param problem
+	 *            - the problem.
+	 * @param initial
+	 *            - the initial state.
+	 * @param observed
+	 *            - a block in the stack observed by the agent, or -1.
+	 * @param generator
+	 *            - the generator for the thread.
+	 * @param deadline
+	 *            - the deadline.
+	 * @param started
+	 *            - the number of rollouts started by all threads.
+	 * @param completed
+	 *            - the number of rollouts completed by all threads.
+	 * @return the root of the tree.
+	 */
+	protected Node search(PlanningProblem problem, PlanningState initial, int observed, Random generator,
+			long deadline, AtomicLong started, AtomicLong completed)
+	{
+		Node root = new Node(-1);
+		Simulation sim = new Simulation(problem);
+		int n = problem.size();
+		int maxMoves = 2 * n + 8;
+		double worst = 4 * n + 8;
+		int[] candidates = new int[2 * n + 1];
+		List<Node> path = new ArrayList<>();
+		long count = 0;
+		while(started.incrementAndGet() <= rolloutLimit
+				&& !(++count % SearchPlanner.CHECK_INTERVAL == 0 && SearchPlanner.isExpired(deadline)))
+		{
+			sim.reset(initial, observed);
+			path.clear();
+			path.add(root);
+			Node node = root;
+			int depth = 0;
+			boolean inTree = true;
+			int misplaced;
+			while((misplaced = sim.misplaced()) > 0 && depth < maxMoves)
+			{
+				int k = sim.candidates(candidates);
+				if(k == 0)
+					break;
+				int move;
+				if(inTree)
+				{
+					move = select(node, candidates, k, generator);
+					Node c = node.child(move);
+					if(c == null)
+					{
+						c = node.addChild(move);
+						inTree = false;
+					}
+					node = c;
+					path.add(node);
+				}
+				else if(sim.nConstructive > 0 && generator.nextDouble() >= RANDOM_MOVE)
+					move = candidates[generator.nextInt(sim.nConstructive)];
+				else
+					move = candidates[generator.nextInt(k)];
+				sim.apply(move);
+				depth++;
+				for(int s = 0; s < STEPS_PER_MOVE; s++)
+					sim.step(dynamicity, generator);
+			}
+			double reward = Math.max(0, 1 - (depth + 2 * misplaced) / worst);
+			for(Node p : path)
+			{
+				p.visits++;
+				p.value += reward;
+			}
+			completed.incrementAndGet();
+		}
+		return root;
+	}
+	
+	/**
+	 * Selects a move in the tree: a move without a child, if there is one (chosen at random), otherwise the move with
+	 * the best UCT value.
+	 * 
+	 * @param node
+	 *            - the node.
+	 * @param candidates
+	 *            - the possible moves.
+	 * @param k
+	 *            - the number of possible moves.
+	 * @param generator
+	 *            - the generator.
+	 * @return the move.
+	 */
+	protected static int select(Node node, int[] candidates, int k, Random generator)
+	{
+		int unexpanded = 0;
+		for(int i = 0; i < k; i++)
+			if(node.child(candidates[i]) == null)
+				unexpanded++;
+		if(unexpanded > 0)
+		{
+			int pick = generator.nextInt(unexpanded);
+			for(int i = 0; i < k; i++)
+				if(node.child(candidates[i]) == null && pick-- == 0)
+					return candidates[i];
+		}
+		double logVisits = Math.log(Math.max(node.visits, 1));
+		int best = candidates[0];
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < k; i++)
+		{
+			Node c = node.child(candidates[i]);
+			double value = c.value / c.visits + EXPLORATION * Math.sqrt(logVisits / c.visits);
+			if(value > bestValue)
+			{
+				best = candidates[i];
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @param state
+	 *            - a state.
+	 * @param move
+	 *            - a move.
+	 * @return <code>true</code> if the move can be done in the state.
+	 */
+	protected static boolean isApplicable(PlanningState state, int move)
+	{
+		for(int m : state.moves())
+			if(m == move)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * @return the number of rollouts in the last call.
+	 */
+	public long getLastRollouts()
+	{
+		return lastRollouts;
+	}
+	
+	/**
+	 * @return the number of rollouts per second in the last call.
+	 */
+	public double getLastRolloutsPerSecond()
+	{
+		return lastTime == 0 ? 0 : lastRollouts * 1e9 / lastTime;
+	}
+	
+	/**
+	 * @return the number of rollouts per second, over all calls.
+	 */
+	public double getRolloutsPerSecond()
+	{
+		return totalTime == 0 ? 0 : totalRollouts * 1e9 / totalTime;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "MCTS (" + nThreads + " threads)";
+	}
+}
@@ -1,9 +1,13 @@
 package my;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import base.Action;
-import base.Agent;
 import base.Perceptions;
 import blocksworld.Block;
 import blocksworld.BlocksWorld;
@@ -13,18 +17,143 @@ import blocksworld.BlocksWorldPerceptions;
 import blocksworld.PlanningAction;
 import blocksworld.PlanningAction.PlanningActionType;
 import blocksworld.Stack;
+import tester.DeadlineAgent.LateAgent;
 
 /**
  * Agent to implement.
+ * <p>
+ * The agent first goes through all stations (using NEXT_STATION), recording the stack at each of them and, at each
+ * station, locking the blocks already in place and placing the blocks which can be placed for good there (see
+ * {@link ExplorationPlanner}). When it has seen all stations, it builds a complete plan and follows it. In small worlds,
+ * the plan is read from a table of optimal moves compiled when the agent is created (see {@link CompiledPolicy});
+ * otherwise, it is built with a portfolio of planners, within a time budget. Planners may also return only the
+ * beginning of a plan (without AGENT_COMPLETED).
+ * <p>
+ * Everything the agent sees is kept in a {@link BeliefStore}, so when an action fails (e.g. because the environment
+ * changed), when the plan would lock a block which is not in its desired place, or after the beginning of a plan was
+ * performed, the agent re-plans right away with what it believes about the other stations. It goes through all stations
+ * again only if plans made from its beliefs fail repeatedly, or if desired blocks are not at any station it knows.
+ * Before following a plan made from beliefs, it may look again at a station used by the plan, if the station has
+ * probably changed since it was last seen (see {@link RevisitScheduler}).
+ * <p>
+ * The misplaced blocks in the visible stack are found by {@link Rule}s over the predicates of the stack, such as
+ * <code>ON(?x, ?y), misplacedOn(?x, ?y) -&gt; UNSTACK(?x, ?y)</code>, matched by a {@link RuleEngine} which only
+ * processes the predicates which changed since the previous step.
  */
-public class MyAgent implements Agent {
+public class MyAgent implements LateAgent {
+	/**
+	 * Default time budget for planning, in milliseconds.
+	 */
+	public static final long PLANNING_BUDGET = 200;
+	
+	/**
+	 * Directory for pattern database files, in the temporary directory.
+	 */
+	public static final String PDB_DIRECTORY = "blocksworld-pdb";
+	
+	/**
+	 * Number of consecutive failed plans, made from beliefs, after which the agent goes through all stations again.
+	 */
+	public static final int MAX_FAILED_PLANS = 2;
+	
 	/**
 	 * Name of the agent.
 	 */
 	String agentName;
-
+	
 	/**
-	 * Constructor for the agent.
+	 * The desired state of the world.
+	 */
+	BlocksWorld desires;
+	
+	/**
+	 * The planner.
+	 */
+	Planner planner;
+	
+	/**
+	 * Pattern databases for the desired state (for worlds too large for a {@link CompiledPolicy}).
+	 */
+	List<PatternDatabase> patternDatabases = Collections.emptyList();
+	
+	/**
+	 * Time budget for planning, in milliseconds.
+	 */
+	long planningBudget = PLANNING_BUDGET;
+	
+	/**
+	 * What the agent believes about the world; created with the first observation.
+	 */
+	BeliefStore beliefs = null;
+	
+	/**
+	 * Rules matched against the visible stack, whose activations are the visible blocks which are not on the block (or
+	 * on the table) where they are desired; created with the first observation (see {@link #createRules()}).
+	 */
+	RuleEngine misplaced = null;
+	
+	/**
+	 * Plans the tours of the stations.
+	 */
+	ExplorationPlanner explorer = new ExplorationPlanner();
+	
+	/**
+	 * Decides when to look again at stations before following a plan made from beliefs.
+	 */
+	RevisitScheduler scheduler;
+	
+	/**
+	 * The number of the current step.
+	 */
+	long step = 0;
+	
+	/**
+	 * The action which the environment will perform for the agent, given its last response.
+	 */
+	BlocksWorldAction expected = null;
+	
+	/**
+	 * The perceptions last merged into the beliefs.
+	 */
+	BlocksWorldPerceptions observed = null;
+	
+	/**
+	 * The last response of the agent.
+	 */
+	PlanningAction lastResponse = null;
+	
+	/**
+	 * The step when the current tour of the stations started; -1 if not exploring.
+	 */
+	long tourStart = -1;
+	
+	/**
+	 * <code>true</code> if the agent should go through all stations before planning again.
+	 */
+	boolean tourNeeded = true;
+	
+	/**
+	 * The number of consecutive plans which failed since the last tour.
+	 */
+	int failedPlans = 0;
+	
+	/**
+	 * <code>true</code> while the agent is following a complete plan.
+	 */
+	boolean executing = false;
+	
+	/**
+	 * <code>true</code> after the agent has performed its complete plan.
+	 */
+	boolean completed = false;
+	
+	/**
+	 * <code>true</code> if the plan being followed is only the beginning of a complete plan.
+	 */
+	boolean partial = false;
+	
+	/**
+	 * Constructor for the agent, in an environment which does not change by itself.
 	 * 
 	 * @param desiredState
 	 *                     - the desired state of the world.
@@ -32,71 +161,318 @@ public class MyAgent implements Agent {
 	 *                     - the name of the agent.
 	 */
 	public MyAgent(BlocksWorld desiredState, String name) {
+		this(desiredState, name, 0);
+	}
+	
+	/**
+	 * Constructor for the agent.
+	 * 
+	 * @param desiredState
+	 *                     - the desired state of the world.
+	 * @param name
+	 *                     - the name of the agent.
+	 * @param dynamicity
+	 *                     - the probability that the environment changes at each step.
+	 */
+	public MyAgent(BlocksWorld desiredState, String name, float dynamicity) {
+		this(desiredState, name, dynamicity, null);
+	}
+	
+	/**
+	 * Constructor for the agent, using what was compiled offline for the desired state, if available.
+	 * 
+	 * @param desiredState
+	 *                     - the desired state of the world.
+	 * @param name
+	 *                     - the name of the agent.
+	 * @param dynamicity
+	 *                     - the probability that the environment changes at each step.
+	 * @param precompiled
+	 *                     - the file with the table compiled offline (see {@link CompiledPolicy#main(String[])});
+	 *                     pattern databases built offline are looked for in the same directory (see
+	 *                     {@link PatternDatabase#main(String[])}). <code>null</code> to compile everything here.
+	 */
+	public MyAgent(BlocksWorld desiredState, String name, float dynamicity, Path precompiled) {
 		agentName = name;
-
-		// Perceptions perceptions = new BlocksWorldPerceptions(null, null, null, false,
-		// null);
-		// Action action = myAgent.response(perceptions);
-
-		// TODO
-		// trecem prin toate statiile
-		// construium un plan nou
-		// intoarcem un plan nou
+		desires = desiredState;
+		scheduler = new RevisitScheduler(dynamicity);
+		CompiledPolicy policy = new CompiledPolicy(new PortfolioPlanner());
+		// before the agent starts acting: the table, if the world is small enough, or the pattern databases
+		if(!policy.precompile(desires, precompiled))
+			try {
+				patternDatabases = PatternDatabase.forTarget(desires, PatternDatabase.PATTERN_SIZE,
+						Paths.get(System.getProperty("java.io.tmpdir"), PDB_DIRECTORY),
+						precompiled == null ? null : precompiled.toAbsolutePath().getParent());
+			} catch(IOException e) {
+				System.out.println("Pattern databases not available: " + e);
+			}
+		planner = policy;
 	}
-
+	
+	/**
+	 * Creates an agent which uses the given planner, with nothing compiled in advance.
+	 * 
+	 * @param desiredState
+	 *                     - the desired state of the world.
+	 * @param name
+	 *                     - the name of the agent.
+	 * @param agentPlanner
+	 *                     - the planner.
+	 */
+	protected MyAgent(BlocksWorld desiredState, String name, Planner agentPlanner) {
+		agentName = name;
+		desires = desiredState;
+		planner = agentPlanner;
+		scheduler = new RevisitScheduler(0);
+	}
+	
+	/**
+	 * @param budget
+	 *               - the time budget for planning, in milliseconds.
+	 */
+	public void setPlanningBudget(long budget) {
+		planningBudget = budget;
+	}
+	
+	/**
+	 * @param dynamicity
+	 *                   - the probability that the environment changes at each step (by default, the one given
+	 *                   to the constructor, or 0).
+	 */
+	public void setDynamicity(float dynamicity) {
+		scheduler = new RevisitScheduler(dynamicity);
+	}
+	
 	@Override
 	public Action response(Perceptions input) {
-		@SuppressWarnings("unused")
 		BlocksWorldPerceptions perceptions = (BlocksWorldPerceptions) input;
-
-		System.out.println("---Perceptions-----");
-		System.out.println(perceptions.getVisibleStack());
-		System.out.println("-----------");
-
-		System.out.println("---Current Station-----");
-		System.out.println(perceptions.getCurrentStation());
-		System.out.println("-----------");
-
-		PlanningAction plan = new PlanningAction(PlanningActionType.NEW_PLAN);
-		Type actionType = Type.NEXT_STATION;
-		BlocksWorldAction action = new BlocksWorldAction(actionType);
-		plan.addAction(action);
-
-		System.out.println("---Remain Plan-----");
-		System.out.println(perceptions.getRemainingPlan());
-		System.out.println("-----------");
-
-		if (perceptions.getRemainingPlan() != null) {
-			plan = new PlanningAction(PlanningActionType.CONTINUE_PLAN);
-
+		BlocksWorldAction performed = observe(perceptions);
+		lastResponse = decide(perceptions, performed);
+		expected = firstAction(lastResponse, perceptions.getRemainingPlan());
+		step++;
+		return lastResponse;
+	}
+	
+	@Override
+	public void responseDropped(Perceptions input, Action used) {
+		BlocksWorldPerceptions perceptions = (BlocksWorldPerceptions) input;
+		PlanningAction action = (PlanningAction) used;
+		if(perceptions != observed) {
+			// a step in which the agent was not asked; the environment went on with its plan
+			BlocksWorldAction performed = observe(perceptions);
+			// the tour may end while the agent is not asked
+			if(tourStart >= 0 && explorer.arrive(perceptions.getCurrentStation(), performed))
+				tourStart = -1;
+			step++;
 		}
-
-		Block blockA = new Block('A');
-		Block blockB = new Block('B');
-		Block blockC = new Block('C');
-
-		BlocksWorldAction unstackAction = new BlocksWorldAction(Type.UNSTACK, blockA, blockB);
-		plan.addAction(unstackAction);
-
-		BlocksWorldAction pickupAction = new BlocksWorldAction(Type.PICKUP, blockB);
-		BlocksWorldAction stackAction = new BlocksWorldAction(Type.STACK, blockB, blockC);
-		BlocksWorldAction putdownAction = new BlocksWorldAction(Type.PUTDOWN, blockB);
-
-		plan.addAction(pickupAction);
-		plan.addAction(stackAction);
-		plan.addAction(putdownAction);
-
-		// TODO: revise beliefs; if necessary, make a plan; return an action.
-
+		else if(action.getType() != PlanningActionType.CONTINUE_PLAN
+				|| lastResponse.getType() != PlanningActionType.CONTINUE_PLAN) {
+			// the environment does not have the plan which the agent decided on; decide again at the next step, faster
+			executing = false;
+			planningBudget = Math.max(planningBudget / 2, 1);
+			if(tourStart >= 0) {
+				tourStart = -1;
+				tourNeeded = true;
+			}
+		}
+		expected = firstAction(action, perceptions.getRemainingPlan());
+	}
+	
+	/**
+	 * Merges perceptions into the beliefs.
+	 * 
+	 * @param perceptions
+	 *                    - the perceptions.
+	 * @return the action performed at the previous step, or <code>null</code> if it failed.
+	 */
+	protected BlocksWorldAction observe(BlocksWorldPerceptions perceptions) {
+		if(beliefs == null)
+			beliefs = new BeliefStore(desires, patternDatabases);
+		if(misplaced == null)
+			misplaced = createRules();
+		// the visible stack changes little from one step to the next, and only the changes are matched
+		misplaced.update(perceptions.getVisibleStack().getPredicates());
+		BlocksWorldAction performed = perceptions.hasPreviousActionSucceeded() ? expected : null;
+		beliefs.observe(perceptions.getCurrentStation(), perceptions.getVisibleStack(), perceptions.getHolding(),
+				performed, step);
+		observed = perceptions;
+		return performed;
+	}
+	
+	/**
+	 * @param perceptions
+	 *                    - the perceptions, already merged into the beliefs.
+	 * @param performed
+	 *                    - the action performed at the previous step, or <code>null</code> if it failed.
+	 * @return the response of the agent.
+	 */
+	protected PlanningAction decide(BlocksWorldPerceptions perceptions, BlocksWorldAction performed) {
+		List<BlocksWorldAction> remaining = perceptions.getRemainingPlan();
+		boolean hasPlan = hasActions(remaining);
+		boolean fromBeliefs = false;
+		
+		if(completed)
+			return new PlanningAction(PlanningActionType.NEW_PLAN).addAction(BlocksWorldAction.of(Type.AGENT_COMPLETED));
+		if(executing) {
+			if(perceptions.hasPreviousActionSucceeded() && hasPlan && isLockCorrect(remaining, perceptions))
+				return new PlanningAction(PlanningActionType.CONTINUE_PLAN);
+			executing = false;
+			if(perceptions.hasPreviousActionSucceeded() && !hasPlan) {
+				if(!partial) {
+					completed = true;
+					return decide(perceptions, performed);
+				}
+				failedPlans = 0;
+				// desired blocks are not where the agent has looked (e.g. they are in the stash); look for them
+				if(!beliefs.getProblem(perceptions.getHolding()).isCompletable())
+					tourNeeded = true;
+			}
+			else if(!perceptions.hasPreviousActionSucceeded() && ++failedPlans >= MAX_FAILED_PLANS)
+				tourNeeded = true;
+		}
+		
+		if(tourNeeded) {
+			// start a new tour
+			tourNeeded = false;
+			failedPlans = 0;
+			tourStart = step;
+			scheduler.tourStarted();
+			explorer.start(beliefs);
+			return explorer.explore(beliefs.getProblem(perceptions.getHolding()));
+		}
+		if(tourStart >= 0) {
+			if(!explorer.arrive(perceptions.getCurrentStation(), performed)) {
+				if(hasPlan && perceptions.hasPreviousActionSucceeded())
+					return new PlanningAction(PlanningActionType.CONTINUE_PLAN);
+				return explorer.explore(beliefs.getProblem(perceptions.getHolding()));
+			}
+			// all stations have been seen
+			tourStart = -1;
+		}
+		else
+			fromBeliefs = true;
+		
+		PlanningProblem problem = beliefs.getProblem(perceptions.getHolding());
+		PlanningAction plan = planner.plan(problem, System.nanoTime() + planningBudget * 1000000L);
+		if(plan == null) {
+			// no plan in time; look again, and think longer next time
+			planningBudget *= 2;
+			tourNeeded = true;
+			return decide(perceptions, performed);
+		}
+		if(fromBeliefs) {
+			// the other stations were not seen just before; look again at one of them, if it is worth it
+			int revisit = scheduler.chooseRevisit(beliefs, plan, step);
+			if(revisit >= 0)
+				return new PlanningAction(PlanningActionType.NEW_PLAN)
+						.addAction(BlocksWorldAction.of(Type.GO_TO_STATION, beliefs.getStation(revisit)));
+			scheduler.planFollowed(beliefs.getStationCount());
+		}
+		executing = true;
+		partial = plan.isEmpty() || plan.getLast().getType() != Type.AGENT_COMPLETED;
 		return plan;
 	}
-
+	
+	/**
+	 * @param response
+	 *                  - a response of the agent.
+	 * @param remaining
+	 *                  - the plan of the agent in the environment, before the response.
+	 * @return the action which the environment will perform after the response, or <code>null</code> if none.
+	 */
+	protected static BlocksWorldAction firstAction(PlanningAction response, List<BlocksWorldAction> remaining) {
+		// the environment spends a step on each new plan, unless the plan completes the agent
+		if(response.getType() == PlanningActionType.NEW_PLAN && !response.isEmpty()
+				&& response.getFirst().getType() != Type.AGENT_COMPLETED)
+			return BlocksWorldAction.of(Type.PLANNED);
+		// as the environment changes the plan
+		List<BlocksWorldAction> plan = new ArrayList<>();
+		if(response.getType() == PlanningActionType.CONTINUE_PLAN || response.getType() == PlanningActionType.MODIFY_PLAN)
+			if(remaining != null)
+				plan.addAll(remaining);
+		if(response.getType() == PlanningActionType.MODIFY_PLAN && response.getNumberOfActionsToRemove() > 0)
+			plan = plan.subList(Math.min(response.getNumberOfActionsToRemove(), Math.max(plan.size() - 1, 0)),
+					plan.size());
+		if(response.getType() == PlanningActionType.NEW_PLAN || response.getType() == PlanningActionType.MODIFY_PLAN)
+			plan.addAll(0, response);
+		for(BlocksWorldAction action : plan)
+			if(action.getType() != Type.MARKER)
+				return action;
+		return null;
+	}
+	
+	/**
+	 * @return the rules finding misplaced blocks: a block on another block, or on the table, where it is not desired.
+	 *         Blocks which are not in the desired state are never misplaced.
+	 */
+	protected RuleEngine createRules() {
+		RuleEngine engine = new RuleEngine();
+		engine.defineTest("misplacedOn", args -> desires.exists(args[0])
+				&& (desires.isOnTable(args[0]) || !desires.getStack(args[0]).getBelow(args[0]).equals(args[1])));
+		engine.defineTest("misplacedOnTable", args -> desires.exists(args[0]) && !desires.isOnTable(args[0]));
+		engine.addRule("misplaced on block: ON(?x, ?y), misplacedOn(?x, ?y) -> UNSTACK(?x, ?y)");
+		engine.addRule("misplaced on table: ONTABLE(?x), misplacedOnTable(?x) -> PICKUP(?x)");
+		return engine;
+	}
+	
+	/**
+	 * The environment lets a block be locked wherever the block below it is locked, so a plan which was made before the
+	 * block was moved by the environment would lock it in the wrong place.
+	 * 
+	 * @param plan
+	 *                    - the remaining plan.
+	 * @param perceptions
+	 *                    - the perceptions, already matched against the rules (see {@link #createRules()}).
+	 * @return <code>false</code> if the next action of the plan locks a visible block which is not on the block (or
+	 *         on the table) where it is desired.
+	 */
+	protected boolean isLockCorrect(List<BlocksWorldAction> plan, BlocksWorldPerceptions perceptions) {
+		BlocksWorldAction next = null;
+		for(BlocksWorldAction action : plan)
+			if(action.getType() != Type.MARKER) {
+				next = action;
+				break;
+			}
+		if(next == null || next.getType() != Type.LOCK)
+			return true;
+		for(BlocksWorldAction move : misplaced.getActions())
+			if(move.getFirstArgument().equals(next.getArgument()))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @param plan
+	 *             - a plan.
+	 * @return <code>true</code> if the plan contains actions other than markers.
+	 */
+	protected static boolean hasActions(List<BlocksWorldAction> plan) {
+		if(plan != null)
+			for(BlocksWorldAction action : plan)
+				if(action.getType() != Type.MARKER)
+					return true;
+		return false;
+	}
+	
 	@Override
 	public String statusString() {
-		// TODO: return information about the agent's current state and current plan.
-		return toString() + ": All good.";
+		String revisits = scheduler.getRevisits() == 0 && scheduler.getStepsSaved() == 0 ? ""
+				: " [" + scheduler.getRevisits() + " revisits, " + scheduler.getStepsSaved()
+						+ " steps saved against round-robin]";
+		if(completed)
+			return toString() + ": completed." + revisits;
+		if(executing) {
+			Planner p = planner instanceof CompiledPolicy ? ((CompiledPolicy) planner).getLastPlanner() : planner;
+			return toString() + ": executing plan"
+					+ (p instanceof PortfolioPlanner ? " by " + ((PortfolioPlanner) p).getLastWinner() : " by " + p) + "."
+					+ revisits;
+		}
+		if(tourStart >= 0)
+			return toString() + ": exploring; seen " + beliefs.countSeenSince(tourStart) + " stations; "
+					+ explorer.getActions() + " actions planned on the way.";
+		return toString() + ": idle.";
 	}
-
+	
 	@Override
 	public String toString() {
 		return "" + agentName;
@@ -5,6 +5,7 @@ import java.util.Map;
 import blocksworld.BlocksWorld;
 import blocksworld.BlocksWorldAction;
 import blocksworld.DynamicEnvironment;
+import blocksworld.DynamicEnvironment.DynamicAction;
 
 /**
  * Class implementing specific functionality for the environment.
@@ -24,11 +25,24 @@ public class MyBlocksWorldEnvironment extends DynamicEnvironment
 		super(world, dynamicity, seed);
 	}
 	
+	/**
+	 * @param world
+	 *            - the initial world.
+	 * @param arrivalRates
+	 *            - the expected number of dynamic actions of each type at each step.
+	 * @param seed
+	 *            - seed for the generator or -1 if to generate a seed from the time.
+	 */
+	public MyBlocksWorldEnvironment(BlocksWorld world, Map<DynamicAction, ? extends Number> arrivalRates, long seed)
+	{
+		super(world, arrivalRates, seed);
+	}
+	
 	@Override
-	protected int performActions(Map<AgentData, BlocksWorldAction> actionMap)
+	protected int performActions(BlocksWorldAction[] agentActions)
 	{
 		// TODO solve conflicts if there are multiple agents.
-		return super.performActions(actionMap);
+		return super.performActions(agentActions);
 	}
 	
 	@Override
@@ -4,12 +4,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 import base.Agent;
 import blocksworld.BlocksWorld;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
 import tester.Tester;
 
 /**
@@ -24,6 +28,12 @@ public class MyTester extends Tester
 	 */
 	protected static final int STEP_DELAY = 500;
 	
+	/**
+	 * Time allowed for an agent to respond at each step, in milliseconds; 0 for unlimited. If the agent does not
+	 * respond in time, it will continue its current plan.
+	 */
+	protected static final int RESPONSE_DEADLINE = 0;
+	
 	/**
 	 * number of teams (may be single-agent teams); if only one team, sf.tyxt will be used; otherwise, sfi.txt will be
 	 * used, with i the 1-based index of the team.
@@ -53,6 +63,12 @@ public class MyTester extends Tester
 	 */
 	public static final long	SEED		= -1;
 	
+	/**
+	 * The planner of the agent, as named in {@link #createAgent(BlocksWorld, String, String, float)}; the empty string
+	 * for the default planner.
+	 */
+	protected static final String PLANNER = "";
+	
 	/**
 	 * The name of the agent.
 	 */
@@ -113,7 +129,10 @@ public class MyTester extends Tester
 			try (InputStream input = new FileInputStream(testSuite + SF + teamSuffix + EXT))
 			{
 				BlocksWorld desires = new BlocksWorld(input);
-				Agent leader = new MyAgent(desires, name);
+				// the table compiled offline for the test, if any (see CompiledPolicy#main)
+				Agent leader = withDeadline(createAgent(desires, name, PLANNER, DYNAMICITY,
+						Paths.get(testSuite, "policy" + teamSuffix + ".bin")),
+						new PlanningAction(PlanningActionType.CONTINUE_PLAN));
 				agentsStates.put(leader, desires);
 				agents.add(leader);
 				// larger team sizes unsupported
@@ -132,12 +151,76 @@ public class MyTester extends Tester
 		}
 	}
 	
+	/**
+	 * @param desires
+	 *            - the desired state.
+	 * @param name
+	 *            - the name of the agent.
+	 * @param planner
+	 *            - the planner of the agent: the empty string for the default (a portfolio of planners, compiled for
+	 *            small worlds), "bidirectional", "SMA*", "SAT", or "MCTS" (Monte Carlo tree search, see
+	 *            {@link MctsAgent}).
+	 * @param dynamicity
+	 *            - the probability that the environment changes at each step.
+	 * @return the agent.
+	 */
+	public static MyAgent createAgent(BlocksWorld desires, String name, String planner, float dynamicity)
+	{
+		return createAgent(desires, name, planner, dynamicity, null);
+	}
+	
+	/**
+	 * @param desires
+	 *            - the desired state.
+	 * @param name
+	 *            - the name of the agent.
+	 * @param planner
+	 *            - the planner of the agent (see {@link #createAgent(BlocksWorld, String, String, float)}).
+	 * @param dynamicity
+	 *            - the probability that the environment changes at each step.
+	 * @param precompiled
+	 *            - the file with the table compiled offline for the default planner (see
+	 *            {@link MyAgent#MyAgent(BlocksWorld, String, float, Path)}); <code>null</code> for none.
+	 * @return the agent.
+	 */
+	public static MyAgent createAgent(BlocksWorld desires, String name, String planner, float dynamicity,
+			Path precompiled)
+	{
+		MyAgent agent;
+		switch(planner)
+		{
+		case "":
+			return new MyAgent(desires, name, dynamicity, precompiled);
+		case "MCTS":
+			return new MctsAgent(desires, name, dynamicity);
+		case "bidirectional":
+			agent = new MyAgent(desires, name, new BidirectionalPlanner());
+			break;
+		case "SMA*":
+			agent = new MyAgent(desires, name, new SmaStarPlanner());
+			break;
+		case "SAT":
+			agent = new MyAgent(desires, name, new SatPlanner());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown planner: " + planner);
+		}
+		agent.setDynamicity(dynamicity);
+		return agent;
+	}
+	
 	@Override
 	protected int getDelay()
 	{
 		return STEP_DELAY;
 	}
 	
+	@Override
+	protected int getResponseDeadline()
+	{
+		return RESPONSE_DEADLINE;
+	}
+	
 	/**
 	 * Main.
 	 * 
@@ -0,0 +1,406 @@
+package my;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Closed set for searches, outside the Java heap: an open-addressing hash table (with linear probing) keyed by the
+ * 64-bit fingerprints of states (see {@link PlanningState#getFingerprint()}), which gives for each state the cost of
+ * the best known path to it and the last move on that path, with the fingerprint of the previous state. Paths are
+ * rebuilt by following the fingerprints back to the initial state, so they remain valid when the table is resized.
+ * <p>
+ * Each state takes a fixed-width slot of {@link #SLOT_BYTES} bytes, in pages of direct {@link ByteBuffer}s, so that
+ * the table can go beyond the 2 GB of a single buffer and is never scanned by the garbage collector. The table is
+ * resized (doubled) when it is half full. A table with 10<sup>8</sup> states takes 4.8 GB, which must be allowed by
+ * <code>-XX:MaxDirectMemorySize</code>. The memory is released when the table is no longer referenced.
+ * <p>
+ * Two different states with the same fingerprint are taken to be the same state; with 64-bit fingerprints this is
+ * unlikely (about 1 in 3000 for 10<sup>8</sup> states).
+ * <p>
+ * The table is not thread-safe; see {@link Striped} for the concurrent version.
+ */
+public class OffHeapStateTable
+{
+	/**
+	 * Bytes in a slot: the fingerprint, the fingerprint of the parent, the cost plus 1 (0 for an empty slot) and the
+	 * move.
+	 */
+	public static final int		SLOT_BYTES		= 24;
+
+	/**
+	 * Default initial capacity, in slots.
+	 */
+	public static final int		CAPACITY		= 1 << 16;
+
+	/**
+	 * The move recorded for the initial state.
+	 */
+	public static final int		NO_MOVE			= -1;
+
+	/**
+	 * Offsets in a slot.
+	 */
+	protected static final int	KEY = 0, PARENT = 8, COST = 16, MOVE = 20;
+
+	/**
+	 * Slots in a page (a page is 1.5 MB).
+	 */
+	protected static final int	PAGE_BITS		= 16;
+
+	/**
+	 * The pages.
+	 */
+	protected ByteBuffer[]		pages;
+
+	/**
+	 * The number of slots (a power of 2).
+	 */
+	protected long				capacity;
+
+	/**
+	 * The number of states.
+	 */
+	protected long				size			= 0;
+
+	/**
+	 * The capacity the table was created with, to which {@link #clear()} shrinks it.
+	 */
+	protected final long		initialSlots;
+
+	/**
+	 * Creates a table with the default capacity.
+	 */
+	public OffHeapStateTable()
+	{
+		this(CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            - the initial number of slots (rounded up to a power of 2 and to a page).
+	 */
+	public OffHeapStateTable(long initialCapacity)
+	{
+		initialSlots = Math.max(Long.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1, 1L << PAGE_BITS);
+		allocate(initialSlots);
+	}
+
+	/**
+	 * Allocates empty pages.
+	 *
+	 * @param slots
+	 *            - the number of slots.
+	 */
+	protected void allocate(long slots)
+	{
+		capacity = slots;
+		pages = new ByteBuffer[(int) (slots >>> PAGE_BITS)];
+		for(int i = 0; i < pages.length; i++)
+			pages[i] = ByteBuffer.allocateDirect(SLOT_BYTES << PAGE_BITS).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @param fingerprint
+	 *            - a fingerprint.
+	 * @return its slot, or the empty slot where it would be added.
+	 */
+	protected long slot(long fingerprint)
+	{
+		long mask = capacity - 1;
+		long i = (fingerprint * 0x9E3779B97F4A7C15L >>> 20) & mask;
+		while(true)
+		{
+			ByteBuffer page = pages[(int) (i >>> PAGE_BITS)];
+			int offset = (int) (i & ((1 << PAGE_BITS) - 1)) * SLOT_BYTES;
+			if(page.getInt(offset + COST) == 0 || page.getLong(offset + KEY) == fingerprint)
+				return i;
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * @param i
+	 *            - a slot.
+	 * @return the page of the slot.
+	 */
+	protected ByteBuffer page(long i)
+	{
+		return pages[(int) (i >>> PAGE_BITS)];
+	}
+
+	/**
+	 * @param i
+	 *            - a slot.
+	 * @return the offset of the slot in its page.
+	 */
+	protected static int offset(long i)
+	{
+		return (int) (i & ((1 << PAGE_BITS) - 1)) * SLOT_BYTES;
+	}
+
+	/**
+	 * Records a path to a state, if the state is new or the path is cheaper than the known one.
+	 *
+	 * @param fingerprint
+	 *            - the fingerprint of the state.
+	 * @param cost
+	 *            - the cost of the path.
+	 * @param parent
+	 *            - the fingerprint of the previous state (ignored for the initial state).
+	 * @param move
+	 *            - the last move, or {@link #NO_MOVE} for the initial state.
+	 * @return <code>true</code> if the path was recorded.
+	 */
+	public boolean put(long fingerprint, int cost, long parent, int move)
+	{
+		long i = slot(fingerprint);
+		ByteBuffer page = page(i);
+		int offset = offset(i);
+		int known = page.getInt(offset + COST);
+		if(known != 0 && known - 1 <= cost)
+			return false;
+		page.putLong(offset + KEY, fingerprint).putLong(offset + PARENT, parent).putInt(offset + COST, cost + 1)
+				.putInt(offset + MOVE, move);
+		if(known == 0 && ++size > capacity / 2)
+			resize();
+		return true;
+	}
+
+	/**
+	 * @param fingerprint
+	 *            - the fingerprint of a state.
+	 * @return the cost of the best known path to the state, or -1 if the state is not in the table.
+	 */
+	public int getCost(long fingerprint)
+	{
+		long i = slot(fingerprint);
+		return page(i).getInt(offset(i) + COST) - 1;
+	}
+
+	/**
+	 * @param fingerprint
+	 *            - the fingerprint of a state in the table.
+	 * @return the fingerprint of the previous state on the best known path.
+	 */
+	public long getParent(long fingerprint)
+	{
+		long i = slot(fingerprint);
+		return page(i).getLong(offset(i) + PARENT);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            - the fingerprint of a state in the table.
+	 * @return the last move on the best known path, or {@link #NO_MOVE}.
+	 */
+	public int getMove(long fingerprint)
+	{
+		long i = slot(fingerprint);
+		return page(i).getInt(offset(i) + MOVE);
+	}
+
+	/**
+	 * The previous states are followed until the initial state, since the path may be shorter than the cost of the
+	 * state: a state on the path may have been reached more cheaply after the state was added (but the cost of each
+	 * state is always larger than the cost of the previous one, so the path is never longer).
+	 * 
+	 * @param fingerprint
+	 *            - the fingerprint of a state in the table.
+	 * @return the moves of the best known path to the state.
+	 */
+	public int[] path(long fingerprint)
+	{
+		int[] ret = new int[Math.max(getCost(fingerprint), 0)];
+		int k = ret.length;
+		for(long state = fingerprint; k > 0; k--)
+		{
+			long i = slot(state);
+			int move = page(i).getInt(offset(i) + MOVE);
+			if(move == NO_MOVE)
+				break;
+			ret[k - 1] = move;
+			state = page(i).getLong(offset(i) + PARENT);
+		}
+		return k == 0 ? ret : Arrays.copyOfRange(ret, k, ret.length);
+	}
+
+	/**
+	 * Doubles the capacity, moving all states to new pages.
+	 */
+	protected void resize()
+	{
+		ByteBuffer[] old = pages;
+		allocate(capacity * 2);
+		for(ByteBuffer page : old)
+			for(int offset = 0; offset < page.capacity(); offset += SLOT_BYTES)
+				if(page.getInt(offset + COST) != 0)
+				{
+					long i = slot(page.getLong(offset + KEY));
+					page(i).putLong(offset(i) + KEY, page.getLong(offset + KEY))
+							.putLong(offset(i) + PARENT, page.getLong(offset + PARENT))
+							.putInt(offset(i) + COST, page.getInt(offset + COST))
+							.putInt(offset(i) + MOVE, page.getInt(offset + MOVE));
+				}
+	}
+
+	/**
+	 * Removes all states. The pages are kept (only the costs are reset, which marks the slots as empty), so a table
+	 * used for one search after another does not allocate; if the table grew, it goes back to its initial capacity.
+	 */
+	public void clear()
+	{
+		if(capacity > initialSlots)
+			allocate(initialSlots);
+		else
+			for(ByteBuffer page : pages)
+				for(int offset = COST; offset < page.capacity(); offset += SLOT_BYTES)
+					page.putInt(offset, 0);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of states.
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the memory used, in bytes (all outside the heap).
+	 */
+	public long getBytes()
+	{
+		return capacity * SLOT_BYTES;
+	}
+
+	@Override
+	public String toString()
+	{
+		return size + " states, " + getBytes() / (1 << 20) + " MB off-heap";
+	}
+
+	/**
+	 * Version of the table which can be used by several threads at the same time: the states are divided between
+	 * tables (stripes) by their fingerprint, and each stripe is used by one thread at a time.
+	 */
+	public static class Striped
+	{
+		/**
+		 * The stripes.
+		 */
+		protected final OffHeapStateTable[]	stripes;
+
+		/**
+		 * @param nStripes
+		 *            - the number of stripes (rounded up to a power of 2); about 4 times the number of threads.
+		 * @param initialCapacity
+		 *            - the initial capacity of each stripe.
+		 */
+		public Striped(int nStripes, long initialCapacity)
+		{
+			stripes = new OffHeapStateTable[Integer.highestOneBit(Math.max(nStripes, 2) - 1) << 1];
+			for(int i = 0; i < stripes.length; i++)
+				stripes[i] = new OffHeapStateTable(initialCapacity);
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - a fingerprint.
+		 * @return the stripe for the fingerprint (which uses other bits than those used inside the stripe).
+		 */
+		protected OffHeapStateTable stripe(long fingerprint)
+		{
+			return stripes[(int) (fingerprint >>> 58) & (stripes.length - 1)];
+		}
+
+		/**
+		 * See {@link OffHeapStateTable#put(long, int, long, int)}.
+		 *
+		 * @param fingerprint
+		 *            - the fingerprint of the state.
+		 * @param cost
+		 *            - the cost of the path.
+		 * @param parent
+		 *            - the fingerprint of the previous state.
+		 * @param move
+		 *            - the last move.
+		 * @return <code>true</code> if the path was recorded.
+		 */
+		public boolean put(long fingerprint, int cost, long parent, int move)
+		{
+			OffHeapStateTable s = stripe(fingerprint);
+			synchronized(s)
+			{
+				return s.put(fingerprint, cost, parent, move);
+			}
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - the fingerprint of a state.
+		 * @return the cost of the best known path to the state, or -1 if the state is not in the table.
+		 */
+		public int getCost(long fingerprint)
+		{
+			OffHeapStateTable s = stripe(fingerprint);
+			synchronized(s)
+			{
+				return s.getCost(fingerprint);
+			}
+		}
+
+		/**
+		 * As {@link OffHeapStateTable#path(long)}.
+		 * 
+		 * @param fingerprint
+		 *            - the fingerprint of a state in the table.
+		 * @return the moves of the best known path to the state.
+		 */
+		public int[] path(long fingerprint)
+		{
+			int[] ret = new int[Math.max(getCost(fingerprint), 0)];
+			int k = ret.length;
+			for(long state = fingerprint; k > 0; k--)
+			{
+				OffHeapStateTable s = stripe(state);
+				synchronized(s)
+				{
+					int move = s.getMove(state);
+					if(move == NO_MOVE)
+						break;
+					ret[k - 1] = move;
+					state = s.getParent(state);
+				}
+			}
+			return k == 0 ? ret : Arrays.copyOfRange(ret, k, ret.length);
+		}
+
+		/**
+		 * Removes all states (see {@link OffHeapStateTable#clear()}).
+		 */
+		public void clear()
+		{
+			for(OffHeapStateTable s : stripes)
+				synchronized(s)
+				{
+					s.clear();
+				}
+		}
+
+		/**
+		 * @return the number of states.
+		 */
+		public long size()
+		{
+			long ret = 0;
+			for(OffHeapStateTable s : stripes)
+				synchronized(s)
+				{
+					ret += s.size;
+				}
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Check of {@link OffHeapStateTable} and {@link OffHeapStateTable.Striped} against a {@link HashMap}: performs random
+ * puts (paths to random states from states already known, as a search does, with states reached again at a lower or
+ * higher cost), starting from a small capacity so that the tables are resized, and clears the tables from time to time.
+ * The results of the puts, the sizes, the costs, the parents, the moves and the paths are compared with those of the
+ * map. The striped table is then filled by several threads at the same time, each with its own states, and compared
+ * again. Exits with a non-zero status at the first difference.
+ */
+public class OffHeapStateTableCheck
+{
+	/**
+	 * Number of puts performed.
+	 */
+	protected static final int	PUTS			= 2000000;
+
+	/**
+	 * Number of different states.
+	 */
+	protected static final int	STATES			= 200000;
+
+	/**
+	 * The tables are cleared every this many puts, half-way between two full comparisons.
+	 */
+	protected static final int	CLEAR_PERIOD	= 500000;
+
+	/**
+	 * The tables are compared in full with the map every this many puts.
+	 */
+	protected static final int	CHECK_PERIOD	= 100000;
+
+	/**
+	 * Initial capacity of the tables (of each stripe), small so that the tables are resized many times.
+	 */
+	protected static final int	CAPACITY		= 1 << 8;
+
+	/**
+	 * Number of threads filling the striped table at the same time.
+	 */
+	protected static final int	THREADS			= 4;
+
+	/**
+	 * Seed of the random generator.
+	 */
+	protected static final long	RANDOM_SEED		= 1;
+
+	/**
+	 * A path to a state, as kept in the map.
+	 */
+	protected static class Entry
+	{
+		/**
+		 * The cost of the path.
+		 */
+		final int	cost;
+		/**
+		 * The fingerprint of the previous state.
+		 */
+		final long	parent;
+		/**
+		 * The last move.
+		 */
+		final int	move;
+
+		/**
+		 * @param pathCost
+		 *            - the cost of the path.
+		 * @param parentState
+		 *            - the fingerprint of the previous state.
+		 * @param lastMove
+		 *            - the last move.
+		 */
+		Entry(int pathCost, long parentState, int lastMove)
+		{
+			cost = pathCost;
+			parent = parentState;
+			move = lastMove;
+		}
+	}
+
+	/**
+	 * The map of the check, with the same behavior as the tables.
+	 */
+	protected static class Model
+	{
+		/**
+		 * The best known path to each state.
+		 */
+		final Map<Long, Entry>	entries	= new HashMap<>();
+		/**
+		 * The states in the map, in the order they were added, to pick parents from.
+		 */
+		final List<Long>		known	= new ArrayList<>();
+
+		/**
+		 * See {@link OffHeapStateTable#put(long, int, long, int)}.
+		 *
+		 * @param fingerprint
+		 *            - the fingerprint of the state.
+		 * @param cost
+		 *            - the cost of the path.
+		 * @param parent
+		 *            - the fingerprint of the previous state.
+		 * @param move
+		 *            - the last move.
+		 * @return <code>true</code> if the path was recorded.
+		 */
+		boolean put(long fingerprint, int cost, long parent, int move)
+		{
+			Entry entry = entries.get(Long.valueOf(fingerprint));
+			if(entry != null && entry.cost <= cost)
+				return false;
+			if(entry == null)
+				known.add(Long.valueOf(fingerprint));
+			entries.put(Long.valueOf(fingerprint), new Entry(cost, parent, move));
+			return true;
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - the fingerprint of a state.
+		 * @return the cost of the best known path, or -1.
+		 */
+		int getCost(long fingerprint)
+		{
+			Entry entry = entries.get(Long.valueOf(fingerprint));
+			return entry == null ? -1 : entry.cost;
+		}
+
+		/**
+		 * @param fingerprint
+		 *            - the fingerprint of a state in the map.
+		 * @return the moves of the best known path to the state.
+		 */
+		int[] path(long fingerprint)
+		{
+			List<Integer> moves = new ArrayList<>();
+			for(Entry entry = entries.get(Long.valueOf(fingerprint)); entry.move != OffHeapStateTable.NO_MOVE;
+					entry = entries.get(Long.valueOf(entry.parent)))
+				moves.add(0, Integer.valueOf(entry.move));
+			return moves.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		/**
+		 * Removes all states.
+		 */
+		void clear()
+		{
+			entries.clear();
+			known.clear();
+		}
+	}
+
+	/**
+	 * Puts a random path in the tables and in the model: to the initial state if the model is empty, otherwise from a
+	 * known state, at a cost a little higher than the cost of that state.
+	 *
+	 * @param random
+	 *            - the random generator.
+	 * @param states
+	 *            - the fingerprints of the states.
+	 * @param table
+	 *            - the table.
+	 * @param striped
+	 *            - the striped table.
+	 * @param model
+	 *            - the model.
+	 * @return <code>null</code> if the tables agree with the model on the put; a description of the difference
+	 *         otherwise.
+	 */
+	protected static String randomPut(Random random, long[] states, OffHeapStateTable table,
+			OffHeapStateTable.Striped striped, Model model)
+	{
+		long fingerprint, parent;
+		int cost, move;
+		if(model.known.isEmpty())
+		{
+			fingerprint = states[random.nextInt(states.length)];
+			parent = 0;
+			cost = 0;
+			move = OffHeapStateTable.NO_MOVE;
+		}
+		else
+		{
+			parent = model.known.get(random.nextInt(model.known.size())).longValue();
+			fingerprint = states[random.nextInt(states.length)];
+			if(fingerprint == parent || model.getCost(fingerprint) == 0)
+				return null; // the initial state is never reached again
+			cost = model.getCost(parent) + 1 + random.nextInt(3);
+			move = random.nextInt(1 << 16);
+		}
+		boolean expected = model.put(fingerprint, cost, parent, move);
+		if(table.put(fingerprint, cost, parent, move) != expected)
+			return "put of " + fingerprint + " at cost " + cost + " does not return " + expected;
+		if(striped.put(fingerprint, cost, parent, move) != expected)
+			return "striped put of " + fingerprint + " at cost " + cost + " does not return " + expected;
+		return null;
+	}
+
+	/**
+	 * @param random
+	 *            - the random generator, to pick the paths to compare and states which are not known.
+	 * @param table
+	 *            - the table; <code>null</code> to check only the striped table.
+	 * @param striped
+	 *            - the striped table.
+	 * @param model
+	 *            - the model.
+	 * @return <code>null</code> if the tables agree with the model; a description of the first difference otherwise.
+	 */
+	protected static String compare(Random random, OffHeapStateTable table, OffHeapStateTable.Striped striped,
+			Model model)
+	{
+		if(table != null && table.size() != model.entries.size())
+			return "size " + table.size() + " instead of " + model.entries.size();
+		if(striped.size() != model.entries.size())
+			return "striped size " + striped.size() + " instead of " + model.entries.size();
+		for(Map.Entry<Long, Entry> e : model.entries.entrySet())
+		{
+			long fingerprint = e.getKey().longValue();
+			Entry entry = e.getValue();
+			if(table != null && (table.getCost(fingerprint) != entry.cost || table.getMove(fingerprint) != entry.move
+					|| entry.move != OffHeapStateTable.NO_MOVE && table.getParent(fingerprint) != entry.parent))
+				return "state " + fingerprint + ": cost " + table.getCost(fingerprint) + ", move "
+						+ table.getMove(fingerprint) + " instead of " + entry.cost + ", " + entry.move;
+			if(striped.getCost(fingerprint) != entry.cost)
+				return "striped state " + fingerprint + ": cost " + striped.getCost(fingerprint) + " instead of "
+						+ entry.cost;
+		}
+		for(int i = 0; i < 1000 && !model.known.isEmpty(); i++)
+		{
+			long fingerprint = model.known.get(random.nextInt(model.known.size())).longValue();
+			int[] path = model.path(fingerprint);
+			if(table != null && !Arrays.equals(table.path(fingerprint), path))
+				return "path to " + fingerprint + ": " + Arrays.toString(table.path(fingerprint)) + " instead of "
+						+ Arrays.toString(path);
+			if(!Arrays.equals(striped.path(fingerprint), path))
+				return "striped path to " + fingerprint + ": " + Arrays.toString(striped.path(fingerprint))
+						+ " instead of " + Arrays.toString(path);
+		}
+		for(int i = 0; i < 1000; i++)
+		{
+			long fingerprint = random.nextLong();
+			if(model.getCost(fingerprint) < 0
+					&& (table != null && table.getCost(fingerprint) != -1 || striped.getCost(fingerprint) != -1))
+				return "unknown state " + fingerprint + " found";
+		}
+		return null;
+	}
+
+	/**
+	 * Fills the striped table from several threads, each putting paths to its own states, in chains from a common
+	 * initial state; the same paths are put in the model.
+	 *
+	 * @param striped
+	 *            - the striped table, empty.
+	 * @param model
+	 *            - the model, empty.
+	 * @throws InterruptedException
+	 *             - if interrupted while waiting for the threads.
+	 */
+	protected static void fillConcurrently(OffHeapStateTable.Striped striped, Model model) throws InterruptedException
+	{
+		long initial = 0;
+		striped.put(initial, 0, 0, OffHeapStateTable.NO_MOVE);
+		model.put(initial, 0, 0, OffHeapStateTable.NO_MOVE);
+		Thread[] threads = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++)
+		{
+			long first = t * (long) STATES + 1;
+			threads[t] = new Thread(() -> {
+				long parent = initial;
+				for(long s = first; s < first + STATES; s++)
+				{
+					// fingerprints spread over all stripes
+					long fingerprint = s * 0x9E3779B97F4A7C15L;
+					striped.put(fingerprint, striped.getCost(parent) + 1, parent, (int) s);
+					parent = s % 16 == 0 ? initial : fingerprint;
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+		for(int t = 0; t < THREADS; t++)
+		{
+			long parent = initial;
+			for(long s = t * (long) STATES + 1; s < (t + 1) * (long) STATES + 1; s++)
+			{
+				long fingerprint = s * 0x9E3779B97F4A7C15L;
+				model.put(fingerprint, model.getCost(parent) + 1, parent, (int) s);
+				parent = s % 16 == 0 ? initial : fingerprint;
+			}
+		}
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws InterruptedException
+	 *             - if interrupted while waiting for the threads.
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		Random random = new Random(RANDOM_SEED);
+		long[] states = new long[STATES];
+		for(int i = 0; i < STATES; i++)
+			states[i] = random.nextLong();
+		OffHeapStateTable table = new OffHeapStateTable(CAPACITY);
+		OffHeapStateTable.Striped striped = new OffHeapStateTable.Striped(THREADS * 4, CAPACITY);
+		Model model = new Model();
+		int clears = 0;
+		for(int i = 1; i <= PUTS; i++)
+		{
+			String difference = randomPut(random, states, table, striped, model);
+			if(difference == null && i % CHECK_PERIOD == 0)
+				difference = compare(random, table, striped, model);
+			if(difference != null)
+			{
+				System.out.println("put " + i + ": " + difference);
+				System.exit(1);
+			}
+			if(i % CLEAR_PERIOD == CHECK_PERIOD / 2)
+			{
+				table.clear();
+				striped.clear();
+				model.clear();
+				clears++;
+			}
+		}
+		System.out.println(PUTS + " puts (" + clears + " clears) agree with the map; " + table);
+
+		striped.clear();
+		model.clear();
+		fillConcurrently(striped, model);
+		String difference = compare(random, null, striped, model);
+		if(difference != null)
+		{
+			System.out.println("concurrent puts: " + difference);
+			System.exit(1);
+		}
+		System.out.println(striped.size() + " states put by " + THREADS + " threads agree with the map");
+	}
+}
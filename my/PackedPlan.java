@@ -0,0 +1,277 @@
+package my;
+
+import java.util.Collection;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+
+/**
+ * A compact, immutable plan, in which each action is encoded as one <code>int</code>: the type in the highest
+ * {@link #TYPE_BITS} bits, then the arguments. Blocks are encoded by their index in a {@link PlanningProblem}, with
+ * {@link #ARG_BITS} bits for each argument; stations (which are created while the plan runs) are encoded by their
+ * label.
+ * <p>
+ * Plans share their prefixes. The actions are kept in buffers; a plan is a number of actions in a buffer, after the
+ * actions of the plan the buffer starts from (the prefix). Appending to a plan which ends where its buffer ends writes
+ * in the buffer; otherwise (when another plan was already extended from the same one, as for sibling search nodes), a
+ * new buffer is started, after the plan. In both cases, the prefix is not copied.
+ * <p>
+ * Appending to plans that share a buffer must be done from a single thread.
+ */
+public class PackedPlan
+{
+	/**
+	 * The number of bits for the type of an action.
+	 */
+	public static final int			TYPE_BITS	= 4;
+
+	/**
+	 * The number of bits for each argument of actions with two arguments.
+	 */
+	public static final int			ARG_BITS	= (32 - TYPE_BITS) / 2;
+
+	/**
+	 * The largest block index that can be encoded.
+	 */
+	public static final int			MAX_BLOCK	= (1 << ARG_BITS) - 1;
+
+	/**
+	 * The empty plan.
+	 */
+	public static final PackedPlan	EMPTY		= new PackedPlan(null, null, 0, 0);
+
+	/**
+	 * Initial capacity of buffers.
+	 */
+	protected static final int		CAPACITY	= 16;
+
+	/**
+	 * The action types, by ordinal.
+	 */
+	protected static final Type[]	TYPES		= Type.values();
+
+	/**
+	 * Actions in a buffer, after a prefix.
+	 */
+	protected static class Buffer
+	{
+		/**
+		 * The actions.
+		 */
+		int[]	actions;
+		/**
+		 * The number of actions written.
+		 */
+		int		used	= 0;
+
+		/**
+		 * @param capacity
+		 *            - the initial capacity.
+		 */
+		Buffer(int capacity)
+		{
+			actions = new int[capacity];
+		}
+	}
+
+	/**
+	 * The plan whose actions come before the actions in the {@link #buffer}; <code>null</code> if none.
+	 */
+	protected final PackedPlan	prefix;
+
+	/**
+	 * The buffer.
+	 */
+	protected final Buffer		buffer;
+
+	/**
+	 * The number of actions of this plan in the buffer.
+	 */
+	protected final int			count;
+
+	/**
+	 * The length of the plan.
+	 */
+	protected final int			length;
+
+	/**
+	 * @param prefixPlan
+	 *            - the prefix.
+	 * @param actionBuffer
+	 *            - the buffer.
+	 * @param nInBuffer
+	 *            - the number of actions in the buffer.
+	 * @param planLength
+	 *            - the length of the plan.
+	 */
+	protected PackedPlan(PackedPlan prefixPlan, Buffer actionBuffer, int nInBuffer, int planLength)
+	{
+		prefix = prefixPlan;
+		buffer = actionBuffer;
+		count = nInBuffer;
+		length = planLength;
+	}
+
+	/**
+	 * @param action
+	 *            - an encoded action.
+	 * @return the plan with the action appended (this plan is not changed).
+	 */
+	public PackedPlan append(int action)
+	{
+		if(buffer != null && count == buffer.used)
+		{
+			if(count == buffer.actions.length)
+			{
+				int[] grown = new int[2 * count];
+				System.arraycopy(buffer.actions, 0, grown, 0, count);
+				buffer.actions = grown;
+			}
+			buffer.actions[buffer.used++] = action;
+			return new PackedPlan(prefix, buffer, count + 1, length + 1);
+		}
+		Buffer b = new Buffer(CAPACITY);
+		b.actions[b.used++] = action;
+		return new PackedPlan(length == 0 ? null : this, b, 1, length + 1);
+	}
+
+	/**
+	 * @return the number of actions.
+	 */
+	public int size()
+	{
+		return length;
+	}
+
+	/**
+	 * @param index
+	 *            - the position of an action.
+	 * @return the encoded action.
+	 */
+	public int get(int index)
+	{
+		if(index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + length);
+		PackedPlan plan = this;
+		while(index < plan.length - plan.count)
+			plan = plan.prefix;
+		return plan.buffer.actions[index - (plan.length - plan.count)];
+	}
+
+	/**
+	 * @return all the encoded actions, in order.
+	 */
+	public int[] toArray()
+	{
+		int[] ret = new int[length];
+		for(PackedPlan plan = this; plan != null && plan.length > 0; plan = plan.prefix)
+			System.arraycopy(plan.buffer.actions, 0, ret, plan.length - plan.count, plan.count);
+		return ret;
+	}
+
+	/**
+	 * Encodes an action.
+	 *
+	 * @param action
+	 *            - the action.
+	 * @param problem
+	 *            - the problem giving the indexes of blocks.
+	 * @return the encoded action.
+	 * @throws IllegalArgumentException
+	 *             if a block index is larger than {@link #MAX_BLOCK}.
+	 */
+	public static int encode(BlocksWorldAction action, PlanningProblem problem)
+	{
+		Type type = action.getType();
+		int code = type.ordinal() << (32 - TYPE_BITS);
+		if(type == Type.GO_TO_STATION)
+			return code | action.getArgument().getLabel();
+		if(action.hasOneArg())
+			return code | blockIndex(action.getArgument(), problem);
+		if(action.hasTwoArgs())
+			return code | blockIndex(action.getFirstArgument(), problem) << ARG_BITS
+					| blockIndex(action.getSecondArgument(), problem);
+		return code;
+	}
+
+	/**
+	 * Decodes an action.
+	 *
+	 * @param code
+	 *            - the encoded action.
+	 * @param problem
+	 *            - the problem giving the indexes of blocks.
+	 * @return the action.
+	 */
+	public static BlocksWorldAction decode(int code, PlanningProblem problem)
+	{
+		Type type = TYPES[code >>> (32 - TYPE_BITS)];
+		if(type == Type.GO_TO_STATION)
+			return BlocksWorldAction.of(type, new Station((char) (code & 0xFFFF)));
+		switch(type.getArgumentNumber())
+		{
+		case 1:
+			return BlocksWorldAction.of(type, problem.getBlock(code & MAX_BLOCK));
+		case 2:
+			return BlocksWorldAction.of(type, problem.getBlock(code >>> ARG_BITS & MAX_BLOCK),
+					problem.getBlock(code & MAX_BLOCK));
+		default:
+			return BlocksWorldAction.of(type);
+		}
+	}
+
+	/**
+	 * @param actions
+	 *            - the actions.
+	 * @param problem
+	 *            - the problem giving the indexes of blocks.
+	 * @return the packed plan.
+	 */
+	public static PackedPlan pack(Collection<BlocksWorldAction> actions, PlanningProblem problem)
+	{
+		Buffer b = new Buffer(Math.max(actions.size(), 1));
+		for(BlocksWorldAction action : actions)
+			b.actions[b.used++] = encode(action, problem);
+		return b.used == 0 ? EMPTY : new PackedPlan(null, b, b.used, b.used);
+	}
+
+	/**
+	 * @param type
+	 *            - the type of the planning action.
+	 * @param problem
+	 *            - the problem giving the indexes of blocks.
+	 * @return the plan, as a {@link PlanningAction}.
+	 */
+	public PlanningAction unpack(PlanningActionType type, PlanningProblem problem)
+	{
+		PlanningAction ret = new PlanningAction(type);
+		for(int code : toArray())
+			ret.add(decode(code, problem));
+		return ret;
+	}
+
+	/**
+	 * @param block
+	 *            - a block.
+	 * @param problem
+	 *            - the problem.
+	 * @return the index of the block.
+	 */
+	protected static int blockIndex(Block block, PlanningProblem problem)
+	{
+		int i = problem.indexOf(block);
+		if(i > MAX_BLOCK)
+			throw new IllegalArgumentException("Block index " + i + " cannot be encoded in " + ARG_BITS + " bits.");
+		return i;
+	}
+
+	@Override
+	public String toString()
+	{
+		return length + " actions";
+	}
+}
@@ -0,0 +1,540 @@
+package my;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.Stack;
+
+/**
+ * Pattern database: the exact distance to the desired state of every state of an abstraction of the world to a subset
+ * of the blocks (the pattern), kept in a file which is memory-mapped, so that it does not use heap memory.
+ * <p>
+ * In the abstraction, each block of the pattern is on the table, on another block of the pattern, or on some other
+ * block (any block outside the pattern). Moves of other blocks are not seen, and a block of the pattern can always be
+ * moved onto some other block. Every move in the world is therefore either no move, or one move in the abstraction,
+ * and the distance in the abstraction is a lower bound of the distance in the world. The pattern database is built by
+ * a breadth-first search from the (single) desired abstract state, backwards (moves are reversible).
+ * <p>
+ * Databases for disjoint patterns can be added, as each move in the world is a move in at most one of the
+ * abstractions (see {@link #forTarget(BlocksWorld, int, Path)}).
+ * <p>
+ * The abstract state is given by a code for each block in the pattern: {@link #TABLE_CODE}, {@link #OTHER_CODE}, or 2
+ * plus the position of the block under it in the pattern. The distance of an abstract state is a byte at the position
+ * given by the codes, as digits of a number in base <i>k</i> + 2 (for <i>k</i> blocks in the pattern), after a header
+ * with the pattern and its desired state. The lookup takes constant time (for a given pattern size).
+ */
+public class PatternDatabase
+{
+	/**
+	 * Default number of blocks in a pattern.
+	 */
+	public static final int		PATTERN_SIZE	= 7;
+
+	/**
+	 * Largest number of blocks in a pattern (the database for 8 blocks has 100 million entries).
+	 */
+	public static final int		MAX_PATTERN		= 8;
+
+	/**
+	 * Code of the table.
+	 */
+	protected static final int	TABLE_CODE		= 0;
+
+	/**
+	 * Code of a block outside the pattern.
+	 */
+	protected static final int	OTHER_CODE		= 1;
+
+	/**
+	 * Value of states that were not reached (e.g. invalid codes).
+	 */
+	protected static final int	UNREACHED		= 0xFF;
+
+	/**
+	 * Identifies the files.
+	 */
+	protected static final int	MAGIC			= 0x50444231;
+
+	/**
+	 * Size of the header of the file, before the distances.
+	 */
+	protected static final int	HEADER			= 64;
+
+	/**
+	 * A pattern database, as used for a {@link PlanningProblem}: the index of each block of the pattern in the problem.
+	 */
+	public static class Binding
+	{
+		/**
+		 * The database.
+		 */
+		final PatternDatabase	database;
+		/**
+		 * The index, in the problem, of the block at each position of the pattern.
+		 */
+		final int[]				blocks;
+		/**
+		 * The position in the pattern of each block of the problem, or -1.
+		 */
+		final int[]				positions;
+
+		/**
+		 * @param patternDatabase
+		 *            - the database.
+		 * @param patternBlocks
+		 *            - the index of the block at each position of the pattern.
+		 * @param blockPositions
+		 *            - the position of each block in the pattern.
+		 */
+		Binding(PatternDatabase patternDatabase, int[] patternBlocks, int[] blockPositions)
+		{
+			database = patternDatabase;
+			blocks = patternBlocks;
+			positions = blockPositions;
+		}
+
+		/**
+		 * @param state
+		 *            - a state of the problem.
+		 * @return the distance from the abstraction of the state to the desired abstract state.
+		 */
+		public int value(PlanningState state)
+		{
+			int index = 0;
+			for(int p = blocks.length - 1; p >= 0; p--)
+			{
+				int under = state.getBelow(blocks[p]);
+				index = index * database.radix + (under < 0 ? TABLE_CODE // a held block is considered on the table
+						: positions[under] < 0 ? OTHER_CODE : positions[under] + 2);
+			}
+			return database.get(index);
+		}
+	}
+
+	/**
+	 * The labels of the blocks in the pattern.
+	 */
+	protected final char[]		labels;
+
+	/**
+	 * The desired code of each block in the pattern.
+	 */
+	protected final byte[]		goal;
+
+	/**
+	 * The base for the codes.
+	 */
+	protected final int			radix;
+
+	/**
+	 * The distances (mapped from the file, after the header).
+	 */
+	protected final ByteBuffer	distances;
+
+	/**
+	 * @param patternLabels
+	 *            - the labels of the blocks in the pattern.
+	 * @param goalCodes
+	 *            - the desired code of each block.
+	 * @param mapped
+	 *            - the distances.
+	 */
+	protected PatternDatabase(char[] patternLabels, byte[] goalCodes, ByteBuffer mapped)
+	{
+		labels = patternLabels;
+		goal = goalCodes;
+		radix = labels.length + 2;
+		distances = mapped;
+	}
+
+	/**
+	 * @param index
+	 *            - the index of an abstract state.
+	 * @return its distance to the desired abstract state.
+	 */
+	protected int get(int index)
+	{
+		int d = distances.get(index) & 0xFF;
+		return d == UNREACHED ? 0 : d;
+	}
+
+	/**
+	 * @return the labels of the blocks in the pattern.
+	 */
+	public char[] getPattern()
+	{
+		return labels.clone();
+	}
+
+	/**
+	 * @return the number of entries.
+	 */
+	public int size()
+	{
+		return distances.capacity();
+	}
+
+	/**
+	 * Finds the blocks of the pattern in a problem.
+	 *
+	 * @param problem
+	 *            - the problem, for the same desired state.
+	 * @return the binding, or <code>null</code> if some block of the pattern is not in the world (then its desired
+	 *         position may not be the one in the database).
+	 */
+	public Binding bind(PlanningProblem problem)
+	{
+		PlanningState initial = problem.getInitialState();
+		int[] blocks = new int[labels.length];
+		int[] positions = new int[problem.size()];
+		Arrays.fill(positions, -1);
+		for(int p = 0; p < labels.length; p++)
+		{
+			Integer i = problem.index.get(new Block(labels[p]));
+			if(i == null || initial.getBelow(i.intValue()) == PlanningState.ABSENT
+					|| problem.getGoalBelow()[i.intValue()] == PlanningProblem.ANYWHERE)
+				return null;
+			blocks[p] = i.intValue();
+			positions[i.intValue()] = p;
+		}
+		return new Binding(this, blocks, positions);
+	}
+
+	/**
+	 * @param world
+	 *            - a world.
+	 * @return the distance from the abstraction of the world to the desired abstract state; 0 if some block of the
+	 *         pattern is not in the world.
+	 */
+	public int value(BlocksWorld world)
+	{
+		int[] codes = new int[labels.length];
+		int found = 0;
+		for(Stack s : world.getTowers())
+		{
+			int p = -1; // position of the block above, in the pattern
+			for(Block b : s.getBlocks())
+			{
+				int q = Arrays.binarySearch(labels, b.getLabel());
+				if(p >= 0)
+					codes[p] = q >= 0 ? q + 2 : OTHER_CODE;
+				if(q >= 0)
+				{
+					codes[q] = TABLE_CODE;
+					found++;
+				}
+				p = q;
+			}
+		}
+		if(found < labels.length)
+			return 0;
+		int index = 0;
+		for(int p = labels.length - 1; p >= 0; p--)
+			index = index * radix + codes[p];
+		return get(index);
+	}
+
+	/**
+	 * Divides the blocks of the desired state into disjoint patterns: the desired towers, from the bottom up, one after
+	 * the other, are cut in patterns of the given size.
+	 *
+	 * @param target
+	 *            - the desired state.
+	 * @param size
+	 *            - the number of blocks in a pattern.
+	 * @return the labels of the blocks of each pattern, sorted.
+	 */
+	public static List<char[]> patterns(BlocksWorld target, int size)
+	{
+		StringBuilder order = new StringBuilder();
+		for(Stack s : target.getTowers())
+			for(Block b : s.getBlocksReversed())
+				order.append(b.getLabel());
+		List<char[]> ret = new ArrayList<>();
+		for(int i = 0; i < order.length(); i += size)
+		{
+			char[] pattern = order.substring(i, Math.min(i + size, order.length())).toCharArray();
+			Arrays.sort(pattern);
+			ret.add(pattern);
+		}
+		return ret;
+	}
+
+	/**
+	 * @param target
+	 *            - the desired state.
+	 * @param pattern
+	 *            - the labels of the blocks in the pattern, sorted.
+	 * @return the desired code of each block in the pattern.
+	 */
+	protected static byte[] goalCodes(BlocksWorld target, char[] pattern)
+	{
+		byte[] ret = new byte[pattern.length];
+		for(Stack s : target.getTowers())
+		{
+			int above = -1;
+			for(Block b : s.getBlocks())
+			{
+				int q = Arrays.binarySearch(pattern, b.getLabel());
+				if(above >= 0)
+					ret[above] = (byte) (q >= 0 ? q + 2 : OTHER_CODE);
+				if(q >= 0)
+					ret[q] = TABLE_CODE;
+				above = q;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Builds the database for a pattern and writes it to a file, through a memory mapping, and opens it.
+	 *
+	 * @param target
+	 *            - the desired state.
+	 * @param pattern
+	 *            - the labels of the blocks in the pattern, sorted; all must be in the desired state.
+	 * @param file
+	 *            - the file.
+	 * @return the database.
+	 * @throws IOException
+	 *             - if writing the file fails.
+	 */
+	public static PatternDatabase build(BlocksWorld target, char[] pattern, Path file) throws IOException
+	{
+		int k = pattern.length;
+		if(k > MAX_PATTERN)
+			throw new IllegalArgumentException("Pattern too large: " + k);
+		byte[] goal = goalCodes(target, pattern);
+		int radix = k + 2;
+		int size = 1;
+		for(int p = 0; p < k; p++)
+			size *= radix;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			MappedByteBuffer map = channel.map(MapMode.READ_WRITE, 0, HEADER + (long) size);
+			map.putInt(MAGIC).putInt(k);
+			for(char c : pattern)
+				map.putChar(c);
+			map.put(goal);
+			for(int i = 0; i < size; i++)
+				map.put(HEADER + i, (byte) UNREACHED);
+
+			int[] queue = new int[(int) countStates(k)];
+			int head = 0, tail = 0;
+			int start = 0;
+			for(int p = k - 1; p >= 0; p--)
+				start = start * radix + goal[p];
+			map.put(HEADER + start, (byte) 0);
+			queue[tail++] = start;
+			int[] codes = new int[k];
+			boolean[] clear = new boolean[k];
+			int[] weights = new int[k];
+			for(int p = 0, w = 1; p < k; p++, w *= radix)
+				weights[p] = w;
+			while(head < tail)
+			{
+				int index = queue[head++];
+				byte next = (byte) (map.get(HEADER + index) + 1);
+				Arrays.fill(clear, true);
+				for(int p = 0, rest = index; p < k; p++, rest /= radix)
+				{
+					codes[p] = rest % radix;
+					if(codes[p] >= 2)
+						clear[codes[p] - 2] = false;
+				}
+				for(int x = 0; x < k; x++)
+					if(clear[x])
+						for(int to = 0; to < radix; to++)
+							if(to != codes[x] && (to < 2 || (to - 2 != x && clear[to - 2])))
+							{
+								int neighbor = index + (to - codes[x]) * weights[x];
+								if((map.get(HEADER + neighbor) & 0xFF) == UNREACHED)
+								{
+									map.put(HEADER + neighbor, next);
+									queue[tail++] = neighbor;
+								}
+							}
+			}
+			map.force();
+		}
+		return open(file);
+	}
+
+	/**
+	 * Opens a database file, mapping it in memory (read-only).
+	 *
+	 * @param file
+	 *            - the file.
+	 * @return the database.
+	 * @throws IOException
+	 *             - if the file cannot be read or is not a pattern database.
+	 */
+	public static PatternDatabase open(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			MappedByteBuffer map = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if(channel.size() < HEADER || map.getInt() != MAGIC)
+				throw new IOException("Not a pattern database: " + file);
+			int k = map.getInt();
+			if(k < 0 || k > MAX_PATTERN)
+				throw new IOException("Bad pattern size in " + file);
+			char[] labels = new char[k];
+			for(int p = 0; p < k; p++)
+				labels[p] = map.getChar();
+			byte[] goal = new byte[k];
+			map.get(goal);
+			long size = 1;
+			for(int p = 0; p < k; p++)
+				size *= k + 2;
+			if(channel.size() != HEADER + size)
+				throw new IOException("Truncated pattern database: " + file);
+			map.position(HEADER);
+			return new PatternDatabase(labels, goal, map.slice());
+		}
+	}
+
+	/**
+	 * Gives disjoint pattern databases for all blocks of a desired state (see {@link #patterns(BlocksWorld, int)}),
+	 * opening the files in a directory, if they exist and are for the same patterns and desired state, and building
+	 * them otherwise.
+	 *
+	 * @param target
+	 *            - the desired state.
+	 * @param size
+	 *            - the number of blocks in a pattern.
+	 * @param dir
+	 *            - the directory.
+	 * @return the databases.
+	 * @throws IOException
+	 *             - if reading or writing files fails.
+	 */
+	public static List<PatternDatabase> forTarget(BlocksWorld target, int size, Path dir) throws IOException
+	{
+		return forTarget(target, size, dir, null);
+	}
+	
+	/**
+	 * Gives disjoint pattern databases for all blocks of a desired state, as
+	 * {@link #forTarget(BlocksWorld, int, Path)}, but first looks for each file in a directory where the databases
+	 * were built offline (see {@link #main(String[])}); only the databases found in neither directory are built.
+	 *
+	 * @param target
+	 *            - the desired state.
+	 * @param size
+	 *            - the number of blocks in a pattern.
+	 * @param dir
+	 *            - the directory where missing databases are built.
+	 * @param precompiled
+	 *            - the directory of the databases built offline; <code>null</code> for none.
+	 * @return the databases.
+	 * @throws IOException
+	 *             - if reading or writing files fails.
+	 */
+	public static List<PatternDatabase> forTarget(BlocksWorld target, int size, Path dir, Path precompiled)
+			throws IOException
+	{
+		Files.createDirectories(dir);
+		List<PatternDatabase> ret = new ArrayList<>();
+		for(char[] pattern : patterns(target, size))
+		{
+			byte[] goal = goalCodes(target, pattern);
+			String name = "pdb-" + new String(pattern) + "-" + Integer.toHexString(Arrays.hashCode(goal)) + ".bin";
+			PatternDatabase pdb = precompiled == null ? null : open(precompiled.resolve(name), pattern, goal);
+			if(pdb == null)
+				pdb = open(dir.resolve(name), pattern, goal);
+			ret.add(pdb != null ? pdb : build(target, pattern, dir.resolve(name)));
+		}
+		return ret;
+	}
+	
+	/**
+	 * @param file
+	 *            - a file.
+	 * @param pattern
+	 *            - the pattern.
+	 * @param goal
+	 *            - the codes of the desired state (see {@link #goalCodes(BlocksWorld, char[])}).
+	 * @return the database in the file, or <code>null</code> if the file does not exist, cannot be read, or is for
+	 *         another pattern or desired state.
+	 */
+	protected static PatternDatabase open(Path file, char[] pattern, byte[] goal)
+	{
+		if(!Files.exists(file))
+			return null;
+		try
+		{
+			PatternDatabase pdb = open(file);
+			return Arrays.equals(pdb.labels, pattern) && Arrays.equals(pdb.goal, goal) ? pdb : null;
+		} catch(IOException e)
+		{
+			return null; // built again
+		}
+	}
+
+	/**
+	 * The number of states of the abstraction for a pattern of <i>n</i> blocks: for each number <i>k</i> of towers,
+	 * the Lah number <i>C(n-1, k-1) n! / k!</i>, times 2<sup><i>k</i></sup> (each tower is on the table or on another
+	 * block).
+	 *
+	 * @param n
+	 *            - the number of blocks.
+	 * @return the number of states.
+	 */
+	public static long countStates(int n)
+	{
+		long ret = n == 0 ? 1 : 0;
+		long lah = 1; // L(n, n)
+		for(int k = n; k >= 1; k--)
+		{
+			ret += lah << k;
+			lah = lah * k * (k - 1) / (n - k + 1);
+		}
+		return ret;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PDB" + new String(labels);
+	}
+
+	/**
+	 * Builds offline the pattern databases for a test, in its directory.
+	 *
+	 * @param args
+	 *            - the directory of the test, optionally the suffix of the file with the desired state (e.g.
+	 *            <code>1</code> for <code>sf1.txt</code>), and optionally the size of the patterns.
+	 * @throws IOException
+	 *             - if reading or writing fails.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Path dir = Paths.get(args[0]);
+		String suffix = args.length > 1 ? args[1] : "";
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : PATTERN_SIZE;
+		BlocksWorld desired;
+		try (InputStream input = new FileInputStream(dir.resolve("sf" + suffix + ".txt").toFile()))
+		{
+			desired = new BlocksWorld(input);
+		}
+		long start = System.nanoTime();
+		List<PatternDatabase> pdbs = forTarget(desired, size, dir);
+		System.out.println(pdbs + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+	}
+}
@@ -0,0 +1,177 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.PlanBuffer;
+
+/**
+ * Randomized model check of {@link PlanBuffer}: performs random operations (new plans, plan modifications, removals
+ * from the beginning, clearing and forks) both on plan buffers and on {@link LinkedList}s, changed as the environment
+ * changed its plans before the buffer existed, and compares them after each operation. Snapshots taken along the way
+ * are checked again at the end, as they must not change. Exits with a non-zero status at the first difference.
+ */
+public class PlanBufferCheck
+{
+	/**
+	 * Number of operations performed.
+	 */
+	protected static final int	OPERATIONS		= 200000;
+
+	/**
+	 * Seed of the random generator.
+	 */
+	protected static final long	RANDOM_SEED		= 1;
+
+	/**
+	 * One snapshot is kept, to be checked at the end, every this many operations.
+	 */
+	protected static final int	SNAPSHOT_PERIOD	= 97;
+
+	/**
+	 * @param random
+	 *            - the random generator.
+	 * @param n
+	 *            - the number of actions.
+	 * @return random actions, as an agent would send them.
+	 */
+	protected static List<BlocksWorldAction> randomActions(Random random, int n)
+	{
+		List<BlocksWorldAction> actions = new ArrayList<>();
+		for(int i = 0; i < n; i++)
+		{
+			Block block = new Block((char) ('A' + random.nextInt(8)));
+			actions.add(random.nextBoolean() ? BlocksWorldAction.of(Type.PICKUP, block)
+					: BlocksWorldAction.of(Type.LOCK, block));
+		}
+		return actions;
+	}
+
+	/**
+	 * Performs a random operation on a buffer and on its model.
+	 *
+	 * @param random
+	 *            - the random generator.
+	 * @param buffer
+	 *            - the buffer.
+	 * @param model
+	 *            - the model.
+	 * @return a description of the operation.
+	 */
+	protected static String randomOperation(Random random, PlanBuffer buffer, List<BlocksWorldAction> model)
+	{
+		int choice = random.nextInt(10);
+		if(choice == 0)
+		{
+			buffer.clear();
+			model.clear();
+			return "clear";
+		}
+		if(choice <= 2)
+		{
+			List<BlocksWorldAction> plan = randomActions(random, random.nextInt(12));
+			BlocksWorldAction first = random.nextBoolean() ? BlocksWorldAction.of(Type.PLANNED) : null;
+			buffer.set(first, plan);
+			model.clear();
+			if(first != null)
+				model.add(first);
+			model.addAll(plan);
+			return "set " + first + " " + plan;
+		}
+		if(choice <= 4)
+		{
+			List<BlocksWorldAction> prefix = randomActions(random, random.nextInt(5));
+			buffer.insertFirst(prefix);
+			model.add(0, PlanBuffer.MARKER);
+			model.addAll(0, prefix);
+			return "insertFirst " + prefix;
+		}
+		int n = random.nextInt(4);
+		buffer.removeFirst(n);
+		for(int i = 0; i < n && !model.isEmpty(); i++)
+			model.remove(0);
+		return "removeFirst " + n;
+	}
+
+	/**
+	 * @param buffer
+	 *            - a buffer.
+	 * @param model
+	 *            - its model.
+	 * @return <code>null</code> if the buffer agrees with the model; a description of the difference otherwise.
+	 */
+	protected static String compare(PlanBuffer buffer, List<BlocksWorldAction> model)
+	{
+		if(buffer.size() != model.size())
+			return "size " + buffer.size() + " instead of " + model.size();
+		if(buffer.isEmpty() != model.isEmpty())
+			return "isEmpty " + buffer.isEmpty();
+		BlocksWorldAction first = model.isEmpty() ? null : model.get(0);
+		if(buffer.peek() != first)
+			return "peek " + buffer.peek() + " instead of " + first;
+		if(!buffer.snapshot().equals(model))
+			return "snapshot " + buffer.snapshot() + " instead of " + model;
+		return null;
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - not used.
+	 */
+	public static void main(String[] args)
+	{
+		Random random = new Random(RANDOM_SEED);
+		PlanBuffer buffer = new PlanBuffer();
+		List<BlocksWorldAction> model = new LinkedList<>();
+		List<List<BlocksWorldAction>> snapshots = new ArrayList<>();
+		List<List<BlocksWorldAction>> expected = new ArrayList<>();
+		int forks = 0;
+		for(int i = 0; i < OPERATIONS; i++)
+		{
+			if(random.nextInt(100) == 0)
+			{
+				// continue with a fork, after checking that the original does not change with it
+				PlanBuffer fork = buffer.fork();
+				List<BlocksWorldAction> before = new ArrayList<>(model);
+				List<BlocksWorldAction> forkModel = new LinkedList<>(model);
+				randomOperation(random, fork, forkModel);
+				String difference = compare(buffer, before);
+				if(difference != null)
+				{
+					System.out.println("operation " + i + ": original changed by its fork: " + difference);
+					System.exit(1);
+				}
+				buffer = fork;
+				model = forkModel;
+				forks++;
+			}
+			String operation = randomOperation(random, buffer, model);
+			String difference = compare(buffer, model);
+			if(difference != null)
+			{
+				System.out.println("operation " + i + " (" + operation + "): " + difference);
+				System.exit(1);
+			}
+			if(i % SNAPSHOT_PERIOD == 0)
+			{
+				snapshots.add(buffer.snapshot());
+				expected.add(new ArrayList<>(model));
+			}
+		}
+		for(int s = 0; s < snapshots.size(); s++)
+			if(!snapshots.get(s).equals(expected.get(s)))
+			{
+				System.out.println("snapshot " + s + " changed: " + snapshots.get(s) + " instead of " + expected.get(s));
+				System.exit(1);
+			}
+		System.out.println(OPERATIONS + " operations (" + forks + " forks) agree with the model; " + snapshots.size()
+				+ " snapshots unchanged");
+	}
+}
@@ -0,0 +1,35 @@
+package my;
+
+import blocksworld.PlanningAction;
+
+/**
+ * A planner, which builds a complete plan for a {@link PlanningProblem}.
+ * <p>
+ * Deadlines are absolute moments, as given by {@link System#nanoTime()}. Planners also stop when the thread running
+ * them is interrupted, which is used for cancellation.
+ */
+public interface Planner
+{
+	/**
+	 * Deadline to use when there is no time limit.
+	 */
+	long NO_DEADLINE = Long.MAX_VALUE;
+	
+	/**
+	 * Builds a plan.
+	 * 
+	 * @param problem
+	 *            - the problem.
+	 * @param deadline
+	 *            - the moment by which the plan must be returned, or {@link #NO_DEADLINE}.
+	 * @return the plan (of type NEW_PLAN, ending with AGENT_COMPLETED unless desired blocks are missing, see
+	 *         {@link PlanningProblem#isCompletable()}), or <code>null</code> if no plan was found before the deadline.
+	 */
+	PlanningAction plan(PlanningProblem problem, long deadline);
+	
+	/**
+	 * @return the name of the planner.
+	 */
+	@Override
+	String toString();
+}
@@ -0,0 +1,394 @@
+package my;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import base.Action;
+import base.Agent;
+import base.Perceptions;
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.BlocksWorldPerceptions;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+import blocksworld.Stack;
+
+/**
+ * Regression check for the planners: plans each test problem (and a number of random problems) with each planner,
+ * replays the plan in the environment, and checks that all actions succeed and that the agent completes in the desired
+ * state, with all the desired blocks locked. Exits with a non-zero status if any plan fails.
+ */
+public class PlannerCheck
+{
+	/**
+	 * The directory of the test suites.
+	 */
+	protected static final String	TESTS			= "tests/";
+	
+	/**
+	 * The number of random problems to check, in addition to the test suites.
+	 */
+	protected static final int		RANDOM_PROBLEMS	= 30;
+	
+	/**
+	 * The number of blocks in the random problems.
+	 */
+	protected static final int		RANDOM_BLOCKS	= 7;
+	
+	/**
+	 * The seed for generating the random problems.
+	 */
+	protected static final long		RANDOM_SEED		= 42;
+	
+	/**
+	 * Time allowed for each plan, in milliseconds.
+	 */
+	protected static final long		TIME_LIMIT		= 2000;
+	
+	/**
+	 * Maximum number of environment steps for replaying a plan.
+	 */
+	protected static final int		MAX_STEPS		= 5000;
+	
+	/**
+	 * Directory for the states on disk of the checked policy, in the temporary directory.
+	 */
+	protected static final String	CHECK_LAYER_DIRECTORY	= "blocksworld-bfs-check";
+	
+	/**
+	 * Environment giving access to the world state and to the stations.
+	 */
+	protected static class CheckEnvironment extends MyBlocksWorldEnvironment
+	{
+		/**
+		 * @param world
+		 *            - the initial world.
+		 * @param dynamicity
+		 *            - environment dynamicity.
+		 * @param seed
+		 *            - seed for the generator.
+		 */
+		public CheckEnvironment(BlocksWorld world, float dynamicity, long seed)
+		{
+			super(world, dynamicity, seed);
+		}
+		
+		/**
+		 * @return the current world state.
+		 */
+		public BlocksWorld getWorld()
+		{
+			return worldstate;
+		}
+		
+		/**
+		 * @param desired
+		 *            - the desired state.
+		 * @return the planning problem for the current world, with the agent at the first station, holding nothing.
+		 */
+		public PlanningProblem getProblem(BlocksWorld desired)
+		{
+			PlanningProblem problem = new PlanningProblem(desired);
+			List<Stack> towers = worldstate.getTowers();
+			for(int i = 0; i < towers.size(); i++)
+				problem.addStation(stations.get(i), towers.get(i));
+			return problem.setAgent(stations.get(0), null);
+		}
+	}
+	
+	/**
+	 * Agent which gives a fixed plan, and then continues it.
+	 */
+	protected static class ReplayAgent implements Agent
+	{
+		/**
+		 * The plan.
+		 */
+		protected PlanningAction	plan;
+		
+		/**
+		 * <code>true</code> if any action of the plan has failed.
+		 */
+		protected boolean			failed	= false;
+		
+		/**
+		 * @param plan
+		 *            - the plan to replay.
+		 */
+		public ReplayAgent(PlanningAction plan)
+		{
+			this.plan = plan;
+		}
+		
+		@Override
+		public Action response(Perceptions input)
+		{
+			if(!((BlocksWorldPerceptions) input).hasPreviousActionSucceeded())
+				failed = true;
+			if(plan == null)
+				return new PlanningAction(PlanningActionType.CONTINUE_PLAN);
+			PlanningAction first = plan;
+			plan = null;
+			return first;
+		}
+		
+		@Override
+		public String statusString()
+		{
+			return failed ? "failed" : "";
+		}
+	}
+	
+	/**
+	 * @return the planners to check, by name.
+	 */
+	protected static Map<String, Supplier<Planner>> getPlanners()
+	{
+		Map<String, Supplier<Planner>> planners = new LinkedHashMap<>();
+		planners.put("anytime", AnytimePlanner::new);
+		planners.put("A*", BestFirstPlanner::new);
+		planners.put("greedy", BestFirstPlanner::greedy);
+		planners.put("parallel A*", () -> new BestFirstPlanner(1, 1, 4));
+		planners.put("parallel greedy", () -> BestFirstPlanner.greedy(4));
+		planners.put("IDA*", IdaStarPlanner::new);
+		planners.put("bidirectional", BidirectionalPlanner::new);
+		planners.put("SMA*", SmaStarPlanner::new);
+		planners.put("SAT", SatPlanner::new);
+		planners.put("constructive", ConstructivePlanner::new);
+		planners.put("portfolio", PortfolioPlanner::new);
+		// every world which fits is planned from the states on disk
+		planners.put("policy on disk", () -> new CompiledPolicy(new ConstructivePlanner(), 0,
+				CompiledPolicy.EXTERNAL_STATES, Paths.get(System.getProperty("java.io.tmpdir"), CHECK_LAYER_DIRECTORY)));
+		return planners;
+	}
+	
+	/**
+	 * @return the problems of the test suites which can be completed, as pairs of initial and desired state
+	 *         descriptions, by name.
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 */
+	public static Map<String, String[]> getTestProblems() throws IOException
+	{
+		Map<String, String[]> problems = new LinkedHashMap<>();
+		List<String> suites = new ArrayList<>(Arrays.asList(new File(TESTS).list()));
+		Collections.sort(suites);
+		for(String suite : suites)
+		{
+			List<String> files = new ArrayList<>(Arrays.asList(new File(TESTS + suite).list()));
+			Collections.sort(files);
+			String initial = read(TESTS + suite + "/si.txt");
+			for(String file : files)
+				if(file.startsWith("sf"))
+				{
+					String desired = read(TESTS + suite + "/" + file);
+					// problems in which desired blocks are missing cannot be completed
+					if(parse(initial).allBlocks().containsAll(parse(desired).allBlocks()))
+						problems.put(suite + "/" + file, new String[] { initial, desired });
+				}
+		}
+		return problems;
+	}
+	
+	/**
+	 * @return the problems to check, as pairs of initial and desired state descriptions, by name.
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 */
+	protected static Map<String, String[]> getProblems() throws IOException
+	{
+		Map<String, String[]> problems = getTestProblems();
+		Random random = new Random(RANDOM_SEED);
+		for(int i = 0; i < RANDOM_PROBLEMS; i++)
+		{
+			List<Character> blocks = new ArrayList<>();
+			for(int b = 0; b < RANDOM_BLOCKS; b++)
+				blocks.add(Character.valueOf((char) ('A' + b)));
+			String initial = randomWorld(random, blocks, 1 + random.nextInt(RANDOM_BLOCKS));
+			Collections.shuffle(blocks, random);
+			List<Character> desired = new ArrayList<>(blocks.subList(0, RANDOM_BLOCKS - random.nextInt(3)));
+			problems.put("random-" + i,
+					new String[] { initial, randomWorld(random, desired, 1 + random.nextInt(RANDOM_BLOCKS)) });
+		}
+		return problems;
+	}
+	
+	/**
+	 * @param random
+	 *            - the random generator.
+	 * @param blocks
+	 *            - the blocks to place.
+	 * @param maxStacks
+	 *            - the maximum number of stacks.
+	 * @return the description of a world with the blocks placed in random stacks.
+	 */
+	protected static String randomWorld(Random random, List<Character> blocks, int maxStacks)
+	{
+		List<List<Character>> stacks = new ArrayList<>();
+		for(int i = 0; i < maxStacks; i++)
+			stacks.add(new ArrayList<>());
+		for(Character block : blocks)
+			stacks.get(random.nextInt(maxStacks)).add(block);
+		stacks.removeIf(List::isEmpty);
+		int height = 0;
+		for(List<Character> stack : stacks)
+			height = Math.max(height, stack.size());
+		StringBuilder description = new StringBuilder();
+		for(int row = height - 1; row >= 0; row--)
+		{
+			for(int s = 0; s < stacks.size(); s++)
+			{
+				if(s > 0)
+					description.append('.');
+				description.append(row < stacks.get(s).size() ? stacks.get(s).get(row).charValue() : '.');
+			}
+			description.append('\n');
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * @param world
+	 *            - the world state.
+	 * @param desired
+	 *            - the desired state.
+	 * @return <code>null</code> if the world contains all the desired towers, with all their blocks locked; a
+	 *         description of the first difference otherwise.
+	 */
+	public static String checkDesired(BlocksWorld world, BlocksWorld desired)
+	{
+		for(Stack tower : desired.getTowers())
+		{
+			Block below = null;
+			for(Block block : tower.getBlocksReversed())
+			{
+				Stack stack = world.getStack(block);
+				if(stack == null)
+					return block + " missing";
+				if(below == null ? !stack.isOnTable(block) : !below.equals(stack.getBelow(block)))
+					return block + " not on " + (below == null ? "table" : below.toString());
+				if(!stack.isLocked(block))
+					return block + " unlocked";
+				below = block;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @param initial
+	 *            - the description of the initial state.
+	 * @param desired
+	 *            - the description of the desired state.
+	 * @param planner
+	 *            - the planner.
+	 * @return <code>null</code> if the plan is correct; a description of the failure otherwise.
+	 * @throws IOException
+	 *             - if a description is not correct.
+	 */
+	protected static String check(String initial, String desired, Planner planner) throws IOException
+	{
+		CheckEnvironment environment = new CheckEnvironment(parse(initial), 0, 0);
+		PlanningAction plan = planner.plan(environment.getProblem(parse(desired)),
+				System.nanoTime() + TIME_LIMIT * 1000000);
+		if(plan == null)
+			return "no plan";
+		ReplayAgent agent = new ReplayAgent(plan);
+		BlocksWorld goal = parse(desired);
+		environment.addAgent(agent, goal, null);
+		boolean complete = false;
+		for(int step = 0; !complete && step < MAX_STEPS; step++)
+			complete = environment.step();
+		if(agent.failed)
+			return "action failed in " + plan;
+		if(!complete)
+			return "not completed by " + plan;
+		String difference = checkDesired(environment.getWorld(), goal);
+		return difference == null ? null : difference + " after " + plan;
+	}
+	
+	/**
+	 * @param path
+	 *            - the file.
+	 * @return the contents of the file.
+	 * @throws IOException
+	 *             - if the file cannot be read.
+	 */
+	protected static String read(String path) throws IOException
+	{
+		try (InputStream input = new FileInputStream(path))
+		{
+			return new String(input.readAllBytes());
+		}
+	}
+	
+	/**
+	 * @param description
+	 *            - the description of a world.
+	 * @return the world.
+	 * @throws IOException
+	 *             - if the description is not correct.
+	 */
+	protected static BlocksWorld parse(String description) throws IOException
+	{
+		return new BlocksWorld(new ByteArrayInputStream(description.getBytes()));
+	}
+	
+	/**
+	 * Main.
+	 * 
+	 * @param args
+	 *            - not used.
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Map<String, String[]> problems = getProblems();
+		PrintStream out = System.out;
+		int failures = 0;
+		for(Map.Entry<String, Supplier<Planner>> planner : getPlanners().entrySet())
+		{
+			List<String> failed = new ArrayList<>();
+			long start = System.nanoTime();
+			for(Map.Entry<String, String[]> problem : problems.entrySet())
+			{
+				String result;
+				// the environment reports every step
+				System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+				try
+				{
+					result = check(problem.getValue()[0], problem.getValue()[1], planner.getValue().get());
+				} catch(RuntimeException e)
+				{
+					result = e.toString();
+				} finally
+				{
+					System.setOut(out);
+				}
+				if(result != null)
+					failed.add(problem.getKey() + ": " + result);
+			}
+			System.out.println(planner.getKey() + ": " + (problems.size() - failed.size()) + "/" + problems.size()
+					+ " correct in " + (System.nanoTime() - start) / 1000000 + " ms");
+			for(String failure : failed)
+				System.out.println("\t" + failure);
+			failures += failed.size();
+		}
+		System.exit(failures > 0 ? 1 : 0);
+	}
+}
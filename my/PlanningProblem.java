@@ -0,0 +1,629 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.PlanningAction;
+import blocksworld.PlanningAction.PlanningActionType;
+import blocksworld.Stack;
+
+/**
+ * A planning problem, as known by an agent: the stacks at each station (in the order of the stations), the station of
+ * the agent, the block it holds and the desired state.
+ * <p>
+ * Blocks are numbered densely from 0. Planners search over {@link PlanningState}s using <i>moves</i>: a move takes a
+ * clear, unlocked block (or the held block) and places it on the table or on a clear block. Moves are encoded as
+ * <code>int</code>s (see {@link #move(int, int)}). Locking is not part of the search: once a plan of moves is found,
+ * {@link #toPlanningAction(int[], int)} translates it into {@link BlocksWorldAction}s, adding navigation between
+ * stations, the LOCK actions for the desired towers (bottom-up) and the final AGENT_COMPLETED.
+ */
+public class PlanningProblem
+{
+	/**
+	 * Index used for "on the table", as a move target and as the block under a block.
+	 */
+	public static final int		TABLE		= -1;
+	
+	/**
+	 * Desired position of blocks which do not appear in the desired state (their position is not important).
+	 */
+	public static final int		ANYWHERE	= -2;
+	
+	/**
+	 * The blocks, by index.
+	 */
+	protected final List<Block>	blocks		= new ArrayList<>();
+	
+	/**
+	 * The index of each block.
+	 */
+	protected final Map<Block, Integer>	index		= new HashMap<>();
+	
+	/**
+	 * The desired state.
+	 */
+	protected final BlocksWorld	target;
+	
+	/**
+	 * The stations, in order.
+	 */
+	protected final List<Station>		stations	= new ArrayList<>();
+	
+	/**
+	 * The stacks at each station, each as a list of block indexes, the first being the top block.
+	 */
+	protected final List<int[]>			stacks		= new ArrayList<>();
+	
+	/**
+	 * The number of locked blocks (at the bottom) of each stack.
+	 */
+	protected final List<Integer>		lockedCounts	= new ArrayList<>();
+	
+	/**
+	 * The index of the current station of the agent.
+	 */
+	protected int						currentStation	= 0;
+	
+	/**
+	 * The block held by the agent, if any.
+	 */
+	protected Block						holding		= null;
+	
+	/**
+	 * Lazily computed: the desired block under each block.
+	 */
+	protected int[]						goalBelow	= null;
+	
+	/**
+	 * For each block, the index of its desired tower (-1 if it has no desired position), and its level (from the
+	 * bottom) in the desired tower. Computed with the initial state.
+	 */
+	protected int[]						goalTower, goalLevel;
+	
+	/**
+	 * The number of desired towers.
+	 */
+	protected int						goalTowerCount;
+	
+	/**
+	 * <code>true</code> if blocks of the desired state are not in the world (e.g. they are in the stash), so that the
+	 * desired state cannot be completed. Computed with the initial state.
+	 */
+	protected boolean					missingBlocks;
+	
+	/**
+	 * Lazily computed: <code>true</code> for blocks which are locked.
+	 */
+	protected boolean[]					locked		= null;
+	
+	/**
+	 * Lazily computed: the initial state.
+	 */
+	protected PlanningState				initial		= null;
+	
+	/**
+	 * Pattern databases for the desired state, used by {@link PlanningState#heuristic()}.
+	 */
+	protected List<PatternDatabase>		patternDatabases	= new ArrayList<>();
+	
+	/**
+	 * The pattern databases which can be used for this problem, with the indexes of their blocks. Computed with the
+	 * initial state.
+	 */
+	protected List<PatternDatabase.Binding>	patternBindings		= new ArrayList<>();
+	
+	/**
+	 * @param desiredState
+	 *            - the desired state of the world.
+	 */
+	public PlanningProblem(BlocksWorld desiredState)
+	{
+		target = desiredState;
+		for(Stack s : target.getTowers())
+			for(Block b : s.getBlocks())
+				indexOf(b);
+	}
+	
+	/**
+	 * Adds the next station (in the order of stations) and the stack observed there.
+	 * 
+	 * @param station
+	 *            - the station.
+	 * @param stack
+	 *            - the stack at the station (it is copied).
+	 * @return the instance itself.
+	 */
+	public PlanningProblem addStation(Station station, Stack stack)
+	{
+		List<Block> observed = stack.getBlocks();
+		int[] s = new int[observed.size()];
+		int i = 0;
+		for(Block b : observed)
+			s[i++] = indexOf(b);
+		// locked blocks are at the bottom
+		int nLocked = 0;
+		while(nLocked < s.length && stack.isLocked(getBlock(s[s.length - 1 - nLocked])))
+			nLocked++;
+		return addStation(station, s, nLocked);
+	}
+	
+	/**
+	 * Adds the next station (in the order of stations) and the stack observed there.
+	 * 
+	 * @param station
+	 *            - the station.
+	 * @param stack
+	 *            - the block indexes in the stack, the first being the top (the array is not copied).
+	 * @param nLocked
+	 *            - the number of locked blocks at the bottom of the stack.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem addStation(Station station, int[] stack, int nLocked)
+	{
+		stations.add(station);
+		stacks.add(stack);
+		lockedCounts.add(Integer.valueOf(nLocked));
+		initial = null;
+		locked = null;
+		return this;
+	}
+	
+	/**
+	 * Inserts a station, and the stack observed there, at a given position in the order of stations.
+	 * 
+	 * @param position
+	 *            - the position of the new station.
+	 * @param station
+	 *            - the station.
+	 * @param stack
+	 *            - the block indexes in the stack, the first being the top (the array is not copied).
+	 * @param nLocked
+	 *            - the number of locked blocks at the bottom of the stack.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem insertStation(int position, Station station, int[] stack, int nLocked)
+	{
+		stations.add(position, station);
+		stacks.add(position, stack);
+		lockedCounts.add(position, Integer.valueOf(nLocked));
+		changed();
+		return this;
+	}
+	
+	/**
+	 * Replaces the stack at a station (e.g. when it is observed again).
+	 * 
+	 * @param position
+	 *            - the position of the station.
+	 * @param stack
+	 *            - the block indexes in the stack, the first being the top (the array is not copied).
+	 * @param nLocked
+	 *            - the number of locked blocks at the bottom of the stack.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem setStation(int position, int[] stack, int nLocked)
+	{
+		stacks.set(position, stack);
+		lockedCounts.set(position, Integer.valueOf(nLocked));
+		changed();
+		return this;
+	}
+	
+	/**
+	 * Removes a station (and its stack).
+	 * 
+	 * @param position
+	 *            - the position of the station.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem removeStation(int position)
+	{
+		stations.remove(position);
+		stacks.remove(position);
+		lockedCounts.remove(position);
+		changed();
+		return this;
+	}
+	
+	/**
+	 * Discards everything computed from the stations, after they changed; blocks can be registered again.
+	 */
+	protected void changed()
+	{
+		goalBelow = null;
+		locked = null;
+		initial = null;
+	}
+	
+	/**
+	 * @param station
+	 *            - a station.
+	 * @return <code>true</code> if the station was already added.
+	 */
+	public boolean hasStation(Station station)
+	{
+		return stations.contains(station);
+	}
+	
+	/**
+	 * @param station
+	 *            - the station the agent is at. Must have been already added.
+	 * @param held
+	 *            - the block held by the agent, or <code>null</code>.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem setAgent(Station station, Block held)
+	{
+		currentStation = stations.indexOf(station);
+		if(currentStation < 0)
+			throw new IllegalArgumentException("Unknown station " + station);
+		holding = held;
+		if(held != null)
+			indexOf(held);
+		initial = null;
+		return this;
+	}
+	
+	/**
+	 * @param b
+	 *            - a block.
+	 * @return the index of the block; the block is registered if it is not known yet.
+	 */
+	public int indexOf(Block b)
+	{
+		Integer i = index.get(b);
+		if(i != null)
+			return i.intValue();
+		if(goalBelow != null)
+			throw new IllegalStateException("Blocks cannot be added after the initial state was created.");
+		index.put(b, Integer.valueOf(blocks.size()));
+		blocks.add(b);
+		return blocks.size() - 1;
+	}
+	
+	/**
+	 * @param i
+	 *            - a block index.
+	 * @return the block.
+	 */
+	public Block getBlock(int i)
+	{
+		return blocks.get(i);
+	}
+	
+	/**
+	 * @return the number of blocks.
+	 */
+	public int size()
+	{
+		return blocks.size();
+	}
+	
+	/**
+	 * @return the desired state.
+	 */
+	public BlocksWorld getTarget()
+	{
+		return target;
+	}
+	
+	/**
+	 * @return the number of stations.
+	 */
+	public int getStationCount()
+	{
+		return stations.size();
+	}
+	
+	/**
+	 * @return the desired block under each block (or {@link #TABLE} or {@link #ANYWHERE}).
+	 */
+	public int[] getGoalBelow()
+	{
+		if(goalBelow == null)
+		{
+			int[] goal = new int[blocks.size()];
+			Arrays.fill(goal, ANYWHERE);
+			for(Stack s : target.getTowers())
+			{
+				int above = -1;
+				for(Block b : s.getBlocks())
+				{
+					int i = index.get(b).intValue();
+					if(above >= 0)
+						goal[above] = i;
+					above = i;
+				}
+				goal[above] = TABLE;
+			}
+			goalBelow = goal;
+		}
+		return goalBelow;
+	}
+	
+	/**
+	 * @return for each block, the index of the desired tower containing it, or -1.
+	 */
+	public int[] getGoalTowers()
+	{
+		getInitialState();
+		return goalTower;
+	}
+	
+	/**
+	 * @return for each block, its level in the desired tower containing it (0 for the bottom).
+	 */
+	public int[] getGoalLevels()
+	{
+		getInitialState();
+		return goalLevel;
+	}
+	
+	/**
+	 * @return the number of towers in the desired state.
+	 */
+	public int getGoalTowerCount()
+	{
+		getInitialState();
+		return goalTowerCount;
+	}
+	
+	/**
+	 * @return <code>true</code> if all the blocks of the desired state are in the world (or held), so that the desired
+	 *         state can be completed.
+	 */
+	public boolean isCompletable()
+	{
+		getInitialState();
+		return !missingBlocks;
+	}
+	
+	/**
+	 * @param block
+	 *            - a block in a desired tower.
+	 * @param under
+	 *            - another block.
+	 * @return <code>true</code> if <code>under</code> must be under <code>block</code> in the same desired tower.
+	 */
+	public boolean isGoalBelow(int block, int under)
+	{
+		return goalTower[block] >= 0 && goalTower[under] == goalTower[block] && goalLevel[under] < goalLevel[block];
+	}
+	
+	/**
+	 * @return for each block, <code>true</code> if it is locked (it cannot be moved).
+	 */
+	public boolean[] getLocked()
+	{
+		if(locked == null)
+		{
+			boolean[] l = new boolean[blocks.size()];
+			for(int s = 0; s < stacks.size(); s++)
+			{
+				int[] stack = stacks.get(s);
+				for(int i = stack.length - lockedCounts.get(s).intValue(); i < stack.length; i++)
+					l[stack[i]] = true;
+			}
+			locked = l;
+		}
+		return locked;
+	}
+	
+	/**
+	 * @return the state of the world as known in this problem.
+	 */
+	public PlanningState getInitialState()
+	{
+		if(initial == null)
+		{
+			getGoalBelow();
+			int[] below = new int[blocks.size()];
+			Arrays.fill(below, PlanningState.ABSENT);
+			for(int[] stack : stacks)
+				for(int i = 0; i < stack.length; i++)
+					below[stack[i]] = i + 1 < stack.length ? stack[i + 1] : TABLE;
+			int held = holding == null ? -1 : index.get(holding).intValue();
+			if(held >= 0)
+				below[held] = PlanningState.HELD;
+			// blocks that are not in the world (e.g. in the stash) cannot be placed, nor can anything above them.
+			goalTower = new int[blocks.size()];
+			goalLevel = new int[blocks.size()];
+			Arrays.fill(goalTower, -1);
+			int tower = 0;
+			missingBlocks = false;
+			for(Stack s : target.getTowers())
+			{
+				boolean missing = false;
+				int level = 0;
+				for(Block b : s.getBlocksReversed())
+				{
+					int i = index.get(b).intValue();
+					missing = missing || below[i] == PlanningState.ABSENT;
+					missingBlocks = missingBlocks || missing;
+					if(missing)
+						goalBelow[i] = ANYWHERE;
+					else
+					{
+						goalTower[i] = tower;
+						goalLevel[i] = level++;
+					}
+				}
+				tower++;
+			}
+			goalTowerCount = tower;
+			initial = new PlanningState(this, below, held);
+			List<PatternDatabase.Binding> bindings = new ArrayList<>();
+			for(PatternDatabase pdb : patternDatabases)
+			{
+				PatternDatabase.Binding binding = pdb.bind(this);
+				if(binding != null)
+					bindings.add(binding);
+			}
+			patternBindings = bindings;
+		}
+		return initial;
+	}
+	
+	/**
+	 * Sets pattern databases for the desired state. Databases for patterns with blocks which are not in the world are
+	 * not used.
+	 * 
+	 * @param databases
+	 *            - the databases, for disjoint patterns.
+	 * @return the instance itself.
+	 */
+	public PlanningProblem setPatternDatabases(List<PatternDatabase> databases)
+	{
+		patternDatabases = databases;
+		initial = null;
+		return this;
+	}
+	
+	/**
+	 * @param state
+	 *            - a state of this problem.
+	 * @return the sum of the values of the pattern databases for the state (0 if there are none); an admissible
+	 *         estimate of the number of moves to the desired state.
+	 */
+	public int patternHeuristic(PlanningState state)
+	{
+		int h = 0;
+		for(PatternDatabase.Binding binding : patternBindings)
+			h += binding.value(state);
+		return h;
+	}
+	
+	/**
+	 * Builds one state which satisfies the desired state: the desired towers are built, locked blocks stay where they
+	 * are and all other blocks are on the table. When there are blocks that are not in the desired state, this is only
+	 * one of the states satisfying it.
+	 * 
+	 * @return the state.
+	 */
+	public PlanningState getGoalState()
+	{
+		PlanningState init = getInitialState();
+		boolean[] isLocked = getLocked();
+		int[] below = new int[blocks.size()];
+		for(int i = 0; i < below.length; i++)
+			if(init.below[i] == PlanningState.ABSENT)
+				below[i] = PlanningState.ABSENT;
+			else if(isLocked[i])
+				below[i] = init.below[i];
+			else if(goalBelow[i] != ANYWHERE)
+				below[i] = goalBelow[i];
+			else
+				below[i] = TABLE;
+		return new PlanningState(this, below, -1);
+	}
+	
+	/**
+	 * Encodes a move.
+	 * 
+	 * @param block
+	 *            - the block to move.
+	 * @param to
+	 *            - the block to place it on, or {@link #TABLE}.
+	 * @return the encoded move.
+	 */
+	public int move(int block, int to)
+	{
+		return block * (blocks.size() + 1) + to + 1;
+	}
+	
+	/**
+	 * @param move
+	 *            - an encoded move.
+	 * @return the moved block.
+	 */
+	public int moveBlock(int move)
+	{
+		return move / (blocks.size() + 1);
+	}
+	
+	/**
+	 * @param move
+	 *            - an encoded move.
+	 * @return the block on which the moved block is placed, or {@link #TABLE}.
+	 */
+	public int moveTarget(int move)
+	{
+		return move % (blocks.size() + 1) - 1;
+	}
+	
+	/**
+	 * @param move
+	 *            - an encoded move.
+	 * @return a readable form of the move.
+	 */
+	public String moveToString(int move)
+	{
+		int to = moveTarget(move);
+		return getBlock(moveBlock(move)) + "->" + (to == TABLE ? "_" : getBlock(to).toString());
+	}
+	
+	/**
+	 * Translates a sequence of moves, applied from the initial state, into actions in the environment, adding
+	 * navigation between stations, LOCKs for all desired towers and AGENT_COMPLETED at the end (unless desired blocks
+	 * are missing, see {@link #isCompletable()}).
+	 * 
+	 * @param moves
+	 *            - the moves.
+	 * @param nMoves
+	 *            - the number of moves to use from the array.
+	 * @return the {@link PlanningAction} (of type {@link PlanningActionType#NEW_PLAN}).
+	 */
+	public PlanningAction toPlanningAction(int[] moves, int nMoves)
+	{
+		return toPlanningAction(moves, nMoves, true);
+	}
+	
+	/**
+	 * Translates a sequence of moves, applied from the initial state, into actions in the environment, adding
+	 * navigation between stations, LOCKs for the blocks of desired towers which are well placed after the moves, and,
+	 * if the moves lead to the goal and no desired blocks are missing, AGENT_COMPLETED at the end.
+	 * 
+	 * @param moves
+	 *            - the moves.
+	 * @param nMoves
+	 *            - the number of moves to use from the array.
+	 * @param complete
+	 *            - <code>true</code> if the moves lead to the goal; <code>false</code> if they are only the beginning
+	 *            of a plan (locking the well placed blocks protects them from changes of the environment until the
+	 *            rest of the plan is made).
+	 * @return the {@link PlanningAction} (of type {@link PlanningActionType#NEW_PLAN}).
+	 */
+	public PlanningAction toPlanningAction(int[] moves, int nMoves, boolean complete)
+	{
+		StationTracker tracker = new StationTracker(this);
+		PlanningAction plan = new PlanningAction(PlanningActionType.NEW_PLAN);
+		for(int i = 0; i < nMoves; i++)
+			tracker.move(moveBlock(moves[i]), moveTarget(moves[i]), plan);
+		tracker.lockTowers(plan);
+		if(complete && isCompletable())
+			plan.add(BlocksWorldAction.of(Type.AGENT_COMPLETED));
+		return plan;
+	}
+	
+	@Override
+	public String toString()
+	{
+		String ret = "";
+		for(int s = 0; s < stations.size(); s++)
+		{
+			ret += (s == currentStation ? "*" : "") + stations.get(s) + "[";
+			for(int i = 0; i < stacks.get(s).length; i++)
+				ret += (i > 0 ? " " : "") + getBlock(stacks.get(s)[i]);
+			ret += "] ";
+		}
+		return ret + "holding " + holding;
+	}
+}
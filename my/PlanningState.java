@@ -0,0 +1,362 @@
+package my;
+
+import java.util.Arrays;
+
+/**
+ * A compact, immutable state of the world used by planners: for each block (by its index in the
+ * {@link PlanningProblem}), the block under it. The state also knows the block held by the agent.
+ * <p>
+ * Each state has a 64-bit fingerprint, which is updated incrementally when a move is applied, and which is used as hash
+ * code. Stations, and the position of the agent, are not part of the state (see {@link StationTracker}).
+ */
+public class PlanningState
+{
+	/**
+	 * Value in {@link #below} for the block held by the agent.
+	 */
+	public static final int			HELD	= -3;
+	
+	/**
+	 * Value in {@link #below} for blocks which are not in the world.
+	 */
+	public static final int			ABSENT	= -4;
+	
+	/**
+	 * The problem.
+	 */
+	protected final PlanningProblem	problem;
+	
+	/**
+	 * The block under each block; {@link PlanningProblem#TABLE}, {@link #HELD} or {@link #ABSENT}.
+	 */
+	protected final int[]			below;
+	
+	/**
+	 * The block held by the agent, or -1.
+	 */
+	protected final int				held;
+	
+	/**
+	 * The fingerprint of the state.
+	 */
+	protected final long			fingerprint;
+	
+	/**
+	 * Lazily computed number of blocks which are not well placed; -1 if not computed.
+	 */
+	protected int					misplaced	= -1;
+	
+	/**
+	 * Lazily computed heuristic value; -1 if not computed.
+	 */
+	protected int					heuristic	= -1;
+	
+	/**
+	 * Creates a state.
+	 * 
+	 * @param planningProblem
+	 *            - the problem.
+	 * @param belowBlocks
+	 *            - the block under each block (the array is not copied).
+	 * @param heldBlock
+	 *            - the block held by the agent, or -1.
+	 */
+	public PlanningState(PlanningProblem planningProblem, int[] belowBlocks, int heldBlock)
+	{
+		problem = planningProblem;
+		below = belowBlocks;
+		held = heldBlock;
+		long fp = 0;
+		for(int i = 0; i < below.length; i++)
+			fp ^= mix(i, below[i]);
+		fingerprint = fp;
+	}
+	
+	/**
+	 * Constructor used when applying a move.
+	 * 
+	 * @param planningProblem
+	 *            - the problem.
+	 * @param belowBlocks
+	 *            - the block under each block.
+	 * @param heldBlock
+	 *            - the block held by the agent, or -1.
+	 * @param fp
+	 *            - the fingerprint.
+	 */
+	protected PlanningState(PlanningProblem planningProblem, int[] belowBlocks, int heldBlock, long fp)
+	{
+		problem = planningProblem;
+		below = belowBlocks;
+		held = heldBlock;
+		fingerprint = fp;
+	}
+	
+	/**
+	 * Mixes a block index and the block under it into the contribution of the block to the fingerprint.
+	 * 
+	 * @param block
+	 *            - the block.
+	 * @param under
+	 *            - the block under it.
+	 * @return the contribution to the fingerprint.
+	 */
+	public static long mix(int block, int under)
+	{
+		long z = ((long) block << 32 | (under + 8) & 0xFFFFFFFFL) + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * @return the problem.
+	 */
+	public PlanningProblem getProblem()
+	{
+		return problem;
+	}
+	
+	/**
+	 * @param block
+	 *            - a block.
+	 * @return the block under it; {@link PlanningProblem#TABLE}, {@link #HELD} or {@link #ABSENT}.
+	 */
+	public int getBelow(int block)
+	{
+		return below[block];
+	}
+	
+	/**
+	 * @return the block held by the agent, or -1.
+	 */
+	public int getHeld()
+	{
+		return held;
+	}
+	
+	/**
+	 * @return the fingerprint of the state.
+	 */
+	public long getFingerprint()
+	{
+		return fingerprint;
+	}
+	
+	/**
+	 * @return for each block, <code>true</code> if there is no block on it (held and absent blocks are not clear).
+	 */
+	public boolean[] clearBlocks()
+	{
+		boolean[] clear = new boolean[below.length];
+		for(int i = 0; i < below.length; i++)
+			if(below[i] >= PlanningProblem.TABLE)
+				clear[i] = true;
+		for(int i = 0; i < below.length; i++)
+			if(below[i] >= 0)
+				clear[below[i]] = false;
+		return clear;
+	}
+	
+	/**
+	 * @return all moves that can be performed from this state.
+	 */
+	public int[] moves()
+	{
+		boolean[] clear = clearBlocks();
+		boolean[] locked = problem.getLocked();
+		int nClear = 0;
+		for(boolean c : clear)
+			if(c)
+				nClear++;
+		if(held >= 0)
+		{
+			int[] ret = new int[nClear + 1];
+			int k = 0;
+			ret[k++] = problem.move(held, PlanningProblem.TABLE);
+			for(int y = 0; y < clear.length; y++)
+				if(clear[y])
+					ret[k++] = problem.move(held, y);
+			return ret;
+		}
+		int[] ret = new int[nClear * nClear];
+		int k = 0;
+		for(int x = 0; x < clear.length; x++)
+			if(clear[x] && !locked[x])
+			{
+				if(below[x] != PlanningProblem.TABLE)
+					ret[k++] = problem.move(x, PlanningProblem.TABLE);
+				for(int y = 0; y < clear.length; y++)
+					if(clear[y] && y != x)
+						ret[k++] = problem.move(x, y);
+			}
+		return Arrays.copyOf(ret, k);
+	}
+	
+	/**
+	 * @param move
+	 *            - a move which is applicable in this state.
+	 * @return the state resulting after the move.
+	 */
+	public PlanningState apply(int move)
+	{
+		int x = problem.moveBlock(move);
+		int to = problem.moveTarget(move);
+		int[] b = below.clone();
+		long fp = fingerprint ^ mix(x, b[x]) ^ mix(x, to);
+		b[x] = to;
+		return new PlanningState(problem, b, x == held ? -1 : held, fp);
+	}
+	
+	/**
+	 * A block is well placed if it is on its desired position, and the block under it is also well placed.
+	 * 
+	 * @return for each block, <code>true</code> if it is well placed.
+	 */
+	public boolean[] wellPlaced()
+	{
+		int[] goal = problem.getGoalBelow();
+		byte[] known = new byte[below.length]; // 0 unknown, 1 yes, 2 no
+		boolean[] ret = new boolean[below.length];
+		for(int i = 0; i < below.length; i++)
+			ret[i] = isWellPlaced(i, goal, known);
+		return ret;
+	}
+	
+	/**
+	 * Iterative check (towers can be tall) of whether a block is well placed.
+	 * 
+	 * @param block
+	 *            - the block.
+	 * @param goal
+	 *            - the desired position of each block.
+	 * @param known
+	 *            - memo: 0 unknown, 1 well placed, 2 not well placed.
+	 * @return <code>true</code> if the block is well placed.
+	 */
+	protected boolean isWellPlaced(int block, int[] goal, byte[] known)
+	{
+		int b = block;
+		while(known[b] == 0 && goal[b] != PlanningProblem.ANYWHERE && below[b] == goal[b]
+				&& below[b] != PlanningProblem.TABLE)
+			b = below[b];
+		byte result = known[b] != 0 ? known[b]
+				: (goal[b] != PlanningProblem.ANYWHERE && below[b] == goal[b] ? (byte) 1 : (byte) 2);
+		for(int i = block; known[i] == 0; i = below[i])
+		{
+			known[i] = result;
+			if(i == b)
+				break;
+		}
+		return result == 1;
+	}
+	
+	/**
+	 * @return the number of blocks with a desired position that are not well placed, plus 1 if the agent holds a block
+	 *         without a desired position. Each of these requires at least one move, so this is an admissible heuristic.
+	 */
+	public int misplaced()
+	{
+		if(misplaced < 0)
+			evaluate();
+		return misplaced;
+	}
+	
+	/**
+	 * Admissible estimate of the number of moves to the goal: the number of {@link #misplaced()} blocks, plus the number
+	 * of blocks which must be moved twice. A block must be moved twice if it is above a block which is not well placed
+	 * and which must be under it in the desired tower: it must be moved away to free that block, and placed in its
+	 * desired position only after that block is well placed. If the problem has pattern databases, their sum is used
+	 * when it is larger (see {@link PlanningProblem#patternHeuristic(PlanningState)}).
+	 * 
+	 * @return the heuristic value.
+	 */
+	public int heuristic()
+	{
+		if(heuristic < 0)
+			evaluate();
+		return heuristic;
+	}
+	
+	/**
+	 * Computes {@link #misplaced()} and {@link #heuristic()}.
+	 */
+	protected void evaluate()
+	{
+		int[] goal = problem.getGoalBelow();
+		boolean[] wp = wellPlaced();
+		int h = 0;
+		for(int i = 0; i < below.length; i++)
+			if(goal[i] != PlanningProblem.ANYWHERE && !wp[i])
+				h++;
+		if(held >= 0 && goal[held] == PlanningProblem.ANYWHERE)
+			h++;
+		misplaced = h;
+		
+		int[] tower = problem.getGoalTowers();
+		int[] level = problem.getGoalLevels();
+		int[] aboveOf = new int[below.length];
+		Arrays.fill(aboveOf, -1);
+		for(int i = 0; i < below.length; i++)
+			if(below[i] >= 0)
+				aboveOf[below[i]] = i;
+		// for each desired tower, the lowest level of a block that is not well placed in the current stack
+		int[] lowest = new int[problem.getGoalTowerCount()];
+		int[] stamp = new int[lowest.length];
+		int mark = 0;
+		int twice = 0;
+		for(int base = 0; base < below.length; base++)
+			if(below[base] == PlanningProblem.TABLE)
+			{
+				mark++;
+				for(int b = base; b >= 0; b = aboveOf[b])
+				{
+					int t = tower[b];
+					if(t < 0 || wp[b])
+						continue;
+					if(stamp[t] == mark && lowest[t] < level[b])
+						twice++;
+					else
+					{
+						stamp[t] = mark;
+						lowest[t] = level[b];
+					}
+				}
+			}
+		heuristic = Math.max(misplaced + twice, problem.patternHeuristic(this));
+	}
+	
+	/**
+	 * @return <code>true</code> if all blocks with a desired position are well placed and the agent holds no block.
+	 */
+	public boolean isGoal()
+	{
+		return misplaced() == 0;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return (int) (fingerprint ^ (fingerprint >>> 32));
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(!(obj instanceof PlanningState))
+			return false;
+		PlanningState other = (PlanningState) obj;
+		return fingerprint == other.fingerprint && held == other.held && Arrays.equals(below, other.below);
+	}
+	
+	@Override
+	public String toString()
+	{
+		String ret = "";
+		for(int i = 0; i < below.length; i++)
+			if(below[i] != ABSENT)
+				ret += problem.getBlock(i) + (below[i] == HELD ? "^" : below[i] == PlanningProblem.TABLE ? "_"
+						: problem.getBlock(below[i]).toString()) + " ";
+		return ret.trim();
+	}
+}
@@ -0,0 +1,226 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.PlanningAction;
+
+/**
+ * Runs several planners at the same time on the same problem, each on its own thread.
+ * <p>
+ * The first plan which is acceptable is returned immediately. A plan is acceptable if its number of block
+ * manipulations (PICKUP, PUTDOWN, UNSTACK and STACK actions; the navigation, LOCK and AGENT_COMPLETED actions are not
+ * counted) is at most <code>tolerance</code> times a lower bound of that number for any plan (two actions for each
+ * move estimated by the admissible {@link PlanningState#heuristic()}). Otherwise, the best plan found by the deadline
+ * (or when all planners finished) is returned. The planners still running are then cancelled (their threads are
+ * interrupted, and planners check for this periodically); the best plan found so far by an {@link AnytimePlanner}
+ * which is cancelled is also considered (see {@link AnytimePlanner#getIncumbent(PlanningProblem)}), since its last
+ * improvement would otherwise be lost.
+ * <p>
+ * The portfolio records which planner provided each returned plan.
+ * <p>
+ * In the default portfolio, the best-first planners search with several threads each when there are processors to
+ * spare (see {@link #SEARCH_THREADS}), sharing a closed set between their threads.
+ */
+public class PortfolioPlanner implements Planner
+{
+	/**
+	 * Default tolerance.
+	 */
+	public static final double			TOLERANCE	= 1.5;
+	
+	/**
+	 * The number of threads of each best-first planner of the default portfolio: the processors left after one for
+	 * each of the other planners, shared between the two.
+	 */
+	public static final int				SEARCH_THREADS	= Math.max(1,
+			(Runtime.getRuntime().availableProcessors() - 3) / 2);
+	
+	/**
+	 * The planners. Each planner is used by only one thread at a time.
+	 */
+	protected final List<Planner>		planners;
+	
+	/**
+	 * The tolerance.
+	 */
+	protected final double				tolerance;
+	
+	/**
+	 * The threads.
+	 */
+	protected final ExecutorService		executor;
+	
+	/**
+	 * For each planner, the number of times its plan was returned.
+	 */
+	protected final Map<Planner, Integer>	wins		= new LinkedHashMap<>();
+	
+	/**
+	 * Planners which are still running (possibly after being cancelled, as cancellation is cooperative). They are not
+	 * used again until they stop.
+	 */
+	protected final Set<Planner>		busy		= ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * The planner which provided the last returned plan, if any.
+	 */
+	protected Planner					lastWinner	= null;
+	
+	/**
+	 * Creates a portfolio with the default planners and tolerance.
+	 */
+	public PortfolioPlanner()
+	{
+		this(TOLERANCE, BestFirstPlanner.greedy(SEARCH_THREADS), new BestFirstPlanner(1, 1, SEARCH_THREADS),
+				new AnytimePlanner(),
+				new IdaStarPlanner(5, IdaStarPlanner.DEFAULT_MEMORY), new ConstructivePlanner());
+	}
+	
+	/**
+	 * @param acceptTolerance
+	 *            - the tolerance for accepting a plan right away (at least 1); use
+	 *            {@link Double#POSITIVE_INFINITY} to accept the first plan.
+	 * @param strategies
+	 *            - the planners.
+	 */
+	public PortfolioPlanner(double acceptTolerance, Planner... strategies)
+	{
+		planners = new ArrayList<>(Arrays.asList(strategies));
+		tolerance = acceptTolerance;
+		for(Planner p : planners)
+			wins.put(p, Integer.valueOf(0));
+		executor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "portfolio");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadline)
+	{
+		lastWinner = null;
+		CompletionService<PlanningAction> completion = new ExecutorCompletionService<>(executor);
+		Map<Future<PlanningAction>, Planner> running = new LinkedHashMap<>();
+		problem.getInitialState(); // prepare the shared data before the threads start
+		for(Planner p : planners)
+			if(busy.add(p))
+				running.put(completion.submit(() -> {
+					try
+					{
+						return p.plan(problem, deadline);
+					} finally
+					{
+						busy.remove(p);
+					}
+				}), p);
+		int lowerBound = 2 * problem.getInitialState().heuristic();
+		
+		PlanningAction best = null;
+		try
+		{
+			for(int pending = running.size(); pending > 0; pending--)
+			{
+				Future<PlanningAction> done;
+				if(deadline == NO_DEADLINE)
+					done = completion.take();
+				else
+					done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(done == null)
+					break; // deadline
+				Planner planner = running.remove(done);
+				PlanningAction plan;
+				try
+				{
+					plan = done.get();
+				} catch(ExecutionException e)
+				{
+					System.out.println("Planner " + planner + " failed: " + e.getCause());
+					continue;
+				}
+				if(plan == null)
+					continue;
+				if(best == null || plan.size() < best.size())
+				{
+					best = plan;
+					lastWinner = planner;
+				}
+				if(manipulations(plan) <= tolerance * lowerBound)
+					break;
+			}
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		for(Map.Entry<Future<PlanningAction>, Planner> entry : running.entrySet())
+		{
+			entry.getKey().cancel(true);
+			if(entry.getValue() instanceof AnytimePlanner)
+			{
+				PlanningAction plan = ((AnytimePlanner) entry.getValue()).getIncumbent(problem);
+				if(plan != null && (best == null || plan.size() < best.size()))
+				{
+					best = plan;
+					lastWinner = entry.getValue();
+				}
+			}
+		}
+		if(lastWinner != null)
+			wins.put(lastWinner, Integer.valueOf(wins.get(lastWinner).intValue() + 1));
+		return best;
+	}
+	
+	/**
+	 * @param plan
+	 *            - a plan.
+	 * @return the number of PICKUP, PUTDOWN, UNSTACK and STACK actions, two for each move, which can be compared with
+	 *         the lower bound given by the heuristic.
+	 */
+	protected static int manipulations(PlanningAction plan)
+	{
+		int n = 0;
+		for(BlocksWorldAction a : plan)
+			if(a.getType() == Type.PICKUP || a.getType() == Type.PUTDOWN || a.getType() == Type.UNSTACK
+					|| a.getType() == Type.STACK)
+				n++;
+		return n;
+	}
+	
+	/**
+	 * @return the planner which provided the last returned plan, or <code>null</code>.
+	 */
+	public Planner getLastWinner()
+	{
+		return lastWinner;
+	}
+	
+	/**
+	 * @return for each planner, the number of times its plan was returned.
+	 */
+	public Map<Planner, Integer> getWins()
+	{
+		return Collections.unmodifiableMap(wins);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "portfolio" + wins;
+	}
+}
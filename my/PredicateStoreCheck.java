@@ -0,0 +1,202 @@
+package my;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorld;
+import blocksworld.DynamicEnvironment;
+import blocksworld.Predicate;
+import blocksworld.Predicate.Type;
+import blocksworld.PredicateStore;
+
+/**
+ * Check of {@link PredicateStore}: for the initial state of each test suite, in a dynamic environment with an agent
+ * which moves blocks around (see {@link ForkCheck.ShuffleAgent}), replays the changes of the world, by the agent and by
+ * the dynamic actions, and compares the store of the world, built before the first step and then updated with the
+ * changes, with the predicates of the world (see {@link BlocksWorld#getPredicates()}) after each step: its contents,
+ * the queries for each type and for each block of the world (including blocks which are held or stashed), and the
+ * shortcuts. Exits with a non-zero status at the first difference.
+ */
+public class PredicateStoreCheck
+{
+	/**
+	 * Dynamicity of the environments.
+	 */
+	protected static final float	DYNAMICITY	= 1;
+
+	/**
+	 * Seed of the environments.
+	 */
+	protected static final long		RANDOM_SEED	= 42;
+
+	/**
+	 * Number of steps replayed for each test suite.
+	 */
+	protected static final int		STEPS		= 1000;
+
+	/**
+	 * @param predicates
+	 *            - the predicates of the world.
+	 * @param type
+	 *            - the type, or <code>null</code> for any type.
+	 * @param first
+	 *            - the first argument, or <code>null</code> for any.
+	 * @param second
+	 *            - the second argument, or <code>null</code> for any.
+	 * @return the predicates matching the pattern, as {@link PredicateStore#query(Type, Block, Block)} should find them.
+	 */
+	protected static Set<Predicate> expected(Collection<Predicate> predicates, Type type, Block first, Block second)
+	{
+		return predicates.stream().filter(p -> type == null || p.getType() == type)
+				.filter(p -> first == null || !p.hasNoArgs() && first.equals(p.getFirstArgument()))
+				.filter(p -> second == null || p.hasTwoArgs() && second.equals(p.getSecondArgument()))
+				.collect(Collectors.toSet());
+	}
+
+	/**
+	 * @param store
+	 *            - the store.
+	 * @param predicates
+	 *            - the predicates of the world.
+	 * @param type
+	 *            - the type, or <code>null</code> for any type.
+	 * @param first
+	 *            - the first argument, or <code>null</code> for any.
+	 * @param second
+	 *            - the second argument, or <code>null</code> for any.
+	 * @return <code>null</code> if the store finds the predicates matching the pattern, each once; a description of the
+	 *         difference otherwise.
+	 */
+	protected static String compareQuery(PredicateStore store, Collection<Predicate> predicates, Type type, Block first,
+			Block second)
+	{
+		List<Predicate> found = store.query(type, first, second).collect(Collectors.toList());
+		Set<Predicate> expected = expected(predicates, type, first, second);
+		if(found.size() != expected.size() || !expected.equals(new HashSet<>(found)))
+			return "query (" + type + ", " + first + ", " + second + ") finds " + found + " instead of " + expected;
+		return null;
+	}
+
+	/**
+	 * @param world
+	 *            - the world.
+	 * @param blocks
+	 *            - all blocks, including those which are not in the world.
+	 * @return <code>null</code> if the store of the world agrees with its predicates; a description of the first
+	 *         difference otherwise.
+	 */
+	protected static String compare(BlocksWorld world, Set<Block> blocks)
+	{
+		PredicateStore store = world.getPredicateStore();
+		Collection<Predicate> predicates = world.getPredicates();
+		Set<Predicate> all = new HashSet<>(predicates);
+		if(store.size() != all.size() || !all.equals(store.stream().collect(Collectors.toSet())))
+			return "store " + store + " instead of " + all;
+		for(Predicate p : all)
+			if(!store.contains(p))
+				return "store does not contain " + p;
+		String difference;
+		for(Type type : Type.values())
+		{
+			if(store.count(type) != expected(predicates, type, null, null).size())
+				return "count of " + type + ": " + store.count(type);
+			if((difference = compareQuery(store, predicates, type, null, null)) != null)
+				return difference;
+		}
+		for(Block block : blocks)
+		{
+			Block below = expected(predicates, Type.ON, block, null).stream().map(Predicate::getSecondArgument)
+					.findAny().orElse(null);
+			Block above = expected(predicates, Type.ON, null, block).stream().map(Predicate::getFirstArgument)
+					.findAny().orElse(null);
+			if(!Objects.equals(store.getBelow(block), below))
+				return "below " + block + ": " + store.getBelow(block) + " instead of " + below;
+			if(!Objects.equals(store.getAbove(block), above))
+				return "above " + block + ": " + store.getAbove(block) + " instead of " + above;
+			if(store.isClear(block) != all.contains(Predicate.of(Type.CLEAR, block)))
+				return "clear " + block + ": " + store.isClear(block);
+			if(store.isOnTable(block) != all.contains(Predicate.of(Type.ONTABLE, block)))
+				return "on table " + block + ": " + store.isOnTable(block);
+			for(Type type : new Type[] { null, Type.ON, Type.CLEAR })
+				if((difference = compareQuery(store, predicates, type, block, null)) != null
+						|| (difference = compareQuery(store, predicates, type, null, block)) != null)
+					return difference;
+			if(below != null && (difference = compareQuery(store, predicates, Type.ON, block, below)) != null)
+				return difference;
+		}
+		return null;
+	}
+
+	/**
+	 * @param initial
+	 *            - the initial state.
+	 * @param desired
+	 *            - the desired state of the agent.
+	 * @return <code>null</code> if the store agrees with the predicates of the world at each step; a description of
+	 *         the first difference otherwise.
+	 */
+	protected static String check(BlocksWorld initial, BlocksWorld desired)
+	{
+		DynamicEnvironment environment = new MyBlocksWorldEnvironment(initial, DYNAMICITY, RANDOM_SEED);
+		environment.addAgent(new ForkCheck.ShuffleAgent(), desired, null);
+		BlocksWorld world = environment.getWorld();
+		Set<Block> blocks = world.allBlocks();
+		String difference = compare(world, blocks);
+		for(int i = 0; i < STEPS && difference == null; i++)
+		{
+			environment.step();
+			blocks.addAll(world.allBlocks());
+			if((difference = compare(world, blocks)) != null)
+				difference = "step " + i + ": " + difference;
+		}
+		return difference;
+	}
+
+	/**
+	 * Main.
+	 *
+	 * @param args
+	 *            - not used.
+	 * @throws IOException
+	 *             - if a test file cannot be read.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		PrintStream out = System.out;
+		int failures = 0;
+		List<String> initials = new ArrayList<>();
+		for(Map.Entry<String, String[]> problem : PlannerCheck.getTestProblems().entrySet())
+		{
+			// the problems of a suite have the same initial state
+			String initial = problem.getValue()[0];
+			if(initials.contains(initial))
+				continue;
+			initials.add(initial);
+			String result;
+			// the environment reports every step
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+			try
+			{
+				result = check(PlannerCheck.parse(initial), PlannerCheck.parse(problem.getValue()[1]));
+			} finally
+			{
+				System.setOut(out);
+			}
+			String suite = problem.getKey().substring(0, problem.getKey().indexOf('/'));
+			System.out.println(suite + ": " + (result == null ? STEPS + " steps agree" : result));
+			if(result != null)
+				failures++;
+		}
+		System.exit(failures > 0 ? 1 : 0);
+	}
+}
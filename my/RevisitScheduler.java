@@ -0,0 +1,225 @@
+package my;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldEnvironment.Station;
+import blocksworld.DynamicEnvironment.DynamicAction;
+
+/**
+ * Decides when an agent should look again at a station before following a plan made from its beliefs (see
+ * {@link BeliefStore}), in a dynamic environment.
+ * <p>
+ * The probability that a station changed since it was last seen is estimated from the dynamicity of the environment,
+ * the types of dynamic actions (how many stacks each of them changes) and the number of stations: at each step, a
+ * station which is not observed changes with probability <i>dynamicity * stacks changed per action / (stations -
+ * 1)</i>, or less if its top block is locked (then it can only receive blocks). If the belief about a station used by
+ * the plan is wrong, the plan fails when the agent gets there, and the steps spent for that use (going there, and
+ * carrying a block there) are wasted. A visit now does not prevent changes until the agent gets there, so the station
+ * is visited first only when the reduction of the expected waste is greater than the cost of the visit.
+ * <p>
+ * The scheduler counts the steps saved against going through all stations before each plan, as the agent would do
+ * without beliefs.
+ */
+public class RevisitScheduler
+{
+	/**
+	 * The cost of a visit, in steps: the step the environment spends on the new plan of the visit, going to the
+	 * station, and going back (in the next plan).
+	 */
+	public static final double	REVISIT_COST	= 3;
+	
+	/**
+	 * The expected number of stacks changed at each step.
+	 */
+	protected final double		changeRate;
+	
+	/**
+	 * The expected number of stacks receiving a block at each step.
+	 */
+	protected final double		receiveRate;
+	
+	/**
+	 * The number of visits inserted so far.
+	 */
+	protected long				revisits		= 0;
+	
+	/**
+	 * The number of visits inserted for the next plan.
+	 */
+	protected int				pendingVisits	= 0;
+	
+	/**
+	 * The number of steps saved so far, against visiting all stations before each plan.
+	 */
+	protected long				stepsSaved		= 0;
+	
+	/**
+	 * @param dynamicity
+	 *            - the probability that the environment changes at each step.
+	 */
+	public RevisitScheduler(float dynamicity)
+	{
+		double changed = 0, received = 0;
+		for(DynamicAction action : DynamicAction.values())
+			switch(action)
+			{
+			case STASH:
+			case DROP:
+				changed += action.getProbability();
+				break;
+			case UNSTASH:
+				changed += action.getProbability();
+				received += action.getProbability();
+				break;
+			case TELEPORT:
+				changed += 2 * action.getProbability();
+				received += action.getProbability();
+				break;
+			default:
+				break;
+			}
+		changeRate = dynamicity * changed;
+		receiveRate = dynamicity * received;
+	}
+	
+	/**
+	 * @param beliefs
+	 *            - the beliefs of the agent.
+	 * @param position
+	 *            - the position of a station.
+	 * @param step
+	 *            - the current step.
+	 * @return the probability that the station changed since it was last seen.
+	 */
+	public double changeProbability(BeliefStore beliefs, int position, long step)
+	{
+		if(position == beliefs.getCurrent())
+			return 0;
+		return changeProbabilityOver(beliefs, position, step - beliefs.getLastSeen(position));
+	}
+	
+	/**
+	 * @param beliefs
+	 *            - the beliefs of the agent.
+	 * @param position
+	 *            - the position of a station, which is not observed.
+	 * @param steps
+	 *            - a number of steps.
+	 * @return the probability that the station changes during that number of steps.
+	 */
+	protected double changeProbabilityOver(BeliefStore beliefs, int position, long steps)
+	{
+		if(beliefs.getStationCount() < 2)
+			return 0;
+		double rate = (beliefs.isTopLocked(position) ? receiveRate : changeRate) / (beliefs.getStationCount() - 1);
+		return 1 - Math.pow(1 - Math.min(rate, 1), steps);
+	}
+	
+	/**
+	 * Chooses a station to visit before following a plan: the one for which a visit reduces the expected waste the
+	 * most, if the reduction is greater than {@link #REVISIT_COST}. Only the first use of each station by the plan is
+	 * considered. No more visits are made for one plan than there are stations.
+	 * 
+	 * @param beliefs
+	 *            - the beliefs of the agent, from which the plan was made.
+	 * @param plan
+	 *            - the plan.
+	 * @param step
+	 *            - the current step.
+	 * @return the position of the station to visit, or -1 if the plan should be followed.
+	 */
+	public int chooseRevisit(BeliefStore beliefs, List<BlocksWorldAction> plan, long step)
+	{
+		if(pendingVisits >= beliefs.getStationCount())
+			return -1;
+		Station here = beliefs.getStation(beliefs.getCurrent());
+		Set<Station> used = new HashSet<>();
+		int best = -1;
+		double bestGain = REVISIT_COST;
+		int steps = 0;
+		// the step of the last action which changed a stack
+		int lastChange = -1;
+		for(BlocksWorldAction action : plan)
+		{
+			switch(action.getType())
+			{
+			case MARKER:
+				continue;
+			case GO_TO_STATION:
+				here = (Station) action.getArgument();
+				break;
+			case PICKUP:
+			case PUTDOWN:
+				// the agent moves to a station which is not known in advance; a GO_TO_STATION follows, if needed
+				here = null;
+				lastChange = steps;
+				break;
+			case UNSTACK:
+			case STACK:
+			case LOCK:
+				int position = here == null ? -1 : beliefs.getPosition(here);
+				if(position >= 0 && position != beliefs.getCurrent() && used.add(here))
+				{
+					long age = step - beliefs.getLastSeen(position);
+					double gain = (changeProbabilityOver(beliefs, position, age + steps)
+							- changeProbabilityOver(beliefs, position, steps + 1)) * (steps - lastChange);
+					if(gain > bestGain)
+					{
+						best = position;
+						bestGain = gain;
+					}
+				}
+				lastChange = steps;
+				break;
+			default:
+				break;
+			}
+			steps++;
+		}
+		if(best >= 0)
+		{
+			revisits++;
+			pendingVisits++;
+		}
+		return best;
+	}
+	
+	/**
+	 * Records that a plan made from beliefs is followed, after the visits chosen for it.
+	 * 
+	 * @param stationCount
+	 *            - the number of stations, which would have been visited without beliefs.
+	 */
+	public void planFollowed(int stationCount)
+	{
+		stepsSaved += stationCount - pendingVisits;
+		pendingVisits = 0;
+	}
+	
+	/**
+	 * Records that the agent goes through all stations, so the visits chosen for the next plan are not needed anymore.
+	 */
+	public void tourStarted()
+	{
+		pendingVisits = 0;
+	}
+	
+	/**
+	 * @return the number of visits inserted so far.
+	 */
+	public long getRevisits()
+	{
+		return revisits;
+	}
+	
+	/**
+	 * @return the number of steps saved so far, against visiting all stations before each plan.
+	 */
+	public long getStepsSaved()
+	{
+		return stepsSaved;
+	}
+}
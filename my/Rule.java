@@ -0,0 +1,341 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorldAction;
+import blocksworld.Predicate;
+
+/**
+ * A condition-action rule over {@link Predicate}s, for the {@link RuleEngine}.
+ * <p>
+ * Rules are written as <code>[name:] condition, condition, ... -&gt; ACTION(arguments)</code>, e.g.
+ * <code>unstack: CLEAR(?x), ON(?x, ?y), misplaced(?x) -&gt; UNSTACK(?x, ?y)</code>. Conditions may also be separated by
+ * <code>&amp;</code> or <code>&and;</code>, and the arrow may be <code>&rarr;</code>.
+ * <ul>
+ * <li>a condition named as a {@link Predicate.Type} is a pattern, which must match a predicate that is true;
+ * <li>any other condition is a test, defined in the engine (see {@link RuleEngine#defineTest(String, Test)}), which is
+ * checked once all patterns match;
+ * <li>the action is named as a {@link BlocksWorldAction.Type};
+ * <li>arguments are variables (<code>?name</code>), bound by the first pattern which contains them, or block labels
+ * (one character).
+ * </ul>
+ */
+public class Rule
+{
+	/**
+	 * A test on the values of variables. Tests are only checked when a match is found, so they should only depend on
+	 * their arguments and on things which do not change (e.g. the desired state).
+	 */
+	public interface Test
+	{
+		/**
+		 * @param arguments
+		 *            - the blocks bound to the arguments of the test.
+		 * @return <code>true</code> if the test passes.
+		 */
+		boolean holds(Block... arguments);
+	}
+
+	/**
+	 * A pattern, test or action: a name and arguments, each being a variable or a constant block.
+	 */
+	protected static class Condition
+	{
+		/**
+		 * The name.
+		 */
+		final String	name;
+		/**
+		 * For each argument, the index of the variable, or -1 for a constant.
+		 */
+		final int[]		variables;
+		/**
+		 * For each argument, the constant block, or <code>null</code> for a variable.
+		 */
+		final Block[]	constants;
+
+		/**
+		 * @param conditionName
+		 *            - the name.
+		 * @param nArguments
+		 *            - the number of arguments.
+		 */
+		Condition(String conditionName, int nArguments)
+		{
+			name = conditionName;
+			variables = new int[nArguments];
+			constants = new Block[nArguments];
+		}
+
+		@Override
+		public String toString()
+		{
+			return name + "/" + variables.length;
+		}
+	}
+
+	/**
+	 * The name of the rule.
+	 */
+	protected final String					name;
+	/**
+	 * The patterns, in the order in which they are joined.
+	 */
+	protected final List<Condition>			patterns		= new ArrayList<>();
+	/**
+	 * The types of the patterns.
+	 */
+	protected final List<Predicate.Type>	patternTypes	= new ArrayList<>();
+	/**
+	 * The tests.
+	 */
+	protected final List<Condition>			tests			= new ArrayList<>();
+	/**
+	 * The action.
+	 */
+	protected final Condition				action;
+	/**
+	 * The type of the action.
+	 */
+	protected final BlocksWorldAction.Type	actionType;
+	/**
+	 * The names of the variables, by index.
+	 */
+	protected final List<String>			variables		= new ArrayList<>();
+	/**
+	 * The source text.
+	 */
+	protected final String					text;
+
+	/**
+	 * Parses a rule.
+	 *
+	 * @param ruleText
+	 *            - the rule.
+	 * @throws IllegalArgumentException
+	 *             if the rule is not well formed.
+	 */
+	public Rule(String ruleText)
+	{
+		text = ruleText.trim();
+		String body = text;
+		int arrow = body.indexOf("->");
+		int arrowLength = 2;
+		if(arrow < 0)
+		{
+			arrow = body.indexOf('\u2192');
+			arrowLength = 1;
+		}
+		if(arrow < 0)
+			throw new IllegalArgumentException("No action in rule [" + text + "].");
+		int colon = body.indexOf(':');
+		if(colon >= 0 && colon < body.indexOf('('))
+		{
+			name = body.substring(0, colon).trim();
+			body = body.substring(colon + 1);
+			arrow -= colon + 1;
+		}
+		else
+			name = text;
+		List<String> testTexts = new ArrayList<>();
+		for(String c : split(body.substring(0, arrow)))
+		{
+			Predicate.Type type = predicateType(c.substring(0, Math.max(c.indexOf('('), 0)).trim());
+			if(type == null)
+			{
+				testTexts.add(c); // parsed after all variables are bound by patterns
+				continue;
+			}
+			Condition condition = parseCondition(c, true);
+			if(type.getArgumentNumber() != condition.variables.length)
+				throw new IllegalArgumentException("Wrong number of arguments for " + c + " in [" + text + "].");
+			patterns.add(condition);
+			patternTypes.add(type);
+		}
+		for(String c : testTexts)
+		{
+			Condition test = parseCondition(c, false);
+			checkBound(test);
+			tests.add(test);
+		}
+		action = parseCondition(body.substring(arrow + arrowLength), false);
+		checkBound(action);
+		actionType = actionType(action.name);
+		if(actionType == null)
+			throw new IllegalArgumentException("Unknown action " + action.name + " in [" + text + "].");
+		if(actionType.getArgumentNumber() != action.variables.length)
+			throw new IllegalArgumentException("Wrong number of arguments for " + action + " in [" + text + "].");
+		if(patterns.isEmpty())
+			throw new IllegalArgumentException("No patterns in rule [" + text + "].");
+	}
+
+	/**
+	 * Splits the conditions, at separators outside of parentheses.
+	 *
+	 * @param conditions
+	 *            - the conditions.
+	 * @return the list of conditions.
+	 */
+	protected static List<String> split(String conditions)
+	{
+		List<String> ret = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for(int i = 0; i < conditions.length(); i++)
+		{
+			char c = conditions.charAt(i);
+			if(c == '(')
+				depth++;
+			else if(c == ')')
+				depth--;
+			else if(depth == 0 && (c == ',' || c == '&' || c == '\u2227'))
+			{
+				ret.add(conditions.substring(start, i));
+				start = i + 1;
+			}
+		}
+		ret.add(conditions.substring(start));
+		ret.removeIf(s -> s.trim().isEmpty());
+		return ret;
+	}
+
+	/**
+	 * @param condition
+	 *            - a condition, as <code>name(arguments)</code>.
+	 * @param bind
+	 *            - <code>true</code> if new variables may be created.
+	 * @return the condition.
+	 */
+	protected Condition parseCondition(String condition, boolean bind)
+	{
+		String c = condition.trim();
+		int open = c.indexOf('(');
+		if(open < 0 || !c.endsWith(")"))
+			throw new IllegalArgumentException("Malformed condition [" + c + "] in [" + text + "].");
+		String args = c.substring(open + 1, c.length() - 1).trim();
+		List<String> arguments = args.isEmpty() ? Collections.emptyList() : Arrays.asList(args.split(","));
+		Condition ret = new Condition(c.substring(0, open).trim(), arguments.size());
+		for(int i = 0; i < arguments.size(); i++)
+		{
+			String arg = arguments.get(i).trim();
+			if(arg.startsWith("?"))
+			{
+				int v = variables.indexOf(arg);
+				if(v < 0 && bind)
+				{
+					v = variables.size();
+					variables.add(arg);
+				}
+				ret.variables[i] = v;
+			}
+			else if(arg.length() == 1)
+			{
+				ret.variables[i] = -1;
+				ret.constants[i] = new Block(arg.charAt(0));
+			}
+			else
+				throw new IllegalArgumentException("Malformed argument [" + arg + "] in [" + text + "].");
+		}
+		return ret;
+	}
+
+	/**
+	 * @param condition
+	 *            - a test or action.
+	 * @throws IllegalArgumentException
+	 *             if it uses variables which are not bound by patterns.
+	 */
+	protected void checkBound(Condition condition)
+	{
+		for(int i = 0; i < condition.variables.length; i++)
+			if(condition.constants[i] == null && condition.variables[i] < 0)
+				throw new IllegalArgumentException("Unbound variable in " + condition + " in [" + text + "].");
+		// variables are only created by patterns, which are parsed first
+	}
+
+	/**
+	 * @param conditionName
+	 *            - a name.
+	 * @return the predicate type with that name, or <code>null</code>.
+	 */
+	protected static Predicate.Type predicateType(String conditionName)
+	{
+		for(Predicate.Type type : Predicate.Type.values())
+			if(type.name().equals(conditionName))
+				return type;
+		return null;
+	}
+
+	/**
+	 * @param conditionName
+	 *            - a name.
+	 * @return the action type with that name, or <code>null</code>.
+	 */
+	protected static BlocksWorldAction.Type actionType(String conditionName)
+	{
+		for(BlocksWorldAction.Type type : BlocksWorldAction.Type.values())
+			if(type.name().equals(conditionName))
+				return type;
+		return null;
+	}
+	
+	/**
+	 * @return the name of the rule.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the number of variables.
+	 */
+	public int getVariableCount()
+	{
+		return variables.size();
+	}
+
+	/**
+	 * @param bindings
+	 *            - the value of each variable.
+	 * @return the action of the rule, for the bindings.
+	 */
+	public BlocksWorldAction instantiate(Block[] bindings)
+	{
+		Block[] args = resolve(action, bindings);
+		switch(args.length)
+		{
+		case 0:
+			return BlocksWorldAction.of(actionType);
+		case 1:
+			return BlocksWorldAction.of(actionType, args[0]);
+		default:
+			return BlocksWorldAction.of(actionType, args[0], args[1]);
+		}
+	}
+
+	/**
+	 * @param condition
+	 *            - a condition.
+	 * @param bindings
+	 *            - the value of each variable.
+	 * @return the arguments of the condition.
+	 */
+	protected static Block[] resolve(Condition condition, Block[] bindings)
+	{
+		Block[] ret = new Block[condition.variables.length];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = condition.constants[i] != null ? condition.constants[i] : bindings[condition.variables[i]];
+		return ret;
+	}
+
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+}
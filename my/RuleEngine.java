@@ -0,0 +1,625 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import blocksworld.Block;
+import blocksworld.BlocksWorldAction;
+import blocksworld.Predicate;
+
+/**
+ * Rule engine in the style of Rete: matches a set of {@link Rule}s against a set of facts ({@link Predicate}s) which
+ * changes a little at a time, keeping all partial matches between changes.
+ * <p>
+ * Each pattern has an alpha memory with the facts matching it (shared between rules with the same pattern). Each rule
+ * joins its patterns in order; the partial matches of the first <i>i</i> patterns (tokens) are kept in the join node of
+ * the pattern <i>i</i>, indexed by the values of the variables the pattern shares with earlier patterns, as are the
+ * facts in the alpha memory of the pattern. A new fact is only joined with the tokens having the same values, and a
+ * retracted fact removes the tokens built on it; therefore, the cost of a change depends on the matches it creates or
+ * removes, not on the number of facts.
+ * <p>
+ * The complete matches which pass the tests of their rule are the activations. {@link #getAction()} gives the action of
+ * the earliest activation of the first rule (in the order of addition) which has activations.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * RuleEngine engine = new RuleEngine();
+ * engine.defineTest("misplaced", args -&gt; !isWellPlaced(args[0]));
+ * engine.addRule("unstack: CLEAR(?x), ON(?x, ?y), misplaced(?x) -&gt; UNSTACK(?x, ?y)");
+ * engine.update(perceivedPredicates); // at each step
+ * BlocksWorldAction action = engine.getAction();
+ * </pre>
+ */
+public class RuleEngine
+{
+	/**
+	 * The facts matching a pattern, independent of variable bindings.
+	 */
+	protected static class AlphaMemory
+	{
+		/**
+		 * The type of the facts.
+		 */
+		final Predicate.Type	type;
+		/**
+		 * The constant for each argument, or <code>null</code>.
+		 */
+		final Block[]			constants;
+		/**
+		 * <code>true</code> if the pattern has the same variable for both arguments.
+		 */
+		final boolean			sameVariable;
+		/**
+		 * The matching facts.
+		 */
+		final Set<Predicate>	facts		= new HashSet<>();
+		/**
+		 * The join nodes using this memory.
+		 */
+		final List<JoinNode>	successors	= new ArrayList<>();
+
+		/**
+		 * @param pattern
+		 *            - the pattern.
+		 * @param patternType
+		 *            - the type of the pattern.
+		 */
+		AlphaMemory(Rule.Condition pattern, Predicate.Type patternType)
+		{
+			type = patternType;
+			constants = pattern.constants.clone();
+			sameVariable = pattern.variables.length == 2 && pattern.variables[0] >= 0
+					&& pattern.variables[0] == pattern.variables[1];
+		}
+
+		/**
+		 * @param fact
+		 *            - a fact of the type of this memory.
+		 * @return <code>true</code> if the fact matches the pattern.
+		 */
+		boolean matches(Predicate fact)
+		{
+			for(int i = 0; i < constants.length; i++)
+				if(constants[i] != null && !constants[i].equals(argument(fact, i)))
+					return false;
+			return !sameVariable || fact.getFirstArgument().equals(fact.getSecondArgument());
+		}
+
+		/**
+		 * @param pattern
+		 *            - a pattern.
+		 * @param patternType
+		 *            - the type of the pattern.
+		 * @return the key identifying memories for equivalent patterns.
+		 */
+		static String key(Rule.Condition pattern, Predicate.Type patternType)
+		{
+			String ret = patternType.name();
+			for(int i = 0; i < pattern.variables.length; i++)
+				ret += "," + (pattern.constants[i] != null ? pattern.constants[i].toString()
+						: (pattern.variables[i] == pattern.variables[0] && i > 0 ? "=" : "?"));
+			return ret;
+		}
+	}
+
+	/**
+	 * A partial match: the facts matching the first patterns of a rule, and the resulting bindings.
+	 */
+	protected static class Token
+	{
+		/**
+		 * The token this one extends; <code>null</code> for the root token.
+		 */
+		final Token			parent;
+		/**
+		 * The last fact matched; <code>null</code> for the root token.
+		 */
+		final Predicate		fact;
+		/**
+		 * The number of patterns matched.
+		 */
+		final int			level;
+		/**
+		 * The value of each variable (<code>null</code> if not bound yet).
+		 */
+		final Block[]		bindings;
+		/**
+		 * The tokens extending this one.
+		 */
+		final List<Token>	children	= new ArrayList<>(1);
+
+		/**
+		 * @param parentToken
+		 *            - the token this one extends.
+		 * @param matched
+		 *            - the last fact matched.
+		 * @param values
+		 *            - the bindings.
+		 */
+		Token(Token parentToken, Predicate matched, Block[] values)
+		{
+			parent = parentToken;
+			fact = matched;
+			level = parentToken == null ? 0 : parentToken.level + 1;
+			bindings = values;
+			if(parentToken != null)
+				parentToken.children.add(this);
+		}
+	}
+
+	/**
+	 * Joins tokens of a level with the facts matching the next pattern.
+	 */
+	protected static class JoinNode
+	{
+		/**
+		 * The network of the rule.
+		 */
+		final RuleNetwork					network;
+		/**
+		 * The index of the pattern.
+		 */
+		final int							index;
+		/**
+		 * The pattern.
+		 */
+		final Rule.Condition				pattern;
+		/**
+		 * The facts matching the pattern.
+		 */
+		final AlphaMemory					alpha;
+		/**
+		 * For each argument of the pattern, <code>true</code> if its variable is bound by earlier patterns.
+		 */
+		final boolean[]						joined;
+		/**
+		 * The tokens matching the earlier patterns, by join key.
+		 */
+		final Map<Long, Set<Token>>			tokens	= new HashMap<>();
+		/**
+		 * The facts in the alpha memory, by join key.
+		 */
+		final Map<Long, Set<Predicate>>		facts	= new HashMap<>();
+
+		/**
+		 * @param ruleNetwork
+		 *            - the network of the rule.
+		 * @param patternIndex
+		 *            - the index of the pattern.
+		 * @param alphaMemory
+		 *            - the alpha memory of the pattern.
+		 * @param bound
+		 *            - the variables bound by earlier patterns.
+		 */
+		JoinNode(RuleNetwork ruleNetwork, int patternIndex, AlphaMemory alphaMemory, boolean[] bound)
+		{
+			network = ruleNetwork;
+			index = patternIndex;
+			pattern = ruleNetwork.rule.patterns.get(patternIndex);
+			alpha = alphaMemory;
+			joined = new boolean[pattern.variables.length];
+			for(int i = 0; i < joined.length; i++)
+				joined[i] = pattern.variables[i] >= 0 && bound[pattern.variables[i]];
+			for(Predicate fact : alpha.facts)
+				facts.computeIfAbsent(factKey(fact), k -> new LinkedHashSet<>()).add(fact);
+		}
+
+		/**
+		 * @param fact
+		 *            - a fact matching the pattern.
+		 * @return the join key of the fact.
+		 */
+		long factKey(Predicate fact)
+		{
+			long key = 0;
+			for(int i = 0; i < joined.length; i++)
+				if(joined[i])
+					key = key << 17 | argument(fact, i).getLabel() + 1;
+			return key;
+		}
+
+		/**
+		 * @param token
+		 *            - a token of the previous level.
+		 * @return the join key of the token.
+		 */
+		long tokenKey(Token token)
+		{
+			long key = 0;
+			for(int i = 0; i < joined.length; i++)
+				if(joined[i])
+					key = key << 17 | token.bindings[pattern.variables[i]].getLabel() + 1;
+			return key;
+		}
+
+		/**
+		 * A fact was added to the alpha memory.
+		 *
+		 * @param fact
+		 *            - the fact.
+		 */
+		void rightActivate(Predicate fact)
+		{
+			long key = factKey(fact);
+			facts.computeIfAbsent(Long.valueOf(key), k -> new LinkedHashSet<>()).add(fact);
+			Set<Token> matching = tokens.get(Long.valueOf(key));
+			if(matching != null)
+				for(Token t : new ArrayList<>(matching))
+					network.extend(t, fact, this);
+		}
+
+		/**
+		 * A fact was removed from the alpha memory.
+		 *
+		 * @param fact
+		 *            - the fact.
+		 */
+		void rightRemove(Predicate fact)
+		{
+			Set<Predicate> set = facts.get(Long.valueOf(factKey(fact)));
+			if(set != null)
+				set.remove(fact);
+		}
+
+		/**
+		 * A token of the previous level was created.
+		 *
+		 * @param token
+		 *            - the token.
+		 */
+		void leftActivate(Token token)
+		{
+			long key = tokenKey(token);
+			tokens.computeIfAbsent(Long.valueOf(key), k -> new LinkedHashSet<>()).add(token);
+			Set<Predicate> matching = facts.get(Long.valueOf(key));
+			if(matching != null)
+				for(Predicate fact : new ArrayList<>(matching))
+					network.extend(token, fact, this);
+		}
+
+		/**
+		 * A token of the previous level was removed.
+		 *
+		 * @param token
+		 *            - the token.
+		 */
+		void leftRemove(Token token)
+		{
+			Set<Token> set = tokens.get(Long.valueOf(tokenKey(token)));
+			if(set != null)
+				set.remove(token);
+		}
+	}
+
+	/**
+	 * The join nodes and the activations of one rule.
+	 */
+	protected class RuleNetwork
+	{
+		/**
+		 * The rule.
+		 */
+		final Rule					rule;
+		/**
+		 * The join nodes, one for each pattern.
+		 */
+		final JoinNode[]			joins;
+		/**
+		 * The complete matches which pass the tests, in order of creation.
+		 */
+		final Set<Token>			activations	= new LinkedHashSet<>();
+		/**
+		 * The tokens built on each fact.
+		 */
+		final Map<Predicate, Set<Token>>	byFact		= new HashMap<>();
+
+		/**
+		 * @param ruleToAdd
+		 *            - the rule.
+		 */
+		RuleNetwork(Rule ruleToAdd)
+		{
+			rule = ruleToAdd;
+			joins = new JoinNode[rule.patterns.size()];
+			boolean[] bound = new boolean[rule.getVariableCount()];
+			for(int i = 0; i < joins.length; i++)
+			{
+				Rule.Condition pattern = rule.patterns.get(i);
+				AlphaMemory alpha = alphaMemory(pattern, rule.patternTypes.get(i));
+				joins[i] = new JoinNode(this, i, alpha, bound);
+				alpha.successors.add(joins[i]);
+				for(int v : pattern.variables)
+					if(v >= 0)
+						bound[v] = true;
+			}
+			joins[0].leftActivate(new Token(null, null, new Block[rule.getVariableCount()]));
+		}
+
+		/**
+		 * Extends a token with a fact matching the next pattern (the join key was already checked).
+		 *
+		 * @param token
+		 *            - the token.
+		 * @param fact
+		 *            - the fact.
+		 * @param join
+		 *            - the join node of the pattern.
+		 */
+		void extend(Token token, Predicate fact, JoinNode join)
+		{
+			Block[] bindings = token.bindings.clone();
+			int[] variables = join.pattern.variables;
+			for(int i = 0; i < variables.length; i++)
+				if(variables[i] >= 0)
+					bindings[variables[i]] = argument(fact, i);
+			Token extended = new Token(token, fact, bindings);
+			byFact.computeIfAbsent(fact, f -> new HashSet<>()).add(extended);
+			joinCount++;
+			if(extended.level < joins.length)
+				joins[extended.level].leftActivate(extended);
+			else if(passes(extended))
+				activations.add(extended);
+		}
+
+		/**
+		 * @param token
+		 *            - a complete match.
+		 * @return <code>true</code> if the match passes all tests of the rule.
+		 */
+		boolean passes(Token token)
+		{
+			for(Rule.Condition test : rule.tests)
+			{
+				Rule.Test t = tests.get(test.name);
+				if(t == null)
+					throw new IllegalStateException("Test " + test.name + " is not defined.");
+				if(!t.holds(Rule.resolve(test, token.bindings)))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Removes the tokens built on a fact.
+		 *
+		 * @param fact
+		 *            - the fact.
+		 */
+		void retract(Predicate fact)
+		{
+			Set<Token> built = byFact.remove(fact);
+			if(built != null)
+				for(Token t : built)
+				{
+					t.parent.children.remove(t);
+					remove(t);
+				}
+		}
+
+		/**
+		 * Removes a token and all tokens extending it.
+		 *
+		 * @param token
+		 *            - the token.
+		 */
+		void remove(Token token)
+		{
+			for(Token child : token.children)
+			{
+				Set<Token> set = byFact.get(child.fact);
+				if(set != null)
+					set.remove(child);
+				remove(child);
+			}
+			token.children.clear();
+			if(token.level < joins.length)
+				joins[token.level].leftRemove(token);
+			else
+				activations.remove(token);
+		}
+	}
+
+	/**
+	 * The alpha memories, by pattern key.
+	 */
+	protected final Map<String, AlphaMemory>						alphaByKey	= new HashMap<>();
+	/**
+	 * The alpha memories, by predicate type.
+	 */
+	protected final Map<Predicate.Type, List<AlphaMemory>>		alphaByType	= new EnumMap<>(Predicate.Type.class);
+	/**
+	 * The rule networks, in the order of addition.
+	 */
+	protected final List<RuleNetwork>								rules		= new ArrayList<>();
+	/**
+	 * The tests, by name.
+	 */
+	protected final Map<String, Rule.Test>						tests		= new HashMap<>();
+	/**
+	 * The current facts.
+	 */
+	protected final Set<Predicate>									facts		= new HashSet<>();
+	/**
+	 * The number of joins performed so far.
+	 */
+	protected long													joinCount	= 0;
+
+	/**
+	 * Defines a test which can be used in rules. Tests must be defined before facts are added.
+	 *
+	 * @param name
+	 *            - the name of the test.
+	 * @param test
+	 *            - the test.
+	 * @return the engine itself.
+	 */
+	public RuleEngine defineTest(String name, Rule.Test test)
+	{
+		tests.put(name, test);
+		return this;
+	}
+
+	/**
+	 * Adds a rule. It is matched against the current facts.
+	 *
+	 * @param rule
+	 *            - the rule.
+	 * @return the engine itself.
+	 */
+	public RuleEngine addRule(Rule rule)
+	{
+		rules.add(new RuleNetwork(rule));
+		return this;
+	}
+
+	/**
+	 * Parses and adds a rule (see {@link Rule}).
+	 *
+	 * @param rule
+	 *            - the rule.
+	 * @return the engine itself.
+	 */
+	public RuleEngine addRule(String rule)
+	{
+		return addRule(new Rule(rule));
+	}
+
+	/**
+	 * @param pattern
+	 *            - a pattern.
+	 * @param type
+	 *            - its type.
+	 * @return the alpha memory for the pattern (created if needed).
+	 */
+	protected AlphaMemory alphaMemory(Rule.Condition pattern, Predicate.Type type)
+	{
+		String key = AlphaMemory.key(pattern, type);
+		AlphaMemory alpha = alphaByKey.get(key);
+		if(alpha == null)
+		{
+			alpha = new AlphaMemory(pattern, type);
+			for(Predicate fact : facts)
+				if(fact.getType() == type && alpha.matches(fact))
+					alpha.facts.add(fact);
+			alphaByKey.put(key, alpha);
+			alphaByType.computeIfAbsent(type, t -> new ArrayList<>()).add(alpha);
+		}
+		return alpha;
+	}
+
+	/**
+	 * Makes the facts equal to the given ones, only processing the differences from the current facts.
+	 *
+	 * @param current
+	 *            - the facts which are now true (e.g. the predicates perceived at this step).
+	 */
+	public void update(Collection<Predicate> current)
+	{
+		Set<Predicate> now = current instanceof Set ? (Set<Predicate>) current : new HashSet<>(current);
+		for(Predicate fact : new ArrayList<>(facts))
+			if(!now.contains(fact))
+				retract(fact);
+		for(Predicate fact : now)
+			add(fact);
+	}
+
+	/**
+	 * @param fact
+	 *            - a fact which becomes true.
+	 */
+	public void add(Predicate fact)
+	{
+		if(!facts.add(fact))
+			return;
+		for(AlphaMemory alpha : alphaByType.getOrDefault(fact.getType(), Collections.emptyList()))
+			if(alpha.matches(fact))
+			{
+				alpha.facts.add(fact);
+				for(JoinNode join : alpha.successors)
+					join.rightActivate(fact);
+			}
+	}
+
+	/**
+	 * @param fact
+	 *            - a fact which is no longer true.
+	 */
+	public void retract(Predicate fact)
+	{
+		if(!facts.remove(fact))
+			return;
+		for(AlphaMemory alpha : alphaByType.getOrDefault(fact.getType(), Collections.emptyList()))
+			if(alpha.facts.remove(fact))
+				for(JoinNode join : alpha.successors)
+					join.rightRemove(fact);
+		for(RuleNetwork network : rules)
+			network.retract(fact);
+	}
+
+	/**
+	 * @return the action of the earliest activation of the first rule having activations; <code>null</code> if there
+	 *         are no activations.
+	 */
+	public BlocksWorldAction getAction()
+	{
+		for(RuleNetwork network : rules)
+			if(!network.activations.isEmpty())
+				return network.rule.instantiate(network.activations.iterator().next().bindings);
+		return null;
+	}
+
+	/**
+	 * @return the actions of all activations, by rule, in the order of rules.
+	 */
+	public List<BlocksWorldAction> getActions()
+	{
+		List<BlocksWorldAction> ret = new ArrayList<>();
+		for(RuleNetwork network : rules)
+			for(Token t : network.activations)
+				ret.add(network.rule.instantiate(t.bindings));
+		return ret;
+	}
+
+	/**
+	 * @return the current facts (unmodifiable).
+	 */
+	public Set<Predicate> getFacts()
+	{
+		return Collections.unmodifiableSet(facts);
+	}
+
+	/**
+	 * @return the number of joins (partial matches created) so far; a measure of the work done.
+	 */
+	public long getJoinCount()
+	{
+		return joinCount;
+	}
+
+	/**
+	 * @param fact
+	 *            - a fact.
+	 * @param i
+	 *            - the index of an argument.
+	 * @return the argument.
+	 */
+	protected static Block argument(Predicate fact, int i)
+	{
+		return i == 0 ? fact.getFirstArgument() : fact.getSecondArgument();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "rules: " + rules.size() + ", facts: " + facts.size() + ", activations: " + getActions();
+	}
+}
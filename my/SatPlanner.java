@@ -0,0 +1,400 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import blocksworld.PlanningAction;
+
+/**
+ * Planner which encodes the problem, for a given number of steps (the makespan), as a propositional formula in
+ * conjunctive normal form, and solves it with a {@link SatSolver}; the number of steps is increased until the formula
+ * is satisfiable, and the model is decoded into a plan.
+ * <p>
+ * For each step <i>t</i> there are variables for the state (the predicates ON(x, y), ONTABLE(x) and CLEAR(y) at
+ * <i>t</i>) and for the moves (x onto y, or onto the table, between <i>t</i> and <i>t + 1</i>). A move stands for an
+ * UNSTACK or PICKUP followed by a STACK or PUTDOWN; HOLD and ARMEMPTY are not needed, since the arm never keeps a
+ * block between moves (except, at the start, the block already held, which must be placed at the first step). The
+ * navigation between stations is added when the moves are translated into actions (see
+ * {@link PlanningProblem#toPlanningAction(int[], int)}).
+ * <p>
+ * Several moves can be done in the same step if they can be done in any order: a block which is moved is not the
+ * target of another move, and two moves do not have the same block as target. The number of steps is therefore much
+ * smaller than the number of moves, and so is the formula. The moves of a step are applied in the order of the blocks.
+ * <p>
+ * The formula is built incrementally, one step at a time, in the same solver. The goal for a number of steps is only
+ * required under an assumption, which is later negated if there is no plan; therefore the learned clauses are valid
+ * for all numbers of steps and are kept.
+ * <p>
+ * The plan is optimal in the number of steps, not in the number of moves; unnecessary moves are removed after
+ * decoding.
+ */
+public class SatPlanner implements Planner
+{
+	/**
+	 * The problem being solved.
+	 */
+	protected PlanningProblem	problem;
+	
+	/**
+	 * The solver.
+	 */
+	protected SatSolver			solver;
+	
+	/**
+	 * The indexes (in the problem) of the blocks in the world; positions in the formula are indexes in this array,
+	 * and {@link #n} for the table.
+	 */
+	protected int[]				blocks;
+	
+	/**
+	 * The number of blocks in the world.
+	 */
+	protected int				n;
+	
+	/**
+	 * For each state, the variable ON(x, y) at <code>[x * (n + 1) + y]</code> (ONTABLE(x) for y = n).
+	 */
+	protected final List<int[]>	on				= new ArrayList<>();
+	
+	/**
+	 * For each state, the variable CLEAR(y).
+	 */
+	protected final List<int[]>	clear			= new ArrayList<>();
+	
+	/**
+	 * For each step, the variable for moving x onto y at <code>[x * (n + 1) + y]</code>.
+	 */
+	protected final List<int[]>	move			= new ArrayList<>();
+	
+	/**
+	 * For each step, the variable which is true if x is moved.
+	 */
+	protected final List<int[]>	moved			= new ArrayList<>();
+	
+	/**
+	 * The number of steps of the last plan.
+	 */
+	protected int				lastSteps		= -1;
+	
+	@Override
+	public PlanningAction plan(PlanningProblem planningProblem, long deadline)
+	{
+		problem = planningProblem;
+		PlanningState initial = problem.getInitialState();
+		lastSteps = -1;
+		if(initial.isGoal())
+		{
+			lastSteps = 0;
+			return problem.toPlanningAction(new int[0], 0);
+		}
+		encodeInitial(initial);
+		// with a step per move, a plan exists within 2 steps per block, unless locked blocks are in the way
+		for(int steps = 1; steps <= 2 * n + 1; steps++)
+		{
+			addStep();
+			int goal = encodeGoal(steps);
+			switch(solver.solve(deadline, goal))
+			{
+			case SATISFIABLE:
+				int[] moves = decode(steps);
+				if(!check(initial, moves))
+					return null;
+				moves = shorten(initial, moves, deadline);
+				lastSteps = steps;
+				return problem.toPlanningAction(moves, moves.length);
+			case UNSATISFIABLE:
+				solver.addClause(SatSolver.not(goal));
+				break;
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates the solver and the variables of the initial state.
+	 * 
+	 * @param initial
+	 *            - the initial state.
+	 */
+	protected void encodeInitial(PlanningState initial)
+	{
+		solver = new SatSolver();
+		on.clear();
+		clear.clear();
+		move.clear();
+		moved.clear();
+		int[] position = new int[problem.size()];
+		n = 0;
+		for(int i = 0; i < problem.size(); i++)
+			if(initial.getBelow(i) != PlanningState.ABSENT)
+				position[i] = n++;
+		blocks = new int[n];
+		for(int i = 0; i < problem.size(); i++)
+			if(initial.getBelow(i) != PlanningState.ABSENT)
+				blocks[position[i]] = i;
+		addState();
+		for(int x = 0; x < n; x++)
+		{
+			int below = initial.getBelow(blocks[x]);
+			int at = below == PlanningProblem.TABLE ? n : below >= 0 ? position[below] : -1;
+			for(int y = 0; y <= n; y++)
+				if(y != x)
+					solver.addClause(SatSolver.literal(on.get(0)[x * (n + 1) + y], y == at));
+		}
+	}
+	
+	/**
+	 * Adds the variables of a new state and the clauses defining CLEAR in it.
+	 */
+	protected void addState()
+	{
+		int[] onVars = new int[n * (n + 1)];
+		int[] clearVars = new int[n];
+		for(int x = 0; x < n; x++)
+			for(int y = 0; y <= n; y++)
+				if(y != x)
+					onVars[x * (n + 1) + y] = solver.newVariable();
+		for(int y = 0; y < n; y++)
+		{
+			clearVars[y] = solver.newVariable();
+			int[] some = new int[n];
+			some[0] = pos(clearVars[y]);
+			int k = 1;
+			for(int z = 0; z < n; z++)
+				if(z != y)
+				{
+					solver.addClause(neg(clearVars[y]), neg(onVars[z * (n + 1) + y]));
+					some[k++] = pos(onVars[z * (n + 1) + y]);
+				}
+			solver.addClause(some);
+		}
+		on.add(onVars);
+		clear.add(clearVars);
+	}
+	
+	/**
+	 * Adds a step: the variables of the moves, the next state, and the clauses for preconditions, effects, frame and
+	 * interference.
+	 */
+	protected void addStep()
+	{
+		int t = move.size();
+		int[] before = on.get(t);
+		int[] clearBefore = clear.get(t);
+		addState();
+		int[] after = on.get(t + 1);
+		int[] moveVars = new int[n * (n + 1)];
+		int[] movedVars = new int[n];
+		boolean[] locked = problem.getLocked();
+		int held = problem.getInitialState().getHeld();
+		for(int x = 0; x < n; x++)
+		{
+			movedVars[x] = solver.newVariable();
+			int[] some = new int[n + 1];
+			some[0] = neg(movedVars[x]);
+			int k = 1;
+			for(int y = 0; y <= n; y++)
+				if(y != x)
+				{
+					int m = moveVars[x * (n + 1) + y] = solver.newVariable();
+					some[k++] = pos(m);
+					solver.addClause(neg(m), pos(movedVars[x]));
+					// preconditions
+					solver.addClause(neg(m), pos(clearBefore[x]));
+					if(y < n)
+						solver.addClause(neg(m), pos(clearBefore[y]));
+					solver.addClause(neg(m), neg(before[x * (n + 1) + y]));
+					// effects and frame
+					int a = after[x * (n + 1) + y], b = before[x * (n + 1) + y];
+					solver.addClause(neg(m), pos(a));
+					solver.addClause(neg(b), pos(movedVars[x]), pos(a));
+					solver.addClause(neg(a), pos(m), pos(b));
+					solver.addClause(neg(a), pos(m), neg(movedVars[x]));
+				}
+			solver.addClause(some);
+			// at most one move of a block
+			for(int y1 = 0; y1 <= n; y1++)
+				for(int y2 = y1 + 1; y2 <= n; y2++)
+					if(y1 != x && y2 != x)
+						solver.addClause(neg(moveVars[x * (n + 1) + y1]), neg(moveVars[x * (n + 1) + y2]));
+			if(locked[blocks[x]])
+				solver.addClause(neg(movedVars[x]));
+			if(t == 0 && held >= 0)
+				solver.addClause(SatSolver.literal(movedVars[x], blocks[x] == held));
+		}
+		for(int y = 0; y < n; y++)
+			for(int x = 0; x < n; x++)
+				if(x != y)
+				{
+					// a moved block is not a target
+					solver.addClause(neg(movedVars[y]), neg(moveVars[x * (n + 1) + y]));
+					// a block is the target of at most one move
+					for(int z = x + 1; z < n; z++)
+						if(z != y)
+							solver.addClause(neg(moveVars[x * (n + 1) + y]), neg(moveVars[z * (n + 1) + y]));
+				}
+		move.add(moveVars);
+		moved.add(movedVars);
+	}
+	
+	/**
+	 * Adds the clauses requiring the goal after some steps, under a new assumption.
+	 * 
+	 * @param steps
+	 *            - the number of steps.
+	 * @return the assumption literal.
+	 */
+	protected int encodeGoal(int steps)
+	{
+		int goal = solver.newVariable();
+		int[] goalBelow = problem.getGoalBelow();
+		int[] last = on.get(steps);
+		for(int x = 0; x < n; x++)
+		{
+			int g = goalBelow[blocks[x]];
+			if(g == PlanningProblem.ANYWHERE)
+				continue;
+			int y = n;
+			if(g != PlanningProblem.TABLE)
+				for(int i = 0; i < n; i++)
+					if(blocks[i] == g)
+						y = i;
+			solver.addClause(neg(goal), pos(last[x * (n + 1) + y]));
+		}
+		return pos(goal);
+	}
+	
+	/**
+	 * @param steps
+	 *            - the number of steps.
+	 * @return the moves in the model, step by step.
+	 */
+	protected int[] decode(int steps)
+	{
+		List<Integer> moves = new ArrayList<>();
+		for(int t = 0; t < steps; t++)
+			for(int x = 0; x < n; x++)
+				for(int y = 0; y <= n; y++)
+					if(y != x && solver.modelValue(move.get(t)[x * (n + 1) + y]))
+						moves.add(Integer.valueOf(
+								problem.move(blocks[x], y == n ? PlanningProblem.TABLE : blocks[y])));
+		return moves.stream().mapToInt(Integer::intValue).toArray();
+	}
+	
+	/**
+	 * @param initial
+	 *            - the initial state.
+	 * @param moves
+	 *            - the decoded moves.
+	 * @return <code>true</code> if the moves can be applied and lead to the goal.
+	 */
+	protected static boolean check(PlanningState initial, int[] moves)
+	{
+		PlanningState state = initial;
+		for(int m : moves)
+		{
+			boolean applicable = false;
+			for(int possible : state.moves())
+				applicable |= possible == m;
+			if(!applicable)
+				return false;
+			state = state.apply(m);
+		}
+		return state.isGoal();
+	}
+	
+	/**
+	 * Removes unnecessary moves from a plan: moves which can be removed, and pairs of moves of the same block which can
+	 * be replaced by a single move (as long as the plan remains valid).
+	 * 
+	 * @param initial
+	 *            - the initial state.
+	 * @param plan
+	 *            - a valid plan.
+	 * @param deadline
+	 *            - the deadline, after which the plan is returned as it is.
+	 * @return the shorter plan.
+	 */
+	protected int[] shorten(PlanningState initial, int[] plan, long deadline)
+	{
+		int[] moves = plan;
+		boolean changed = true;
+		while(changed && !SearchPlanner.isExpired(deadline))
+		{
+			changed = false;
+			for(int i = 0; i < moves.length; i++)
+			{
+				int[] without = new int[moves.length - 1];
+				System.arraycopy(moves, 0, without, 0, i);
+				System.arraycopy(moves, i + 1, without, i, without.length - i);
+				if(check(initial, without))
+				{
+					moves = without;
+					changed = true;
+					i--;
+					continue;
+				}
+				int x = problem.moveBlock(moves[i]);
+				for(int j = i + 1; j < moves.length; j++)
+					if(problem.moveBlock(moves[j]) == x)
+					{
+						int[] merged = new int[moves.length - 1];
+						System.arraycopy(moves, 0, merged, 0, j);
+						System.arraycopy(moves, j + 1, merged, j, merged.length - j);
+						merged[i] = problem.move(x, problem.moveTarget(moves[j]));
+						if(moves[i] != merged[i] && check(initial, merged))
+						{
+							moves = merged;
+							changed = true;
+						}
+						break;
+					}
+			}
+		}
+		return moves;
+	}
+	
+	/**
+	 * @param variable
+	 *            - a variable.
+	 * @return the positive literal.
+	 */
+	protected static int pos(int variable)
+	{
+		return SatSolver.literal(variable, true);
+	}
+	
+	/**
+	 * @param variable
+	 *            - a variable.
+	 * @return the negative literal.
+	 */
+	protected static int neg(int variable)
+	{
+		return SatSolver.literal(variable, false);
+	}
+	
+	/**
+	 * @return the number of steps of the last plan, or -1.
+	 */
+	public int getLastSteps()
+	{
+		return lastSteps;
+	}
+	
+	/**
+	 * @return the solver used for the last plan.
+	 */
+	public SatSolver getSolver()
+	{
+		return solver;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "SAT";
+	}
+}
@@ -0,0 +1,798 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A CDCL SAT solver: unit propagation with two watched literals, conflict analysis with learning of first-UIP
+ * clauses and non-chronological backtracking, VSIDS variable ordering with phase saving, restarts following the Luby
+ * sequence and periodic removal of the less active learned clauses.
+ * <p>
+ * The solver is incremental: variables and clauses can be added between calls to
+ * {@link #solve(long, int...)}, and learned clauses are kept. Calls can be made under assumptions (literals which are
+ * taken to be true for that call only), which is the usual way to add and later retract constraints: the constraints
+ * are added as clauses containing the negation of an assumption literal.
+ * <p>
+ * Variables are numbered from 1. A literal is <code>2 * variable</code> for the variable being true, and
+ * <code>2 * variable + 1</code> for it being false (see {@link #literal(int, boolean)}).
+ */
+public class SatSolver
+{
+	/**
+	 * The result of solving.
+	 */
+	public enum Result {
+		/**
+		 * A model was found.
+		 */
+		SATISFIABLE,
+		/**
+		 * There is no model (under the assumptions).
+		 */
+		UNSATISFIABLE,
+		/**
+		 * The deadline passed, or the thread was interrupted.
+		 */
+		UNKNOWN,
+	}
+	
+	/**
+	 * Number of conflicts in the first restart interval (multiplied by the Luby sequence).
+	 */
+	protected static final int		RESTART_BASE	= 100;
+	
+	/**
+	 * How often (in conflicts) the deadline is checked.
+	 */
+	protected static final int		CHECK_INTERVAL	= 256;
+	
+	/**
+	 * Decay of variable activities.
+	 */
+	protected static final double	VAR_DECAY		= 0.95;
+	
+	/**
+	 * Decay of clause activities.
+	 */
+	protected static final double	CLAUSE_DECAY	= 0.999;
+	
+	/**
+	 * A clause. The first two literals are watched.
+	 */
+	protected static class Clause
+	{
+		/**
+		 * The literals.
+		 */
+		final int[]	literals;
+		/**
+		 * <code>true</code> if the clause was learned.
+		 */
+		final boolean	learnt;
+		/**
+		 * The activity (for learned clauses).
+		 */
+		double			activity	= 0;
+		/**
+		 * <code>true</code> if the clause was removed (it is then removed from the watch lists lazily).
+		 */
+		boolean			deleted		= false;
+		
+		/**
+		 * @param clauseLiterals
+		 *            - the literals.
+		 * @param isLearnt
+		 *            - <code>true</code> if the clause was learned.
+		 */
+		Clause(int[] clauseLiterals, boolean isLearnt)
+		{
+			literals = clauseLiterals;
+			learnt = isLearnt;
+		}
+	}
+	
+	/**
+	 * A list of clauses, with removal during iteration.
+	 */
+	protected static class ClauseList
+	{
+		/**
+		 * The clauses.
+		 */
+		Clause[]	data	= new Clause[4];
+		/**
+		 * The number of clauses.
+		 */
+		int			size	= 0;
+		
+		/**
+		 * @param c
+		 *            - a clause to add.
+		 */
+		void add(Clause c)
+		{
+			if(size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size++] = c;
+		}
+	}
+	
+	/**
+	 * The number of variables.
+	 */
+	protected int				nVars			= 0;
+	
+	/**
+	 * The value of each literal: 1 for true, -1 for false, 0 if not assigned.
+	 */
+	protected byte[]			values			= new byte[2];
+	
+	/**
+	 * For each variable, the decision level at which it was assigned.
+	 */
+	protected int[]				levels			= new int[1];
+	
+	/**
+	 * For each variable, the clause which implied its value (<code>null</code> for decisions and units).
+	 */
+	protected Clause[]			reasons			= new Clause[1];
+	
+	/**
+	 * For each variable, its activity.
+	 */
+	protected double[]			activity		= new double[1];
+	
+	/**
+	 * For each variable, its last value (the phase used for decisions).
+	 */
+	protected boolean[]			phase			= new boolean[1];
+	
+	/**
+	 * Marks used during conflict analysis.
+	 */
+	protected boolean[]			seen			= new boolean[1];
+	
+	/**
+	 * For each literal, the clauses watching it.
+	 */
+	protected ClauseList[]		watches			= new ClauseList[2];
+	
+	/**
+	 * The assigned literals, in order.
+	 */
+	protected int[]				trail			= new int[1];
+	
+	/**
+	 * The number of assigned literals.
+	 */
+	protected int				trailSize		= 0;
+	
+	/**
+	 * The position in the trail of the first literal of each decision level.
+	 */
+	protected int[]				levelStarts		= new int[1];
+	
+	/**
+	 * The current decision level.
+	 */
+	protected int				level			= 0;
+	
+	/**
+	 * The next literal in the trail to propagate.
+	 */
+	protected int				propagated		= 0;
+	
+	/**
+	 * The variables not assigned, as a heap by activity (plus some which are assigned, skipped when popped).
+	 */
+	protected int[]				heap			= new int[1];
+	
+	/**
+	 * The number of variables in the heap.
+	 */
+	protected int				heapSize		= 0;
+	
+	/**
+	 * The position of each variable in the heap, or -1.
+	 */
+	protected int[]				heapIndex		= new int[1];
+	
+	/**
+	 * The original clauses.
+	 */
+	protected final List<Clause>	clauses		= new ArrayList<>();
+	
+	/**
+	 * The learned clauses.
+	 */
+	protected List<Clause>		learnts			= new ArrayList<>();
+	
+	/**
+	 * The activity increment for variables.
+	 */
+	protected double			varIncrement	= 1;
+	
+	/**
+	 * The activity increment for clauses.
+	 */
+	protected double			clauseIncrement	= 1;
+	
+	/**
+	 * The number of learned clauses over which some are removed.
+	 */
+	protected double			maxLearnts		= 2000;
+	
+	/**
+	 * <code>true</code> if the clauses are unsatisfiable (regardless of assumptions).
+	 */
+	protected boolean			unsatisfiable	= false;
+	
+	/**
+	 * The model found by the last call, by variable.
+	 */
+	protected boolean[]			model			= new boolean[1];
+	
+	/**
+	 * The number of conflicts, over all calls.
+	 */
+	protected long				nConflicts		= 0;
+	
+	/**
+	 * @param variable
+	 *            - a variable.
+	 * @param positive
+	 *            - <code>true</code> for the literal which is true when the variable is true.
+	 * @return the literal.
+	 */
+	public static int literal(int variable, boolean positive)
+	{
+		return 2 * variable + (positive ? 0 : 1);
+	}
+	
+	/**
+	 * @param literal
+	 *            - a literal.
+	 * @return its negation.
+	 */
+	public static int not(int literal)
+	{
+		return literal ^ 1;
+	}
+	
+	/**
+	 * Adds a variable.
+	 * 
+	 * @return the variable.
+	 */
+	public int newVariable()
+	{
+		int v = ++nVars;
+		if(v >= levels.length)
+		{
+			int n = 2 * v;
+			values = Arrays.copyOf(values, 2 * n);
+			watches = Arrays.copyOf(watches, 2 * n);
+			levels = Arrays.copyOf(levels, n);
+			reasons = Arrays.copyOf(reasons, n);
+			activity = Arrays.copyOf(activity, n);
+			phase = Arrays.copyOf(phase, n);
+			seen = Arrays.copyOf(seen, n);
+			trail = Arrays.copyOf(trail, n);
+			levelStarts = Arrays.copyOf(levelStarts, n);
+			heap = Arrays.copyOf(heap, n);
+			heapIndex = Arrays.copyOf(heapIndex, n);
+			model = Arrays.copyOf(model, n);
+		}
+		watches[2 * v] = new ClauseList();
+		watches[2 * v + 1] = new ClauseList();
+		heapIndex[v] = -1;
+		heapInsert(v);
+		return v;
+	}
+	
+	/**
+	 * @return the number of variables.
+	 */
+	public int getVariableCount()
+	{
+		return nVars;
+	}
+	
+	/**
+	 * @return the number of original clauses (not counting clauses satisfied when added, or units).
+	 */
+	public int getClauseCount()
+	{
+		return clauses.size();
+	}
+	
+	/**
+	 * @return the number of conflicts, over all calls.
+	 */
+	public long getConflicts()
+	{
+		return nConflicts;
+	}
+	
+	/**
+	 * Adds a clause. Must not be called during {@link #solve(long, int...)}.
+	 * 
+	 * @param clause
+	 *            - the literals.
+	 * @return <code>false</code> if the clauses are now known to be unsatisfiable.
+	 */
+	public boolean addClause(int... clause)
+	{
+		if(unsatisfiable)
+			return false;
+		int[] c = clause.clone();
+		Arrays.sort(c);
+		int n = 0;
+		for(int i = 0; i < c.length; i++)
+		{
+			int lit = c[i];
+			if(values[lit] > 0 || (i + 1 < c.length && c[i + 1] == not(lit)))
+				return true; // satisfied, or a tautology
+			if(values[lit] == 0 && (n == 0 || c[n - 1] != lit))
+				c[n++] = lit;
+		}
+		if(n == 0)
+			return !(unsatisfiable = true);
+		if(n == 1)
+		{
+			assign(c[0], null);
+			if(propagate() != null)
+				unsatisfiable = true;
+			return !unsatisfiable;
+		}
+		Clause added = new Clause(Arrays.copyOf(c, n), false);
+		clauses.add(added);
+		watch(added);
+		return true;
+	}
+	
+	/**
+	 * @param c
+	 *            - a clause with at least two literals, to watch by its first two.
+	 */
+	protected void watch(Clause c)
+	{
+		watches[c.literals[0]].add(c);
+		watches[c.literals[1]].add(c);
+	}
+	
+	/**
+	 * Assigns a literal.
+	 * 
+	 * @param lit
+	 *            - the literal.
+	 * @param reason
+	 *            - the clause implying it, or <code>null</code>.
+	 */
+	protected void assign(int lit, Clause reason)
+	{
+		int v = lit >> 1;
+		values[lit] = 1;
+		values[not(lit)] = -1;
+		levels[v] = level;
+		reasons[v] = reason;
+		trail[trailSize++] = lit;
+	}
+	
+	/**
+	 * Propagates all assigned literals.
+	 * 
+	 * @return a clause with all literals false, or <code>null</code> if there is no conflict.
+	 */
+	protected Clause propagate()
+	{
+		while(propagated < trailSize)
+		{
+			int falseLit = not(trail[propagated++]);
+			ClauseList ws = watches[falseLit];
+			Clause[] data = ws.data;
+			int i = 0, j = 0;
+			while(i < ws.size)
+			{
+				Clause c = data[i++];
+				if(c.deleted)
+					continue;
+				int[] lits = c.literals;
+				if(lits[0] == falseLit)
+				{
+					lits[0] = lits[1];
+					lits[1] = falseLit;
+				}
+				if(values[lits[0]] > 0)
+				{
+					data[j++] = c;
+					continue;
+				}
+				boolean moved = false;
+				for(int k = 2; k < lits.length && !moved; k++)
+					if(values[lits[k]] >= 0)
+					{
+						lits[1] = lits[k];
+						lits[k] = falseLit;
+						watches[lits[1]].add(c);
+						moved = true;
+					}
+				if(moved)
+					continue;
+				data[j++] = c;
+				if(values[lits[0]] < 0)
+				{
+					while(i < ws.size)
+						data[j++] = data[i++];
+					ws.size = j;
+					propagated = trailSize;
+					return c;
+				}
+				assign(lits[0], c);
+			}
+			ws.size = j;
+		}
+		return null;
+	}
+	
+	/**
+	 * Analyzes a conflict.
+	 * 
+	 * @param conflict
+	 *            - the clause with all literals false.
+	 * @return the learned clause; the first literal is the one asserted after backtracking, the second one is of the
+	 *         highest level among the others.
+	 */
+	protected int[] analyze(Clause conflict)
+	{
+		int[] learnt = new int[8];
+		int n = 1;
+		int pathCount = 0;
+		int p = -1;
+		int index = trailSize - 1;
+		Clause c = conflict;
+		do
+		{
+			if(c.learnt)
+				bumpClause(c);
+			for(int k = p == -1 ? 0 : 1; k < c.literals.length; k++)
+			{
+				int q = c.literals[k];
+				int v = q >> 1;
+				if(!seen[v] && levels[v] > 0)
+				{
+					bumpVariable(v);
+					seen[v] = true;
+					if(levels[v] >= level)
+						pathCount++;
+					else
+					{
+						if(n == learnt.length)
+							learnt = Arrays.copyOf(learnt, 2 * n);
+						learnt[n++] = q;
+					}
+				}
+			}
+			while(!seen[trail[index] >> 1])
+				index--;
+			p = trail[index--];
+			c = reasons[p >> 1];
+			seen[p >> 1] = false;
+			pathCount--;
+		} while(pathCount > 0);
+		learnt[0] = not(p);
+		int max = 1;
+		for(int k = 1; k < n; k++)
+		{
+			seen[learnt[k] >> 1] = false;
+			if(levels[learnt[k] >> 1] > levels[learnt[max] >> 1])
+				max = k;
+		}
+		if(n > 1)
+		{
+			int t = learnt[1];
+			learnt[1] = learnt[max];
+			learnt[max] = t;
+		}
+		return Arrays.copyOf(learnt, n);
+	}
+	
+	/**
+	 * Unassigns the literals of the levels above a level.
+	 * 
+	 * @param target
+	 *            - the level to go back to.
+	 */
+	protected void backtrack(int target)
+	{
+		if(level <= target)
+			return;
+		for(int i = trailSize - 1; i >= levelStarts[target]; i--)
+		{
+			int lit = trail[i];
+			int v = lit >> 1;
+			phase[v] = (lit & 1) == 0;
+			values[lit] = 0;
+			values[not(lit)] = 0;
+			reasons[v] = null;
+			if(heapIndex[v] < 0)
+				heapInsert(v);
+		}
+		trailSize = levelStarts[target];
+		propagated = trailSize;
+		level = target;
+	}
+	
+	/**
+	 * Starts a new decision level.
+	 */
+	protected void newLevel()
+	{
+		levelStarts[level++] = trailSize;
+	}
+	
+	/**
+	 * Searches for a model.
+	 * 
+	 * @param deadline
+	 *            - the deadline (as given by {@link System#nanoTime()}), or {@link Planner#NO_DEADLINE}.
+	 * @param assumptions
+	 *            - literals which must be true, for this call only.
+	 * @return the result; after {@link Result#SATISFIABLE}, the model is given by {@link #modelValue(int)}.
+	 */
+	public Result solve(long deadline, int... assumptions)
+	{
+		if(unsatisfiable)
+			return Result.UNSATISFIABLE;
+		backtrack(0);
+		if(propagate() != null)
+		{
+			unsatisfiable = true;
+			return Result.UNSATISFIABLE;
+		}
+		int restart = 1;
+		long restartConflicts = RESTART_BASE * luby(restart);
+		long conflictsSinceRestart = 0;
+		while(true)
+		{
+			Clause conflict = propagate();
+			if(conflict != null)
+			{
+				nConflicts++;
+				conflictsSinceRestart++;
+				if(level == 0)
+				{
+					unsatisfiable = true;
+					return Result.UNSATISFIABLE;
+				}
+				int[] learnt = analyze(conflict);
+				backtrack(learnt.length > 1 ? levels[learnt[1] >> 1] : 0);
+				if(learnt.length == 1)
+					assign(learnt[0], null);
+				else
+				{
+					Clause c = new Clause(learnt, true);
+					learnts.add(c);
+					watch(c);
+					bumpClause(c);
+					assign(learnt[0], c);
+				}
+				varIncrement /= VAR_DECAY;
+				clauseIncrement /= CLAUSE_DECAY;
+				if(nConflicts % CHECK_INTERVAL == 0 && SearchPlanner.isExpired(deadline))
+				{
+					backtrack(0);
+					return Result.UNKNOWN;
+				}
+				continue;
+			}
+			if(conflictsSinceRestart >= restartConflicts)
+			{
+				backtrack(0);
+				restartConflicts = RESTART_BASE * luby(++restart);
+				conflictsSinceRestart = 0;
+				continue;
+			}
+			if(learnts.size() - trailSize >= maxLearnts)
+				reduceLearnts();
+			int next = 0;
+			while(level < assumptions.length && next == 0)
+			{
+				int a = assumptions[level];
+				if(values[a] > 0)
+					newLevel(); // already true: an empty level keeps levels and assumptions aligned
+				else if(values[a] < 0)
+				{
+					backtrack(0);
+					return Result.UNSATISFIABLE;
+				}
+				else
+					next = a;
+			}
+			if(next == 0)
+				next = pickBranch();
+			if(next == 0)
+			{
+				for(int v = 1; v <= nVars; v++)
+					model[v] = values[2 * v] > 0;
+				backtrack(0);
+				return Result.SATISFIABLE;
+			}
+			newLevel();
+			assign(next, null);
+		}
+	}
+	
+	/**
+	 * @param variable
+	 *            - a variable.
+	 * @return its value in the last model found.
+	 */
+	public boolean modelValue(int variable)
+	{
+		return model[variable];
+	}
+	
+	/**
+	 * @return the next decision: the unassigned variable with the highest activity, with its saved phase; 0 if all
+	 *         variables are assigned.
+	 */
+	protected int pickBranch()
+	{
+		while(heapSize > 0)
+		{
+			int v = heapRemoveTop();
+			if(values[2 * v] == 0)
+				return literal(v, phase[v]);
+		}
+		return 0;
+	}
+	
+	/**
+	 * Removes half of the learned clauses, the least active ones, keeping binary clauses and clauses which are
+	 * reasons.
+	 */
+	protected void reduceLearnts()
+	{
+		learnts.sort((a, b) -> Double.compare(a.activity, b.activity));
+		List<Clause> kept = new ArrayList<>();
+		int half = learnts.size() / 2;
+		for(int i = 0; i < learnts.size(); i++)
+		{
+			Clause c = learnts.get(i);
+			boolean locked = reasons[c.literals[0] >> 1] == c && values[c.literals[0]] > 0;
+			if(i < half && c.literals.length > 2 && !locked)
+				c.deleted = true;
+			else
+				kept.add(c);
+		}
+		learnts = kept;
+		maxLearnts *= 1.1;
+	}
+	
+	/**
+	 * @param v
+	 *            - a variable involved in a conflict.
+	 */
+	protected void bumpVariable(int v)
+	{
+		if((activity[v] += varIncrement) > 1e100)
+		{
+			for(int i = 1; i <= nVars; i++)
+				activity[i] *= 1e-100;
+			varIncrement *= 1e-100;
+		}
+		if(heapIndex[v] >= 0)
+			heapUp(heapIndex[v]);
+	}
+	
+	/**
+	 * @param c
+	 *            - a learned clause involved in a conflict.
+	 */
+	protected void bumpClause(Clause c)
+	{
+		if((c.activity += clauseIncrement) > 1e20)
+		{
+			for(Clause l : learnts)
+				l.activity *= 1e-20;
+			clauseIncrement *= 1e-20;
+		}
+	}
+	
+	/**
+	 * @param i
+	 *            - the index of an element of the Luby sequence, from 1.
+	 * @return the element (1, 1, 2, 1, 1, 2, 4, ...).
+	 */
+	protected static long luby(int i)
+	{
+		int k = 1;
+		while((1 << k) - 1 < i)
+			k++;
+		int x = i;
+		while(x != (1 << k) - 1)
+		{
+			x -= (1 << (k - 1)) - 1;
+			k = 1;
+			while((1 << k) - 1 < x)
+				k++;
+		}
+		return 1L << (k - 1);
+	}
+	
+	/**
+	 * @param v
+	 *            - a variable to add to the heap.
+	 */
+	protected void heapInsert(int v)
+	{
+		heapIndex[v] = heapSize;
+		heap[heapSize++] = v;
+		heapUp(heapSize - 1);
+	}
+	
+	/**
+	 * @return the variable with the highest activity, removed from the heap.
+	 */
+	protected int heapRemoveTop()
+	{
+		int top = heap[0];
+		heapIndex[top] = -1;
+		int last = heap[--heapSize];
+		if(heapSize > 0)
+		{
+			heap[0] = last;
+			heapIndex[last] = 0;
+			heapDown(0);
+		}
+		return top;
+	}
+	
+	/**
+	 * @param i
+	 *            - a position in the heap, to move up.
+	 */
+	protected void heapUp(int i)
+	{
+		int v = heap[i];
+		while(i > 0 && activity[heap[(i - 1) / 2]] < activity[v])
+		{
+			heap[i] = heap[(i - 1) / 2];
+			heapIndex[heap[i]] = i;
+			i = (i - 1) / 2;
+		}
+		heap[i] = v;
+		heapIndex[v] = i;
+	}
+	
+	/**
+	 * @param i
+	 *            - a position in the heap, to move down.
+	 */
+	protected void heapDown(int i)
+	{
+		int v = heap[i];
+		while(2 * i + 1 < heapSize)
+		{
+			int child = 2 * i + 1;
+			if(child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]])
+				child++;
+			if(activity[heap[child]] <= activity[v])
+				break;
+			heap[i] = heap[child];
+			heapIndex[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = v;
+		heapIndex[v] = i;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return nVars + " variables, " + clauses.size() + " clauses, " + learnts.size() + " learned, " + nConflicts
+				+ " conflicts";
+	}
+}
@@ -0,0 +1,81 @@
+package my;
+
+/**
+ * A node in a search tree: a state, the cost to reach it and the move from the parent node.
+ */
+public class SearchNode
+{
+	/**
+	 * The state.
+	 */
+	protected final PlanningState	state;
+	
+	/**
+	 * The cost of the best known path to the state.
+	 */
+	protected int					g;
+	
+	/**
+	 * The parent on the best known path, <code>null</code> for the root.
+	 */
+	protected SearchNode			parent;
+	
+	/**
+	 * The move from the parent.
+	 */
+	protected int					move;
+	
+	/**
+	 * @param nodeState
+	 *            - the state.
+	 * @param cost
+	 *            - the cost to reach the state.
+	 * @param parentNode
+	 *            - the parent, <code>null</code> for the root.
+	 * @param parentMove
+	 *            - the move from the parent.
+	 */
+	public SearchNode(PlanningState nodeState, int cost, SearchNode parentNode, int parentMove)
+	{
+		state = nodeState;
+		g = cost;
+		parent = parentNode;
+		move = parentMove;
+	}
+	
+	/**
+	 * @return the state.
+	 */
+	public PlanningState getState()
+	{
+		return state;
+	}
+	
+	/**
+	 * @return the cost of the best known path to the state.
+	 */
+	public int getCost()
+	{
+		return g;
+	}
+	
+	/**
+	 * @return the moves from the root to this node.
+	 */
+	public int[] path()
+	{
+		int n = 0;
+		for(SearchNode node = this; node.parent != null; node = node.parent)
+			n++;
+		int[] ret = new int[n];
+		for(SearchNode node = this; node.parent != null; node = node.parent)
+			ret[--n] = node.move;
+		return ret;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return state + " (g=" + g + ")";
+	}
+}
@@ -0,0 +1,72 @@
+package my;
+
+/**
+ * Base class for planners which search in the space of {@link PlanningState}s, with common statistics and deadline
+ * checks.
+ */
+public abstract class SearchPlanner implements Planner
+{
+	/**
+	 * How often (in expanded nodes) the deadline is checked.
+	 */
+	protected static final int	CHECK_INTERVAL	= 256;
+	
+	/**
+	 * The number of nodes expanded in the last call.
+	 */
+	protected long				nExpanded		= 0;
+	
+	/**
+	 * The deadline of the current call.
+	 */
+	protected long				deadline		= NO_DEADLINE;
+	
+	/**
+	 * Set when the deadline has been found to be passed (or the thread was interrupted).
+	 */
+	protected boolean			expired			= false;
+	
+	/**
+	 * Prepares the statistics for a new call.
+	 * 
+	 * @param deadlineTime
+	 *            - the deadline of the call.
+	 */
+	protected void start(long deadlineTime)
+	{
+		deadline = deadlineTime;
+		nExpanded = 0;
+		expired = false;
+	}
+	
+	/**
+	 * Counts one expansion and checks (periodically) if the search should stop.
+	 * 
+	 * @return <code>true</code> if the deadline passed or the thread was interrupted.
+	 */
+	protected boolean expand()
+	{
+		if(++nExpanded % CHECK_INTERVAL == 0 && !expired)
+			expired = isExpired(deadline);
+		return expired;
+	}
+	
+	/**
+	 * @param deadlineTime
+	 *            - a deadline.
+	 * @return <code>true</code> if the deadline passed or the thread was interrupted.
+	 */
+	public static boolean isExpired(long deadlineTime)
+	{
+		return (deadlineTime != NO_DEADLINE && System.nanoTime() - deadlineTime > 0)
+				|| Thread.currentThread().isInterrupted();
+	}
+	
+	/**
+	 * @return the number of nodes expanded in the last call.
+	 */
+	public long getExpanded()
+	{
+		return nExpanded;
+	}
+}
@@ -0,0 +1,264 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import blocksworld.PlanningAction;
+
+/**
+ * Memory-bounded planner using Simplified Memory-Bounded A* (SMA*): an A* search (on f = g + w * h) which keeps at most
+ * a given number of nodes. When the budget is full, the worst leaf (highest f, and shallowest among those) is
+ * forgotten, and its f is backed up in its parent, so that the parent can be regenerated later if the forgotten part
+ * of the tree becomes the most promising again.
+ * <p>
+ * As for {@link IdaStarPlanner}, well-placed blocks are never moved. A successor is not generated if its state is
+ * already in memory with no higher cost (which also excludes cycles): in the blocks world, most moves commute, so the
+ * same states are otherwise reached by many paths, and fill the budget.
+ * <p>
+ * Known limitation: SMA* expands all leaves of the least f before any leaf of a higher f. With a weighted heuristic,
+ * in large worlds (about 40 blocks or more), the search reaches states from which every move raises f while more
+ * leaves than the budget share the least f; it then forgets and regenerates the same leaves until the deadline
+ * (thrashing), and returns no plan. Such worlds are better left to the greedy or constructive planners.
+ */
+public class SmaStarPlanner extends SearchPlanner
+{
+	/**
+	 * A node in the SMA* tree.
+	 */
+	protected static class SmaNode extends SearchNode
+	{
+		/**
+		 * The (backed-up) f value.
+		 */
+		double				f;
+		/**
+		 * The least f among forgotten children.
+		 */
+		double				forgotten	= Double.POSITIVE_INFINITY;
+		/**
+		 * Children in memory.
+		 */
+		final List<SmaNode>	children	= new ArrayList<>();
+		/**
+		 * The index of this node in the children of its parent.
+		 */
+		int					indexInParent;
+		/**
+		 * Unique id, to order nodes with the same f and depth.
+		 */
+		final long			id;
+		
+		/**
+		 * @param nodeState
+		 *            - the state.
+		 * @param cost
+		 *            - the cost.
+		 * @param parentNode
+		 *            - the parent.
+		 * @param parentMove
+		 *            - the move from the parent.
+		 * @param nodeId
+		 *            - unique id.
+		 */
+		SmaNode(PlanningState nodeState, int cost, SmaNode parentNode, int parentMove, long nodeId)
+		{
+			super(nodeState, cost, parentNode, parentMove);
+			id = nodeId;
+		}
+	}
+	
+	/**
+	 * Order of nodes: least f first, then deepest; the last one is the worst leaf.
+	 */
+	protected static final Comparator<SmaNode>	ORDER	= (a, b) -> {
+		int c = Double.compare(a.f, b.f);
+		if(c == 0)
+			c = Integer.compare(a.state.heuristic(), b.state.heuristic());
+		if(c == 0)
+			c = Integer.compare(b.g, a.g);
+		return c != 0 ? c : Long.compare(a.id, b.id);
+	};
+	
+	/**
+	 * Default node budget.
+	 */
+	public static final int		DEFAULT_BUDGET	= 100000;
+	
+	/**
+	 * The maximum number of nodes in memory.
+	 */
+	protected final int			budget;
+	
+	/**
+	 * The weight of the heuristic.
+	 */
+	protected final double		weight;
+	
+	/**
+	 * The maximum number of successors of a node kept in memory after its expansion.
+	 */
+	protected final int			maxChildren;
+	
+	/**
+	 * The most nodes held in memory in the last call.
+	 */
+	protected int				peakNodes		= 0;
+	
+	/**
+	 * Creates an (optimal) planner with the default budget.
+	 */
+	public SmaStarPlanner()
+	{
+		this(1, DEFAULT_BUDGET, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @param w
+	 *            - the weight of the heuristic (at least 1).
+	 * @param nodeBudget
+	 *            - the maximum number of nodes in memory. Each node holds one int per block.
+	 * @param successors
+	 *            - the maximum number of successors kept in memory when a node is expanded (the others are forgotten
+	 *            immediately, and regenerated only if needed). Limiting it helps with large worlds, where nodes have
+	 *            many successors.
+	 */
+	public SmaStarPlanner(double w, int nodeBudget, int successors)
+	{
+		if(w < 1)
+			throw new IllegalArgumentException("Weight must be at least 1: " + w);
+		weight = w;
+		budget = nodeBudget;
+		maxChildren = Math.max(1, successors);
+	}
+	
+	@Override
+	public PlanningAction plan(PlanningProblem problem, long deadlineTime)
+	{
+		start(deadlineTime);
+		TreeSet<SmaNode> open = new TreeSet<>(ORDER);
+		long ids = 0;
+		SmaNode root = new SmaNode(problem.getInitialState(), 0, null, 0, ids++);
+		root.f = weight * root.state.heuristic();
+		open.add(root);
+		// the node in memory for each state, with the least cost
+		Map<PlanningState, SmaNode> inMemory = new HashMap<>();
+		inMemory.put(root.state, root);
+		int nNodes = 1;
+		peakNodes = 1;
+		int[] goal = problem.getGoalBelow();
+		boolean[] locked = problem.getLocked();
+		
+		while(!open.isEmpty())
+		{
+			SmaNode best = open.pollFirst();
+			if(best.f == Double.POSITIVE_INFINITY)
+				return null;
+			if(best.state.isGoal())
+				return problem.toPlanningAction(best.path(), best.g);
+			if(expand())
+				return null;
+			
+			boolean[] wp = best.state.wellPlaced();
+			List<SmaNode> generated = new ArrayList<>();
+			for(int move : best.state.moves())
+			{
+				int x = problem.moveBlock(move);
+				if(locked[x] || wp[x] || (goal[x] == PlanningProblem.ANYWHERE
+						&& best.state.getBelow(x) == PlanningProblem.TABLE))
+					continue;
+				PlanningState s = best.state.apply(move);
+				// reached as cheaply by another path in memory (or on the path to this node)
+				SmaNode known = inMemory.get(s);
+				if(known != null && known.g <= best.g + 1)
+					continue;
+				SmaNode child = new SmaNode(s, best.g + 1, best, move, ids++);
+				child.f = Math.max(best.f, child.g + weight * s.heuristic());
+				generated.add(child);
+			}
+			// keep the best successors; the others are forgotten right away
+			generated.sort(ORDER);
+			best.forgotten = Double.POSITIVE_INFINITY;
+			for(SmaNode child : generated)
+				if(best.children.size() < maxChildren)
+				{
+					child.indexInParent = best.children.size();
+					best.children.add(child);
+					open.add(child);
+					inMemory.put(child.state, child);
+					nNodes++;
+				}
+				else
+					best.forgotten = Math.min(best.forgotten, child.f);
+			best.f = best.children.isEmpty() ? best.forgotten : Math.min(best.children.get(0).f, best.forgotten);
+			if(best.children.isEmpty())
+				open.add(best); // no successors in memory: it is a leaf again
+			else
+				backUp(best.parent == null ? null : (SmaNode) best.parent);
+			
+			while(nNodes > budget)
+			{
+				SmaNode worst = open.last();
+				if(worst.parent == null)
+					return null; // the budget is too small
+				open.remove(worst);
+				if(inMemory.get(worst.state) == worst)
+					inMemory.remove(worst.state);
+				SmaNode parent = (SmaNode) worst.parent;
+				// swap-remove the child from its parent
+				SmaNode last = parent.children.remove(parent.children.size() - 1);
+				if(last != worst)
+				{
+					last.indexInParent = worst.indexInParent;
+					parent.children.set(worst.indexInParent, last);
+				}
+				parent.forgotten = Math.min(parent.forgotten, worst.f);
+				nNodes--;
+				if(parent.children.isEmpty())
+				{
+					// all successors forgotten: the parent becomes a leaf again
+					parent.f = parent.forgotten;
+					open.add(parent);
+				}
+			}
+			peakNodes = Math.max(peakNodes, nNodes);
+		}
+		return null;
+	}
+	
+	/**
+	 * Updates the f values of ancestors to the least f of their children (in memory or forgotten).
+	 * 
+	 * @param node
+	 *            - the first ancestor to update.
+	 */
+	protected static void backUp(SmaNode node)
+	{
+		for(SmaNode n = node; n != null; n = (SmaNode) n.parent)
+		{
+			double least = n.forgotten;
+			for(SmaNode c : n.children)
+				least = Math.min(least, c.f);
+			if(least <= n.f)
+				return;
+			n.f = least;
+		}
+	}
+	
+	/**
+	 * @return the most nodes held in memory in the last call.
+	 */
+	public int getPeakNodes()
+	{
+		return peakNodes;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "SMA*(w=" + weight + ", budget=" + budget + (maxChildren < Integer.MAX_VALUE ? ", successors=" + maxChildren : "") + ")";
+	}
+}
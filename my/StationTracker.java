@@ -0,0 +1,300 @@
+package my;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import blocksworld.BlocksWorldAction;
+import blocksworld.BlocksWorldAction.Type;
+import blocksworld.BlocksWorldEnvironment.Station;
+
+/**
+ * Follows the stations of the environment while a plan of moves is translated into {@link BlocksWorldAction}s, in the
+ * same way as the environment changes them: PICKUP removes the station of the picked block and takes the agent to the
+ * next station; PUTDOWN creates a new station, with the first free label, in the place of the current one.
+ */
+public class StationTracker
+{
+	/**
+	 * The problem.
+	 */
+	protected final PlanningProblem	problem;
+	
+	/**
+	 * The stations, in order.
+	 */
+	protected final List<Station>	stations;
+	
+	/**
+	 * The bottom block of the stack at each station.
+	 */
+	protected final List<Integer>	bottoms		= new ArrayList<>();
+	
+	/**
+	 * The labels in use by stations.
+	 */
+	protected final Set<Character>	labels		= new HashSet<>();
+	
+	/**
+	 * The block under each block (as in {@link PlanningState}).
+	 */
+	protected final int[]			below;
+	
+	/**
+	 * The block on each block, or -1 if it is clear.
+	 */
+	protected final int[]			above;
+	
+	/**
+	 * The bottom block of the stack of each block in the world.
+	 */
+	protected final int[]			base;
+	
+	/**
+	 * The index of the station of each bottom block; -1 for blocks which are not at the bottom of a stack.
+	 */
+	protected final int[]			position;
+	
+	/**
+	 * For each block, <code>true</code> if it is locked.
+	 */
+	protected final boolean[]		locked;
+	
+	/**
+	 * The index of the station of the agent.
+	 */
+	protected int					current;
+	
+	/**
+	 * The block held by the agent, or -1.
+	 */
+	protected int					held;
+	
+	/**
+	 * @param planningProblem
+	 *            - the problem, giving the initial stations and state.
+	 */
+	public StationTracker(PlanningProblem planningProblem)
+	{
+		problem = planningProblem;
+		stations = new ArrayList<>(problem.stations);
+		for(int[] stack : problem.stacks)
+			bottoms.add(Integer.valueOf(stack[stack.length - 1]));
+		for(Station s : stations)
+			labels.add(Character.valueOf(s.getLabel()));
+		PlanningState initial = problem.getInitialState();
+		below = initial.below.clone();
+		held = initial.held;
+		locked = problem.getLocked().clone();
+		current = problem.currentStation;
+		above = new int[below.length];
+		base = new int[below.length];
+		position = new int[below.length];
+		Arrays.fill(above, -1);
+		Arrays.fill(base, -1);
+		Arrays.fill(position, -1);
+		for(int[] stack : problem.stacks)
+			for(int i = 0; i < stack.length; i++)
+			{
+				base[stack[i]] = stack[stack.length - 1];
+				if(i > 0)
+					above[stack[i]] = stack[i - 1];
+			}
+		renumber(0);
+	}
+	
+	/**
+	 * Updates {@link #position} after stations were added or removed.
+	 * 
+	 * @param from
+	 *            - the index of the first station which changed its index.
+	 */
+	protected void renumber(int from)
+	{
+		for(int s = from; s < bottoms.size(); s++)
+			position[bottoms.get(s).intValue()] = s;
+	}
+	
+	/**
+	 * @param block
+	 *            - a block in the world.
+	 * @return the index of the station of the stack containing the block.
+	 */
+	public int stationOf(int block)
+	{
+		int s = base[block] < 0 ? -1 : position[base[block]];
+		if(s < 0)
+			throw new IllegalStateException("Block " + problem.getBlock(block) + " is not in any stack.");
+		return s;
+	}
+	
+	/**
+	 * Adds a GO_TO_STATION action if the agent is not already at the given station.
+	 * 
+	 * @param station
+	 *            - the index of the station.
+	 * @param plan
+	 *            - the plan to add actions to.
+	 */
+	public void goTo(int station, List<BlocksWorldAction> plan)
+	{
+		if(station == current)
+			return;
+		plan.add(BlocksWorldAction.of(Type.GO_TO_STATION, stations.get(station)));
+		current = station;
+	}
+	
+	/**
+	 * Adds the actions for one move: taking the block (unless it is already held), going to the destination and
+	 * placing the block.
+	 * 
+	 * @param block
+	 *            - the block to move.
+	 * @param to
+	 *            - the block to place it on, or {@link PlanningProblem#TABLE}.
+	 * @param plan
+	 *            - the plan to add actions to.
+	 */
+	public void move(int block, int to, List<BlocksWorldAction> plan)
+	{
+		take(block, plan);
+		place(to, plan);
+	}
+	
+	/**
+	 * Adds the actions to take a clear block in the arm (nothing, if it is already held).
+	 * 
+	 * @param block
+	 *            - the block.
+	 * @param plan
+	 *            - the plan to add actions to.
+	 */
+	public void take(int block, List<BlocksWorldAction> plan)
+	{
+		if(held == block)
+			return;
+		if(held >= 0)
+			throw new IllegalStateException("Agent already holds " + problem.getBlock(held));
+		goTo(stationOf(block), plan);
+		if(below[block] == PlanningProblem.TABLE)
+		{
+			plan.add(BlocksWorldAction.of(Type.PICKUP, problem.getBlock(block)));
+			labels.remove(Character.valueOf(stations.get(current).getLabel()));
+			stations.remove(current);
+			bottoms.remove(current);
+			position[block] = -1;
+			renumber(current);
+			if(current >= stations.size())
+				current = 0;
+		}
+		else
+		{
+			plan.add(BlocksWorldAction.of(Type.UNSTACK, problem.getBlock(block), problem.getBlock(below[block])));
+			above[below[block]] = -1;
+		}
+		below[block] = PlanningState.HELD;
+		base[block] = -1;
+		held = block;
+	}
+	
+	/**
+	 * Adds the actions to place the held block.
+	 * 
+	 * @param to
+	 *            - the block to place it on, or {@link PlanningProblem#TABLE} to put it down at the current station.
+	 * @param plan
+	 *            - the plan to add actions to.
+	 */
+	public void place(int to, List<BlocksWorldAction> plan)
+	{
+		if(to == PlanningProblem.TABLE)
+		{
+			plan.add(BlocksWorldAction.of(Type.PUTDOWN, problem.getBlock(held)));
+			char label = '0';
+			while(labels.contains(Character.valueOf(label)))
+				label++;
+			labels.add(Character.valueOf(label));
+			stations.add(current, new Station(label));
+			bottoms.add(current, Integer.valueOf(held));
+			renumber(current);
+			base[held] = held;
+		}
+		else
+		{
+			goTo(stationOf(to), plan);
+			plan.add(BlocksWorldAction.of(Type.STACK, problem.getBlock(held), problem.getBlock(to)));
+			above[to] = held;
+			base[held] = base[to];
+		}
+		below[held] = to;
+		held = -1;
+	}
+	
+	/**
+	 * Adds the LOCK actions for all blocks of the desired state that are not locked yet, tower by tower and bottom-up,
+	 * visiting the towers in the order of the stations. Blocks are only locked while they are well placed.
+	 * 
+	 * @param plan
+	 *            - the plan to add actions to.
+	 */
+	public void lockTowers(List<BlocksWorldAction> plan)
+	{
+		int[] goal = problem.getGoalBelow();
+		// start from the current station (going to the stations changes the current one; no stations are added)
+		int start = current;
+		for(int k = 0; k < bottoms.size(); k++)
+		{
+			int station = (k + start) % bottoms.size();
+			int bottom = bottoms.get(station).intValue();
+			if(goal[bottom] != PlanningProblem.TABLE)
+				continue;
+			for(int b = bottom; b >= 0 && goal[b] != PlanningProblem.ANYWHERE && below[b] == goal[b]; b = above(b, goal))
+				if(!locked[b])
+				{
+					goTo(station, plan);
+					plan.add(BlocksWorldAction.of(Type.LOCK, problem.getBlock(b)));
+					locked[b] = true;
+				}
+		}
+	}
+	
+	/**
+	 * @param block
+	 *            - a block.
+	 * @param goal
+	 *            - the desired position of each block.
+	 * @return the block which should be on the given block in the desired state, if it is currently there; -1
+	 *         otherwise.
+	 */
+	protected int above(int block, int[] goal)
+	{
+		int a = above[block];
+		return a >= 0 && goal[a] == block ? a : -1;
+	}
+	
+	/**
+	 * @return the index of the current station.
+	 */
+	public int getCurrent()
+	{
+		return current;
+	}
+	
+	/**
+	 * @return the number of stations.
+	 */
+	public int getStationCount()
+	{
+		return stations.size();
+	}
+	
+	/**
+	 * @return the station of the agent.
+	 */
+	public Station getCurrentStation()
+	{
+		return stations.get(current);
+	}
+}
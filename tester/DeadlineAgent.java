@@ -0,0 +1,262 @@
+package tester;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import base.Action;
+import base.Agent;
+import base.Perceptions;
+
+/**
+ * Wraps an {@link Agent} so that each call to {@link #response(Perceptions)} has a deadline.
+ * <p>
+ * The wrapped agent runs on its own thread. If it does not answer before the deadline, the fallback action is returned
+ * instead and the call counts as a deadline miss. The late answer is discarded; while the wrapped agent is still busy
+ * with a late call, subsequent calls are not forwarded to it, and also receive the fallback action (and count as
+ * misses). An agent which keeps state about what it has asked the environment to do should implement
+ * {@link LateAgent}: it is then told, on its own thread, about each call for which the fallback action was used.
+ * <p>
+ * The perceptions are read by the agent's thread while the environment goes on, so they must not change after the
+ * call (the blocks world environment gives snapshots).
+ * <p>
+ * The wrapper also measures the CPU time spent by the wrapped agent in its calls.
+ */
+public class DeadlineAgent implements Agent
+{
+	/**
+	 * Agent which is told when its response was not used, so that it can keep its state consistent with what the
+	 * environment did.
+	 */
+	public interface LateAgent extends Agent
+	{
+		/**
+		 * Called on the thread of the agent, after any call in progress has returned: for a call which missed the
+		 * deadline, and for a call which was not forwarded to the agent because it was busy (the agent has not seen
+		 * those perceptions).
+		 * 
+		 * @param input
+		 *            - the perceptions of the call.
+		 * @param used
+		 *            - the action used instead of the response of the agent.
+		 */
+		void responseDropped(Perceptions input, Action used);
+	}
+	
+	/**
+	 * Used to measure CPU time.
+	 */
+	protected static final ThreadMXBean	THREADS		= ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * The wrapped agent.
+	 */
+	protected final Agent				agent;
+	
+	/**
+	 * The action returned when the deadline is missed.
+	 */
+	protected final Action				fallback;
+	
+	/**
+	 * The deadline for each call, in nanoseconds.
+	 */
+	protected final long				deadline;
+	
+	/**
+	 * The thread on which the agent runs.
+	 */
+	protected final ExecutorService		executor;
+	
+	/**
+	 * The call (or notification, see {@link LateAgent}) currently (or last) in progress.
+	 */
+	protected Future<Action>			pending		= null;
+	
+	/**
+	 * The number of calls.
+	 */
+	protected int						nCalls		= 0;
+	
+	/**
+	 * The number of calls for which the fallback action was used.
+	 */
+	protected int						nMisses		= 0;
+	
+	/**
+	 * Total CPU time spent by the agent, in nanoseconds. Written by the agent thread.
+	 */
+	protected volatile long				cpuTime		= 0;
+	
+	/**
+	 * Longest time that a call has taken, in nanoseconds (only calls which met the deadline are measured exactly).
+	 */
+	protected long						maxWallTime	= 0;
+	
+	/**
+	 * @param wrapped
+	 *            - the agent to wrap.
+	 * @param deadlineMillis
+	 *            - the deadline for each call to {@link #response(Perceptions)}, in milliseconds.
+	 * @param fallbackAction
+	 *            - the action to return if the deadline is missed.
+	 */
+	public DeadlineAgent(Agent wrapped, long deadlineMillis, Action fallbackAction)
+	{
+		if(deadlineMillis <= 0)
+			throw new IllegalArgumentException("Deadline must be positive: " + deadlineMillis);
+		agent = wrapped;
+		fallback = fallbackAction;
+		deadline = deadlineMillis * 1000000L;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "agent-" + wrapped);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	@Override
+	public Action response(final Perceptions input)
+	{
+		nCalls++;
+		if(pending != null && !pending.isDone())
+			return miss(input);
+		long start = System.nanoTime();
+		pending = executor.submit(new Callable<Action>() {
+			@Override
+			public Action call()
+			{
+				long cpuStart = threadCpuTime();
+				try
+				{
+					return agent.response(input);
+				} finally
+				{
+					cpuTime += threadCpuTime() - cpuStart;
+				}
+			}
+		});
+		try
+		{
+			Action result = pending.get(deadline, TimeUnit.NANOSECONDS);
+			maxWallTime = Math.max(maxWallTime, System.nanoTime() - start);
+			return result;
+		} catch(TimeoutException e)
+		{
+			maxWallTime = Math.max(maxWallTime, deadline);
+			return miss(input);
+		} catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Agent " + agent + " failed.", e.getCause());
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return miss(input);
+		}
+	}
+	
+	/**
+	 * Counts a deadline miss and, if the agent is a {@link LateAgent}, queues the notification after the call in
+	 * progress.
+	 * 
+	 * @param input
+	 *            - the perceptions of the call.
+	 * @return the fallback action.
+	 */
+	protected Action miss(final Perceptions input)
+	{
+		nMisses++;
+		if(agent instanceof LateAgent)
+			pending = executor.submit(new Callable<Action>() {
+				@Override
+				public Action call()
+				{
+					long cpuStart = threadCpuTime();
+					try
+					{
+						((LateAgent) agent).responseDropped(input, fallback);
+						return fallback;
+					} finally
+					{
+						cpuTime += threadCpuTime() - cpuStart;
+					}
+				}
+			});
+		return fallback;
+	}
+	
+	/**
+	 * @return the CPU time of the current thread, or 0 if it cannot be measured.
+	 */
+	protected static long threadCpuTime()
+	{
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+	
+	/**
+	 * @return the wrapped agent.
+	 */
+	public Agent getAgent()
+	{
+		return agent;
+	}
+	
+	/**
+	 * @return the number of calls to {@link #response(Perceptions)}.
+	 */
+	public int getCalls()
+	{
+		return nCalls;
+	}
+	
+	/**
+	 * @return the number of calls in which the deadline was missed.
+	 */
+	public int getDeadlineMisses()
+	{
+		return nMisses;
+	}
+	
+	/**
+	 * @return the total CPU time spent by the wrapped agent, in nanoseconds.
+	 */
+	public long getCpuTime()
+	{
+		return cpuTime;
+	}
+	
+	/**
+	 * @return a description of the timing of the agent.
+	 */
+	public String timingString()
+	{
+		return agent + ": calls: " + nCalls + "; deadline misses: " + nMisses + "; CPU time: "
+				+ (cpuTime / 1000000L) + " ms; max response time: " + (maxWallTime / 1000000L) + " ms (deadline "
+				+ (deadline / 1000000L) + " ms)";
+	}
+	
+	@Override
+	public String statusString()
+	{
+		return agent.statusString() + (nMisses > 0 ? " [missed " + nMisses + "/" + nCalls + " deadlines]" : "");
+	}
+	
+	@Override
+	public String toString()
+	{
+		return agent.toString();
+	}
+}
@@ -0,0 +1,100 @@
+package tester;
+
+/**
+ * Paces the main loop at a fixed rate: each step is started one period after the previous one was started, regardless
+ * of how long the step itself took (as opposed to sleeping a fixed delay after each step).
+ * <p>
+ * If a step takes longer than the period, the next step starts immediately and the schedule is re-anchored at that
+ * moment (missed ticks are not "caught up" in a burst). Such steps are counted as overruns.
+ */
+public class StepScheduler
+{
+	/**
+	 * The period between the starts of two successive steps, in nanoseconds.
+	 */
+	protected final long	period;
+	
+	/**
+	 * The moment (as given by {@link System#nanoTime()}) when the next step should start.
+	 */
+	protected long			nextTick;
+	
+	/**
+	 * The number of steps for which the scheduler has been waited.
+	 */
+	protected int			nSteps		= 0;
+	
+	/**
+	 * The number of steps which took longer than the period.
+	 */
+	protected int			nOverruns	= 0;
+	
+	/**
+	 * The largest amount by which a step exceeded the period, in nanoseconds.
+	 */
+	protected long			maxOverrun	= 0;
+	
+	/**
+	 * Creates a scheduler. The first tick is the moment of creation.
+	 * 
+	 * @param periodMillis
+	 *            - the period between the starts of two steps, in milliseconds. 0 means steps are run back to back.
+	 */
+	public StepScheduler(long periodMillis)
+	{
+		if(periodMillis < 0)
+			throw new IllegalArgumentException("Period cannot be negative: " + periodMillis);
+		period = periodMillis * 1000000L;
+		nextTick = System.nanoTime();
+	}
+	
+	/**
+	 * Blocks until the start of the next step is due. Must be called once after each step.
+	 */
+	public void awaitNextTick()
+	{
+		nSteps++;
+		nextTick += period;
+		long wait = nextTick - System.nanoTime();
+		if(wait < 0)
+		{
+			if(period > 0)
+			{
+				nOverruns++;
+				maxOverrun = Math.max(maxOverrun, -wait);
+			}
+			nextTick = System.nanoTime();
+			return;
+		}
+		try
+		{
+			Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return the number of completed steps.
+	 */
+	public int getSteps()
+	{
+		return nSteps;
+	}
+	
+	/**
+	 * @return the number of steps which took longer than the period.
+	 */
+	public int getOverruns()
+	{
+		return nOverruns;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "steps: " + nSteps + "; period: " + (period / 1000000L) + " ms; overruns: " + nOverruns
+				+ (nOverruns > 0 ? " (max " + (maxOverrun / 1000000L) + " ms late)" : "");
+	}
+}
@@ -2,6 +2,7 @@ package tester;
 
 import java.util.List;
 
+import base.Action;
 import base.Agent;
 import base.Environment;
 
@@ -48,29 +49,53 @@ public abstract class Tester
 		
 		boolean complete = false;
 		int nSteps = 0;
+		StepScheduler scheduler = new StepScheduler(getDelay());
 		while(!complete)
 		{
 			complete = environment.step();
-			try
-			{
-				Thread.sleep(getDelay());
-			} catch(InterruptedException e)
-			{
-				e.printStackTrace();
-			}
 			System.out.println(environment.toString());
 			nSteps++;
 			System.out.println("\n\n================================================= STEP " + nSteps + " completed.");
+			scheduler.awaitNextTick();
 		}
 		System.out.println("\n\n================================================= ALL AGENTS COMPLETED.");
+		System.out.println(scheduler);
+		for(Agent agent : agents)
+			if(agent instanceof DeadlineAgent)
+				System.out.println(((DeadlineAgent) agent).timingString());
 	}
 	
 	/**
-	 * @return delay between successive steps (to be overridden).
+	 * Wraps an agent so that its responses are subject to the deadline given by {@link #getResponseDeadline()}, if any.
+	 * 
+	 * @param agent
+	 *            - the agent.
+	 * @param fallback
+	 *            - the action to use when the agent misses the deadline.
+	 * @return the agent to add to the environment (the agent itself, if there is no deadline).
+	 */
+	protected Agent withDeadline(Agent agent, Action fallback)
+	{
+		if(getResponseDeadline() <= 0)
+			return agent;
+		return new DeadlineAgent(agent, getResponseDeadline(), fallback);
+	}
+	
+	/**
+	 * @return period between the starts of successive steps, in milliseconds (to be overridden).
 	 */
 	@SuppressWarnings("static-method")
 	protected int getDelay()
 	{
 		return 0;
 	}
+	
+	/**
+	 * @return the deadline for each agent response, in milliseconds, or 0 for no deadline (to be overridden).
+	 */
+	@SuppressWarnings("static-method")
+	protected int getResponseDeadline()
+	{
+		return 0;
+	}
 }